@@ -5,11 +5,14 @@ import be.unamur.snail.core.Context;
 import be.unamur.snail.logging.FilePipelineLogger;
 import be.unamur.snail.logging.PipelineLogger;
 import be.unamur.snail.logging.ProgressBar;
+import be.unamur.snail.modules.AgentInstrumentConstructorModule;
+import be.unamur.snail.modules.AllocationSamplingModule;
 import be.unamur.snail.modules.EnergyMeasurementsModule;
 import be.unamur.snail.modules.MeasurementsImportModule;
 import be.unamur.snail.modules.Module;
 import be.unamur.snail.exceptions.ModuleException;
 import be.unamur.snail.modules.SpoonInstrumentConstructorModule;
+import be.unamur.snail.modules.SpoolReplayModule;
 import be.unamur.snail.utils.Utils;
 
 import java.nio.file.Path;
@@ -40,8 +43,11 @@ public class Main {
         // Select module based on CLI argument
         Module module = switch (moduleArg) {
             case "instrument-constructors" -> new SpoonInstrumentConstructorModule();
+            case "instrument-constructors-agent" -> new AgentInstrumentConstructorModule();
+            case "sample-allocations" -> new AllocationSamplingModule();
             case "measure" -> new EnergyMeasurementsModule();
             case "import-measurements" -> new MeasurementsImportModule();
+            case "replay-spool" -> new SpoolReplayModule();
             default -> throw new IllegalArgumentException("Unsupported module type: " + moduleArg);
         };
 
@@ -61,6 +67,8 @@ public class Main {
         String baseName = switch (moduleArg) {
             case "measure" -> EnergyMeasurementsModule.buildRepoDir(config);
             case "instrument-constructors" -> SpoonInstrumentConstructorModule.buildRepoDir(config);
+            case "instrument-constructors-agent" -> AgentInstrumentConstructorModule.buildRepoDir(config);
+            case "sample-allocations" -> AllocationSamplingModule.buildRepoDir(config);
             case "import-measurements" -> MeasurementsImportModule.buildRepoDir(config);
             default -> config.getProject().getName() + "_" + moduleArg + "_" + config.getRepo().getCommit();
         };
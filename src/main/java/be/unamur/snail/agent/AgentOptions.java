@@ -0,0 +1,63 @@
+package be.unamur.snail.agent;
+
+/**
+ * Options of the constructor instrumentation agent, given after the jar of the agent as
+ * comma separated key=value pairs:
+ * -javaagent:agent.jar=packagePrefix=com.example,commit=sha,project=name,owner=owner
+ * The values cannot contain commas. This code runs in the test JVM of the analyzed project,
+ * so it must stay Java 8 compatible.
+ */
+public final class AgentOptions {
+    private String packagePrefix;
+    private String commit;
+    private String project;
+    private String owner;
+
+    /**
+     * Parses the arguments of the agent. Unknown keys are ignored.
+     * @param arguments the arguments given after "=" in -javaagent, can be null
+     * @return the options, whose packagePrefix defaults to the packagePrefix system property
+     */
+    public static AgentOptions parse(String arguments) {
+        AgentOptions options = new AgentOptions();
+        if (arguments != null) {
+            for (String pair : arguments.split(",")) {
+                int separator = pair.indexOf('=');
+                if (separator <= 0) {
+                    continue;
+                }
+                String key = pair.substring(0, separator).trim();
+                String value = pair.substring(separator + 1).trim();
+                if (key.equals("packagePrefix")) {
+                    options.packagePrefix = value;
+                } else if (key.equals("commit")) {
+                    options.commit = value;
+                } else if (key.equals("project")) {
+                    options.project = value;
+                } else if (key.equals("owner")) {
+                    options.owner = value;
+                }
+            }
+        }
+        if (options.packagePrefix == null || options.packagePrefix.isEmpty()) {
+            options.packagePrefix = System.getProperty("packagePrefix");
+        }
+        return options;
+    }
+
+    public String getPackagePrefix() {
+        return packagePrefix;
+    }
+
+    public String getCommit() {
+        return commit;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+}
@@ -0,0 +1,175 @@
+package be.unamur.snail.agent;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Instruments the constructors of the classes of the analyzed project (those whose name
+ * starts with the package prefix) when they are loaded. The descriptor of each constructor is
+ * registered once, when its class is transformed, and its id is injected as a constant.
+ * Before each return of a constructor, the injected code is equivalent to:
+ * SendConstructorsUtils utils = SendConstructorsUtils.getInstance();
+ * int depth = utils.initConstructorContext(id);
+ * utils.addAttribute(0, this.field0); ...
+ * utils.sendAndExitConstructorContext(depth);
+ * Unlike the source instrumentation, the fields are read once, when the constructor returns,
+ * so a field assigned several times is recorded with its last value, and the contexts of the
+ * constructors called by a constructor are sent before its own. Since the injected code only
+ * uses the operand stack and has no branch, the stack map frames of the class stay valid.
+ * A constructor that never returns normally, a record or a synthetic class is not
+ * instrumented; a class that cannot be transformed is left unchanged.
+ * This code runs in the test JVM of the analyzed project, so it must stay Java 8 compatible.
+ */
+public class ConstructorClassTransformer implements ClassFileTransformer {
+    private static final String SENTINEL_PACKAGE = "be/unamur/snail/";
+    private static final String UTILS = "be/unamur/snail/spoon/constructor_instrumentation/SendConstructorsUtils";
+    private static final String UTILS_DESCRIPTOR = "L" + UTILS + ";";
+
+    private final String packagePrefix;
+    private final String commitSha;
+    private final String projectName;
+    private final String projectOwner;
+    private final Method register;
+
+    /**
+     * @param packagePrefix only the classes of this package and its sub-packages are instrumented
+     * @param register ConstructorDescriptors.register of the runtime called by the instrumented
+     *                 classes, see ConstructorInstrumentationAgent.registerMethod()
+     */
+    public ConstructorClassTransformer(String packagePrefix, String commitSha, String projectName, String projectOwner, Method register) {
+        this.packagePrefix = packagePrefix.replace('.', '/');
+        this.commitSha = commitSha;
+        this.projectName = projectName;
+        this.projectOwner = projectOwner;
+        this.register = register;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (loader == null || className == null || classBeingRedefined != null
+                || !className.startsWith(packagePrefix) || className.startsWith(SENTINEL_PACKAGE)) {
+            return null;
+        }
+        try {
+            return instrument(classfileBuffer);
+        } catch (Throwable e) {
+            System.err.println("[sentinel] Failed to instrument the constructors of " + className + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Instruments the constructors of a class
+     * @param classFile the bytes of the class
+     * @return the instrumented class, or null if it has no constructor to instrument
+     */
+    public byte[] instrument(byte[] classFile) throws Exception {
+        ClassReader reader = new ClassReader(classFile);
+        ConstructorScanner scanner = new ConstructorScanner();
+        reader.accept(scanner, ClassReader.SKIP_FRAMES);
+        if (!scanner.isInstrumentable() || scanner.getConstructors().isEmpty()) {
+            return null;
+        }
+
+        Map<String, InstrumentedConstructor> constructors = new HashMap<String, InstrumentedConstructor>();
+        for (ConstructorScanner.ScannedConstructor constructor : scanner.getConstructors()) {
+            int id = (Integer) register.invoke(null, scanner.getFileName(), scanner.getQualifiedName(), scanner.getSimpleName(),
+                    commitSha, projectName, projectOwner, scanner.getParameterTypes(constructor), constructor.getAttributes());
+            constructors.put(constructor.descriptor, new InstrumentedConstructor(id, constructor));
+        }
+
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new ConstructorInjector(writer, scanner.getClassName(), constructors), 0);
+        return writer.toByteArray();
+    }
+
+    private static final class InstrumentedConstructor {
+        private final int id;
+        private final ConstructorScanner.ScannedConstructor constructor;
+
+        private InstrumentedConstructor(int id, ConstructorScanner.ScannedConstructor constructor) {
+            this.id = id;
+            this.constructor = constructor;
+        }
+    }
+
+    /**
+     * Second pass over the class, injecting the calls to SendConstructorsUtils before each
+     * return of the instrumented constructors
+     */
+    private static final class ConstructorInjector extends ClassVisitor {
+        private final String className;
+        private final Map<String, InstrumentedConstructor> constructors;
+
+        private ConstructorInjector(ClassVisitor next, String className, Map<String, InstrumentedConstructor> constructors) {
+            super(Opcodes.ASM9, next);
+            this.className = className;
+            this.constructors = constructors;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+            final InstrumentedConstructor constructor = "<init>".equals(name) ? constructors.get(descriptor) : null;
+            if (constructor == null) {
+                return next;
+            }
+            return new MethodVisitor(Opcodes.ASM9, next) {
+                @Override
+                public void visitInsn(int opcode) {
+                    if (opcode == Opcodes.RETURN) {
+                        injectSend(this, constructor);
+                    }
+                    super.visitInsn(opcode);
+                }
+            };
+        }
+
+        private void injectSend(MethodVisitor method, InstrumentedConstructor constructor) {
+            // [] -> [utils, depth]
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "getInstance", "()" + UTILS_DESCRIPTOR, false);
+            method.visitInsn(Opcodes.DUP);
+            method.visitLdcInsn(constructor.id);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, UTILS, "initConstructorContext", "(I)I", false);
+            int index = 0;
+            for (Map.Entry<String, String[]> field : constructor.constructor.fields.entrySet()) {
+                // [utils, depth] -> [utils, depth, utils, index, value] -> [utils, depth]
+                method.visitInsn(Opcodes.SWAP);
+                method.visitInsn(Opcodes.DUP_X1);
+                method.visitLdcInsn(index++);
+                method.visitVarInsn(Opcodes.ALOAD, 0);
+                method.visitFieldInsn(Opcodes.GETFIELD, className, field.getKey(), field.getValue()[0]);
+                box(method, Type.getType(field.getValue()[0]));
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, UTILS, "addAttribute", "(ILjava/lang/Object;)V", false);
+            }
+            // [utils, depth] -> []
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, UTILS, "sendAndExitConstructorContext", "(I)V", false);
+        }
+
+        private void box(MethodVisitor method, Type type) {
+            String owner;
+            switch (type.getSort()) {
+                case Type.BOOLEAN: owner = "java/lang/Boolean"; break;
+                case Type.CHAR: owner = "java/lang/Character"; break;
+                case Type.BYTE: owner = "java/lang/Byte"; break;
+                case Type.SHORT: owner = "java/lang/Short"; break;
+                case Type.INT: owner = "java/lang/Integer"; break;
+                case Type.LONG: owner = "java/lang/Long"; break;
+                case Type.FLOAT: owner = "java/lang/Float"; break;
+                case Type.DOUBLE: owner = "java/lang/Double"; break;
+                default: return;
+            }
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "valueOf", "(" + type.getDescriptor() + ")L" + owner + ";", false);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package be.unamur.snail.agent;
+
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorDescriptors;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Java agent instrumenting the constructors of the analyzed project when their classes are
+ * loaded, as an alternative to the source rewriting of ConstructorInstrumentationProcessor,
+ * so that neither the classpath of the project nor a rebuild of its sources is needed.
+ * The transformer and ASM are loaded by a class loader of their own, whose parent is the
+ * bootstrap class loader. ASM is packaged in the ASM_DIRECTORY directory of the agent jar
+ * rather than at its root, so that it is not on the classpath of the tests either: the
+ * version of ASM used by the tests of the analyzed project, if any, does not matter.
+ * The runtime called by the instrumented constructors (SendConstructorsUtils,
+ * ConstructorDescriptors) stays in the system class loader, like the classes of the project;
+ * the transformer registers the descriptors of the constructors through reflection.
+ * This code runs in the test JVM of the analyzed project, so it must stay Java 8 compatible.
+ */
+public final class ConstructorInstrumentationAgent {
+    static final String TRANSFORMER_CLASS = "be.unamur.snail.agent.ConstructorClassTransformer";
+    static final String ASM_DIRECTORY = "sentinel-asm/";
+
+    private ConstructorInstrumentationAgent() {
+    }
+
+    public static void premain(String arguments, Instrumentation instrumentation) throws Exception {
+        AgentOptions options = AgentOptions.parse(arguments);
+        if (options.getPackagePrefix() == null || options.getPackagePrefix().isEmpty()) {
+            System.err.println("[sentinel] No packagePrefix given to the agent, no constructor is instrumented");
+            return;
+        }
+        // The runtime filters the stack traces with the packagePrefix system property
+        if (System.getProperty("packagePrefix") == null) {
+            System.setProperty("packagePrefix", options.getPackagePrefix());
+        }
+        URL agentJar = ConstructorInstrumentationAgent.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader transformerLoader = new URLClassLoader(transformerClassPath(agentJar), null);
+        ClassFileTransformer transformer = (ClassFileTransformer) Class.forName(TRANSFORMER_CLASS, true, transformerLoader)
+                .getConstructor(String.class, String.class, String.class, String.class, Method.class)
+                .newInstance(options.getPackagePrefix(), options.getCommit(), options.getProject(), options.getOwner(), registerMethod());
+        instrumentation.addTransformer(transformer);
+    }
+
+    /**
+     * Returns the classpath of the class loader of the transformer: the agent jar, for the
+     * transformer, and its ASM_DIRECTORY directory, for ASM
+     * @param agentLocation the agent jar, or the directory of its classes
+     */
+    static URL[] transformerClassPath(URL agentLocation) throws MalformedURLException, URISyntaxException {
+        URI location = agentLocation.toURI();
+        URI asm = agentLocation.getPath().endsWith("/")
+                ? location.resolve(ASM_DIRECTORY)
+                : new URI("jar:" + location + "!/" + ASM_DIRECTORY);
+        return new URL[]{agentLocation, asm.toURL()};
+    }
+
+    /**
+     * Returns ConstructorDescriptors.register(fileName, className, methodName, commitSha,
+     * repositoryName, repositoryOwner, parameterTypes, attributes)
+     */
+    static Method registerMethod() throws NoSuchMethodException {
+        return ConstructorDescriptors.class.getMethod("register", String.class, String.class, String.class,
+                String.class, String.class, String.class, String[].class, String[].class);
+    }
+}
@@ -0,0 +1,266 @@
+package be.unamur.snail.agent;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * First pass of ConstructorClassTransformer over a class: collects the metadata of its
+ * constructors, as ConstructorInstrumentationProcessor does from the sources. For each
+ * constructor, the fields of the class it assigns are recorded with the kind of the right
+ * hand side of their last assignment, guessed from the instruction computing the value
+ * ("constructor call", "constructor parameter", "variable reference", "literal",
+ * "invocation" or "other"). The synthetic parameters added by the compiler (name and
+ * ordinal of the enum constants, enclosing instance of the inner classes) are left out of
+ * the parameter types.
+ * This code runs in the test JVM of the analyzed project, so it must stay Java 8 compatible.
+ */
+class ConstructorScanner extends ClassVisitor {
+    private static final Set<String> BOXING_OWNERS = new HashSet<String>(Arrays.asList(
+            "java/lang/Boolean", "java/lang/Character", "java/lang/Byte", "java/lang/Short",
+            "java/lang/Integer", "java/lang/Long", "java/lang/Float", "java/lang/Double"));
+
+    private String className;
+    private String sourceFile;
+    private boolean instrumentable;
+    private boolean isEnum;
+    private String enclosingClass;
+    private final Set<String> syntheticFields = new HashSet<String>();
+    private final List<ScannedConstructor> constructors = new ArrayList<ScannedConstructor>();
+
+    ConstructorScanner() {
+        super(Opcodes.ASM9);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        className = name;
+        isEnum = (access & Opcodes.ACC_ENUM) != 0;
+        instrumentable = (access & (Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_MODULE)) == 0
+                && !"java/lang/Record".equals(superName);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        sourceFile = source;
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        if (name.equals(className) && outerName != null && (access & Opcodes.ACC_STATIC) == 0) {
+            enclosingClass = outerName;
+        }
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        if ((access & Opcodes.ACC_SYNTHETIC) != 0) {
+            syntheticFields.add(name);
+        }
+        return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        if (!instrumentable || !"<init>".equals(name) || (access & Opcodes.ACC_SYNTHETIC) != 0) {
+            return null;
+        }
+        ScannedConstructor constructor = new ScannedConstructor(descriptor);
+        constructors.add(constructor);
+        return new ConstructorBodyVisitor(constructor);
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    boolean isInstrumentable() {
+        return instrumentable;
+    }
+
+    /**
+     * @return the path of the source file of the class within its source root, as
+     * "com/example/Foo.java", or "Unknown File" if the class has no SourceFile attribute
+     */
+    String getFileName() {
+        if (sourceFile == null) {
+            return "Unknown File";
+        }
+        int packageEnd = className.lastIndexOf('/');
+        return packageEnd < 0 ? sourceFile : className.substring(0, packageEnd + 1) + sourceFile;
+    }
+
+    /**
+     * @return the qualified name of the class, with "$" before the name of nested classes
+     */
+    String getQualifiedName() {
+        return className.replace('/', '.');
+    }
+
+    String getSimpleName() {
+        String name = className.substring(className.lastIndexOf('/') + 1);
+        return name.substring(name.lastIndexOf('$') + 1);
+    }
+
+    /**
+     * @return the constructors that return normally at least once, the others only throw
+     */
+    List<ScannedConstructor> getConstructors() {
+        List<ScannedConstructor> returning = new ArrayList<ScannedConstructor>();
+        for (ScannedConstructor constructor : constructors) {
+            if (constructor.returns) {
+                returning.add(constructor);
+            }
+        }
+        return returning;
+    }
+
+    /**
+     * @return the qualified names of the declared parameter types of a constructor
+     */
+    String[] getParameterTypes(ScannedConstructor constructor) {
+        Type[] arguments = Type.getArgumentTypes(constructor.descriptor);
+        int first = 0;
+        if (isEnum && arguments.length >= 2 && arguments[0].getSort() == Type.OBJECT && arguments[1] == Type.INT_TYPE) {
+            first = 2;
+        } else if (enclosingClass != null && arguments.length >= 1 && arguments[0].getInternalName().equals(enclosingClass)) {
+            first = 1;
+        }
+        String[] parameters = new String[arguments.length - first];
+        for (int i = first; i < arguments.length; i++) {
+            parameters[i - first] = arguments[i].getClassName();
+        }
+        return parameters;
+    }
+
+    /**
+     * Metadata of a constructor: its JVM descriptor and the fields it assigns
+     */
+    static final class ScannedConstructor {
+        final String descriptor;
+        // Name of each assigned field, mapped to its JVM type descriptor and right hand side kind
+        final Map<String, String[]> fields = new LinkedHashMap<String, String[]>();
+        boolean returns;
+
+        ScannedConstructor(String descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * @return name, type and right hand side kind of each assigned field, one after the other
+         */
+        String[] getAttributes() {
+            String[] attributes = new String[fields.size() * 3];
+            int i = 0;
+            for (Map.Entry<String, String[]> field : fields.entrySet()) {
+                attributes[i++] = field.getKey();
+                attributes[i++] = Type.getType(field.getValue()[0]).getClassName();
+                attributes[i++] = field.getValue()[1];
+            }
+            return attributes;
+        }
+    }
+
+    /**
+     * Follows the kind of the last value pushed on the stack, to find the right hand side
+     * kind of each field assignment of a constructor
+     */
+    private final class ConstructorBodyVisitor extends MethodVisitor {
+        private final ScannedConstructor constructor;
+        private final int parameterSlots;
+        private String lastKind = "other";
+
+        private ConstructorBodyVisitor(ScannedConstructor constructor) {
+            super(Opcodes.ASM9);
+            this.constructor = constructor;
+            this.parameterSlots = Type.getArgumentsAndReturnSizes(constructor.descriptor) >> 2;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode == Opcodes.RETURN) {
+                constructor.returns = true;
+            }
+            lastKind = opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.DCONST_1 ? "literal" : "other";
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            lastKind = opcode == Opcodes.NEWARRAY ? "other" : "literal";
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            lastKind = "literal";
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int varIndex) {
+            if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) {
+                // Slot 0 is this, the parameters follow it
+                lastKind = varIndex > 0 && varIndex < parameterSlots ? "constructor parameter" : "variable reference";
+            } else {
+                lastKind = "other";
+            }
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            // A cast keeps the kind of the value it casts
+            if (opcode != Opcodes.CHECKCAST) {
+                lastKind = "other";
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            if (opcode == Opcodes.PUTFIELD && owner.equals(className) && !syntheticFields.contains(name)) {
+                constructor.fields.remove(name);
+                constructor.fields.put(name, new String[]{descriptor, lastKind});
+            }
+            lastKind = opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC ? "variable reference" : "other";
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (opcode == Opcodes.INVOKESPECIAL && "<init>".equals(name)) {
+                lastKind = "constructor call";
+            } else if (!(opcode == Opcodes.INVOKESTATIC && "valueOf".equals(name) && BOXING_OWNERS.contains(owner))) {
+                // Autoboxing keeps the kind of the boxed value
+                lastKind = "invocation";
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            lastKind = "other";
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            lastKind = "other";
+        }
+
+        @Override
+        public void visitIincInsn(int varIndex, int increment) {
+            lastKind = "other";
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            lastKind = "other";
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Config class represents the configuration of the application, which is loaded from a YAML file. It contains nested static classes to represent different sections of the configuration, such as project details, repository information, logging settings, execution plan, and backend configuration. The Config class follows the singleton pattern to ensure that the configuration is loaded only once and can be accessed globally throughout the application.
@@ -49,6 +50,10 @@ public class Config {
      * Configuration of the backend, which includes details about the mode of operation (local or remote), server timeout, server path, SSH user and host for remote mode, number of checks for server start, server log path, server port and host, server ready path, and endpoint for communication with the backend.
      */
     private BackendConfig backend;
+    /**
+     * Configuration of the instrumentation code executed in the test JVMs of the instrumented project, such as the way constructor contexts are dispatched to the backend. This section is optional, default values are used by the instrumentation code when it is missing.
+     */
+    private InstrumentationConfig instrumentation;
 
     /**
      * Returns the singleton instance of the configuration. If the configuration has not been loaded yet, it throws a ConfigNotLoadedException.
@@ -163,6 +168,17 @@ public class Config {
         this.backend = backend;
     }
 
+    /**
+     * Returns the configuration of the instrumentation code executed in the test JVMs of the instrumented project, or null if the section is missing.
+     */
+    public InstrumentationConfig getInstrumentation() {
+        return instrumentation;
+    }
+
+    public void setInstrumentationForTests(InstrumentationConfig instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
 
     /**
      * ProjectConfig class represents the configuration related to the project being analyzed. It is a nested static class within the Config class and is used to encapsulate all project-related configuration details.
@@ -238,6 +254,10 @@ public class Config {
         public String getPackagePrefix() {
             return packagePrefix;
         }
+
+        public void setPackagePrefixForTests(String packagePrefix) {
+            this.packagePrefix = packagePrefix;
+        }
     }
 
 
@@ -433,6 +453,21 @@ public class Config {
          */
         @JsonProperty("energy-measurements")
         private EnergyMeasurementConfig energyMeasurements;
+        /**
+         * Directory of the cache of the files instrumented by Spoon, shared by the runs on the commits of a project. When it is set, only the files that changed since a cached run, and the files referencing their types, are instrumented again. Unset by default, every file is instrumented at each run.
+         */
+        @JsonProperty("instrumentation-cache-dir")
+        private String instrumentationCacheDir;
+        /**
+         * Number of Spoon launchers instrumenting the project concurrently, each on a partition of its source files grouped by package. 1 or less, the default, instruments all the files with a single launcher.
+         */
+        @JsonProperty("spoon-parallelism")
+        private int spoonParallelism;
+        /**
+         * Boolean indicating whether to print the instrumented files with the sniper printer of Spoon, which keeps the original text of the code left unchanged by the instrumentation. If false, the instrumented files are entirely reformatted by the default printer. True by default.
+         */
+        @JsonProperty("spoon-sniper-printing")
+        private Boolean spoonSniperPrinting;
 
         /**
          * Returns the command to execute the test suite of the project being analyzed.
@@ -485,6 +520,42 @@ public class Config {
         public void setNumTestRunsForTests(int numTestRuns) {
             this.numTestRuns = numTestRuns;
         }
+
+        /**
+         * Returns the directory of the cache of the instrumented files, or null if the files are instrumented at each run.
+         * @return the directory of the instrumentation cache
+         */
+        public String getInstrumentationCacheDir() {
+            return instrumentationCacheDir;
+        }
+
+        public void setInstrumentationCacheDirForTests(String instrumentationCacheDir) {
+            this.instrumentationCacheDir = instrumentationCacheDir;
+        }
+
+        /**
+         * Returns the number of Spoon launchers instrumenting the project concurrently, 1 or less for a single launcher.
+         * @return the parallelism of the instrumentation
+         */
+        public int getSpoonParallelism() {
+            return spoonParallelism;
+        }
+
+        public void setSpoonParallelismForTests(int spoonParallelism) {
+            this.spoonParallelism = spoonParallelism;
+        }
+
+        /**
+         * Returns false if the instrumented files are printed by the default printer of Spoon rather than by its sniper printer, null if not set.
+         * @return whether the instrumented files are printed with the sniper printer
+         */
+        public Boolean getSpoonSniperPrinting() {
+            return spoonSniperPrinting;
+        }
+
+        public void setSpoonSniperPrintingForTests(Boolean spoonSniperPrinting) {
+            this.spoonSniperPrinting = spoonSniperPrinting;
+        }
     }
 
     /**
@@ -824,4 +895,700 @@ public class Config {
             return endpoint;
         }
     }
+
+    /**
+     * InstrumentationConfig class represents the configuration of the instrumentation code that runs inside the test JVMs of the instrumented project. Each property is passed to the tests as a system property by the RunInstrumentedProjectTestsStage, and only when it is set, so that the defaults of the instrumentation code are used otherwise.
+     */
+    public static class InstrumentationConfig {
+        /**
+         * Either "sync" or "async". In sync mode, the batches of constructor contexts are sent to the backend by the test threads themselves. In async mode, the test threads only put the contexts in a queue, and a background thread sends the batches.
+         */
+        @JsonProperty("dispatcher-mode")
+        private String dispatcherMode;
+        /**
+         * Maximum number of constructor contexts waiting in the queue of the async dispatcher.
+         */
+        @JsonProperty("queue-size")
+        private Integer queueSize;
+        /**
+         * Either "block" or "drop", representing what the async dispatcher does when its queue is full: the test thread waits for room in the queue, or the context is dropped.
+         */
+        @JsonProperty("queue-full-policy")
+        private String queueFullPolicy;
+        /**
+         * Maximum time in milliseconds given to the async dispatcher to send the remaining contexts when the test JVM shuts down.
+         */
+        @JsonProperty("shutdown-timeout-ms")
+        private Long shutdownTimeoutMs;
+        /**
+         * Number of constructor contexts each test thread keeps in its own buffer before handing them off to the dispatcher at once. 0 disables the buffers, and each context is given to the dispatcher directly.
+         */
+        @JsonProperty("thread-buffer-size")
+        private Integer threadBufferSize;
+        /**
+         * Whether the dispatcher prints its statistics (lock acquisitions, contention, dropped contexts, ...) on the standard error when the test JVM shuts down.
+         */
+        @JsonProperty("print-statistics")
+        private Boolean printStatistics;
+        /**
+         * Maximum number of unique constructor events whose occurrences are counted during the life of a test JVM. Each unique event is only sent once, and its next occurrences are sent as counts. Once this number is reached, the new events are only remembered in a Bloom filter: they are still sent once, but their occurrences are not counted anymore.
+         */
+        @JsonProperty("dedup-max-tracked-keys")
+        private Integer dedupMaxTrackedKeys;
+        /**
+         * Number of events the Bloom filter used once dedup-max-tracked-keys is reached is sized for, with a false positive probability of 1%.
+         */
+        @JsonProperty("dedup-bloom-expected-keys")
+        private Integer dedupBloomExpectedKeys;
+        /**
+         * Whether the unique constructor events are also deduplicated across the test JVMs forked by Maven or Gradle, through a table of event keys in a memory-mapped file of the build directory of the analyzed project. An event sent by a fork is then only counted by the others. Needs Java 9 or later in the test JVMs.
+         */
+        @JsonProperty("shared-dedup-enabled")
+        private Boolean sharedDedupEnabled;
+        /**
+         * Number of events the shared deduplication table is sized for. The table takes 16 bytes per expected event. Defaults to 1000000.
+         */
+        @JsonProperty("shared-dedup-expected-keys")
+        private Integer sharedDedupExpectedKeys;
+        /**
+         * Maximum number of frames of the analyzed project kept in the stack trace of each constructor call. The stack walk stops as soon as this number is reached. By default, every frame of the project is kept.
+         */
+        @JsonProperty("stacktrace-max-frames")
+        private Integer stacktraceMaxFrames;
+        /**
+         * Whether only the instrumented constructor and its immediate caller in the analyzed project are kept in the stack trace. It takes precedence over stacktrace-max-frames.
+         */
+        @JsonProperty("stacktrace-caller-only")
+        private Boolean stacktraceCallerOnly;
+        /**
+         * Whether the batches are sent with their stack traces replaced by ids of a frame and stack trace dictionary, whose new entries are sent along with each batch. The backend must support the /batch/interned endpoint.
+         */
+        @JsonProperty("intern-stack-traces")
+        private Boolean internStackTraces;
+        /**
+         * Either "json" or "binary". With "binary", the batches are posted to the /batch endpoint in the compact binary format of BinaryBatchFormat, with the application/x-sentinel-batch content type, instead of JSON. It takes precedence over intern-stack-traces. Defaults to json.
+         */
+        @JsonProperty("wire-format")
+        private String wireFormat;
+        /**
+         * Only one constructor call out of this number is captured, chosen at random. The calls that are not captured skip the stack trace altogether. By default, every call is captured.
+         */
+        @JsonProperty("sample-rate")
+        private Integer sampleRate;
+        /**
+         * Maximum number of distinct stack traces captured for each constructor. Once it is reached, the next calls of the constructor are only counted. By default, there is no limit.
+         */
+        @JsonProperty("max-traces-per-constructor")
+        private Integer maxTracesPerConstructor;
+        /**
+         * Maximum number of constructor calls captured per second in each test JVM, the others are only counted. By default, there is no limit.
+         */
+        @JsonProperty("max-events-per-second")
+        private Integer maxEventsPerSecond;
+        /**
+         * Either "http" or "spool". With "http", the constructor contexts are sent to the backend during the tests. With "spool", they are appended to a memory-mapped spool file per test JVM, and the ReplaySpoolFilesStage sends them to the backend once the tests are over.
+         */
+        @JsonProperty("sender")
+        private String sender;
+        /**
+         * Directory of the spool files, relative to the analyzed project unless it is absolute. Defaults to sentinel-spool.
+         */
+        @JsonProperty("spool-dir")
+        private String spoolDir;
+        /**
+         * Number of constructor contexts sent in each batch when the spool files are replayed into the backend. Defaults to 5000.
+         */
+        @JsonProperty("replay-batch-size")
+        private Integer replayBatchSize;
+        /**
+         * Whether the request bodies are gzip-compressed, with a "Content-Encoding: gzip" header. The backend must decompress the requests having this header.
+         */
+        @JsonProperty("http-gzip")
+        private Boolean httpGzip;
+        /**
+         * Maximum number of batches posted to the backend at the same time, each one on its own kept-alive connection. Defaults to 1, i.e. the batches are posted one after the other.
+         */
+        @JsonProperty("http-max-in-flight")
+        private Integer httpMaxInFlight;
+        /**
+         * Number of retries of a request failing with an I/O error or a transient status (429, 502, 503, 504). Defaults to 3.
+         */
+        @JsonProperty("http-max-retries")
+        private Integer httpMaxRetries;
+        /**
+         * Time (in milliseconds) waited before the first retry of a request, doubled before each next retry. Defaults to 200.
+         */
+        @JsonProperty("http-retry-backoff-ms")
+        private Long httpRetryBackoffMs;
+        /**
+         * Whether the instrumented threads write their constructor events as records of off-heap direct buffers instead of creating objects on the heap of the tests. Only the events never seen before are turned into objects, by the dispatcher.
+         */
+        @JsonProperty("arena-enabled")
+        private Boolean arenaEnabled;
+        /**
+         * Size in bytes of each segment of the off-heap arena. Each instrumented thread writes into its own segment, handed off to the dispatcher when full. Defaults to 1 MB.
+         */
+        @JsonProperty("arena-segment-size")
+        private Integer arenaSegmentSize;
+        /**
+         * Maximum size in bytes of all the segments of the off-heap arena. Once it is reached, the threads wait for a free segment, or drop their events with the "drop" queue full policy. Defaults to 64 MB.
+         */
+        @JsonProperty("arena-max-size")
+        private Long arenaMaxSize;
+        /**
+         * Default capture level of the constructor calls: "full" (attributes and stack trace, default), "caller" (the constructor and its immediate caller only, without attributes) or "count" (the calls are only counted).
+         */
+        @JsonProperty("capture-level")
+        private String captureLevel;
+        /**
+         * Capture levels overriding capture-level for the constructors of the classes starting with a package prefix, the longest matching prefix winning.
+         */
+        @JsonProperty("package-capture-levels")
+        private Map<String, String> packageCaptureLevels;
+        /**
+         * Directory where each test JVM exports the number of calls of each constructor when some constructors are not fully captured, relative to the analyzed project unless absolute. Defaults to "sentinel-counts".
+         */
+        @JsonProperty("capture-counts-dir")
+        private String captureCountsDir;
+        /**
+         * Whether each test JVM measures what the instrumentation costs (time spent per constructor call, batch send times, failures) and writes it at shutdown as a JSON file in metrics-dir, merged into the pipeline log once the tests are over. Defaults to false.
+         */
+        @JsonProperty("metrics-enabled")
+        private Boolean metricsEnabled;
+        /**
+         * Directory of the runtime metrics files, relative to the analyzed project unless absolute. Defaults to "sentinel-metrics".
+         */
+        @JsonProperty("metrics-dir")
+        private String metricsDir;
+        /**
+         * Path of the instrumentation runtime jar built by this project (target/sentinel-experiments-1.0-SNAPSHOT-instrumentation-runtime.jar). When it is set, the jar is added to the dependencies of the analyzed project instead of copying the sources of the runtime into it.
+         */
+        @JsonProperty("runtime-jar")
+        private String runtimeJar;
+        /**
+         * Path of the constructor instrumentation agent built by this project (target/sentinel-experiments-1.0-SNAPSHOT-instrumentation-agent.jar), attached to the test JVMs by the instrument-constructors-agent module.
+         */
+        @JsonProperty("agent-jar")
+        private String agentJar;
+        /**
+         * Directory of the flight recordings written by the test JVMs in the allocation-sampling module, relative to the analyzed project unless absolute. Defaults to "sentinel-jfr".
+         */
+        @JsonProperty("allocation-recordings-dir")
+        private String allocationRecordingsDir;
+        /**
+         * Maximum rate of the jdk.ObjectAllocationSample events of each test JVM, as a JFR throttle (e.g. "150/s", "20/ms"). Defaults to "150/s", the rate of the profile settings of the JDK.
+         */
+        @JsonProperty("allocation-sampling-rate")
+        private String allocationSamplingRate;
+        /**
+         * Whether the allocation-sampling module sends the sampled allocations of the project classes to the backend as constructor contexts. Defaults to false, the allocations are only reported in the pipeline log.
+         */
+        @JsonProperty("allocation-export-enabled")
+        private Boolean allocationExportEnabled;
+        /**
+         * Whether the Spoon instrumentation module first runs the test suite of the analyzed project with JaCoCo, to only instrument the constructors executed by the tests. Defaults to false, every constructor is instrumented.
+         */
+        @JsonProperty("coverage-enabled")
+        private Boolean coverageEnabled;
+        /**
+         * Path of an existing JaCoCo execution data file (jacoco.exec) of the analyzed project, relative to it unless absolute. When it is set with coverage-enabled, it is used instead of running the test suite with JaCoCo.
+         */
+        @JsonProperty("coverage-exec-file")
+        private String coverageExecFile;
+        /**
+         * Patterns of the qualified names of the classes whose constructors are instrumented, with '*' for any characters and '?' for one (e.g. "com.example.*"). Defaults to every class.
+         */
+        @JsonProperty("include-patterns")
+        private List<String> includePatterns;
+        /**
+         * Patterns of the qualified names of the classes whose constructors are not instrumented, even if they match the include patterns (e.g. "*Test", "com.example.generated.*").
+         */
+        @JsonProperty("exclude-patterns")
+        private List<String> excludePatterns;
+
+        /**
+         * Returns the dispatcher mode, either "sync" or "async".
+         * @return the dispatcher mode
+         */
+        public String getDispatcherMode() {
+            return dispatcherMode;
+        }
+
+        public void setDispatcherModeForTests(String dispatcherMode) {
+            this.dispatcherMode = dispatcherMode;
+        }
+
+        /**
+         * Returns the maximum number of constructor contexts waiting in the queue of the async dispatcher.
+         * @return the size of the queue
+         */
+        public Integer getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSizeForTests(Integer queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        /**
+         * Returns what the async dispatcher does when its queue is full, either "block" or "drop".
+         * @return the queue full policy
+         */
+        public String getQueueFullPolicy() {
+            return queueFullPolicy;
+        }
+
+        public void setQueueFullPolicyForTests(String queueFullPolicy) {
+            this.queueFullPolicy = queueFullPolicy;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds given to the async dispatcher to send the remaining contexts when the test JVM shuts down.
+         * @return the shutdown timeout in milliseconds
+         */
+        public Long getShutdownTimeoutMs() {
+            return shutdownTimeoutMs;
+        }
+
+        public void setShutdownTimeoutMsForTests(Long shutdownTimeoutMs) {
+            this.shutdownTimeoutMs = shutdownTimeoutMs;
+        }
+
+        /**
+         * Returns the number of constructor contexts each test thread keeps in its own buffer, 0 if the buffers are disabled.
+         * @return the size of the buffer of each thread
+         */
+        public Integer getThreadBufferSize() {
+            return threadBufferSize;
+        }
+
+        public void setThreadBufferSizeForTests(Integer threadBufferSize) {
+            this.threadBufferSize = threadBufferSize;
+        }
+
+        /**
+         * Returns whether the dispatcher prints its statistics when the test JVM shuts down.
+         * @return true if the statistics are printed
+         */
+        public Boolean getPrintStatistics() {
+            return printStatistics;
+        }
+
+        public void setPrintStatisticsForTests(Boolean printStatistics) {
+            this.printStatistics = printStatistics;
+        }
+
+        /**
+         * Returns the maximum number of unique constructor events whose occurrences are counted in a test JVM.
+         * @return the maximum number of tracked events
+         */
+        public Integer getDedupMaxTrackedKeys() {
+            return dedupMaxTrackedKeys;
+        }
+
+        public void setDedupMaxTrackedKeysForTests(Integer dedupMaxTrackedKeys) {
+            this.dedupMaxTrackedKeys = dedupMaxTrackedKeys;
+        }
+
+        /**
+         * Returns the number of events the Bloom filter used after the tracked events bound is sized for.
+         * @return the expected number of events in the Bloom filter
+         */
+        public Integer getDedupBloomExpectedKeys() {
+            return dedupBloomExpectedKeys;
+        }
+
+        public void setDedupBloomExpectedKeysForTests(Integer dedupBloomExpectedKeys) {
+            this.dedupBloomExpectedKeys = dedupBloomExpectedKeys;
+        }
+
+        /**
+         * Returns whether the events are deduplicated across the test JVMs.
+         * @return true if the shared deduplication is enabled
+         */
+        public Boolean getSharedDedupEnabled() {
+            return sharedDedupEnabled;
+        }
+
+        public void setSharedDedupEnabledForTests(Boolean sharedDedupEnabled) {
+            this.sharedDedupEnabled = sharedDedupEnabled;
+        }
+
+        /**
+         * Returns the number of events the shared deduplication table is sized for.
+         * @return the expected number of events in the shared table
+         */
+        public Integer getSharedDedupExpectedKeys() {
+            return sharedDedupExpectedKeys;
+        }
+
+        public void setSharedDedupExpectedKeysForTests(Integer sharedDedupExpectedKeys) {
+            this.sharedDedupExpectedKeys = sharedDedupExpectedKeys;
+        }
+
+        /**
+         * Returns the maximum number of frames of the analyzed project kept in each stack trace.
+         * @return the maximum number of frames
+         */
+        public Integer getStacktraceMaxFrames() {
+            return stacktraceMaxFrames;
+        }
+
+        public void setStacktraceMaxFramesForTests(Integer stacktraceMaxFrames) {
+            this.stacktraceMaxFrames = stacktraceMaxFrames;
+        }
+
+        /**
+         * Returns whether only the constructor and its immediate caller are kept in each stack trace.
+         * @return true if only the caller is kept
+         */
+        public Boolean getStacktraceCallerOnly() {
+            return stacktraceCallerOnly;
+        }
+
+        public void setStacktraceCallerOnlyForTests(Boolean stacktraceCallerOnly) {
+            this.stacktraceCallerOnly = stacktraceCallerOnly;
+        }
+
+        /**
+         * Returns whether the stack traces are sent as ids of a dictionary.
+         * @return true if the stack traces are interned
+         */
+        public Boolean getInternStackTraces() {
+            return internStackTraces;
+        }
+
+        public void setInternStackTracesForTests(Boolean internStackTraces) {
+            this.internStackTraces = internStackTraces;
+        }
+
+        /**
+         * Returns the format of the batches, either "json" or "binary".
+         * @return the wire format
+         */
+        public String getWireFormat() {
+            return wireFormat;
+        }
+
+        public void setWireFormatForTests(String wireFormat) {
+            this.wireFormat = wireFormat;
+        }
+
+        /**
+         * Returns the sampling rate of the constructor calls (1 in N).
+         * @return the sampling rate
+         */
+        public Integer getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRateForTests(Integer sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * Returns the maximum number of distinct stack traces captured per constructor.
+         * @return the budget of each constructor
+         */
+        public Integer getMaxTracesPerConstructor() {
+            return maxTracesPerConstructor;
+        }
+
+        public void setMaxTracesPerConstructorForTests(Integer maxTracesPerConstructor) {
+            this.maxTracesPerConstructor = maxTracesPerConstructor;
+        }
+
+        /**
+         * Returns the maximum number of constructor calls captured per second.
+         * @return the global cap
+         */
+        public Integer getMaxEventsPerSecond() {
+            return maxEventsPerSecond;
+        }
+
+        public void setMaxEventsPerSecondForTests(Integer maxEventsPerSecond) {
+            this.maxEventsPerSecond = maxEventsPerSecond;
+        }
+
+        /**
+         * Returns the sender used by the instrumentation, either "http" or "spool".
+         * @return the sender
+         */
+        public String getSender() {
+            return sender;
+        }
+
+        public void setSenderForTests(String sender) {
+            this.sender = sender;
+        }
+
+        /**
+         * Returns the directory of the spool files.
+         * @return the spool directory
+         */
+        public String getSpoolDir() {
+            return spoolDir;
+        }
+
+        public void setSpoolDirForTests(String spoolDir) {
+            this.spoolDir = spoolDir;
+        }
+
+        /**
+         * Returns the size of the batches sent when the spool files are replayed.
+         * @return the replay batch size
+         */
+        public Integer getReplayBatchSize() {
+            return replayBatchSize;
+        }
+
+        public void setReplayBatchSizeForTests(Integer replayBatchSize) {
+            this.replayBatchSize = replayBatchSize;
+        }
+
+        /**
+         * Returns whether the request bodies are gzip-compressed.
+         * @return true if the requests are compressed
+         */
+        public Boolean getHttpGzip() {
+            return httpGzip;
+        }
+
+        public void setHttpGzipForTests(Boolean httpGzip) {
+            this.httpGzip = httpGzip;
+        }
+
+        /**
+         * Returns the maximum number of batches posted at the same time.
+         * @return the number of requests in flight
+         */
+        public Integer getHttpMaxInFlight() {
+            return httpMaxInFlight;
+        }
+
+        public void setHttpMaxInFlightForTests(Integer httpMaxInFlight) {
+            this.httpMaxInFlight = httpMaxInFlight;
+        }
+
+        /**
+         * Returns the number of retries of a failed request.
+         * @return the number of retries
+         */
+        public Integer getHttpMaxRetries() {
+            return httpMaxRetries;
+        }
+
+        public void setHttpMaxRetriesForTests(Integer httpMaxRetries) {
+            this.httpMaxRetries = httpMaxRetries;
+        }
+
+        /**
+         * Returns the time waited before the first retry of a request.
+         * @return the backoff in milliseconds
+         */
+        public Long getHttpRetryBackoffMs() {
+            return httpRetryBackoffMs;
+        }
+
+        public void setHttpRetryBackoffMsForTests(Long httpRetryBackoffMs) {
+            this.httpRetryBackoffMs = httpRetryBackoffMs;
+        }
+
+        /**
+         * Returns whether the constructor events are written in the off-heap arena.
+         * @return true if the arena is enabled
+         */
+        public Boolean getArenaEnabled() {
+            return arenaEnabled;
+        }
+
+        public void setArenaEnabledForTests(Boolean arenaEnabled) {
+            this.arenaEnabled = arenaEnabled;
+        }
+
+        /**
+         * Returns the size in bytes of each segment of the arena.
+         * @return the segment size
+         */
+        public Integer getArenaSegmentSize() {
+            return arenaSegmentSize;
+        }
+
+        public void setArenaSegmentSizeForTests(Integer arenaSegmentSize) {
+            this.arenaSegmentSize = arenaSegmentSize;
+        }
+
+        /**
+         * Returns the maximum size in bytes of the arena.
+         * @return the maximum size
+         */
+        public Long getArenaMaxSize() {
+            return arenaMaxSize;
+        }
+
+        public void setArenaMaxSizeForTests(Long arenaMaxSize) {
+            this.arenaMaxSize = arenaMaxSize;
+        }
+
+        /**
+         * Returns the default capture level of the constructor calls.
+         * @return the capture level
+         */
+        public String getCaptureLevel() {
+            return captureLevel;
+        }
+
+        public void setCaptureLevelForTests(String captureLevel) {
+            this.captureLevel = captureLevel;
+        }
+
+        /**
+         * Returns the capture levels of the package prefixes.
+         * @return the capture level of each package prefix
+         */
+        public Map<String, String> getPackageCaptureLevels() {
+            return packageCaptureLevels;
+        }
+
+        public void setPackageCaptureLevelsForTests(Map<String, String> packageCaptureLevels) {
+            this.packageCaptureLevels = packageCaptureLevels;
+        }
+
+        /**
+         * Returns the directory of the exported constructor call counts.
+         * @return the counts directory
+         */
+        public String getCaptureCountsDir() {
+            return captureCountsDir;
+        }
+
+        public void setCaptureCountsDirForTests(String captureCountsDir) {
+            this.captureCountsDir = captureCountsDir;
+        }
+
+        /**
+         * Returns whether the test JVMs write their runtime metrics.
+         * @return true if the runtime metrics are enabled
+         */
+        public Boolean getMetricsEnabled() {
+            return metricsEnabled;
+        }
+
+        public void setMetricsEnabledForTests(Boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+        }
+
+        /**
+         * Returns the directory of the runtime metrics files.
+         * @return the metrics directory
+         */
+        public String getMetricsDir() {
+            return metricsDir;
+        }
+
+        public void setMetricsDirForTests(String metricsDir) {
+            this.metricsDir = metricsDir;
+        }
+
+        /**
+         * Returns the path of the prebuilt instrumentation runtime jar.
+         * @return the runtime jar, or null if the sources of the runtime are copied
+         */
+        public String getRuntimeJar() {
+            return runtimeJar;
+        }
+
+        public void setRuntimeJarForTests(String runtimeJar) {
+            this.runtimeJar = runtimeJar;
+        }
+
+        /**
+         * Returns the path of the constructor instrumentation agent.
+         * @return the agent jar
+         */
+        public String getAgentJar() {
+            return agentJar;
+        }
+
+        public void setAgentJarForTests(String agentJar) {
+            this.agentJar = agentJar;
+        }
+
+        /**
+         * Returns the directory of the flight recordings of the allocation-sampling module.
+         */
+        public String getAllocationRecordingsDir() {
+            return allocationRecordingsDir;
+        }
+
+        public void setAllocationRecordingsDirForTests(String allocationRecordingsDir) {
+            this.allocationRecordingsDir = allocationRecordingsDir;
+        }
+
+        /**
+         * Returns the maximum rate of the allocation samples of each test JVM.
+         */
+        public String getAllocationSamplingRate() {
+            return allocationSamplingRate;
+        }
+
+        public void setAllocationSamplingRateForTests(String allocationSamplingRate) {
+            this.allocationSamplingRate = allocationSamplingRate;
+        }
+
+        /**
+         * Returns whether the sampled allocations are sent to the backend.
+         */
+        public Boolean getAllocationExportEnabled() {
+            return allocationExportEnabled;
+        }
+
+        public void setAllocationExportEnabledForTests(Boolean allocationExportEnabled) {
+            this.allocationExportEnabled = allocationExportEnabled;
+        }
+
+        /**
+         * Returns whether only the constructors executed by the test suite are instrumented.
+         */
+        public Boolean getCoverageEnabled() {
+            return coverageEnabled;
+        }
+
+        public void setCoverageEnabledForTests(Boolean coverageEnabled) {
+            this.coverageEnabled = coverageEnabled;
+        }
+
+        /**
+         * Returns the path of the existing JaCoCo execution data file, null to run the test suite with JaCoCo.
+         */
+        public String getCoverageExecFile() {
+            return coverageExecFile;
+        }
+
+        public void setCoverageExecFileForTests(String coverageExecFile) {
+            this.coverageExecFile = coverageExecFile;
+        }
+
+        /**
+         * Returns the patterns of the classes whose constructors are instrumented, null for every class.
+         */
+        public List<String> getIncludePatterns() {
+            return includePatterns;
+        }
+
+        public void setIncludePatternsForTests(List<String> includePatterns) {
+            this.includePatterns = includePatterns;
+        }
+
+        /**
+         * Returns the patterns of the classes whose constructors are not instrumented.
+         */
+        public List<String> getExcludePatterns() {
+            return excludePatterns;
+        }
+
+        public void setExcludePatternsForTests(List<String> excludePatterns) {
+            this.excludePatterns = excludePatterns;
+        }
+    }
 }
@@ -5,6 +5,7 @@ import be.unamur.snail.logging.ProgressBar;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 
 public class Context {
     private PipelineLogger logger;
@@ -17,6 +18,7 @@ public class Context {
     private String javaHome;
     private String currentWorkingDir;
     private String copiedBuildFilePath;
+    private Map<String, List<List<String>>> executedConstructors;
 
     public PipelineLogger getLogger() {
         return logger;
@@ -97,4 +99,12 @@ public class Context {
     public void setCopiedBuildFilePath(String copiedBuildFilePath) {
         this.copiedBuildFilePath = copiedBuildFilePath;
     }
+
+    public Map<String, List<List<String>>> getExecutedConstructors() {
+        return executedConstructors;
+    }
+
+    public void setExecutedConstructors(Map<String, List<List<String>>> executedConstructors) {
+        this.executedConstructors = executedConstructors;
+    }
 }
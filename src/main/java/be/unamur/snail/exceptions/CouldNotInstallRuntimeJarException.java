@@ -0,0 +1,9 @@
+package be.unamur.snail.exceptions;
+
+import java.nio.file.Path;
+
+public class CouldNotInstallRuntimeJarException extends RuntimeException {
+    public CouldNotInstallRuntimeJarException(Path runtimeJar, int returnCode) {
+        super("Could not install the instrumentation runtime jar " + runtimeJar + " in the local Maven repository, exit code " + returnCode);
+    }
+}
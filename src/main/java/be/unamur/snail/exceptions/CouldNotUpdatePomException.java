@@ -0,0 +1,9 @@
+package be.unamur.snail.exceptions;
+
+import java.nio.file.Path;
+
+public class CouldNotUpdatePomException extends RuntimeException {
+    public CouldNotUpdatePomException(Path pom, Throwable cause) {
+        super("Could not update the pom.xml file " + pom, cause);
+    }
+}
@@ -0,0 +1,7 @@
+package be.unamur.snail.exceptions;
+
+public class InvalidBinaryBatchException extends IllegalArgumentException {
+    public InvalidBinaryBatchException(String reason) {
+        super(String.format("Invalid binary batch: %s", reason));
+    }
+}
@@ -0,0 +1,7 @@
+package be.unamur.snail.exceptions;
+
+public class InvalidSpoolFileException extends RuntimeException {
+    public InvalidSpoolFileException(String file, String reason) {
+        super(String.format("Invalid spool file %s: %s", file, reason));
+    }
+}
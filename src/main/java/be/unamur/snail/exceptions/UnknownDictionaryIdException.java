@@ -0,0 +1,7 @@
+package be.unamur.snail.exceptions;
+
+public class UnknownDictionaryIdException extends IllegalArgumentException {
+    public UnknownDictionaryIdException(String kind, int id, String sessionId) {
+        super(String.format("Unknown %s id %d in session %s", kind, id, sessionId));
+    }
+}
@@ -0,0 +1,50 @@
+package be.unamur.snail.modules;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.exceptions.MissingConfigKeyException;
+import be.unamur.snail.stages.*;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Variant of the SpoonInstrumentConstructorModule instrumenting the constructors of the
+ * analyzed project when their classes are loaded by the test JVMs, with the agent of
+ * instrumentation.agent-jar, instead of rewriting and rebuilding the sources. Neither the
+ * classpath of the project nor a source model is needed, so projects that Spoon cannot
+ * parse can be instrumented too.
+ */
+public class AgentInstrumentConstructorModule extends AbstractModule {
+    private final List<Stage> stages;
+
+    AgentInstrumentConstructorModule(List<Stage> stages) {
+        this.stages = stages;
+    }
+
+    public AgentInstrumentConstructorModule() {
+        Config config = Config.getInstance();
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+        if (instrumentation == null || instrumentation.getAgentJar() == null || instrumentation.getAgentJar().isBlank()) {
+            throw new MissingConfigKeyException("instrumentation.agent-jar");
+        }
+
+        this.stages = Stream.of(
+                new StopBackendStage(),
+                new PrepareBackendStage(),
+                new CloneAndCheckoutRepositoryStage(buildRepoDir(config)),
+                new RunInstrumentedProjectTestsStage(instrumentation.getAgentJar()),
+                CollectRuntimeMetricsStage.isMetricsEnabled(instrumentation) ? new CollectRuntimeMetricsStage() : null,
+                ReplaySpoolFilesStage.isSpoolSenderConfigured(instrumentation) ? new ReplaySpoolFilesStage() : null
+        ).filter(Objects::nonNull).toList();
+    }
+
+    @Override
+    protected List<Stage> getStages() {
+        return stages;
+    }
+
+    public static String buildRepoDir(Config config) {
+        return config.getProject().getName() + "_agent-instrumentation_" + config.getRepo().getCommit();
+    }
+}
@@ -0,0 +1,46 @@
+package be.unamur.snail.modules;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.stages.*;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Module giving a first overview of the allocations of the test suite of the analyzed
+ * project at a few percent of overhead: the tests are run unmodified with the allocation
+ * samples of the JDK Flight Recorder, then the types allocated by the project and their call
+ * sites are reported, and optionally sent to the backend as constructor contexts. Unlike the
+ * instrumentation modules, the samples only estimate the allocated bytes and do not tell
+ * which constructor was called nor the values of the fields.
+ */
+public class AllocationSamplingModule extends AbstractModule {
+    private final List<Stage> stages;
+
+    public AllocationSamplingModule() {
+        Config config = Config.getInstance();
+        // The backend is only needed when the samples are sent to it
+        boolean export = config.getInstrumentation() != null && Boolean.TRUE.equals(config.getInstrumentation().getAllocationExportEnabled());
+        this.stages = Stream.of(
+                export ? new StopBackendStage() : null,
+                export ? new PrepareBackendStage() : null,
+                new CloneAndCheckoutRepositoryStage(buildRepoDir(config)),
+                new RecordAllocationSamplesStage(),
+                new AnalyzeAllocationSamplesStage()
+        ).filter(Objects::nonNull).toList();
+    }
+
+    AllocationSamplingModule(List<Stage> stages) {
+        this.stages = stages;
+    }
+
+    @Override
+    protected List<Stage> getStages() {
+        return stages;
+    }
+
+    public static String buildRepoDir(Config config) {
+        return config.getProject().getName() + "_allocation-sampling_" + config.getRepo().getCommit();
+    }
+}
@@ -0,0 +1,45 @@
+package be.unamur.snail.modules;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.exceptions.MissingConfigKeyException;
+import be.unamur.snail.stages.PrepareBackendStage;
+import be.unamur.snail.stages.ReplaySpoolFilesStage;
+import be.unamur.snail.stages.Stage;
+
+import java.util.List;
+
+/**
+ * Module sending again the spool files of a previous run of the
+ * SpoonInstrumentConstructorModule to the backend, without running the tests of the
+ * analyzed project again
+ */
+public class SpoolReplayModule extends AbstractModule {
+    private final List<Stage> stages;
+
+    public SpoolReplayModule() {
+        this(List.of(
+                new PrepareBackendStage(),
+                new ReplaySpoolFilesStage(buildRepoPath(Config.getInstance()))
+        ));
+    }
+
+    SpoolReplayModule(List<Stage> stages) {
+        this.stages = stages;
+    }
+
+    @Override
+    protected List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Returns the path of the analyzed project cloned by the SpoonInstrumentConstructorModule
+     */
+    public static String buildRepoPath(Config config) {
+        String targetDir = config.getRepo().getTargetDir();
+        if (targetDir == null || targetDir.isBlank()) {
+            throw new MissingConfigKeyException("repo.target-dir");
+        }
+        return targetDir + SpoonInstrumentConstructorModule.buildRepoDir(config);
+    }
+}
@@ -30,11 +30,14 @@ public class SpoonInstrumentConstructorModule extends AbstractModule {
                 new CloneAndCheckoutRepositoryStage(repoDir),
                 createCopyBuildFileStageForClasspath(),
                 new BuildClassPathStage(),
+                createRecordConstructorCoverageStage(config),
                 createCopyBuildFileStage(),
                 new InstrumentConstructorsStage(),
-                new CopySourceCodeStage(),
+                createInstrumentationRuntimeStage(config),
                 new CopyProjectJavaFilesStage(),
-                new RunInstrumentedProjectTestsStage()
+                new RunInstrumentedProjectTestsStage(),
+                createCollectRuntimeMetricsStage(config),
+                createReplaySpoolFilesStage(config)
         ).filter(Objects::nonNull).toList();
     }
 
@@ -47,6 +50,51 @@ public class SpoonInstrumentConstructorModule extends AbstractModule {
         return config.getProject().getName() + "_instrumentation_" + config.getRepo().getCommit();
     }
 
+    /**
+     * Returns the stage adding the instrumentation runtime to the analyzed project: the
+     * prebuilt runtime jar when instrumentation.runtime-jar is set, its sources otherwise
+     */
+    protected Stage createInstrumentationRuntimeStage(Config config) {
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+        if (instrumentation != null && instrumentation.getRuntimeJar() != null && !instrumentation.getRuntimeJar().isBlank()) {
+            return new InjectInstrumentationRuntimeStage();
+        }
+        return new CopySourceCodeStage();
+    }
+
+    /**
+     * Returns the stage finding the constructors executed by the tests, or null if every
+     * constructor is instrumented
+     */
+    protected RecordConstructorCoverageStage createRecordConstructorCoverageStage(Config config) {
+        if (!RecordConstructorCoverageStage.isCoverageEnabled(config.getInstrumentation())) {
+            return null;
+        }
+        return new RecordConstructorCoverageStage();
+    }
+
+    /**
+     * Returns the stage sending the spool files to the backend after the tests, or null if
+     * the instrumentation sends the constructor contexts directly
+     */
+    protected ReplaySpoolFilesStage createReplaySpoolFilesStage(Config config) {
+        if (!ReplaySpoolFilesStage.isSpoolSenderConfigured(config.getInstrumentation())) {
+            return null;
+        }
+        return new ReplaySpoolFilesStage();
+    }
+
+    /**
+     * Returns the stage reporting the runtime metrics of the test JVMs, or null if they are
+     * not enabled
+     */
+    protected CollectRuntimeMetricsStage createCollectRuntimeMetricsStage(Config config) {
+        if (!CollectRuntimeMetricsStage.isMetricsEnabled(config.getInstrumentation())) {
+            return null;
+        }
+        return new CollectRuntimeMetricsStage();
+    }
+
     protected CopyFileStage createCopyBuildFileStageForClasspath() {
         Config config = Config.getInstance();
         String projectName = config.getProject().getName();
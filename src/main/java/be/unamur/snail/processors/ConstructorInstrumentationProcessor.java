@@ -5,16 +5,73 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spoon.processing.AbstractProcessor;
 import spoon.reflect.code.*;
+import spoon.reflect.cu.SourcePosition;
+import spoon.reflect.declaration.CtClass;
 import spoon.reflect.declaration.CtConstructor;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtEnum;
+import spoon.reflect.declaration.CtField;
+import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.declaration.CtRecord;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.declaration.ModifierKind;
 import spoon.reflect.factory.Factory;
 import spoon.reflect.reference.CtVariableReference;
 import spoon.reflect.visitor.filter.TypeFilter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Instruments every constructor of the project to send its context (attributes, stack trace)
+ * to the backend at each call.
+ * The metadata of the constructors (file, class, parameters, commit) never changes, so it is
+ * not rebuilt at each call: for each top-level type, a static nested class named
+ * __SentinelConstructorDescriptors is generated, with one static final int field per
+ * constructor, initialized once with the id of its registered ConstructorDescriptor. The
+ * instrumented constructor only passes this id to initConstructorContext. The fields assigned
+ * by the constructor are registered with the descriptor too, so that each assignment only
+ * passes the index of its attribute and the assigned value to addAttribute.
+ * A nested holder is used instead of fields of the type itself because the constructors of
+ * an enum cannot read its non-constant static fields.
+ * The contexts of nested constructor calls are kept on a per-thread stack by
+ * SendConstructorsUtils. The instrumented statements are wrapped in a try block whose finally
+ * block gives the depth returned by initConstructorContext to exitConstructorContext, so that
+ * a constructor throwing an exception does not leave its context on the stack.
+ * The top-level types with an instrumented constructor are tracked, so that only their
+ * files need to be printed (see isInstrumented()). The constructors can be restricted by a
+ * ConstructorSelector, e.g. to the ones executed by the test suite.
+ */
 public class ConstructorInstrumentationProcessor extends AbstractProcessor<CtConstructor<?>> implements InstrumentProcessor<CtConstructor<?>> {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     private static final String FQCN = "be.unamur.snail.spoon.constructor_instrumentation.SendConstructorsUtils";
+    private static final String DESCRIPTORS_FQCN = "be.unamur.snail.spoon.constructor_instrumentation.ConstructorDescriptors";
+    static final String DESCRIPTOR_HOLDER_NAME = "__SentinelConstructorDescriptors";
+    static final String DESCRIPTOR_FIELD_PREFIX = "CONSTRUCTOR_";
+    static final String DEPTH_VARIABLE_NAME = "__sentinelContextDepth";
+
+    private final ConstructorSelector selector;
+
+    // Initializers of the descriptor fields to generate, per top-level type, in processingDone()
+    private final Map<CtType<?>, List<String>> descriptorInitializers = new LinkedHashMap<>();
+    // Top-level types modified by the processor, by identity since their content changes
+    private final Set<CtType<?>> instrumentedTypes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public ConstructorInstrumentationProcessor() {
+        this(ConstructorSelector.all());
+    }
+
+    /**
+     * @param selector the constructors to instrument, e.g. the ones executed by the test suite
+     */
+    public ConstructorInstrumentationProcessor(ConstructorSelector selector) {
+        this.selector = selector;
+    }
 
     @Override
     public void process(CtConstructor<?> constructor) {
@@ -30,6 +87,12 @@ public class ConstructorInstrumentationProcessor extends AbstractProcessor<CtCon
             return;
         }
 
+        CtType<?> declaringType = constructor.getDeclaringType();
+        if (!selector.isSelected(declaringType.getQualifiedName(), getErasedParameterTypes(constructor), hasImplicitConstructorParameters(declaringType))) {
+            log.debug("Skipping unselected constructor {}", constructor.getDeclaringType().getQualifiedName());
+            return;
+        }
+
         instrument(constructor, new InstrumentationUtils(getFactory()));
     }
 
@@ -49,6 +112,31 @@ public class ConstructorInstrumentationProcessor extends AbstractProcessor<CtCon
         return meaningfulStatements == 0 && throwCount >= 1;
     }
 
+    /**
+     * Returns the erased types of the parameters of a constructor, as in its bytecode descriptor
+     */
+    protected List<String> getErasedParameterTypes(CtConstructor<?> constructor) {
+        List<String> types = new ArrayList<>();
+        for (CtParameter<?> parameter : constructor.getParameters()) {
+            types.add(parameter.getType().getTypeErasure().getQualifiedName());
+        }
+        return types;
+    }
+
+    /**
+     * Returns true if the constructors of a type have parameters in the bytecode that are not
+     * declared in the sources: the enclosing instance of an inner class, the name and ordinal
+     * of an enum constant, the captured variables of a local or anonymous class
+     */
+    protected boolean hasImplicitConstructorParameters(CtType<?> type) {
+        if (type instanceof CtEnum<?> || type.isLocalType() || type.isAnonymous()) {
+            return true;
+        }
+        CtType<?> declaringType = type.getDeclaringType();
+        return declaringType != null && !declaringType.isInterface() && !declaringType.isAnnotationType()
+                && !type.hasModifier(ModifierKind.STATIC) && !type.isInterface() && !(type instanceof CtRecord);
+    }
+
     protected boolean isImplicitSuperCall(CtStatement statement) {
         if (statement instanceof CtInvocation<?> invocation) {
             return invocation.getExecutable().getSimpleName().equals("<init>") && invocation.getExecutable().getDeclaringType().getQualifiedName().equals("java.lang.Object");
@@ -71,55 +159,110 @@ public class ConstructorInstrumentationProcessor extends AbstractProcessor<CtCon
         String projectName = config.getProject().getName();
         String projectOwner = config.getProject().getOwner();
 
-        // Generate code to create CommitSimpleInstrDTO in instrumented code
-        String commitCode = generateCommitInstrDTOCode(commitSha, projectName, projectOwner);
-
         String fileName = getFilePath(constructor);
 
+        // Field assignments, and the index of the attribute descriptor of each one
+        List<CtAssignment<?, ?>> fieldAssignments = new ArrayList<>();
+        List<Integer> attributeIndexes = new ArrayList<>();
+        List<String> attributes = new ArrayList<>();
+        for (CtAssignment<?, ?> assignment : constructor.getBody().getElements(new TypeFilter<>(CtAssignment.class))) {
+            if (assignment.getAssigned() instanceof CtFieldAccess<?> fieldAccess) {
+                String fieldName = fieldAccess.getVariable().getSimpleName();
+                String fieldType = fieldAccess.getVariable().getType().getQualifiedName();
+                String rhsType = getRightHandSideExpression(assignment.getAssignment(), constructor);
+                fieldAssignments.add(assignment);
+                attributeIndexes.add(attributeIndex(attributes, fieldName, fieldType, rhsType));
+            }
+        }
+
+        String descriptorCode = registerDescriptor(constructor, fileName, className, constructorName, params, commitSha, projectName, projectOwner, attributes);
+
         CtLocalVariable<?> utilsVariable = utils.createThreadLocalUtilsVariable(FQCN, "utils");
         CtExpression<?> utilsAccess = factory.Code().createVariableRead(utilsVariable.getReference(), false);
 
         // Init constructor context
-        constructor.getBody().insertBegin(
+        CtLocalVariable<Integer> depthVariable = factory.Code().createLocalVariable(
+                factory.Type().integerPrimitiveType(),
+                DEPTH_VARIABLE_NAME,
                 utils.createInvocation(
                         utilsAccess,
                         FQCN,
                         "initConstructorContext",
-                        factory.Code().createLiteral(fileName),
-                        factory.Code().createLiteral(className),
-                        factory.Code().createLiteral(constructorName),
-                        utils.createStringListLiteral(params),
-                        factory.Code().createCodeSnippetExpression(commitCode)
+                        factory.Type().integerPrimitiveType(),
+                        factory.Code().createCodeSnippetExpression(descriptorCode)
                 )
         );
+        constructor.getBody().insertBegin(depthVariable);
 
         // Insert utils variable
         constructor.getBody().insertBegin(utilsVariable);
 
         // Add attributes
-        for (CtAssignment<?, ?> assignment : constructor.getBody().getElements(new TypeFilter<>(CtAssignment.class))) {
-            if (assignment.getAssigned() instanceof CtFieldAccess<?> fieldAccess) {
-                String fieldName = fieldAccess.getVariable().getSimpleName();
-                String fieldType = fieldAccess.getVariable().getType().getQualifiedName();
-                String rhsType = getRightHandSideExpression(assignment.getAssignment(), constructor);
-
-                assignment.insertAfter(
-                        utils.createInvocation(
-                                utilsAccess,
-                                FQCN,
-                                "addAttribute",
-                                factory.Code().createLiteral(fieldName),
-                                factory.Code().createLiteral(fieldType),
-                                fieldAccess,
-                                factory.Code().createLiteral(rhsType)
-                        )
-                );
-            }
+        for (int i = 0; i < fieldAssignments.size(); i++) {
+            CtAssignment<?, ?> assignment = fieldAssignments.get(i);
+            assignment.insertAfter(
+                    utils.createInvocation(
+                            utilsAccess,
+                            FQCN,
+                            "addAttribute",
+                            factory.Code().createLiteral(attributeIndexes.get(i)),
+                            createFieldRead((CtFieldAccess<?>) assignment.getAssigned())
+                    )
+            );
         }
 
         // Stack trace
         constructor.getBody().insertEnd(utils.createInvocation(utilsAccess, FQCN, "getStackTrace"));
         constructor.getBody().insertEnd(utils.createInvocation(utilsAccess, FQCN, "send"));
+
+        wrapInTryFinally(constructor.getBody(), depthVariable, utilsAccess, utils);
+    }
+
+    /**
+     * Returns a read of the field written by an assignment. The written expression cannot be
+     * reused: it already belongs to the assignment, and a copy would keep its source
+     * position, which the sniper printer would try to print again from the original file.
+     */
+    protected <T> CtFieldRead<T> createFieldRead(CtFieldAccess<T> fieldWrite) {
+        CtFieldRead<T> fieldRead = getFactory().Core().createFieldRead();
+        fieldRead.setVariable(fieldWrite.getVariable().clone());
+        if (fieldWrite.getTarget() != null) {
+            fieldRead.setTarget(fieldWrite.getTarget().clone());
+        }
+        for (CtElement element : fieldRead.getElements(new TypeFilter<>(CtElement.class))) {
+            element.setPosition(SourcePosition.NOPOSITION);
+        }
+        return fieldRead;
+    }
+
+    /**
+     * Moves the statements following the initialization of the context into a try block,
+     * whose finally block pops the context if the constructor did not send it
+     * Example of generated code: try { ...; utils.send(); } finally { utils.exitConstructorContext(depth); }
+     */
+    protected void wrapInTryFinally(CtBlock<?> body, CtLocalVariable<Integer> depthVariable, CtExpression<?> utilsAccess, InstrumentationUtils utils) {
+        Factory factory = getFactory();
+        List<CtStatement> statements = body.getStatements();
+        int firstInstrumented = statements.indexOf(depthVariable) + 1;
+        List<CtStatement> instrumented = new ArrayList<>(statements.subList(firstInstrumented, statements.size()));
+
+        CtBlock<?> tryBody = factory.Core().createBlock();
+        for (CtStatement statement : instrumented) {
+            body.removeStatement(statement);
+            tryBody.addStatement(statement);
+        }
+        CtBlock<?> finalizer = factory.Core().createBlock();
+        finalizer.addStatement(utils.createInvocation(
+                utilsAccess,
+                FQCN,
+                "exitConstructorContext",
+                factory.Code().createVariableRead(depthVariable.getReference(), false)
+        ));
+
+        CtTry tryStatement = factory.Core().createTry();
+        tryStatement.setBody(tryBody);
+        tryStatement.setFinalizer(finalizer);
+        body.addStatement(tryStatement);
     }
 
     public String getRightHandSideExpression(CtExpression<?> expression, CtConstructor<?> constructor) {
@@ -156,17 +299,110 @@ public class ConstructorInstrumentationProcessor extends AbstractProcessor<CtCon
     }
 
     /**
-     * Generates Java code string that creates a CommitSimpleInstrDTO with the given values.
-     * @param sha commit SHA hash
-     * @param projectName project name
-     * @param projectOwner project owner
-     * @return Java code string that instantiates the CommitSimpleInstrDTO
+     * Returns the index of the attribute descriptor of a field assignment, adding it to the
+     * attributes of the constructor if no assignment with the same field, type and right hand
+     * side kind was found before
+     * @param attributes name, type and right hand side kind of each attribute, one after the other
      */
-    private String generateCommitInstrDTOCode(String sha, String projectName, String projectOwner) {
-        return String.format(
-            "new be.unamur.snail.spoon.constructor_instrumentation.CommitSimpleInstrDTO(\"%s\", " +
-            "new be.unamur.snail.spoon.constructor_instrumentation.RepositorySimpleInstrDTO(\"%s\", \"%s\"))",
-            sha, projectName, projectOwner
-        );
+    protected int attributeIndex(List<String> attributes, String fieldName, String fieldType, String rhsType) {
+        for (int i = 0; i < attributes.size(); i += 3) {
+            if (attributes.get(i).equals(fieldName) && attributes.get(i + 1).equals(fieldType) && attributes.get(i + 2).equals(rhsType)) {
+                return i / 3;
+            }
+        }
+        attributes.add(fieldName);
+        attributes.add(fieldType);
+        attributes.add(rhsType);
+        return attributes.size() / 3 - 1;
+    }
+
+    /**
+     * Plans the descriptor field of a constructor in the holder of its top-level type.
+     * The field itself is only created in processingDone(), to avoid adding a type to the
+     * model while Spoon is still visiting it.
+     * @return the Java code reading the descriptor id, to give to initConstructorContext
+     */
+    protected String registerDescriptor(CtConstructor<?> constructor, String fileName, String className, String constructorName, List<String> params, String sha, String projectName, String projectOwner, List<String> attributes) {
+        CtType<?> topLevelType = constructor.getDeclaringType().getTopLevelType();
+        instrumentedTypes.add(topLevelType);
+        List<String> initializers = descriptorInitializers.computeIfAbsent(topLevelType, type -> new ArrayList<>());
+        String fieldName = DESCRIPTOR_FIELD_PREFIX + initializers.size();
+
+        StringBuilder initializer = new StringBuilder(DESCRIPTORS_FQCN).append(".register(")
+                .append(javaString(fileName)).append(", ")
+                .append(javaString(className)).append(", ")
+                .append(javaString(constructorName)).append(", ")
+                .append(javaString(sha)).append(", ")
+                .append(javaString(projectName)).append(", ")
+                .append(javaString(projectOwner)).append(", ");
+        appendStringArray(initializer, params).append(", ");
+        appendStringArray(initializer, attributes);
+        initializers.add(initializer.append(")").toString());
+
+        return topLevelType.getQualifiedName() + "." + DESCRIPTOR_HOLDER_NAME + "." + fieldName;
+    }
+
+    /**
+     * Returns true if a constructor of the top-level type of this type was instrumented, i.e.
+     * if its file differs from the original one. Can be given to Launcher.setOutputFilter()
+     * to only print the modified files.
+     */
+    public boolean isInstrumented(CtType<?> type) {
+        return type != null && instrumentedTypes.contains(type.getTopLevelType());
+    }
+
+    /**
+     * @return the top-level types with at least one instrumented constructor
+     */
+    public Set<CtType<?>> getInstrumentedTypes() {
+        return Collections.unmodifiableSet(instrumentedTypes);
+    }
+
+    /**
+     * Creates the descriptor holder of every top-level type with instrumented constructors
+     */
+    @Override
+    public void processingDone() {
+        Factory factory = getFactory();
+        for (Map.Entry<CtType<?>, List<String>> entry : descriptorInitializers.entrySet()) {
+            CtType<?> topLevelType = entry.getKey();
+            CtClass<?> holder = factory.Core().createClass();
+            holder.setSimpleName(DESCRIPTOR_HOLDER_NAME);
+            holder.addModifier(ModifierKind.STATIC);
+            holder.addModifier(ModifierKind.FINAL);
+
+            List<String> initializers = entry.getValue();
+            for (int i = 0; i < initializers.size(); i++) {
+                CtField<Integer> field = factory.Core().createField();
+                field.setSimpleName(DESCRIPTOR_FIELD_PREFIX + i);
+                field.setType(factory.Type().integerPrimitiveType());
+                field.addModifier(ModifierKind.STATIC);
+                field.addModifier(ModifierKind.FINAL);
+                field.setDefaultExpression(factory.Code().createCodeSnippetExpression(initializers.get(i)));
+                holder.addField(field);
+            }
+            topLevelType.addNestedType(holder);
+            log.debug("Generated {} constructor descriptors for {}", initializers.size(), topLevelType.getQualifiedName());
+        }
+        descriptorInitializers.clear();
+    }
+
+    private StringBuilder appendStringArray(StringBuilder code, List<String> values) {
+        code.append("new java.lang.String[]{");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                code.append(", ");
+            }
+            code.append(javaString(values.get(i)));
+        }
+        return code.append("}");
+    }
+
+    /**
+     * Returns the Java string literal of a value, with its special characters escaped
+     */
+    private String javaString(String value) {
+        if (value == null) return "null";
+        return getFactory().Code().createLiteral(value).toString();
     }
 }
@@ -0,0 +1,119 @@
+package be.unamur.snail.processors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the constructors to instrument, by the qualified name of their class and, when the
+ * constructors executed by the test suite are known, by their parameters.
+ * The executed constructors come from the bytecode, where the constructors of some classes
+ * have implicit parameters around the declared ones: the enclosing instance before them for an
+ * inner class, the name and ordinal of the constant before them for an enum, and the captured
+ * variables after them for a local or anonymous class. The constructor of such a class is
+ * considered executed if the parameter types of an executed constructor of its class contain
+ * its own, the constructor of any other class only if they are equal.
+ */
+public class ConstructorSelector {
+    private final List<String> includePatterns;
+    private final List<String> excludePatterns;
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+    private final Map<String, List<List<String>>> executedConstructors;
+
+    /**
+     * @param includePatterns patterns of the classes to instrument, with '*' and '?' wildcards,
+     *                        null or empty for every class
+     * @param excludePatterns patterns of the classes not to instrument, can be null
+     * @param executedConstructors erased parameter types of the executed constructors of each
+     *                             class by binary name, null if the coverage is unknown
+     */
+    public ConstructorSelector(List<String> includePatterns, List<String> excludePatterns, Map<String, List<List<String>>> executedConstructors) {
+        this.includePatterns = includePatterns == null ? List.of() : List.copyOf(includePatterns);
+        this.excludePatterns = excludePatterns == null ? List.of() : List.copyOf(excludePatterns);
+        this.includes = this.includePatterns.stream().map(ConstructorSelector::toRegex).toList();
+        this.excludes = this.excludePatterns.stream().map(ConstructorSelector::toRegex).toList();
+        this.executedConstructors = executedConstructors;
+    }
+
+    /**
+     * @return a selector of every constructor
+     */
+    public static ConstructorSelector all() {
+        return new ConstructorSelector(null, null, null);
+    }
+
+    /**
+     * @param className the binary name of the class of the constructor, e.g. com.example.Foo
+     * @param parameterTypes the erased types of the parameters of the constructor
+     * @return true if the constructor of a class without implicit constructor parameters must
+     * be instrumented
+     */
+    public boolean isSelected(String className, List<String> parameterTypes) {
+        return isSelected(className, parameterTypes, false);
+    }
+
+    /**
+     * @param className the binary name of the class of the constructor, e.g. com.example.Outer$Inner
+     * @param parameterTypes the erased types of the declared parameters of the constructor
+     * @param implicitParameters true if the constructors of the class have implicit parameters
+     *                           in the bytecode: inner, enum, local and anonymous classes
+     * @return true if the constructor must be instrumented
+     */
+    public boolean isSelected(String className, List<String> parameterTypes, boolean implicitParameters) {
+        if (!includes.isEmpty() && includes.stream().noneMatch(pattern -> pattern.matcher(className).matches())) {
+            return false;
+        }
+        if (excludes.stream().anyMatch(pattern -> pattern.matcher(className).matches())) {
+            return false;
+        }
+        if (executedConstructors == null) {
+            return true;
+        }
+        for (List<String> executed : executedConstructors.getOrDefault(className, List.of())) {
+            if (implicitParameters ? Collections.indexOfSubList(executed, parameterTypes) >= 0 : executed.equals(parameterTypes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the parts of the selection that change the instrumented files, for the
+     * fingerprint of the instrumentation cache
+     */
+    public List<String> fingerprint() {
+        List<String> parts = new ArrayList<>();
+        parts.add("include=" + includePatterns);
+        parts.add("exclude=" + excludePatterns);
+        parts.add("executed=" + (executedConstructors == null ? "all" : new TreeMap<>(executedConstructors).toString()));
+        return parts;
+    }
+
+    /**
+     * Returns the regular expression of a pattern, where '*' matches any characters and '?'
+     * matches one
+     */
+    static Pattern toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (!literal.isEmpty()) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (!literal.isEmpty()) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -42,8 +42,8 @@ public class InstrumentationUtils {
         if (varName == null || varName.isEmpty()) {
             throw new ParameterIsNullOrEmptyException("varName");
         }
-        CtTypeReference<?> utilsType = factory.Type().createReference(fqcn);
-        CtConstructorCall constructorCall = factory.Code().createConstructorCall(utilsType);
+        CtTypeReference<Object> utilsType = factory.Type().createReference(fqcn);
+        CtConstructorCall<Object> constructorCall = factory.Code().createConstructorCall(utilsType);
         return factory.Code().createLocalVariable(utilsType, varName, constructorCall);
     }
 
@@ -57,17 +57,17 @@ public class InstrumentationUtils {
 
         CtTypeReference<Object> utilsType = factory.Type().createReference(fqcn);
 
-        CtExecutableReference<?> getMethod = factory.Executable().createReference(
+        CtExecutableReference<Object> getMethod = factory.Executable().createReference(
                 utilsType,
                 utilsType,
                 "getInstance"
         );
-        CtInvocation<?> getInvocation = factory.Code().createInvocation(
+        CtInvocation<Object> getInvocation = factory.Code().createInvocation(
                 factory.Code().createTypeAccess(utilsType),
                 getMethod
         );
 
-        return factory.Code().createLocalVariable(utilsType, varName, (CtExpression<Object>) getInvocation);
+        return factory.Code().createLocalVariable(utilsType, varName, getInvocation);
     }
 
     /**
@@ -103,6 +103,23 @@ public class InstrumentationUtils {
      * @throws ParameterIsNullOrEmptyException if fqcn or method is null/empty
      */
     public CtInvocation<?> createInvocation(CtExpression<?> target, String fqcn, String method, CtExpression<?>... args) {
+        return createInvocation(target, fqcn, method, factory.Type().voidPrimitiveType(), args);
+    }
+
+    /**
+     * Creates a method invocation expression whose value is used
+     * Example generated code: int depth = target.methodName(arg1, arg2, ...);
+     *
+     * @param target the expression on which the method should be invoked
+     * @param fqcn fully qualified class name where the method is declared
+     * @param method the name of the method to invoke
+     * @param returnType the type returned by the method
+     * @param args arguments to pass to the method invocation
+     * @return a CtInvocation of the type returned by the method
+     *
+     * @throws ParameterIsNullOrEmptyException if fqcn or method is null/empty
+     */
+    public <T> CtInvocation<T> createInvocation(CtExpression<?> target, String fqcn, String method, CtTypeReference<T> returnType, CtExpression<?>... args) {
         if (fqcn == null || fqcn.isEmpty()) {
             throw new ParameterIsNullOrEmptyException("fqcn");
         }
@@ -110,9 +127,9 @@ public class InstrumentationUtils {
             throw new ParameterIsNullOrEmptyException("method");
         }
         CtTypeReference<?> type = factory.Type().createReference(fqcn);
-        CtExecutableReference<?> methodRef = factory.Executable().createReference(
+        CtExecutableReference<T> methodRef = factory.Executable().createReference(
                 type,
-                factory.Type().voidPrimitiveType(),
+                returnType,
                 method
         );
         return factory.Code().createInvocation(target, methodRef, args);
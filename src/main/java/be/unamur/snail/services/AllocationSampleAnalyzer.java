@@ -0,0 +1,269 @@
+package be.unamur.snail.services;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the jdk.ObjectAllocationSample events of the flight recordings written by the
+ * test JVMs of the analyzed project. The weight of a sample is the number of bytes the JVM
+ * allocated since the previous sample of the thread, so summing the weights estimates the
+ * allocated bytes. Only the samples concerning the project are kept: the allocated type is
+ * in the package prefix, or the allocation happens below a method of the package prefix,
+ * whose first frame is the call site of the allocation.
+ */
+public class AllocationSampleAnalyzer {
+    public static final String EVENT_NAME = "jdk.ObjectAllocationSample";
+
+    /**
+     * Reads the allocation samples of the recordings
+     * @param recordings the flight recordings, one per JVM
+     * @param packagePrefix the package prefix of the analyzed project
+     * @return the aggregated samples
+     * @throws IOException if a recording cannot be read
+     */
+    public AllocationSamples analyze(List<Path> recordings, String packagePrefix) throws IOException {
+        AllocationSamples samples = new AllocationSamples(packagePrefix);
+        for (Path recording : recordings) {
+            try (RecordingFile file = new RecordingFile(recording)) {
+                while (file.hasMoreEvents()) {
+                    RecordedEvent event = file.readEvent();
+                    if (EVENT_NAME.equals(event.getEventType().getName())) {
+                        samples.add(toJavaName(event.getClass("objectClass").getName()), event.getLong("weight"), toFrames(event.getStackTrace()));
+                    }
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static List<StackTraceElement> toFrames(RecordedStackTrace stackTrace) {
+        List<StackTraceElement> frames = new ArrayList<>();
+        if (stackTrace == null) {
+            return frames;
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (frame.isJavaFrame()) {
+                String className = frame.getMethod().getType().getName();
+                frames.add(new StackTraceElement(className, frame.getMethod().getName(), sourceFileName(className), frame.getLineNumber()));
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Converts the binary name of an array class ("[B", "[Lcom.example.Foo;") to its Java
+     * name ("byte[]", "com.example.Foo[]"), other names are returned as is
+     */
+    static String toJavaName(String binaryName) {
+        int dimensions = 0;
+        while (dimensions < binaryName.length() && binaryName.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return binaryName.replace('/', '.');
+        }
+        String element = binaryName.substring(dimensions);
+        String name = switch (element.charAt(0)) {
+            case 'Z' -> "boolean";
+            case 'B' -> "byte";
+            case 'C' -> "char";
+            case 'S' -> "short";
+            case 'I' -> "int";
+            case 'J' -> "long";
+            case 'F' -> "float";
+            case 'D' -> "double";
+            default -> element.substring(1, element.length() - 1).replace('/', '.');
+        };
+        return name + "[]".repeat(dimensions);
+    }
+
+    /**
+     * Returns the usual source file of a class, "Foo.java" for com.example.Foo$Inner, since
+     * the recordings do not have the source files of the frames
+     */
+    public static String sourceFileName(String className) {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        int nested = simpleName.indexOf('$');
+        return (nested > 0 ? simpleName.substring(0, nested) : simpleName) + ".java";
+    }
+
+    /**
+     * Allocation samples of every test JVM concerning the analyzed project
+     */
+    public static class AllocationSamples {
+        private final String packagePrefix;
+        private long sampleCount;
+        private long ignoredSampleCount;
+        private final Map<String, Allocations> types = new LinkedHashMap<>();
+        private final Map<String, Allocations> callSites = new LinkedHashMap<>();
+        private final Map<String, ProjectAllocations> projectAllocations = new LinkedHashMap<>();
+
+        public AllocationSamples(String packagePrefix) {
+            this.packagePrefix = packagePrefix;
+        }
+
+        /**
+         * Adds a sample, ignored if neither its type nor any of its frames is in the package prefix
+         * @param type the Java name of the allocated type
+         * @param weight the bytes allocated since the previous sample of the thread
+         * @param frames the stack trace of the allocation, innermost frame first
+         */
+        public void add(String type, long weight, List<StackTraceElement> frames) {
+            List<StackTraceElement> projectFrames = new ArrayList<>();
+            for (StackTraceElement frame : frames) {
+                if (frame.getClassName().startsWith(packagePrefix)) {
+                    projectFrames.add(frame);
+                }
+            }
+            boolean projectType = type.startsWith(packagePrefix);
+            if (!projectType && projectFrames.isEmpty()) {
+                ignoredSampleCount++;
+                return;
+            }
+            sampleCount++;
+            types.computeIfAbsent(type, t -> new Allocations(type, null)).add(weight);
+            if (!projectFrames.isEmpty()) {
+                StackTraceElement callSite = projectFrames.get(0);
+                callSites.computeIfAbsent(type + "@" + callSite, k -> new Allocations(type, callSite)).add(weight);
+            }
+            // Arrays are not built by a constructor, they cannot be exported as constructor events
+            if (projectType && !type.endsWith("[]")) {
+                projectAllocations.computeIfAbsent(type + "@" + projectFrames, k -> new ProjectAllocations(type, projectFrames)).add(weight);
+            }
+        }
+
+        /**
+         * @return the number of samples kept
+         */
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * @return the number of samples ignored because they do not concern the project
+         */
+        public long getIgnoredSampleCount() {
+            return ignoredSampleCount;
+        }
+
+        public long getTotalWeight() {
+            return types.values().stream().mapToLong(Allocations::getWeight).sum();
+        }
+
+        /**
+         * @return the allocations of each type, highest weight first
+         */
+        public List<Allocations> getTypes() {
+            return sortByWeight(types.values());
+        }
+
+        /**
+         * @return the allocations of each type at each call site in the package prefix,
+         * highest weight first
+         */
+        public List<Allocations> getCallSites() {
+            return sortByWeight(callSites.values());
+        }
+
+        /**
+         * @return the allocations of each class of the package prefix with each stack trace,
+         * filtered on the package prefix as in the constructor contexts
+         */
+        public List<ProjectAllocations> getProjectAllocations() {
+            return new ArrayList<>(projectAllocations.values());
+        }
+
+        private static List<Allocations> sortByWeight(Collection<Allocations> allocations) {
+            return allocations.stream().sorted(Comparator.comparingLong(Allocations::getWeight).reversed()).toList();
+        }
+    }
+
+    /**
+     * Samples of a type, possibly at a single call site
+     */
+    public static class Allocations {
+        private final String type;
+        private final StackTraceElement callSite;
+        private long samples;
+        private long weight;
+
+        public Allocations(String type, StackTraceElement callSite) {
+            this.type = type;
+            this.callSite = callSite;
+        }
+
+        void add(long sampleWeight) {
+            samples++;
+            weight += sampleWeight;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return the first frame of the package prefix, null for the totals of a type
+         */
+        public StackTraceElement getCallSite() {
+            return callSite;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the estimated number of allocated bytes
+         */
+        public long getWeight() {
+            return weight;
+        }
+    }
+
+    /**
+     * Samples of a class of the package prefix allocated with the same project stack trace
+     */
+    public static class ProjectAllocations {
+        private final String className;
+        private final List<StackTraceElement> stackTrace;
+        private long samples;
+        private long weight;
+
+        public ProjectAllocations(String className, List<StackTraceElement> stackTrace) {
+            this.className = className;
+            this.stackTrace = stackTrace;
+        }
+
+        void add(long sampleWeight) {
+            samples++;
+            weight += sampleWeight;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public List<StackTraceElement> getStackTrace() {
+            return stackTrace;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package be.unamur.snail.services;
+
+import be.unamur.snail.exceptions.InvalidBinaryBatchException;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the batches posted by the instrumentation with the BinaryBatchFormat.CONTENT_TYPE
+ * content type (see BinaryBatchFormat). A binary batch is self-contained, so the batches can
+ * be decoded in any order. The decoded contexts can be serialized in the plain batch format
+ * with ConstructorContextSerializer.serializeList.
+ */
+public class BinaryBatchDecoder {
+    /**
+     * Decodes a binary batch
+     * @param batch the bytes of the batch
+     * @return the constructor contexts of the batch
+     * @throws InvalidBinaryBatchException if the batch is truncated, is not a binary batch
+     * or references an entry missing from its tables
+     */
+    public List<ConstructorContext> decode(byte[] batch) {
+        try {
+            return decode(new ByteArrayInputStream(batch));
+        } catch (IOException e) {
+            throw new InvalidBinaryBatchException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a binary batch read from a stream, e.g. the body of a request
+     * @param in the stream of the batch, which is not closed
+     * @return the constructor contexts of the batch
+     * @throws IOException if the stream cannot be read
+     * @throws InvalidBinaryBatchException if the batch is truncated, is not a binary batch
+     * or references an entry missing from its tables
+     */
+    public List<ConstructorContext> decode(InputStream in) throws IOException {
+        InputStream input = in instanceof ByteArrayInputStream || in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16);
+        int magic = (readByte(input) << 24) | (readByte(input) << 16) | (readByte(input) << 8) | readByte(input);
+        if (magic != BinaryBatchFormat.MAGIC) {
+            throw new InvalidBinaryBatchException("wrong magic number");
+        }
+        int version = readByte(input);
+        if (version != BinaryBatchFormat.VERSION) {
+            throw new InvalidBinaryBatchException("unsupported version " + version);
+        }
+
+        String[] strings = new String[readCount(input)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readCount(input)];
+            readFully(input, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        StackTraceElement[] frames = new StackTraceElement[readCount(input)];
+        for (int i = 0; i < frames.length; i++) {
+            String className = string(input, strings);
+            String methodName = string(input, strings);
+            String fileName = string(input, strings);
+            int lineNumber = unzigzag(readVarint(input));
+            frames[i] = new StackTraceElement(className, methodName, fileName, lineNumber);
+        }
+        List<List<StackTraceElement>> traces = new ArrayList<>();
+        int traceCount = readCount(input);
+        for (int i = 0; i < traceCount; i++) {
+            int frameCount = readCount(input);
+            List<StackTraceElement> trace = new ArrayList<>(frameCount);
+            for (int j = 0; j < frameCount; j++) {
+                int frameId = readVarint(input);
+                if (frameId < 0 || frameId >= frames.length) {
+                    throw new InvalidBinaryBatchException("unknown frame " + frameId);
+                }
+                trace.add(frames[frameId]);
+            }
+            traces.add(trace);
+        }
+
+        int eventCount = readCount(input);
+        List<ConstructorContext> contexts = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            contexts.add(decodeEvent(input, strings, traces));
+        }
+        return contexts;
+    }
+
+    private ConstructorContext decodeEvent(InputStream in, String[] strings, List<List<StackTraceElement>> traces) throws IOException {
+        ConstructorContext context = new ConstructorContext()
+                .withFileName(string(in, strings))
+                .withClassName(string(in, strings))
+                .withMethodName(string(in, strings))
+                .withSnapshot(string(in, strings))
+                .withEventKey(string(in, strings));
+        int commitKind = readVarint(in);
+        if (commitKind == BinaryBatchFormat.COMMIT_WITHOUT_REPOSITORY) {
+            context.withCommit(new CommitSimpleInstrDTO(string(in, strings), null));
+        } else if (commitKind == BinaryBatchFormat.COMMIT_WITH_REPOSITORY) {
+            String sha = string(in, strings);
+            context.withCommit(new CommitSimpleInstrDTO(sha, new RepositorySimpleInstrDTO(string(in, strings), string(in, strings))));
+        } else if (commitKind != BinaryBatchFormat.COMMIT_NONE) {
+            throw new InvalidBinaryBatchException("unknown commit kind " + commitKind);
+        }
+
+        int parameterCount = readVarint(in) - 1;
+        if (parameterCount >= 0) {
+            List<String> parameters = new ArrayList<>(parameterCount);
+            for (int i = 0; i < parameterCount; i++) {
+                parameters.add(string(in, strings));
+            }
+            context.withParameters(parameters);
+        }
+        int attributeCount = readVarint(in) - 1;
+        if (attributeCount >= 0) {
+            List<AttributeContext> attributes = new ArrayList<>(attributeCount);
+            for (int i = 0; i < attributeCount; i++) {
+                attributes.add(new AttributeContext(string(in, strings), string(in, strings), string(in, strings), string(in, strings)));
+            }
+            context.withAttributes(attributes);
+        }
+        int traceRef = readVarint(in);
+        if (traceRef > 0) {
+            if (traceRef > traces.size()) {
+                throw new InvalidBinaryBatchException("unknown stack trace " + (traceRef - 1));
+            }
+            context.withStackTrace(new ArrayList<>(traces.get(traceRef - 1)));
+        }
+        return context;
+    }
+
+    private String string(InputStream in, String[] strings) throws IOException {
+        int ref = readVarint(in);
+        if (ref == 0) return null;
+        if (ref > strings.length) {
+            throw new InvalidBinaryBatchException("unknown string " + (ref - 1));
+        }
+        return strings[ref - 1];
+    }
+
+    /**
+     * Reads a count, rejecting the negative ones that a corrupted varint can produce
+     */
+    private int readCount(InputStream in) throws IOException {
+        int count = readVarint(in);
+        if (count < 0) {
+            throw new InvalidBinaryBatchException("negative count " + count);
+        }
+        return count;
+    }
+
+    private int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidBinaryBatchException("malformed varint");
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new InvalidBinaryBatchException("truncated batch");
+        }
+        return b;
+    }
+
+    private void readFully(InputStream in, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int read = in.read(bytes, offset, bytes.length - offset);
+            if (read < 0) {
+                throw new InvalidBinaryBatchException("truncated batch");
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package be.unamur.snail.services;
+
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.IMethodCoverage;
+import org.jacoco.core.tools.ExecFileLoader;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the constructors executed by a test suite from JaCoCo execution data. The execution
+ * data only holds the probes of each class, so it is analyzed with the classes compiled from
+ * the same sources: a class whose bytecode differs from the one the tests ran is reported as
+ * not matching, and its constructors as not executed.
+ */
+public class ConstructorCoverageAnalyzer {
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    /**
+     * @param execFiles the JaCoCo execution data files, merged
+     * @param classesDirs the directories of the compiled classes of the project
+     * @return the executed constructors
+     * @throws IOException if a file cannot be read
+     */
+    public ConstructorCoverage analyze(List<Path> execFiles, List<Path> classesDirs) throws IOException {
+        ExecFileLoader loader = new ExecFileLoader();
+        for (Path execFile : execFiles) {
+            loader.load(execFile.toFile());
+        }
+        CoverageBuilder builder = new CoverageBuilder();
+        Analyzer analyzer = new Analyzer(loader.getExecutionDataStore(), builder);
+        for (Path classesDir : classesDirs) {
+            analyzer.analyzeAll(classesDir.toFile());
+        }
+
+        ConstructorCoverage coverage = new ConstructorCoverage();
+        coverage.noMatchClassCount = builder.getNoMatchClasses().size();
+        for (IClassCoverage classCoverage : builder.getClasses()) {
+            for (IMethodCoverage method : classCoverage.getMethods()) {
+                if (!CONSTRUCTOR_NAME.equals(method.getName())) {
+                    continue;
+                }
+                coverage.constructorCount++;
+                if (method.getMethodCounter().getCoveredCount() > 0) {
+                    coverage.executedConstructors.computeIfAbsent(classCoverage.getName().replace('/', '.'), k -> new ArrayList<>())
+                            .add(parameterTypes(method.getDesc()));
+                }
+            }
+        }
+        for (List<List<String>> constructors : coverage.executedConstructors.values()) {
+            constructors.sort(Comparator.comparing(List::toString));
+        }
+        return coverage;
+    }
+
+    /**
+     * Returns the parameter types of a method descriptor as Java names, e.g. [java.lang.String, int[]]
+     */
+    static List<String> parameterTypes(String descriptor) {
+        List<String> types = new ArrayList<>();
+        for (Type type : Type.getArgumentTypes(descriptor)) {
+            types.add(type.getClassName());
+        }
+        return types;
+    }
+
+    /**
+     * Constructors of the analyzed classes executed by the tests
+     */
+    public static class ConstructorCoverage {
+        private final Map<String, List<List<String>>> executedConstructors = new TreeMap<>();
+        private int constructorCount;
+        private int noMatchClassCount;
+
+        /**
+         * @return the parameter types of the executed constructors of each class, by binary name
+         */
+        public Map<String, List<List<String>>> getExecutedConstructors() {
+            return executedConstructors;
+        }
+
+        public int getExecutedConstructorCount() {
+            return executedConstructors.values().stream().mapToInt(List::size).sum();
+        }
+
+        /**
+         * @return the number of constructors of the analyzed classes
+         */
+        public int getConstructorCount() {
+            return constructorCount;
+        }
+
+        /**
+         * @return the number of classes of the execution data whose bytecode differs from the analyzed one
+         */
+        public int getNoMatchClassCount() {
+            return noMatchClassCount;
+        }
+    }
+}
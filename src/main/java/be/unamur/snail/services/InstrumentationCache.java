@@ -0,0 +1,301 @@
+package be.unamur.snail.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Cache of the source files instrumented by InstrumentConstructorsStage, so that instrumenting
+ * consecutive commits of a project only models and processes the files that changed. An entry
+ * is keyed by the SHA-256 of the fingerprint of the instrumentation (processor, classpath,
+ * project), of the path of the file within the source root and of its content; it stores the
+ * instrumented file with the types it declares and references. The source root and the commit
+ * are replaced by placeholders in the stored file, since both differ from one commit to the
+ * other, and restored when the entry is used.
+ * Entries are content addressed and written atomically, so the cache can be shared by
+ * several projects and campaigns.
+ */
+public class InstrumentationCache {
+    static final String SOURCE_ROOT_PLACEHOLDER = "__SENTINEL_SOURCE_ROOT__";
+    static final String COMMIT_PLACEHOLDER = "__SENTINEL_COMMIT__";
+    private static final String SOURCE_EXTENSION = ".java";
+    private static final String METADATA_EXTENSION = ".json";
+
+    private final Path cacheDir;
+    private final String fingerprint;
+    private final ObjectMapper mapper;
+
+    /**
+     * @param cacheDir the directory of the cache, created if needed
+     * @param fingerprint the fingerprint of everything besides the sources the instrumented
+     *                    files depend on, see fingerprint()
+     */
+    public InstrumentationCache(Path cacheDir, String fingerprint) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint;
+        this.mapper = new ObjectMapper();
+    }
+
+    /**
+     * Splits the source files between the ones whose instrumented version is cached and the
+     * ones to instrument: the files without entry, because they changed or are new, and the
+     * cached files referencing a type declared by one of them
+     * @param sourceRoot the source root of the analyzed project
+     * @param sourceFiles the source files to instrument, within the source root
+     * @return the plan of the instrumentation
+     * @throws IOException if a source file or a cache entry cannot be read
+     */
+    public Plan plan(Path sourceRoot, List<Path> sourceFiles) throws IOException {
+        Plan plan = new Plan();
+        Set<String> changedTypes = new LinkedHashSet<>();
+        for (Path file : sourceFiles) {
+            String relativePath = relativePath(sourceRoot, file);
+            String key = key(relativePath, Files.readAllBytes(file));
+            plan.keys.put(file, key);
+            Entry entry = lookup(key);
+            if (entry == null) {
+                plan.filesToInstrument.add(file);
+                changedTypes.add(declaredType(relativePath));
+            } else {
+                plan.cachedFiles.put(file, entry);
+            }
+        }
+        for (Map.Entry<Path, Entry> cached : new ArrayList<>(plan.cachedFiles.entrySet())) {
+            if (cached.getValue().getReferencedTypes().stream().anyMatch(changedTypes::contains)) {
+                plan.cachedFiles.remove(cached.getKey());
+                plan.filesToInstrument.add(cached.getKey());
+                plan.dependentFileCount++;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @return the cache entry with this key, null if there is none
+     */
+    public Entry lookup(String key) throws IOException {
+        Path source = entryPath(key, SOURCE_EXTENSION);
+        Path metadata = entryPath(key, METADATA_EXTENSION);
+        if (!Files.isRegularFile(source) || !Files.isRegularFile(metadata)) {
+            return null;
+        }
+        Metadata types = mapper.readValue(metadata.toFile(), Metadata.class);
+        return new Entry(Files.readString(source), types.declaredTypes, types.referencedTypes);
+    }
+
+    /**
+     * Stores an instrumented file, the metadata last so that a reader never sees an entry
+     * without its source
+     * @param key the key of the original file, computed before it was instrumented
+     * @param instrumentedSource the instrumented file
+     * @param sourceRoot the source root of the analyzed project
+     * @param commit the commit instrumented, can be null
+     * @param declaredTypes the qualified names of the top-level types of the file
+     * @param referencedTypes the qualified names of the top-level types the file references
+     */
+    public void store(String key, String instrumentedSource, Path sourceRoot, String commit, Set<String> declaredTypes, Set<String> referencedTypes) throws IOException {
+        writeAtomically(entryPath(key, SOURCE_EXTENSION), toCachedSource(instrumentedSource, sourceRoot, commit));
+        Metadata metadata = new Metadata();
+        metadata.declaredTypes = new TreeSet<>(declaredTypes);
+        metadata.referencedTypes = new TreeSet<>(referencedTypes);
+        writeAtomically(entryPath(key, METADATA_EXTENSION), mapper.writeValueAsString(metadata));
+    }
+
+    /**
+     * Writes the cached instrumented version of a file in place of the original one
+     */
+    public void restore(Path file, Entry entry, Path sourceRoot, String commit) throws IOException {
+        Files.writeString(file, fromCachedSource(entry.getSource(), sourceRoot, commit));
+    }
+
+    /**
+     * Returns the key of a source file
+     * @param relativePath the path of the file within the source root, with '/' separators
+     * @param content the content of the original file
+     */
+    public String key(String relativePath, byte[] content) {
+        MessageDigest digest = sha256();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(relativePath.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(content);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns the SHA-256 of parts identifying the instrumentation, e.g. the version of the
+     * processor, the classpath and the project
+     */
+    public static String fingerprint(List<String> parts) {
+        MessageDigest digest = sha256();
+        for (String part : parts) {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns the fingerprint of a classpath: the path of each entry, relative to the analyzed
+     * project if it is inside it, and the size of each file, their modification time being
+     * that of the clone
+     */
+    public static List<String> classPathFingerprint(List<String> classPath, Path repoPath) {
+        List<String> parts = new ArrayList<>();
+        Path root = repoPath.toAbsolutePath().normalize();
+        for (String entry : classPath) {
+            Path path = Path.of(entry).toAbsolutePath().normalize();
+            String name = path.startsWith(root) ? "<repo>/" + root.relativize(path) : path.toString();
+            parts.add(name + ":" + path.toFile().length());
+        }
+        return parts;
+    }
+
+    static String toCachedSource(String source, Path sourceRoot, String commit) {
+        String cached = source;
+        for (String root : sourceRootForms(sourceRoot)) {
+            cached = cached.replace(root, SOURCE_ROOT_PLACEHOLDER);
+        }
+        if (commit != null && !commit.isEmpty()) {
+            cached = cached.replace("\"" + commit + "\"", "\"" + COMMIT_PLACEHOLDER + "\"");
+        }
+        return cached;
+    }
+
+    static String fromCachedSource(String cached, Path sourceRoot, String commit) {
+        return cached.replace(SOURCE_ROOT_PLACEHOLDER, sourceRoot.toAbsolutePath().normalize().toString())
+                .replace("\"" + COMMIT_PLACEHOLDER + "\"", commit == null ? "null" : "\"" + commit + "\"");
+    }
+
+    /**
+     * Returns the forms of the source root the file names of the descriptors can start with:
+     * the path given to Spoon and its real path, longest first
+     */
+    private static List<String> sourceRootForms(Path sourceRoot) {
+        Set<String> forms = new TreeSet<>((a, b) -> a.length() != b.length() ? b.length() - a.length() : a.compareTo(b));
+        forms.add(sourceRoot.toAbsolutePath().normalize().toString());
+        try {
+            forms.add(sourceRoot.toRealPath().toString());
+        } catch (IOException e) {
+            // The source root does not exist, only its absolute path can be found in the files
+        }
+        return new ArrayList<>(forms);
+    }
+
+    /**
+     * Returns the type a source file is expected to declare, com.example.Foo for com/example/Foo.java
+     */
+    static String declaredType(String relativePath) {
+        return relativePath.substring(0, relativePath.length() - SOURCE_EXTENSION.length()).replace('/', '.');
+    }
+
+    private static String relativePath(Path sourceRoot, Path file) {
+        return sourceRoot.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    private Path entryPath(String key, String extension) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + extension);
+    }
+
+    private static void writeAtomically(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, content);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Files to instrument and files whose instrumented version is cached
+     */
+    public static class Plan {
+        private final Map<Path, String> keys = new LinkedHashMap<>();
+        private final List<Path> filesToInstrument = new ArrayList<>();
+        private final Map<Path, Entry> cachedFiles = new LinkedHashMap<>();
+        private int dependentFileCount;
+
+        /**
+         * @return the key of each source file, computed from its original content
+         */
+        public Map<Path, String> getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return the changed files, then the cached files depending on them
+         */
+        public List<Path> getFilesToInstrument() {
+            return filesToInstrument;
+        }
+
+        public Map<Path, Entry> getCachedFiles() {
+            return cachedFiles;
+        }
+
+        /**
+         * @return the number of files instrumented again because they reference a changed type
+         */
+        public int getDependentFileCount() {
+            return dependentFileCount;
+        }
+    }
+
+    /**
+     * Instrumented version of a source file, with placeholders for the source root and the commit
+     */
+    public static class Entry {
+        private final String source;
+        private final Set<String> declaredTypes;
+        private final Set<String> referencedTypes;
+
+        public Entry(String source, Set<String> declaredTypes, Set<String> referencedTypes) {
+            this.source = source;
+            this.declaredTypes = declaredTypes;
+            this.referencedTypes = referencedTypes;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public Set<String> getDeclaredTypes() {
+            return declaredTypes;
+        }
+
+        public Set<String> getReferencedTypes() {
+            return referencedTypes;
+        }
+    }
+
+    // Stored next to the instrumented file
+    static class Metadata {
+        public Set<String> declaredTypes = new TreeSet<>();
+        public Set<String> referencedTypes = new TreeSet<>();
+    }
+}
@@ -0,0 +1,159 @@
+package be.unamur.snail.services;
+
+import be.unamur.snail.exceptions.UnknownDictionaryIdException;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the batches sent by the instrumentation to /batch/interned, where the stack traces
+ * and the constructor descriptors are replaced by ids of a dictionary sent incrementally
+ * along with the batches (see
+ * ConstructorContextSerializer.serializeInternedBatch). The decoder keeps the dictionary of
+ * each session, so the batches of a session must be decoded in the order they were sent.
+ * The decoded contexts have their full stack trace again, and can be serialized in the
+ * plain batch format with ConstructorContextSerializer.serializeList.
+ */
+public class InternedBatchDecoder {
+    private final ObjectMapper mapper;
+    private final Map<String, SessionDictionary> sessions = new HashMap<>();
+
+    public InternedBatchDecoder() {
+        this.mapper = new ObjectMapper();
+    }
+
+    /**
+     * Decodes an interned batch, after adding its dictionary entries to the dictionary of
+     * its session
+     * @param json the interned batch
+     * @return the constructor contexts of the batch, with their full stack trace
+     * @throws JsonException if the batch is not valid JSON
+     * @throws UnknownDictionaryIdException if the batch references an id never received
+     */
+    public List<ConstructorContext> decode(String json) {
+        JsonNode root;
+        try {
+            root = mapper.readTree(json);
+        } catch (IOException e) {
+            throw new JsonException(e);
+        }
+        String sessionId = root.path("sessionId").asText();
+        SessionDictionary dictionary = sessions.computeIfAbsent(sessionId, id -> new SessionDictionary());
+
+        for (JsonNode descriptor : root.path("descriptors")) {
+            dictionary.descriptors.put(descriptor.get("id").asInt(), descriptor);
+        }
+        for (JsonNode frame : root.path("frames")) {
+            dictionary.frames.put(frame.get("id").asInt(), new StackTraceElement(
+                    frame.path("className").asText(),
+                    frame.path("methodName").asText(),
+                    textOrNull(frame.get("fileName")),
+                    frame.path("lineNumber").asInt()));
+        }
+        for (JsonNode trace : root.path("traces")) {
+            List<StackTraceElement> frames = new ArrayList<>();
+            for (JsonNode frameId : trace.path("frames")) {
+                StackTraceElement frame = dictionary.frames.get(frameId.asInt());
+                if (frame == null) {
+                    throw new UnknownDictionaryIdException("frame", frameId.asInt(), sessionId);
+                }
+                frames.add(frame);
+            }
+            dictionary.traces.put(trace.get("id").asInt(), frames);
+        }
+
+        List<ConstructorContext> contexts = new ArrayList<>();
+        for (JsonNode event : root.path("events")) {
+            contexts.add(decodeEvent(event, dictionary, sessionId));
+        }
+        return contexts;
+    }
+
+    private ConstructorContext decodeEvent(JsonNode event, SessionDictionary dictionary, String sessionId) {
+        int stacktraceId = event.path("stacktraceId").asInt(-1);
+        List<StackTraceElement> stacktrace = null;
+        if (stacktraceId >= 0) {
+            List<StackTraceElement> frames = dictionary.traces.get(stacktraceId);
+            if (frames == null) {
+                throw new UnknownDictionaryIdException("stack trace", stacktraceId, sessionId);
+            }
+            stacktrace = new ArrayList<>(frames);
+        }
+        JsonNode descriptorIdNode = event.get("descriptorId");
+        if (descriptorIdNode != null) {
+            JsonNode descriptor = dictionary.descriptors.get(descriptorIdNode.asInt());
+            if (descriptor == null) {
+                throw new UnknownDictionaryIdException("constructor descriptor", descriptorIdNode.asInt(), sessionId);
+            }
+            return decodeContext(descriptor, event, stacktrace).withDescriptorId(descriptorIdNode.asInt());
+        }
+        return decodeContext(event, event, stacktrace);
+    }
+
+    /**
+     * Creates a context from the constructor metadata of a node (the event itself or its
+     * descriptor) and the data of the call in the event
+     */
+    private ConstructorContext decodeContext(JsonNode constructor, JsonNode event, List<StackTraceElement> stacktrace) {
+        return new ConstructorContext()
+                .withFileName(textOrNull(constructor.get("fileName")))
+                .withClassName(textOrNull(constructor.get("className")))
+                .withMethodName(textOrNull(constructor.get("methodName")))
+                .withParameters(decodeParameters(constructor.get("parameters")))
+                .withAttributes(decodeAttributes(event.get("attributes")))
+                .withStackTrace(stacktrace)
+                .withSnapshot(textOrNull(event.get("snapshot")))
+                .withCommit(decodeCommit(constructor.get("commit")))
+                .withEventKey(textOrNull(event.get("eventKey")));
+    }
+
+    private List<String> decodeParameters(JsonNode node) {
+        if (node == null || node.isNull()) return null;
+        List<String> parameters = new ArrayList<>();
+        for (JsonNode parameter : node) {
+            parameters.add(parameter.asText());
+        }
+        return parameters;
+    }
+
+    private List<AttributeContext> decodeAttributes(JsonNode node) {
+        if (node == null || node.isNull()) return null;
+        List<AttributeContext> attributes = new ArrayList<>();
+        for (JsonNode attribute : node) {
+            attributes.add(new AttributeContext(
+                    textOrNull(attribute.get("name")),
+                    textOrNull(attribute.get("type")),
+                    textOrNull(attribute.get("actualType")),
+                    textOrNull(attribute.get("rhs"))));
+        }
+        return attributes;
+    }
+
+    private CommitSimpleInstrDTO decodeCommit(JsonNode node) {
+        if (node == null || node.isNull()) return null;
+        JsonNode repository = node.get("repository");
+        RepositorySimpleInstrDTO repositoryDTO = repository == null || repository.isNull() ? null
+                : new RepositorySimpleInstrDTO(textOrNull(repository.get("name")), textOrNull(repository.get("owner")));
+        return new CommitSimpleInstrDTO(textOrNull(node.get("sha")), repositoryDTO);
+    }
+
+    private String textOrNull(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private static class SessionDictionary {
+        private final Map<Integer, JsonNode> descriptors = new HashMap<>();
+        private final Map<Integer, StackTraceElement> frames = new HashMap<>();
+        private final Map<Integer, List<StackTraceElement>> traces = new HashMap<>();
+    }
+}
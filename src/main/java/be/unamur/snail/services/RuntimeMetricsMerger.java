@@ -0,0 +1,226 @@
+package be.unamur.snail.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the runtime metrics files written at shutdown by each test JVM of the analyzed
+ * project (see RuntimeMetrics): the counters are summed, and the latency histograms of the
+ * batches and of each constructor are added bucket by bucket. A constructor is identified by
+ * its class, method and parameters, since the descriptor ids differ from one JVM to another.
+ */
+public class RuntimeMetricsMerger {
+    public static final String FILE_PREFIX = "runtime-metrics-";
+    public static final String FILE_EXTENSION = ".json";
+    private static final String[] COUNTERS = {"uniqueEvents", "duplicateEvents", "sharedDuplicateEvents", "droppedEvents", "failedBatches", "sentBytes", "sendFailures"};
+
+    private final ObjectMapper mapper;
+
+    public RuntimeMetricsMerger() {
+        this.mapper = new ObjectMapper();
+    }
+
+    /**
+     * Merges the metrics files
+     * @param files the metrics files, one per JVM
+     * @return the merged metrics
+     * @throws IOException if a file cannot be read or is not valid JSON
+     */
+    public MergedMetrics merge(List<Path> files) throws IOException {
+        MergedMetrics merged = new MergedMetrics();
+        for (Path file : files) {
+            merge(merged, mapper.readTree(file.toFile()));
+        }
+        return merged;
+    }
+
+    private void merge(MergedMetrics merged, JsonNode root) {
+        merged.jvmCount++;
+        merged.durationMillis = Math.max(merged.durationMillis, root.path("durationMillis").asLong());
+        for (String counter : COUNTERS) {
+            merged.counters.merge(counter, root.path(counter).asLong(), Long::sum);
+        }
+        merged.batchLatency.add(root.path("batchLatency"));
+        for (JsonNode constructor : root.path("constructors")) {
+            List<String> parameters = new ArrayList<>();
+            for (JsonNode parameter : constructor.path("parameters")) {
+                parameters.add(parameter.asText());
+            }
+            String className = constructor.path("className").asText();
+            String methodName = constructor.path("methodName").asText();
+            String key = className + "#" + methodName + "#" + parameters;
+            merged.constructors.computeIfAbsent(key, k -> new ConstructorMetrics(className, methodName, parameters))
+                    .latency.add(constructor.path("latency"));
+        }
+    }
+
+    /**
+     * Metrics of every test JVM
+     */
+    public static class MergedMetrics {
+        private int jvmCount;
+        private long durationMillis;
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+        private final Histogram batchLatency = new Histogram();
+        private final Map<String, ConstructorMetrics> constructors = new LinkedHashMap<>();
+
+        public int getJvmCount() {
+            return jvmCount;
+        }
+
+        /**
+         * @return the duration of the longest JVM
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @param name the name of the counter in the metrics files, e.g. "droppedEvents"
+         * @return the sum of the counter over every JVM, 0 if no file has it
+         */
+        public long getCounter(String name) {
+            return counters.getOrDefault(name, 0L);
+        }
+
+        public Histogram getBatchLatency() {
+            return batchLatency;
+        }
+
+        public List<ConstructorMetrics> getConstructors() {
+            return new ArrayList<>(constructors.values());
+        }
+
+        /**
+         * @return the total instrumentation time of every constructor call
+         */
+        public Histogram getConstructorLatency() {
+            Histogram total = new Histogram();
+            for (ConstructorMetrics constructor : constructors.values()) {
+                total.add(constructor.latency);
+            }
+            return total;
+        }
+
+        /**
+         * @param limit maximum number of constructors returned
+         * @return the constructors with the highest total instrumentation time first
+         */
+        public List<ConstructorMetrics> getSlowestConstructors(int limit) {
+            return constructors.values().stream()
+                    .sorted(Comparator.comparingLong((ConstructorMetrics constructor) -> constructor.latency.getTotalNanos()).reversed())
+                    .limit(limit)
+                    .toList();
+        }
+    }
+
+    /**
+     * Instrumentation time of a constructor in every JVM
+     */
+    public static class ConstructorMetrics {
+        private final String className;
+        private final String methodName;
+        private final List<String> parameters;
+        private final Histogram latency = new Histogram();
+
+        public ConstructorMetrics(String className, String methodName, List<String> parameters) {
+            this.className = className;
+            this.methodName = methodName;
+            this.parameters = parameters;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public List<String> getParameters() {
+            return parameters;
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * Latency histogram with the power of two buckets of LatencyHistogram: bucket i counts
+     * the durations between 2^i and 2^(i+1) - 1 nanoseconds
+     */
+    public static class Histogram {
+        private final long[] buckets = new long[64];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(JsonNode histogram) {
+            count += histogram.path("count").asLong();
+            totalNanos += histogram.path("totalNanos").asLong();
+            maxNanos = Math.max(maxNanos, histogram.path("maxNanos").asLong());
+            int i = 0;
+            for (JsonNode bucket : histogram.path("buckets")) {
+                if (i < buckets.length) {
+                    buckets[i++] += bucket.asLong();
+                }
+            }
+        }
+
+        void add(Histogram histogram) {
+            count += histogram.count;
+            totalNanos += histogram.totalNanos;
+            maxNanos = Math.max(maxNanos, histogram.maxNanos);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += histogram.buckets[i];
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile: the upper bound of the bucket
+         * holding it, capped by the maximum
+         * @param percentile the percentile, between 0 and 100
+         * @return the upper bound in nanoseconds, 0 if there is no value
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    long upperBound = i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                    return Math.min(upperBound, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
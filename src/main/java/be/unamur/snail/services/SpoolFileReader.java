@@ -0,0 +1,172 @@
+package be.unamur.snail.services;
+
+import be.unamur.snail.exceptions.InvalidSpoolFileException;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads the spool files written by SpoolFileConstructorContextSender (see SpoolFormat).
+ * The file is streamed, so that only its string table is kept in memory. A file whose JVM
+ * was killed is read up to its last complete record.
+ */
+public class SpoolFileReader {
+    /**
+     * Reads every record of a spool file
+     * @param file the spool file
+     * @param eventConsumer called with each constructor context, in the order they were written
+     * @param occurrencesConsumer called with each occurrence record, mapping event keys to
+     *                            their total number of occurrences in the JVM at that time
+     * @return the number of constructor contexts read
+     * @throws IOException if the file cannot be read
+     * @throws InvalidSpoolFileException if the file is not a spool file or references a
+     * string that was never defined
+     */
+    public long read(Path file, Consumer<ConstructorContext> eventConsumer, Consumer<Map<String, Long>> occurrencesConsumer) throws IOException {
+        long events = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            int magic;
+            int version;
+            try {
+                magic = in.readInt();
+                version = in.readInt();
+            } catch (EOFException e) {
+                throw new InvalidSpoolFileException(file.toString(), "missing header");
+            }
+            if (magic != SpoolFormat.MAGIC) {
+                throw new InvalidSpoolFileException(file.toString(), "wrong magic number");
+            }
+            if (version != SpoolFormat.VERSION) {
+                throw new InvalidSpoolFileException(file.toString(), "unsupported version " + version);
+            }
+
+            List<String> strings = new ArrayList<>();
+            while (true) {
+                byte[] record = readRecord(in);
+                if (record == null) {
+                    return events;
+                }
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = recordIn.readByte();
+                if (type == SpoolFormat.STRING_RECORD) {
+                    int id = recordIn.readInt();
+                    byte[] bytes = new byte[recordIn.readInt()];
+                    recordIn.readFully(bytes);
+                    if (id != strings.size()) {
+                        throw new InvalidSpoolFileException(file.toString(), "string " + id + " defined out of order");
+                    }
+                    strings.add(new String(bytes, StandardCharsets.UTF_8));
+                } else if (type == SpoolFormat.EVENT_RECORD) {
+                    eventConsumer.accept(readEvent(recordIn, strings, file));
+                    events++;
+                } else if (type == SpoolFormat.OCCURRENCES_RECORD) {
+                    int count = recordIn.readInt();
+                    Map<String, Long> occurrences = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        String key = string(recordIn.readInt(), strings, file);
+                        occurrences.put(key, recordIn.readLong());
+                    }
+                    occurrencesConsumer.accept(occurrences);
+                }
+                // Records of unknown types are skipped, for the files of newer versions
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the next record (its type and payload), or null at the end marker,
+     * at the end of the file or on a record truncated by the death of its JVM
+     */
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            return record;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private ConstructorContext readEvent(DataInputStream in, List<String> strings, Path file) throws IOException {
+        String fileName = string(in.readInt(), strings, file);
+        String className = string(in.readInt(), strings, file);
+        String methodName = string(in.readInt(), strings, file);
+        String snapshot = string(in.readInt(), strings, file);
+        String eventKey = string(in.readInt(), strings, file);
+        int shaId = in.readInt();
+        String repositoryName = string(in.readInt(), strings, file);
+        String repositoryOwner = string(in.readInt(), strings, file);
+        CommitSimpleInstrDTO commit = shaId == SpoolFormat.NULL_ID ? null
+                : new CommitSimpleInstrDTO(string(shaId, strings, file), new RepositorySimpleInstrDTO(repositoryName, repositoryOwner));
+
+        List<String> parameters = null;
+        int parameterCount = in.readInt();
+        if (parameterCount >= 0) {
+            parameters = new ArrayList<>(parameterCount);
+            for (int i = 0; i < parameterCount; i++) {
+                parameters.add(string(in.readInt(), strings, file));
+            }
+        }
+        List<AttributeContext> attributes = null;
+        int attributeCount = in.readInt();
+        if (attributeCount >= 0) {
+            attributes = new ArrayList<>(attributeCount);
+            for (int i = 0; i < attributeCount; i++) {
+                attributes.add(new AttributeContext(
+                        string(in.readInt(), strings, file),
+                        string(in.readInt(), strings, file),
+                        string(in.readInt(), strings, file),
+                        string(in.readInt(), strings, file)));
+            }
+        }
+        List<StackTraceElement> stacktrace = null;
+        int frameCount = in.readInt();
+        if (frameCount >= 0) {
+            stacktrace = new ArrayList<>(frameCount);
+            for (int i = 0; i < frameCount; i++) {
+                stacktrace.add(new StackTraceElement(
+                        string(in.readInt(), strings, file),
+                        string(in.readInt(), strings, file),
+                        string(in.readInt(), strings, file),
+                        in.readInt()));
+            }
+        }
+
+        return new ConstructorContext()
+                .withFileName(fileName)
+                .withClassName(className)
+                .withMethodName(methodName)
+                .withParameters(parameters)
+                .withAttributes(attributes)
+                .withStackTrace(stacktrace)
+                .withCommit(commit)
+                .withSnapshot(snapshot)
+                .withEventKey(eventKey);
+    }
+
+    private String string(int id, List<String> strings, Path file) {
+        if (id == SpoolFormat.NULL_ID) {
+            return null;
+        }
+        if (id < 0 || id >= strings.size()) {
+            throw new InvalidSpoolFileException(file.toString(), "unknown string id " + id);
+        }
+        return strings.get(id);
+    }
+}
@@ -0,0 +1,317 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the events of one instrumented thread as records of its current ArenaSegment (see
+ * ArenaSegment for the layout of a record). The record of an event is started by begin(),
+ * completed by addAttribute() and setStackTrace(), and only becomes visible to the
+ * dispatcher with commit(). Nothing is allocated on the heap while writing: the strings are
+ * copied char by char into the segment.
+ * Records can be nested, like the constructor calls they describe: when begin() is called
+ * while a record is pending, the pending record is suspended (moved out of the segment) until
+ * the nested one is committed or discarded, and then resumed. Each begin() must be followed
+ * by exactly one commit() or discard().
+ * When a record does not fit in the current segment anymore, the segment is handed off to
+ * the dispatcher and the record being written is moved to a new segment. Once its segment was
+ * claimed at shutdown, the writer stops recording events.
+ * A writer must only be used by its own thread.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public class ArenaEventWriter {
+    private final EventArena arena;
+    private final ConstructorEventDispatcher dispatcher;
+    private volatile ArenaSegment segment;
+    private ByteBuffer buffer;
+    private int position;
+    private int recordStart = -1;
+    private int committedRecords;
+    private boolean closed;
+    private byte[] stash = new byte[256];
+    // Records suspended by nested ones, -1 as length when the level has no record
+    private byte[][] suspendedRecords = new byte[4][];
+    private int[] suspendedLengths = new int[4];
+    private int nestingLevel;
+
+    ArenaEventWriter(EventArena arena, ConstructorEventDispatcher dispatcher) {
+        this.arena = arena;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Starts the record of a new event, suspending the pending one until this one is
+     * committed or discarded
+     * @param descriptorId id of the ConstructorDescriptor of the constructor, or -1 if the
+     *                     constructor is described by the other parameters
+     */
+    public void begin(int descriptorId, String fileName, String className, String methodName, List<String> parameters, CommitSimpleInstrDTO commit) {
+        suspendPendingRecord();
+        if (closed || arena.isClosed()) {
+            // The segment is read at shutdown, it must not change anymore
+            closed = true;
+            return;
+        }
+        if (segment == null) {
+            ArenaSegment first = arena.acquire(ArenaSegment.HEADER_SIZE);
+            if (first == null) {
+                arena.recordDroppedEvents(1);
+                return;
+            }
+            buffer = first.buffer();
+            segment = first;
+        }
+        recordStart = position;
+        ensureCapacity(ArenaSegment.HEADER_SIZE);
+        // The length and the event key are written by commit()
+        position += 12;
+        buffer.putInt(position, descriptorId);
+        position += 4;
+        if (descriptorId >= 0) {
+            return;
+        }
+        writeString(fileName);
+        writeString(className);
+        writeString(methodName);
+        if (parameters == null) {
+            writeInt(-1);
+        } else {
+            writeInt(parameters.size());
+            for (int i = 0; i < parameters.size(); i++) {
+                writeString(parameters.get(i));
+            }
+        }
+        if (commit == null) {
+            writeByte(ArenaSegment.COMMIT_NONE);
+        } else if (commit.getRepository() == null) {
+            writeByte(ArenaSegment.COMMIT_WITHOUT_REPOSITORY);
+            writeString(commit.getSha());
+        } else {
+            writeByte(ArenaSegment.COMMIT_WITH_REPOSITORY);
+            writeString(commit.getSha());
+            writeString(commit.getRepository().getName());
+            writeString(commit.getRepository().getOwner());
+        }
+    }
+
+    public void addAttribute(String name, String type, String actualType, String rhs) {
+        if (recordStart < 0) {
+            return;
+        }
+        writeByte(ArenaSegment.ATTRIBUTE_ENTRY);
+        writeString(name);
+        writeString(type);
+        writeString(actualType);
+        writeString(rhs);
+    }
+
+    /**
+     * Adds an attribute described by the AttributeDescriptor of the constructor, only written
+     * as its index and its actual type
+     */
+    public void addAttribute(int attributeIndex, String actualType) {
+        if (recordStart < 0) {
+            return;
+        }
+        writeByte(ArenaSegment.DESCRIBED_ATTRIBUTE_ENTRY);
+        writeInt(attributeIndex);
+        writeString(actualType);
+    }
+
+    public void setStackTrace(List<StackTraceElement> stacktrace) {
+        if (recordStart < 0 || stacktrace == null) {
+            return;
+        }
+        writeByte(ArenaSegment.STACKTRACE_ENTRY);
+        writeInt(stacktrace.size());
+        for (int i = 0; i < stacktrace.size(); i++) {
+            StackTraceElement element = stacktrace.get(i);
+            writeString(element.getClassName());
+            writeString(element.getMethodName());
+            writeString(element.getFileName());
+            writeInt(element.getLineNumber());
+        }
+    }
+
+    /**
+     * Completes the record of the current event, making it visible to the dispatcher
+     * @param eventKey the key of the event, computed by EventKeyHasher
+     */
+    public void commit(long eventKey) {
+        if (recordStart >= 0) {
+            buffer.putInt(recordStart, position - recordStart);
+            buffer.putLong(recordStart + 4, eventKey);
+            recordStart = -1;
+            committedRecords++;
+            segment.commit(position);
+        }
+        resumeSuspendedRecord();
+    }
+
+    /**
+     * Forgets the record of the current event
+     */
+    public void discard() {
+        if (recordStart >= 0) {
+            position = recordStart;
+            recordStart = -1;
+        }
+        resumeSuspendedRecord();
+    }
+
+    public boolean hasPendingEvent() {
+        return recordStart >= 0;
+    }
+
+    public int getNestingLevel() {
+        return nestingLevel;
+    }
+
+    /**
+     * Moves the pending record out of the segment, so that a nested record can be written
+     */
+    private void suspendPendingRecord() {
+        if (nestingLevel == suspendedLengths.length) {
+            suspendedRecords = Arrays.copyOf(suspendedRecords, nestingLevel * 2);
+            suspendedLengths = Arrays.copyOf(suspendedLengths, nestingLevel * 2);
+        }
+        if (recordStart < 0) {
+            suspendedLengths[nestingLevel++] = -1;
+            return;
+        }
+        int length = position - recordStart;
+        byte[] record = suspendedRecords[nestingLevel];
+        if (record == null || record.length < length) {
+            record = new byte[Math.max(length, 256)];
+            suspendedRecords[nestingLevel] = record;
+        }
+        for (int i = 0; i < length; i++) {
+            record[i] = buffer.get(recordStart + i);
+        }
+        suspendedLengths[nestingLevel++] = length;
+        position = recordStart;
+        recordStart = -1;
+    }
+
+    /**
+     * Writes the record suspended by the nested one back at the end of the segment
+     */
+    private void resumeSuspendedRecord() {
+        if (nestingLevel == 0) {
+            return;
+        }
+        int length = suspendedLengths[--nestingLevel];
+        if (length < 0 || closed) {
+            return;
+        }
+        byte[] record = suspendedRecords[nestingLevel];
+        recordStart = position;
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(position + i, record[i]);
+        }
+        position += length;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    ArenaSegment getCurrentSegment() {
+        return segment;
+    }
+
+    private void writeByte(byte value) {
+        ensureCapacity(1);
+        buffer.put(position, value);
+        position++;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(position, value);
+        position += 4;
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        int length = value.length();
+        ensureCapacity(4 + 2 * length);
+        buffer.putInt(position, length);
+        position += 4;
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(position, value.charAt(i));
+            position += 2;
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > buffer.capacity()) {
+            moveToNewSegment(bytes);
+        }
+    }
+
+    /**
+     * Hands the current segment off with its committed records, and moves the record being
+     * written to the start of a segment having room for the given number of bytes
+     */
+    private void moveToNewSegment(int bytes) {
+        int pending = position - recordStart;
+        int needed = pending + bytes;
+        stashRecord(pending);
+        ArenaSegment full = segment;
+        boolean async = dispatcher.isAsync();
+        if (closed || !full.claim(async)) {
+            // The segment was claimed at shutdown: the next events go to a segment nobody reads
+            closed = true;
+            segment = new ArenaSegment(Math.max(needed, arena.getSegmentSize()), false);
+        } else if (committedRecords == 0) {
+            // A single record larger than the segment
+            full.reset();
+            arena.release(full);
+            segment = arena.acquire(needed);
+        } else if (async) {
+            ArenaSegment next = arena.acquire(needed);
+            if (next == null) {
+                // Every segment is in use: the events of the full segment are dropped, and the
+                // segment is reused (acquire only fails for records fitting in a pooled segment)
+                arena.recordDroppedEvents(committedRecords);
+                full.reset();
+                next = full;
+            } else {
+                dispatcher.submitSegment(full);
+            }
+            segment = next;
+        } else {
+            // The sync dispatcher reads the segment right away, so it can be reused
+            dispatcher.submitSegment(full);
+            full.reset();
+            if (needed <= full.capacity()) {
+                segment = full;
+            } else {
+                arena.release(full);
+                segment = arena.acquire(needed);
+            }
+        }
+        committedRecords = 0;
+        buffer = segment.buffer();
+        for (int i = 0; i < pending; i++) {
+            buffer.put(i, stash[i]);
+        }
+        recordStart = 0;
+        position = pending;
+    }
+
+    private void stashRecord(int pending) {
+        if (stash.length < pending) {
+            stash = new byte[Math.max(pending, stash.length * 2)];
+        }
+        for (int i = 0; i < pending; i++) {
+            stash[i] = buffer.get(recordStart + i);
+        }
+    }
+}
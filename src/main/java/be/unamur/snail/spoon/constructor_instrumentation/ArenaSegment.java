@@ -0,0 +1,204 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Direct ByteBuffer holding the event records written by one ArenaEventWriter. A record is
+ * made of its length (int, counting the whole record), its event key (long), the id of its
+ * constructor descriptor (int), then, when this id is negative, the file, class and method
+ * names, the parameters (count then strings, -1 for null) and the commit (COMMIT_NONE,
+ * COMMIT_WITHOUT_REPOSITORY followed by the sha, or COMMIT_WITH_REPOSITORY followed by the
+ * sha, repository name and owner). The rest of the record is a sequence of entries: an
+ * ATTRIBUTE_ENTRY tag followed by the name, type, actual type and right hand side, a
+ * DESCRIBED_ATTRIBUTE_ENTRY tag followed by the index of the AttributeDescriptor of the
+ * constructor and the actual type, or a STACKTRACE_ENTRY tag followed by the number of frames and the class name, method name,
+ * file name and line number of each frame.
+ * A string is written as its number of chars (-1 for null) followed by its chars, so that
+ * the writer never encodes it into a byte array.
+ * The records before getCommittedPosition() are complete: the writer publishes this position
+ * after each record, so that the segment can be read at shutdown while its thread still runs.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public final class ArenaSegment {
+    static final byte ATTRIBUTE_ENTRY = 1;
+    static final byte STACKTRACE_ENTRY = 2;
+    static final byte DESCRIBED_ATTRIBUTE_ENTRY = 3;
+    static final byte COMMIT_NONE = 0;
+    static final byte COMMIT_WITHOUT_REPOSITORY = 1;
+    static final byte COMMIT_WITH_REPOSITORY = 2;
+    static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final boolean pooled;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private volatile int committedPosition;
+    private boolean recyclable;
+
+    ArenaSegment(int capacity, boolean pooled) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.pooled = pooled;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public int getCommittedPosition() {
+        return committedPosition;
+    }
+
+    void commit(int position) {
+        committedPosition = position;
+    }
+
+    /**
+     * Takes the segment away from its writer, either to hand it off when it is full or to
+     * read it at shutdown. Only the first claim succeeds, so a segment is never read twice.
+     * @param recyclable whether the segment can be reused once read, false when its writer
+     *                   may still write into it
+     * @return true if the segment was claimed
+     */
+    boolean claim(boolean recyclable) {
+        if (claimed.compareAndSet(false, true)) {
+            this.recyclable = recyclable && pooled;
+            return true;
+        }
+        return false;
+    }
+
+    boolean isPooled() {
+        return pooled;
+    }
+
+    boolean isRecyclable() {
+        return recyclable;
+    }
+
+    /**
+     * Makes the segment empty and available for a new writer
+     */
+    void reset() {
+        committedPosition = 0;
+        recyclable = false;
+        claimed.set(false);
+    }
+
+    /**
+     * Returns the position of the record following the one at the given position
+     */
+    public int nextRecord(int position) {
+        return position + buffer.getInt(position);
+    }
+
+    /**
+     * Returns the number of committed records
+     */
+    public int getRecordCount() {
+        int count = 0;
+        int end = committedPosition;
+        for (int position = 0; position < end; position = nextRecord(position)) {
+            count++;
+        }
+        return count;
+    }
+
+    public long getEventKey(int position) {
+        return buffer.getLong(position + 4);
+    }
+
+    /**
+     * Rebuilds the constructor context of the record at the given position, the only place
+     * where the heap objects of an event are created
+     * @param position start of the record
+     * @return the context of the record, without its event key
+     */
+    public ConstructorContext decode(int position) {
+        int end = nextRecord(position);
+        int descriptorId = buffer.getInt(position + 12);
+        ConstructorContext context = new ConstructorContext().withAttributes(new ArrayList<AttributeContext>());
+        int[] cursor = {position + HEADER_SIZE};
+        ConstructorDescriptor descriptor = null;
+        if (descriptorId >= 0) {
+            descriptor = ConstructorDescriptors.get(descriptorId);
+            context.withFileName(descriptor.getFileName())
+                    .withClassName(descriptor.getClassName())
+                    .withMethodName(descriptor.getMethodName())
+                    .withParameters(descriptor.getParameters())
+                    .withCommit(descriptor.getCommit())
+                    .withDescriptorId(descriptorId);
+        } else {
+            context.withFileName(readString(cursor))
+                    .withClassName(readString(cursor))
+                    .withMethodName(readString(cursor));
+            int parameterCount = readInt(cursor);
+            if (parameterCount >= 0) {
+                List<String> parameters = new ArrayList<>(parameterCount);
+                for (int i = 0; i < parameterCount; i++) {
+                    parameters.add(readString(cursor));
+                }
+                context.withParameters(parameters);
+            }
+            byte commitKind = buffer.get(cursor[0]++);
+            if (commitKind == COMMIT_WITHOUT_REPOSITORY) {
+                context.withCommit(new CommitSimpleInstrDTO(readString(cursor), null));
+            } else if (commitKind == COMMIT_WITH_REPOSITORY) {
+                String sha = readString(cursor);
+                String name = readString(cursor);
+                context.withCommit(new CommitSimpleInstrDTO(sha, new RepositorySimpleInstrDTO(name, readString(cursor))));
+            }
+        }
+        while (cursor[0] < end) {
+            byte tag = buffer.get(cursor[0]++);
+            if (tag == ATTRIBUTE_ENTRY) {
+                String name = readString(cursor);
+                String type = readString(cursor);
+                String actualType = readString(cursor);
+                context.addAttribute(new AttributeContext(name, type, actualType, readString(cursor)));
+            } else if (tag == DESCRIBED_ATTRIBUTE_ENTRY && descriptor != null) {
+                AttributeDescriptor attribute = descriptor.getAttribute(readInt(cursor));
+                context.addAttribute(new AttributeContext(attribute.getName(), attribute.getType(), readString(cursor), attribute.getRhs()));
+            } else if (tag == STACKTRACE_ENTRY) {
+                int frameCount = readInt(cursor);
+                List<StackTraceElement> stacktrace = new ArrayList<>(frameCount);
+                for (int i = 0; i < frameCount; i++) {
+                    String className = readString(cursor);
+                    String methodName = readString(cursor);
+                    String fileName = readString(cursor);
+                    stacktrace.add(new StackTraceElement(className, methodName, fileName, readInt(cursor)));
+                }
+                context.withStackTrace(stacktrace);
+            } else {
+                throw new IllegalStateException("Corrupted arena record at " + position);
+            }
+        }
+        return context;
+    }
+
+    private int readInt(int[] cursor) {
+        int value = buffer.getInt(cursor[0]);
+        cursor[0] += 4;
+        return value;
+    }
+
+    private String readString(int[] cursor) {
+        int length = readInt(cursor);
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        int position = cursor[0];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(position);
+            position += 2;
+        }
+        cursor[0] = position;
+        return new String(chars);
+    }
+}
@@ -0,0 +1,60 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Immutable metadata of a field assigned by an instrumented constructor: its name, its
+ * declared type and the kind of the right hand side of the assignment. It is registered with
+ * the ConstructorDescriptor of the constructor, so that the instrumented constructor only
+ * passes the index of the attribute and the assigned value at each assignment.
+ * The AttributeContext of each runtime class of the assigned values is created once and
+ * cached in a ClassValue, so that recording an attribute does not allocate anything.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public final class AttributeDescriptor {
+    private final String name;
+    private final String type;
+    private final String rhs;
+    private final AttributeContext nullAttribute;
+    private final ClassValue<AttributeContext> attributes = new ClassValue<AttributeContext>() {
+        @Override
+        protected AttributeContext computeValue(Class<?> actualType) {
+            return new AttributeContext(name, type, actualType.getName(), rhs);
+        }
+    };
+
+    public AttributeDescriptor(String name, String type, String rhs) {
+        this.name = name;
+        this.type = type;
+        this.rhs = rhs;
+        this.nullAttribute = new AttributeContext(name, type, "null", rhs);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getRhs() {
+        return rhs;
+    }
+
+    /**
+     * Returns the attribute recorded when the given value is assigned to the field, shared by
+     * every assignment of a value of the same class
+     * @param actualObject the value assigned to the field, possibly null
+     */
+    public AttributeContext attributeFor(Object actualObject) {
+        return actualObject == null ? nullAttribute : attributes.get(actualObject.getClass());
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeDescriptor{" +
+                "name='" + name + '\'' +
+                ", type='" + type + '\'' +
+                ", rhs='" + rhs + '\'' +
+                '}';
+    }
+}
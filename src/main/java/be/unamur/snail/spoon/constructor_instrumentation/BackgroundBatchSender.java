@@ -0,0 +1,23 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.List;
+
+/**
+ * Sender able to post its batches in the background. The dispatcher gives it a callback for
+ * each batch, so that the events of a batch whose post fails can still be sent again.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public interface BackgroundBatchSender extends ConstructorContextSender {
+    /**
+     * Sends a batch and tells the callback whether it was stored. The batch may be posted in
+     * the background, the method then returning as soon as it is queued.
+     * @throws ConstructorContextSendFailedException if the batch cannot be queued, or if it is
+     * sent by the calling thread and fails, in which case the callback is not called
+     */
+    void sendBatch(List<ConstructorContext> contexts, BatchCallback callback);
+
+    /**
+     * Waits until the callbacks of the batches posted in the background are called
+     */
+    void awaitBatches();
+}
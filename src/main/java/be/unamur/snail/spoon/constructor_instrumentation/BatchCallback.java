@@ -0,0 +1,13 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Told by a BackgroundBatchSender whether a batch was stored by the backend. A sender
+ * posting its batches in the background calls it from its own thread, once the request is
+ * completed, so it must be thread-safe and must not wait for the thread that sent the batch.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public interface BatchCallback {
+    void onSent();
+
+    void onFailed(RuntimeException e);
+}
@@ -0,0 +1,298 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the batches of constructor contexts in the binary format described in
+ * BinaryBatchFormat. The strings, frames and stack traces of a batch are first collected in
+ * tables, then the tables and the events referring to them are written to the stream through
+ * a reusable buffer. The tables and the buffer are reused by each thread from one batch to
+ * the next, as the batches of the async dispatcher can be written by several threads.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public class BinaryBatchEncoder {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ThreadLocal<State> states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    public BinaryBatchEncoder() {}
+
+    /**
+     * Writes a batch to the stream, without closing it
+     * @param contexts the contexts of the batch
+     * @param out the stream the batch is written to
+     */
+    public void write(List<ConstructorContext> contexts, OutputStream out) throws IOException {
+        State state = states.get();
+        state.reset(out, contexts.size());
+        try {
+            for (int i = 0; i < contexts.size(); i++) {
+                state.collect(contexts.get(i), i);
+            }
+            state.writeHeader();
+            state.writeTables();
+            state.writeVarint(contexts.size());
+            for (int i = 0; i < contexts.size(); i++) {
+                state.writeEvent(contexts.get(i), i);
+            }
+            state.flush();
+        } finally {
+            state.release();
+        }
+    }
+
+    private static final class State {
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<StackTraceElement, Integer> frameIds = new HashMap<>();
+        private final List<StackTraceElement> frames = new ArrayList<>();
+        private final Map<List<StackTraceElement>, Integer> traceIds = new HashMap<>();
+        private final List<List<StackTraceElement>> traces = new ArrayList<>();
+        private int[] eventTraceRefs = new int[0];
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+        private OutputStream out;
+
+        void reset(OutputStream out, int events) {
+            this.out = out;
+            this.count = 0;
+            if (eventTraceRefs.length < events) {
+                eventTraceRefs = new int[events];
+            }
+        }
+
+        /**
+         * Clears the tables so that the strings of this batch are not kept alive until the
+         * next one
+         */
+        void release() {
+            stringIds.clear();
+            strings.clear();
+            frameIds.clear();
+            frames.clear();
+            traceIds.clear();
+            traces.clear();
+            out = null;
+        }
+
+        void collect(ConstructorContext context, int index) {
+            stringRef(context.getFileName());
+            stringRef(context.getClassName());
+            stringRef(context.getMethodName());
+            stringRef(context.getSnapshot());
+            stringRef(context.getEventKey());
+            CommitSimpleInstrDTO commit = context.getCommit();
+            if (commit != null) {
+                stringRef(commit.getSha());
+                RepositorySimpleInstrDTO repository = commit.getRepository();
+                if (repository != null) {
+                    stringRef(repository.getName());
+                    stringRef(repository.getOwner());
+                }
+            }
+            List<String> parameters = context.getParameters();
+            if (parameters != null) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    stringRef(parameters.get(i));
+                }
+            }
+            List<AttributeContext> attributes = context.getAttributes();
+            if (attributes != null) {
+                for (int i = 0; i < attributes.size(); i++) {
+                    AttributeContext attribute = attributes.get(i);
+                    stringRef(attribute.getName());
+                    stringRef(attribute.getType());
+                    stringRef(attribute.getActualType());
+                    stringRef(attribute.getRhs());
+                }
+            }
+            eventTraceRefs[index] = traceRef(context.getStacktrace());
+        }
+
+        private int stringRef(String value) {
+            if (value == null) return 0;
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(value, id);
+                strings.add(value);
+            }
+            return id + 1;
+        }
+
+        private int traceRef(List<StackTraceElement> stacktrace) {
+            if (stacktrace == null) return 0;
+            Integer id = traceIds.get(stacktrace);
+            if (id == null) {
+                for (int i = 0; i < stacktrace.size(); i++) {
+                    StackTraceElement frame = stacktrace.get(i);
+                    if (!frameIds.containsKey(frame)) {
+                        frameIds.put(frame, frames.size());
+                        frames.add(frame);
+                        stringRef(frame.getClassName());
+                        stringRef(frame.getMethodName());
+                        stringRef(frame.getFileName());
+                    }
+                }
+                id = traces.size();
+                traceIds.put(stacktrace, id);
+                traces.add(stacktrace);
+            }
+            return id + 1;
+        }
+
+        void writeHeader() throws IOException {
+            ensureCapacity(5);
+            buffer[count++] = (byte) (BinaryBatchFormat.MAGIC >>> 24);
+            buffer[count++] = (byte) (BinaryBatchFormat.MAGIC >>> 16);
+            buffer[count++] = (byte) (BinaryBatchFormat.MAGIC >>> 8);
+            buffer[count++] = (byte) BinaryBatchFormat.MAGIC;
+            buffer[count++] = (byte) BinaryBatchFormat.VERSION;
+        }
+
+        void writeTables() throws IOException {
+            writeVarint(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                writeString(strings.get(i));
+            }
+            writeVarint(frames.size());
+            for (int i = 0; i < frames.size(); i++) {
+                StackTraceElement frame = frames.get(i);
+                writeVarint(stringRef(frame.getClassName()));
+                writeVarint(stringRef(frame.getMethodName()));
+                writeVarint(stringRef(frame.getFileName()));
+                writeVarint(zigzag(frame.getLineNumber()));
+            }
+            writeVarint(traces.size());
+            for (int i = 0; i < traces.size(); i++) {
+                List<StackTraceElement> trace = traces.get(i);
+                writeVarint(trace.size());
+                for (int j = 0; j < trace.size(); j++) {
+                    writeVarint(frameIds.get(trace.get(j)));
+                }
+            }
+        }
+
+        void writeEvent(ConstructorContext context, int index) throws IOException {
+            writeVarint(stringRef(context.getFileName()));
+            writeVarint(stringRef(context.getClassName()));
+            writeVarint(stringRef(context.getMethodName()));
+            writeVarint(stringRef(context.getSnapshot()));
+            writeVarint(stringRef(context.getEventKey()));
+            CommitSimpleInstrDTO commit = context.getCommit();
+            if (commit == null) {
+                writeVarint(BinaryBatchFormat.COMMIT_NONE);
+            } else if (commit.getRepository() == null) {
+                writeVarint(BinaryBatchFormat.COMMIT_WITHOUT_REPOSITORY);
+                writeVarint(stringRef(commit.getSha()));
+            } else {
+                writeVarint(BinaryBatchFormat.COMMIT_WITH_REPOSITORY);
+                writeVarint(stringRef(commit.getSha()));
+                writeVarint(stringRef(commit.getRepository().getName()));
+                writeVarint(stringRef(commit.getRepository().getOwner()));
+            }
+            List<String> parameters = context.getParameters();
+            writeVarint(parameters == null ? 0 : parameters.size() + 1);
+            if (parameters != null) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    writeVarint(stringRef(parameters.get(i)));
+                }
+            }
+            List<AttributeContext> attributes = context.getAttributes();
+            writeVarint(attributes == null ? 0 : attributes.size() + 1);
+            if (attributes != null) {
+                for (int i = 0; i < attributes.size(); i++) {
+                    AttributeContext attribute = attributes.get(i);
+                    writeVarint(stringRef(attribute.getName()));
+                    writeVarint(stringRef(attribute.getType()));
+                    writeVarint(stringRef(attribute.getActualType()));
+                    writeVarint(stringRef(attribute.getRhs()));
+                }
+            }
+            writeVarint(eventTraceRefs[index]);
+        }
+
+        void writeVarint(int value) throws IOException {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        private static int zigzag(int value) {
+            return (value << 1) ^ (value >> 31);
+        }
+
+        /**
+         * Writes the length of the UTF-8 bytes of the string, then the bytes themselves,
+         * encoded directly into the buffer. A lone surrogate is written as '?'.
+         */
+        private void writeString(String value) throws IOException {
+            int length = value.length();
+            int bytes = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    bytes++;
+                } else {
+                    bytes += 3;
+                }
+            }
+            writeVarint(bytes);
+            for (int i = 0; i < length; i++) {
+                ensureCapacity(4);
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[count++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[count++] = (byte) (0xC0 | (c >> 6));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[count++] = (byte) '?';
+                } else {
+                    buffer[count++] = (byte) (0xE0 | (c >> 12));
+                    buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void ensureCapacity(int bytes) throws IOException {
+            if (count + bytes > buffer.length) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Binary format of the batches posted to the /batch endpoint with the CONTENT_TYPE content
+ * type, written by BinaryBatchEncoder and read by BinaryBatchDecoder. A batch is
+ * self-contained: every string, frame and stack trace is defined once in the tables at the
+ * start of the batch, and then referred to by its index in its table.
+ * A batch is made of:
+ * - MAGIC (4 bytes, big-endian) and VERSION (1 byte)
+ * - the string table: count, then for each string the length of its UTF-8 bytes and the bytes
+ * - the frame table: count, then for each frame its class name, method name and file name
+ * (string references) and its line number (signed)
+ * - the stack trace table: count, then for each stack trace its number of frames and the
+ * index of each frame
+ * - the events: count, then for each event its file, class and method names, snapshot and
+ * event key (string references), its commit (COMMIT_NONE, COMMIT_WITHOUT_REPOSITORY followed
+ * by the sha, or COMMIT_WITH_REPOSITORY followed by the sha, repository name and owner), its
+ * parameters (list size then string references), its attributes (list size then name, type,
+ * actual type and right hand side string references) and its stack trace reference
+ * Every number is an unsigned LEB128 varint, the signed ones (line numbers) being zigzag
+ * encoded first. A reference is the index in its table plus one, 0 standing for null, and a
+ * list size is the size plus one, 0 standing for a null list.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public final class BinaryBatchFormat {
+    public static final String CONTENT_TYPE = "application/x-sentinel-batch";
+    public static final int MAGIC = 0x534E4242;
+    public static final int VERSION = 1;
+
+    public static final int COMMIT_NONE = 0;
+    public static final int COMMIT_WITHOUT_REPOSITORY = 1;
+    public static final int COMMIT_WITH_REPOSITORY = 2;
+
+    public static final String JSON_WIRE_FORMAT = "json";
+    public static final String BINARY_WIRE_FORMAT = "binary";
+
+    private BinaryBatchFormat() {}
+
+    /**
+     * Returns whether sentinel.wire.format selects the binary batches
+     */
+    public static boolean isBinarySelected() {
+        return BINARY_WIRE_FORMAT.equalsIgnoreCase(InstrumentationProperties.getString(InstrumentationProperties.WIRE_FORMAT, JSON_WIRE_FORMAT));
+    }
+}
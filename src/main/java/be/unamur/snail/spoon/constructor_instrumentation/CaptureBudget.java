@@ -0,0 +1,61 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Budget of distinct stack traces of a single constructor. Once the budget is exhausted,
+ * the calls of the constructor are not captured anymore, they are only counted.
+ */
+public class CaptureBudget {
+    private final int maxTraces;
+    private final LongOpenHashSet traces = new LongOpenHashSet();
+    private volatile boolean exhausted;
+    private long suppressedCalls;
+
+    public CaptureBudget(int maxTraces) {
+        this.maxTraces = maxTraces;
+    }
+
+    /**
+     * Returns true once maxTraces distinct stack traces were admitted, so that the next calls
+     * can be skipped before their stack trace is captured
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Admits an event of the constructor if its stack trace was already admitted or if the
+     * budget is not exhausted yet
+     * @param eventKey key of the event, see EventKeyHasher
+     * @return true if the event can be sent
+     */
+    public synchronized boolean admit(long eventKey) {
+        if (traces.contains(eventKey)) {
+            return true;
+        }
+        if (traces.size() >= maxTraces) {
+            exhausted = true;
+            suppressedCalls++;
+            return false;
+        }
+        traces.add(eventKey);
+        if (traces.size() >= maxTraces) {
+            exhausted = true;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a call that was not captured because the budget is exhausted
+     */
+    public synchronized void suppress() {
+        suppressedCalls++;
+    }
+
+    public synchronized long getSuppressedCallCount() {
+        return suppressedCalls;
+    }
+
+    public synchronized int getTraceCount() {
+        return traces.size();
+    }
+}
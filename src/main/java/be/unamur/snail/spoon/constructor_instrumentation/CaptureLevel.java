@@ -0,0 +1,37 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * How much of a constructor call is captured, from the cheapest to the most expensive
+ */
+public enum CaptureLevel {
+    /**
+     * The call is only counted, nothing is sent
+     */
+    COUNT,
+    /**
+     * The call is sent without its attributes, with the constructor and its immediate project
+     * caller as stack trace
+     */
+    CALLER,
+    /**
+     * The call is sent with its attributes and its filtered stack trace
+     */
+    FULL;
+
+    public static CaptureLevel fromString(String value) {
+        if (value != null) {
+            String level = value.trim();
+            if (level.equalsIgnoreCase("count") || level.equalsIgnoreCase("count-only")) {
+                return COUNT;
+            }
+            if (level.equalsIgnoreCase("caller") || level.equalsIgnoreCase("caller-only")) {
+                return CALLER;
+            }
+        }
+        return FULL;
+    }
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,119 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gives the CaptureLevel of each instrumented constructor: the level of
+ * sentinel.capture.level by default, overridden by the level of the longest package prefix of
+ * sentinel.capture.packageLevels matching the class of the constructor (a comma separated list
+ * of prefix=level, e.g. "com.example.model=count,com.example.core=full").
+ * The level of a registered constructor is resolved once, then read from an array indexed by
+ * its descriptor id.
+ */
+public class CaptureLevels {
+    private final CaptureLevel defaultLevel;
+    // Sorted from the longest prefix to the shortest one
+    private final String[] prefixes;
+    private final CaptureLevel[] prefixLevels;
+    private volatile CaptureLevel[] descriptorLevels = new CaptureLevel[0];
+
+    public CaptureLevels(CaptureLevel defaultLevel, String packageLevels) {
+        this.defaultLevel = defaultLevel;
+        List<String> parsedPrefixes = new ArrayList<>();
+        List<CaptureLevel> parsedLevels = new ArrayList<>();
+        if (packageLevels != null) {
+            for (String entry : packageLevels.split(",")) {
+                int separator = entry.indexOf('=');
+                if (separator <= 0) {
+                    continue;
+                }
+                String prefix = entry.substring(0, separator).trim();
+                CaptureLevel level = CaptureLevel.fromString(entry.substring(separator + 1));
+                int index = 0;
+                while (index < parsedPrefixes.size() && parsedPrefixes.get(index).length() >= prefix.length()) {
+                    index++;
+                }
+                parsedPrefixes.add(index, prefix);
+                parsedLevels.add(index, level);
+            }
+        }
+        this.prefixes = parsedPrefixes.toArray(new String[0]);
+        this.prefixLevels = parsedLevels.toArray(new CaptureLevel[0]);
+    }
+
+    public static CaptureLevels fromProperties() {
+        return new CaptureLevels(
+                CaptureLevel.fromString(InstrumentationProperties.getString(InstrumentationProperties.CAPTURE_LEVEL, "full")),
+                InstrumentationProperties.getString(InstrumentationProperties.CAPTURE_PACKAGE_LEVELS, ""));
+    }
+
+    /**
+     * Returns levels capturing every call fully
+     */
+    public static CaptureLevels full() {
+        return new CaptureLevels(CaptureLevel.FULL, null);
+    }
+
+    /**
+     * @param context the freshly initialized context of the call
+     * @return the capture level of the constructor of the call
+     */
+    public CaptureLevel levelOf(ConstructorContext context) {
+        int id = context.getDescriptorId();
+        if (id < 0) {
+            return levelOf(context.getClassName());
+        }
+        CaptureLevel[] levels = descriptorLevels;
+        if (id < levels.length && levels[id] != null) {
+            return levels[id];
+        }
+        return resolveDescriptorLevel(id, context.getClassName());
+    }
+
+    /**
+     * @param className fully qualified name of the class of a constructor
+     * @return the level of the longest matching package prefix, or the default level
+     */
+    public CaptureLevel levelOf(String className) {
+        if (className != null) {
+            for (int i = 0; i < prefixes.length; i++) {
+                if (className.startsWith(prefixes[i])) {
+                    return prefixLevels[i];
+                }
+            }
+        }
+        return defaultLevel;
+    }
+
+    private synchronized CaptureLevel resolveDescriptorLevel(int id, String className) {
+        CaptureLevel[] levels = descriptorLevels;
+        if (id >= levels.length) {
+            levels = Arrays.copyOf(levels, Math.max(id + 1, levels.length * 2));
+        } else if (levels[id] != null) {
+            return levels[id];
+        } else {
+            levels = levels.clone();
+        }
+        levels[id] = levelOf(className);
+        descriptorLevels = levels;
+        return levels[id];
+    }
+
+    /**
+     * Returns true if some constructors are not fully captured, in which case the calls of
+     * every constructor are counted
+     */
+    public boolean isTiered() {
+        if (defaultLevel != CaptureLevel.FULL) {
+            return true;
+        }
+        for (CaptureLevel level : prefixLevels) {
+            if (level != CaptureLevel.FULL) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,167 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which constructor calls are captured, to bound the number of events produced by
+ * hot constructors. Three limits can be combined, each one disabled when set to 0 or 1:
+ * - sentinel.capture.sampleRate: only 1 call out of N is captured, at random
+ * - sentinel.capture.maxTracesPerConstructor: once a constructor was sent with K distinct
+ * stack traces, its next calls are not captured anymore, only counted
+ * - sentinel.capture.maxEventsPerSecond: at most this number of calls are captured per
+ * second in the whole JVM
+ * shouldCapture() is called when the context is initialized, so that the calls that are not
+ * captured skip the attributes and the stack trace altogether.
+ */
+public class CapturePolicy {
+    private final int sampleRate;
+    private final int maxTracesPerConstructor;
+    private final int maxEventsPerSecond;
+
+    private volatile CaptureBudget[] descriptorBudgets = new CaptureBudget[0];
+    private final ConcurrentHashMap<String, CaptureBudget> legacyBudgets = new ConcurrentHashMap<>();
+
+    private final AtomicLong currentSecond = new AtomicLong(-1);
+    private final AtomicInteger eventsInCurrentSecond = new AtomicInteger();
+
+    private final LongAdder sampledOutCalls = new LongAdder();
+    private final LongAdder budgetSuppressedCalls = new LongAdder();
+    private final LongAdder rateLimitedCalls = new LongAdder();
+
+    public CapturePolicy(int sampleRate, int maxTracesPerConstructor, int maxEventsPerSecond) {
+        this.sampleRate = sampleRate;
+        this.maxTracesPerConstructor = maxTracesPerConstructor;
+        this.maxEventsPerSecond = maxEventsPerSecond;
+    }
+
+    public static CapturePolicy fromProperties() {
+        return new CapturePolicy(
+                InstrumentationProperties.getInt(InstrumentationProperties.CAPTURE_SAMPLE_RATE, 1),
+                InstrumentationProperties.getInt(InstrumentationProperties.CAPTURE_MAX_TRACES_PER_CONSTRUCTOR, 0),
+                InstrumentationProperties.getInt(InstrumentationProperties.CAPTURE_MAX_EVENTS_PER_SECOND, 0));
+    }
+
+    /**
+     * Returns a policy capturing every call
+     */
+    public static CapturePolicy captureAll() {
+        return new CapturePolicy(1, 0, 0);
+    }
+
+    /**
+     * Decides if a call is captured, from its freshly initialized context
+     * @param context the context, with its constructor metadata but without attributes
+     *                or stack trace yet
+     * @return true if the call must be captured and sent
+     */
+    public boolean shouldCapture(ConstructorContext context) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            sampledOutCalls.increment();
+            return false;
+        }
+        if (maxTracesPerConstructor > 0) {
+            CaptureBudget budget = budgetOf(context);
+            if (budget.isExhausted()) {
+                budget.suppress();
+                budgetSuppressedCalls.increment();
+                return false;
+            }
+        }
+        if (maxEventsPerSecond > 0 && !tryAcquireRate()) {
+            rateLimitedCalls.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decides if a captured call is sent, once its stack trace is known: it is not sent if it
+     * has a new stack trace while the budget of its constructor is exhausted
+     * @param context the complete context
+     * @return true if the context must be sent
+     */
+    public boolean admit(ConstructorContext context) {
+        if (maxTracesPerConstructor <= 0) {
+            return true;
+        }
+        if (budgetOf(context).admit(EventKeyHasher.hash(context))) {
+            return true;
+        }
+        budgetSuppressedCalls.increment();
+        return false;
+    }
+
+    private boolean tryAcquireRate() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            eventsInCurrentSecond.set(0);
+        }
+        return eventsInCurrentSecond.incrementAndGet() <= maxEventsPerSecond;
+    }
+
+    CaptureBudget budgetOf(ConstructorContext context) {
+        int id = context.getDescriptorId();
+        if (id < 0) {
+            String key = context.getClassName() + "#" + context.getFileName() + "#" + context.getParameters();
+            CaptureBudget budget = legacyBudgets.get(key);
+            if (budget == null) {
+                legacyBudgets.putIfAbsent(key, new CaptureBudget(maxTracesPerConstructor));
+                budget = legacyBudgets.get(key);
+            }
+            return budget;
+        }
+        CaptureBudget[] budgets = descriptorBudgets;
+        if (id < budgets.length && budgets[id] != null) {
+            return budgets[id];
+        }
+        return createDescriptorBudget(id);
+    }
+
+    private synchronized CaptureBudget createDescriptorBudget(int id) {
+        CaptureBudget[] budgets = descriptorBudgets;
+        if (id >= budgets.length) {
+            budgets = Arrays.copyOf(budgets, Math.max(id + 1, budgets.length * 2));
+        } else if (budgets[id] != null) {
+            return budgets[id];
+        } else {
+            budgets = budgets.clone();
+        }
+        budgets[id] = new CaptureBudget(maxTracesPerConstructor);
+        descriptorBudgets = budgets;
+        return budgets[id];
+    }
+
+    public boolean isUnrestricted() {
+        return sampleRate <= 1 && maxTracesPerConstructor <= 0 && maxEventsPerSecond <= 0;
+    }
+
+    public long getSampledOutCallCount() {
+        return sampledOutCalls.sum();
+    }
+
+    public long getBudgetSuppressedCallCount() {
+        return budgetSuppressedCalls.sum();
+    }
+
+    public long getRateLimitedCallCount() {
+        return rateLimitedCalls.sum();
+    }
+
+    /**
+     * Prints the number of calls that were not captured on the standard error, if
+     * sentinel.dispatcher.printStatistics is set
+     */
+    public void printStatistics() {
+        if (!isUnrestricted() && InstrumentationProperties.getBoolean(InstrumentationProperties.PRINT_STATISTICS, false)) {
+            System.err.println("[sentinel] Capture policy statistics: sampledOutCalls=" + getSampledOutCallCount()
+                    + ", budgetSuppressedCalls=" + getBudgetSuppressedCallCount()
+                    + ", rateLimitedCalls=" + getRateLimitedCallCount());
+        }
+    }
+}
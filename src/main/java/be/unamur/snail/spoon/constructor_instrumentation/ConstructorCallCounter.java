@@ -0,0 +1,149 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the calls of each instrumented constructor when capture levels are used, whatever
+ * their level, so that a cheap first pass with the count level shows which constructors
+ * deserve a full capture. A call only increments the LongAdder of its constructor, found by
+ * descriptor id in a copy-on-write array.
+ * The counts are exported at shutdown as a JSON array in sentinel.capture.countsDir, one file
+ * per JVM, each element giving the constructor, its capture level and its number of calls.
+ */
+public class ConstructorCallCounter {
+    private final CaptureLevels captureLevels;
+    private volatile LongAdder[] descriptorCounts = new LongAdder[0];
+    private final ConcurrentHashMap<String, CountedConstructor> legacyCounts = new ConcurrentHashMap<>();
+
+    public ConstructorCallCounter(CaptureLevels captureLevels) {
+        this.captureLevels = captureLevels;
+    }
+
+    /**
+     * Counts a call, from its freshly initialized context
+     */
+    public void increment(ConstructorContext context) {
+        int id = context.getDescriptorId();
+        if (id < 0) {
+            legacyCountOf(context).count.increment();
+            return;
+        }
+        LongAdder[] counts = descriptorCounts;
+        if (id < counts.length && counts[id] != null) {
+            counts[id].increment();
+            return;
+        }
+        createDescriptorCount(id).increment();
+    }
+
+    /**
+     * @return the number of calls of the constructor with this descriptor id
+     */
+    public long getCount(int descriptorId) {
+        LongAdder[] counts = descriptorCounts;
+        return descriptorId < counts.length && counts[descriptorId] != null ? counts[descriptorId].sum() : 0;
+    }
+
+    private CountedConstructor legacyCountOf(ConstructorContext context) {
+        String key = context.getClassName() + "#" + context.getFileName() + "#" + context.getParameters();
+        CountedConstructor counted = legacyCounts.get(key);
+        if (counted == null) {
+            legacyCounts.putIfAbsent(key, new CountedConstructor(new ConstructorDescriptor(-1, context.getFileName(), context.getClassName(), context.getMethodName(), context.getParameters(), context.getCommit())));
+            counted = legacyCounts.get(key);
+        }
+        return counted;
+    }
+
+    private synchronized LongAdder createDescriptorCount(int id) {
+        LongAdder[] counts = descriptorCounts;
+        if (id >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+        } else if (counts[id] != null) {
+            return counts[id];
+        } else {
+            counts = counts.clone();
+        }
+        counts[id] = new LongAdder();
+        descriptorCounts = counts;
+        return counts[id];
+    }
+
+    /**
+     * Writes the counts of the constructors called at least once, as a JSON array
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter().reset(out);
+        writer.raw('[');
+        boolean first = true;
+        LongAdder[] counts = descriptorCounts;
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != null) {
+                writeCount(writer, ConstructorDescriptors.get(id), counts[id].sum(), first);
+                first = false;
+            }
+        }
+        for (Map.Entry<String, CountedConstructor> entry : legacyCounts.entrySet()) {
+            writeCount(writer, entry.getValue().descriptor, entry.getValue().count.sum(), first);
+            first = false;
+        }
+        writer.raw(']');
+        writer.flush();
+    }
+
+    private void writeCount(JsonWriter writer, ConstructorDescriptor descriptor, long count, boolean first) throws IOException {
+        if (!first) {
+            writer.raw(',');
+        }
+        writer.raw("{\"fileName\":").string(descriptor.getFileName())
+                .raw(",\"className\":").string(descriptor.getClassName())
+                .raw(",\"methodName\":").string(descriptor.getMethodName())
+                .raw(",\"parameters\":[");
+        for (int i = 0; i < descriptor.getParameters().size(); i++) {
+            if (i > 0) {
+                writer.raw(',');
+            }
+            writer.string(descriptor.getParameters().get(i));
+        }
+        writer.raw("],\"level\":").string(captureLevels.levelOf(descriptor.getClassName()).getName())
+                .raw(",\"count\":").number(count)
+                .raw('}');
+    }
+
+    /**
+     * Writes the counts into a new file of the given directory
+     * @return the file, or null if it could not be written
+     */
+    public File export(File directory) {
+        File file = new File(directory, "constructor-counts-" + System.currentTimeMillis() + "-" + UUID.randomUUID() + ".json");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                writeTo(out);
+            }
+            return file;
+        } catch (IOException e) {
+            System.err.println("[sentinel] Failed to export the constructor call counts: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class CountedConstructor {
+        private final ConstructorDescriptor descriptor;
+        private final LongAdder count = new LongAdder();
+
+        private CountedConstructor(ConstructorDescriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+    }
+}
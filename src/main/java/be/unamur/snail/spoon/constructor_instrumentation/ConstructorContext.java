@@ -13,6 +13,8 @@ public class ConstructorContext implements AstElement {
     private List<StackTraceElement> stacktrace;
     private String snapshot;
     private CommitSimpleInstrDTO commit;
+    private String eventKey;
+    private int descriptorId = -1;
 
     public ConstructorContext() {}
 
@@ -21,11 +23,14 @@ public class ConstructorContext implements AstElement {
                 .withFileName(this.fileName)
                 .withClassName(this.className)
                 .withMethodName(this.methodName)
-                .withParameters(this.parameters == null ? null : new ArrayList<>(this.parameters))
+                // The parameters of a descriptor are immutable, they can be shared by the copies
+                .withParameters(this.parameters == null || this.descriptorId >= 0 ? this.parameters : new ArrayList<>(this.parameters))
                 .withAttributes(this.attributes == null ? null : new ArrayList<>(this.attributes))
                 .withStackTrace(this.stacktrace == null ? null : new ArrayList<>(this.stacktrace))
                 .withSnapshot(this.snapshot)
-                .withCommit(this.commit);
+                .withCommit(this.commit)
+                .withEventKey(this.eventKey)
+                .withDescriptorId(this.descriptorId);
     }
 
     public ConstructorContext withFileName(String fileName) {
@@ -68,6 +73,24 @@ public class ConstructorContext implements AstElement {
         return this;
     }
 
+    /**
+     * Sets the key identifying this event among the events sent by the JVM, used by the
+     * backend to match the occurrence updates with the stored constructor context
+     */
+    public ConstructorContext withEventKey(String eventKey) {
+        this.eventKey = eventKey;
+        return this;
+    }
+
+    /**
+     * Sets the id of the ConstructorDescriptor the context was initialized from, -1 if it was
+     * initialized from strings
+     */
+    public ConstructorContext withDescriptorId(int descriptorId) {
+        this.descriptorId = descriptorId;
+        return this;
+    }
+
     public String getFileName() {
         return fileName;
     }
@@ -100,6 +123,14 @@ public class ConstructorContext implements AstElement {
         return commit;
     }
 
+    public String getEventKey() {
+        return eventKey;
+    }
+
+    public int getDescriptorId() {
+        return descriptorId;
+    }
+
     public void addAttribute(AttributeContext attribute) {
         this.attributes.add(attribute);
     }
@@ -123,6 +154,8 @@ public class ConstructorContext implements AstElement {
                 ", stacktrace=" + stacktrace +
                 ", snapshot='" + snapshot + '\'' +
                 ", commit=" + commit +
+                ", eventKey='" + eventKey + '\'' +
+                ", descriptorId=" + descriptorId +
                 '}';
     }
 
@@ -1,9 +1,28 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
 import java.util.List;
+import java.util.Map;
 
 public interface ConstructorContextSender {
     void send(ConstructorContext context);
 
     void sendBatch(List<ConstructorContext> contexts);
+
+    /**
+     * Sends the total number of occurrences of events that were already sent
+     * @param occurrences map from event key to the total number of occurrences of the event
+     */
+    default void sendOccurrences(Map<String, Long> occurrences) {}
+
+    /**
+     * Returns the number of bytes sent so far, or 0 if the sender does not count them
+     */
+    default long getSentByteCount() {
+        return 0;
+    }
+
+    /**
+     * Releases the resources of the sender, once the last batch was sent at shutdown
+     */
+    default void close() {}
 }
@@ -1,119 +1,284 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Serializes the constructor contexts to JSON. The write* methods stream the JSON directly
+ * to an OutputStream (the body of a request), the serialize* methods return it as a String.
+ * Both go through a JsonWriter reused by each thread, so that no intermediate String nor
+ * StringBuilder is created per context or per field.
+ */
 public class ConstructorContextSerializer {
+    private final ThreadLocal<JsonWriter> writers = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+    };
 
     public ConstructorContextSerializer() {}
 
     public String serialize(ConstructorContext context) {
-        return toJson(context);
+        JsonWriter writer = writers.get().reset(null);
+        try {
+            writeContext(writer, context, null, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
     }
 
     public String serializeList(List<ConstructorContext> contexts) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
+        JsonWriter writer = writers.get().reset(null);
+        try {
+            writeList(writer, contexts);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the contexts as a JSON list to the stream, without building the list in memory
+     */
+    public void writeList(List<ConstructorContext> contexts, OutputStream out) throws IOException {
+        JsonWriter writer = writers.get().reset(out);
+        writeList(writer, contexts);
+        writer.flush();
+    }
+
+    /**
+     * Serializes occurrence updates as a list of {"eventKey":..., "occurrences":...} objects
+     * @param occurrences map from event key to the total number of occurrences of the event
+     * @return the JSON list
+     */
+    public String serializeOccurrences(Map<String, Long> occurrences) {
+        JsonWriter writer = writers.get().reset(null);
+        try {
+            writer.raw('[');
+            Iterator<Map.Entry<String, Long>> it = occurrences.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                writer.raw("{\"eventKey\":").string(entry.getKey());
+                writer.raw(",\"occurrences\":").number(entry.getValue());
+                writer.raw('}');
+                if (it.hasNext()) writer.raw(',');
+            }
+            writer.raw(']');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Serializes a batch whose stack traces are replaced by their id in the dictionary:
+     * {"sessionId":..., "descriptors":[...], "frames":[...], "traces":[...], "events":[...]}
+     * "descriptors", "frames" and "traces" only contain the entries of the delta, each with
+     * its id, and each trace is the list of the ids of its frames. Each event has a
+     * "stacktraceId" field instead of "stacktrace", -1 when it has no stack trace. The events
+     * initialized from a constructor descriptor only have a "descriptorId" field instead of
+     * the file, class and method names, the parameters and the commit.
+     * @param sessionId id scoping the dictionary, the backend keeps one dictionary per session
+     * @param contexts the contexts of the batch
+     * @param stacktraceIds the id of the stack trace of each context, in the same order
+     * @param delta the dictionary entries not received by the backend yet
+     * @return the JSON envelope
+     */
+    public String serializeInternedBatch(String sessionId, List<ConstructorContext> contexts, int[] stacktraceIds, WireDictionary.Delta delta) {
+        JsonWriter writer = writers.get().reset(null);
+        try {
+            writeInternedBatch(writer, sessionId, contexts, stacktraceIds, delta);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the interned batch described in serializeInternedBatch to the stream
+     */
+    public void writeInternedBatch(String sessionId, List<ConstructorContext> contexts, int[] stacktraceIds, WireDictionary.Delta delta, OutputStream out) throws IOException {
+        JsonWriter writer = writers.get().reset(out);
+        writeInternedBatch(writer, sessionId, contexts, stacktraceIds, delta);
+        writer.flush();
+    }
+
+    private void writeList(JsonWriter writer, List<ConstructorContext> contexts) throws IOException {
+        writer.raw('[');
         for (int i = 0; i < contexts.size(); i++) {
-            sb.append(toJson(contexts.get(i)));
-            if (i < contexts.size() - 1) sb.append(",");
+            writeContext(writer, contexts.get(i), null, 0);
+            if (i < contexts.size() - 1) writer.raw(',');
         }
-        sb.append("]");
-        return sb.toString();
+        writer.raw(']');
     }
 
-    private String toJson(ConstructorContext ctx) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"fileName\":").append(jsonString(ctx.getFileName())).append(",");
-        sb.append("\"className\":").append(jsonString(ctx.getClassName())).append(",");
-        sb.append("\"methodName\":").append(jsonString(ctx.getMethodName())).append(",");
-        sb.append("\"parameters\":").append(jsonStringList(ctx.getParameters())).append(",");
-        sb.append("\"attributes\":").append(jsonAttributeList(ctx.getAttributes())).append(",");
-        sb.append("\"stacktrace\":").append(jsonStacktrace(ctx.getStacktrace())).append(",");
-        sb.append("\"snapshot\":").append(jsonString(ctx.getSnapshot())).append(",");
-        sb.append("\"commit\":").append(jsonCommit(ctx.getCommit()));
-        sb.append("}");
-        return sb.toString();
+    private void writeInternedBatch(JsonWriter writer, String sessionId, List<ConstructorContext> contexts, int[] stacktraceIds, WireDictionary.Delta delta) throws IOException {
+        writer.raw("{\"sessionId\":").string(sessionId);
+        writer.raw(",\"descriptors\":[");
+        List<ConstructorDescriptor> descriptors = delta.getDescriptors();
+        for (int i = 0; i < descriptors.size(); i++) {
+            ConstructorDescriptor d = descriptors.get(i);
+            writer.raw("{\"id\":").number(d.getId());
+            writer.raw(",\"fileName\":").string(d.getFileName());
+            writer.raw(",\"className\":").string(d.getClassName());
+            writer.raw(",\"methodName\":").string(d.getMethodName());
+            writer.raw(",\"parameters\":");
+            writeStringList(writer, d.getParameters());
+            writer.raw(",\"commit\":");
+            writeCommit(writer, d.getCommit());
+            writer.raw('}');
+            if (i < descriptors.size() - 1) writer.raw(',');
+        }
+        writer.raw("],\"frames\":[");
+        List<StackTraceElement> frames = delta.getFrames();
+        for (int i = 0; i < frames.size(); i++) {
+            StackTraceElement e = frames.get(i);
+            writer.raw("{\"id\":").number(delta.getFirstFrameId() + i);
+            writer.raw(',');
+            writeFrameFields(writer, e);
+            writer.raw('}');
+            if (i < frames.size() - 1) writer.raw(',');
+        }
+        writer.raw("],\"traces\":[");
+        List<int[]> traces = delta.getTraces();
+        for (int i = 0; i < traces.size(); i++) {
+            int[] frameIds = traces.get(i);
+            writer.raw("{\"id\":").number(delta.getFirstTraceId() + i);
+            writer.raw(",\"frames\":[");
+            for (int j = 0; j < frameIds.length; j++) {
+                writer.number(frameIds[j]);
+                if (j < frameIds.length - 1) writer.raw(',');
+            }
+            writer.raw("]}");
+            if (i < traces.size() - 1) writer.raw(',');
+        }
+        writer.raw("],\"events\":[");
+        for (int i = 0; i < contexts.size(); i++) {
+            ConstructorContext context = contexts.get(i);
+            if (context.getDescriptorId() >= 0) {
+                writeDescriptorContext(writer, context, stacktraceIds[i]);
+            } else {
+                writeContext(writer, context, "\"stacktraceId\":", stacktraceIds[i]);
+            }
+            if (i < contexts.size() - 1) writer.raw(',');
+        }
+        writer.raw("]}");
     }
 
-    private String jsonCommit(CommitSimpleInstrDTO commit) {
-        if (commit == null) return "null";
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"sha\":").append(jsonString(commit.getSha())).append(",");
-        sb.append("\"repository\":").append(jsonRepository(commit.getRepository()));
-        sb.append("}");
-        return sb.toString();
+    private void writeDescriptorContext(JsonWriter writer, ConstructorContext ctx, int stacktraceId) throws IOException {
+        writer.raw("{\"descriptorId\":").number(ctx.getDescriptorId());
+        writer.raw(",\"attributes\":");
+        writeAttributeList(writer, ctx.getAttributes());
+        writer.raw(",\"stacktraceId\":").number(stacktraceId);
+        writer.raw(",\"snapshot\":").string(ctx.getSnapshot());
+        if (ctx.getEventKey() != null) {
+            writer.raw(",\"eventKey\":").string(ctx.getEventKey());
+        }
+        writer.raw('}');
     }
 
-    private String jsonRepository(RepositorySimpleInstrDTO repo) {
-        if (repo == null) return "null";
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"name\":").append(jsonString(repo.getName())).append(",");
-        sb.append("\"owner\":").append(jsonString(repo.getOwner()));
-        sb.append("}");
-        return sb.toString();
+    /**
+     * Writes a context with its full stack trace, or with the id of its stack trace when
+     * stacktraceIdField is not null
+     */
+    private void writeContext(JsonWriter writer, ConstructorContext ctx, String stacktraceIdField, int stacktraceId) throws IOException {
+        writer.raw("{\"fileName\":").string(ctx.getFileName());
+        writer.raw(",\"className\":").string(ctx.getClassName());
+        writer.raw(",\"methodName\":").string(ctx.getMethodName());
+        writer.raw(",\"parameters\":");
+        writeStringList(writer, ctx.getParameters());
+        writer.raw(",\"attributes\":");
+        writeAttributeList(writer, ctx.getAttributes());
+        writer.raw(',');
+        if (stacktraceIdField != null) {
+            writer.raw(stacktraceIdField).number(stacktraceId);
+        } else {
+            writer.raw("\"stacktrace\":");
+            writeStacktrace(writer, ctx.getStacktrace());
+        }
+        writer.raw(",\"snapshot\":").string(ctx.getSnapshot());
+        writer.raw(",\"commit\":");
+        writeCommit(writer, ctx.getCommit());
+        if (ctx.getEventKey() != null) {
+            writer.raw(",\"eventKey\":").string(ctx.getEventKey());
+        }
+        writer.raw('}');
     }
 
-    private String jsonString(String value) {
-        if (value == null) return "null";
-        return "\"" + value
-            .replace("\\", "\\\\")
-            .replace("\"", "\\\"")
-            .replace("\n", "\\n")
-            .replace("\r", "\\r")
-            .replace("\t", "\\t")
-            .replace("\b", "\\b")
-            .replace("\f", "\\f")
-            + "\"";
+    private void writeCommit(JsonWriter writer, CommitSimpleInstrDTO commit) throws IOException {
+        if (commit == null) {
+            writer.raw("null");
+            return;
+        }
+        writer.raw("{\"sha\":").string(commit.getSha());
+        writer.raw(",\"repository\":");
+        RepositorySimpleInstrDTO repo = commit.getRepository();
+        if (repo == null) {
+            writer.raw("null");
+        } else {
+            writer.raw("{\"name\":").string(repo.getName());
+            writer.raw(",\"owner\":").string(repo.getOwner());
+            writer.raw('}');
+        }
+        writer.raw('}');
     }
 
-    private String jsonStringList(List<String> list) {
-        if (list == null) return "null";
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
+    private void writeStringList(JsonWriter writer, List<String> list) throws IOException {
+        if (list == null) {
+            writer.raw("null");
+            return;
+        }
+        writer.raw('[');
         for (int i = 0; i < list.size(); i++) {
-            sb.append(jsonString(list.get(i)));
-            if (i < list.size() - 1) sb.append(",");
+            writer.string(list.get(i));
+            if (i < list.size() - 1) writer.raw(',');
         }
-        sb.append("]");
-        return sb.toString();
+        writer.raw(']');
     }
 
-    private String jsonAttributeList(List<AttributeContext> list) {
-        if (list == null) return "null";
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
+    private void writeAttributeList(JsonWriter writer, List<AttributeContext> list) throws IOException {
+        if (list == null) {
+            writer.raw("null");
+            return;
+        }
+        writer.raw('[');
         for (int i = 0; i < list.size(); i++) {
             AttributeContext a = list.get(i);
-            sb.append("{");
-            sb.append("\"name\":").append(jsonString(a.getName())).append(",");
-            sb.append("\"type\":").append(jsonString(a.getType())).append(",");
-            sb.append("\"actualType\":").append(jsonString(a.getActualType())).append(",");
-            sb.append("\"rhs\":").append(jsonString(a.getRhs()));
-            sb.append("}");
-            if (i < list.size() - 1) sb.append(",");
-        }
-        sb.append("]");
-        return sb.toString();
+            writer.raw("{\"name\":").string(a.getName());
+            writer.raw(",\"type\":").string(a.getType());
+            writer.raw(",\"actualType\":").string(a.getActualType());
+            writer.raw(",\"rhs\":").string(a.getRhs());
+            writer.raw('}');
+            if (i < list.size() - 1) writer.raw(',');
+        }
+        writer.raw(']');
     }
 
-    private String jsonStacktrace(List<StackTraceElement> list) {
-        if (list == null) return "null";
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
+    private void writeStacktrace(JsonWriter writer, List<StackTraceElement> list) throws IOException {
+        if (list == null) {
+            writer.raw("null");
+            return;
+        }
+        writer.raw('[');
         for (int i = 0; i < list.size(); i++) {
-            StackTraceElement e = list.get(i);
-            sb.append("{");
-            sb.append("\"className\":").append(jsonString(e.getClassName())).append(",");
-            sb.append("\"methodName\":").append(jsonString(e.getMethodName())).append(",");
-            sb.append("\"fileName\":").append(jsonString(e.getFileName())).append(",");
-            sb.append("\"lineNumber\":").append(e.getLineNumber());
-            sb.append("}");
-            if (i < list.size() - 1) sb.append(",");
-        }
-        sb.append("]");
-        return sb.toString();
+            writer.raw('{');
+            writeFrameFields(writer, list.get(i));
+            writer.raw('}');
+            if (i < list.size() - 1) writer.raw(',');
+        }
+        writer.raw(']');
+    }
+
+    private void writeFrameFields(JsonWriter writer, StackTraceElement e) throws IOException {
+        writer.raw("\"className\":").string(e.getClassName());
+        writer.raw(",\"methodName\":").string(e.getMethodName());
+        writer.raw(",\"fileName\":").string(e.getFileName());
+        writer.raw(",\"lineNumber\":").number(e.getLineNumber());
     }
 }
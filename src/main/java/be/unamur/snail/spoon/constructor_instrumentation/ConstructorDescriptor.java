@@ -0,0 +1,93 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable metadata of an instrumented constructor: where it is declared, its parameter
+ * types, the fields it assigns and the commit of the analyzed project. It is registered once
+ * per constructor, when
+ * the descriptor holder generated by ConstructorInstrumentationProcessor is initialized, so
+ * that the instrumented constructor only passes the id of its descriptor at each call.
+ */
+public final class ConstructorDescriptor {
+    private final int id;
+    private final String fileName;
+    private final String className;
+    private final String methodName;
+    private final List<String> parameters;
+    private final CommitSimpleInstrDTO commit;
+    private final AttributeDescriptor[] attributes;
+
+    public ConstructorDescriptor(int id, String fileName, String className, String methodName, List<String> parameters, CommitSimpleInstrDTO commit) {
+        this(id, fileName, className, methodName, parameters, commit, new AttributeDescriptor[0]);
+    }
+
+    public ConstructorDescriptor(int id, String fileName, String className, String methodName, List<String> parameters, CommitSimpleInstrDTO commit, AttributeDescriptor[] attributes) {
+        this.id = id;
+        this.fileName = fileName;
+        this.className = className;
+        this.methodName = methodName;
+        this.parameters = Collections.unmodifiableList(Arrays.asList(parameters.toArray(new String[0])));
+        this.commit = commit;
+        this.attributes = attributes.clone();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Returns the parameter types of the constructor, as an unmodifiable list shared by
+     * every context of the constructor
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public CommitSimpleInstrDTO getCommit() {
+        return commit;
+    }
+
+    /**
+     * @param index index of the attribute, given by the code generated for the assignment
+     * @return the descriptor of the field assigned by this assignment
+     * @throws IllegalArgumentException if the constructor has no attribute with this index
+     */
+    public AttributeDescriptor getAttribute(int index) {
+        if (index < 0 || index >= attributes.length) {
+            throw new IllegalArgumentException("Unknown attribute " + index + " of constructor descriptor " + id);
+        }
+        return attributes[index];
+    }
+
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "ConstructorDescriptor{" +
+                "id=" + id +
+                ", fileName='" + fileName + '\'' +
+                ", className='" + className + '\'' +
+                ", methodName='" + methodName + '\'' +
+                ", parameters=" + parameters +
+                ", commit=" + commit +
+                ", attributes=" + Arrays.toString(attributes) +
+                '}';
+    }
+}
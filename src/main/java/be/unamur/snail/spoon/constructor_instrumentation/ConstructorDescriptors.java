@@ -0,0 +1,68 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.Arrays;
+
+/**
+ * Registry of the descriptors of the instrumented constructors of the JVM. The ids are
+ * consecutive and start at 0. Registering is synchronized, it only happens once per
+ * constructor; get() does not take any lock, it reads a copy-on-write array.
+ */
+public final class ConstructorDescriptors {
+    private static volatile ConstructorDescriptor[] descriptors = new ConstructorDescriptor[0];
+
+    private ConstructorDescriptors() {}
+
+    /**
+     * Registers the descriptor of an instrumented constructor. It is called by the static
+     * initializer of the descriptor holder generated by ConstructorInstrumentationProcessor.
+     * @return the id of the descriptor, to give to SendConstructorsUtils.initConstructorContext
+     */
+    public static synchronized int register(String fileName, String className, String methodName, String commitSha, String repositoryName, String repositoryOwner, String... parameterTypes) {
+        return register(fileName, className, methodName, commitSha, repositoryName, repositoryOwner, parameterTypes, new String[0]);
+    }
+
+    /**
+     * Registers the descriptor of an instrumented constructor with the fields it assigns
+     * @param attributes name, declared type and right hand side kind of each assignment, one
+     *                   after the other; the index of an assignment is its position divided by 3
+     * @return the id of the descriptor, to give to SendConstructorsUtils.initConstructorContext
+     * @throws IllegalArgumentException if the attributes are not triples
+     */
+    public static synchronized int register(String fileName, String className, String methodName, String commitSha, String repositoryName, String repositoryOwner, String[] parameterTypes, String[] attributes) {
+        if (attributes.length % 3 != 0) {
+            throw new IllegalArgumentException("The attributes of " + className + " must be given as name, type and right hand side triples");
+        }
+        AttributeDescriptor[] attributeDescriptors = new AttributeDescriptor[attributes.length / 3];
+        for (int i = 0; i < attributeDescriptors.length; i++) {
+            attributeDescriptors[i] = new AttributeDescriptor(attributes[3 * i], attributes[3 * i + 1], attributes[3 * i + 2]);
+        }
+        int id = descriptors.length;
+        CommitSimpleInstrDTO commit = new CommitSimpleInstrDTO(commitSha, new RepositorySimpleInstrDTO(repositoryName, repositoryOwner));
+        ConstructorDescriptor[] updated = Arrays.copyOf(descriptors, id + 1);
+        updated[id] = new ConstructorDescriptor(id, fileName, className, methodName, Arrays.asList(parameterTypes), commit, attributeDescriptors);
+        descriptors = updated;
+        return id;
+    }
+
+    /**
+     * @param id id returned by register()
+     * @return the descriptor with this id
+     * @throws IllegalArgumentException if no descriptor has this id
+     */
+    public static ConstructorDescriptor get(int id) {
+        ConstructorDescriptor[] current = descriptors;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Unknown constructor descriptor id " + id);
+        }
+        return current[id];
+    }
+
+    public static int size() {
+        return descriptors.length;
+    }
+
+    // Only used in tests
+    static synchronized void resetForTests() {
+        descriptors = new ConstructorDescriptor[0];
+    }
+}
@@ -1,69 +1,770 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * This class is responsible for creating a batch of ConstructorContext to send to the db
+ * This class is responsible for creating a batch of ConstructorContext to send to the db.
+ * It works in two modes:
+ * - sync: submit() adds the context to the batch and sends the batch itself when it is full,
+ * in the thread of the instrumented code
+ * - async: submit() only puts the context in a bounded queue, and a daemon sender thread
+ * builds the batches and sends them, so that the instrumented code never waits for the network
+ * In both modes, the instrumented threads can also accumulate contexts in their own
+ * ThreadEventBuffer and hand full buffers off with submitAll(). In async mode, the buffers
+ * go through a lock-free queue, so that the instrumented threads never touch a shared lock.
+ * When an EventArena is set, the instrumented threads write their events off-heap instead,
+ * and hand their full segments off with submitSegment(): the contexts are only rebuilt for
+ * the events that were never seen before.
+ * Each unique event is only sent once during the life of the JVM: its next occurrences are
+ * counted by the EventOccurrenceRegistry, and the counts are sent at each flush. When
+ * sentinel.dedup.sharedFile is set, the events are also deduplicated across the test JVMs
+ * of the run through a SharedEventKeySet, so that an event sent by a fork is only counted
+ * by the others.
+ * When sentinel.metrics.enabled is set, the time taken by each batch is measured, and the
+ * RuntimeMetrics of the JVM are exported with the counters of the dispatcher at shutdown.
  */
 public class ConstructorEventDispatcher {
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_QUEUE_SIZE = 10_000;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_MS = 30_000;
+    private static final String DEFAULT_SPOOL_DIR = "sentinel-spool";
+    private static final String DEFAULT_METRICS_DIR = "sentinel-metrics";
+    private static final long POLL_INTERVAL_MS = 10;
+    private static final long IDLE_FLUSH_INTERVAL_MS = 1_000;
+    private static final int DEFAULT_DEDUP_MAX_TRACKED_KEYS = 100_000;
+    private static final int DEFAULT_DEDUP_BLOOM_EXPECTED_KEYS = 1_000_000;
+    private static final int DEFAULT_DEDUP_SHARED_EXPECTED_KEYS = 1_000_000;
+
     private final int BATCH_SIZE;
     private final List<ConstructorContext> batch;
     private final ConstructorContextSender sender;
     private static volatile ConstructorEventDispatcher instance;
-    private final Set<String> keysInBatch = new HashSet<>();
+    private final EventOccurrenceRegistry registry = new EventOccurrenceRegistry(
+            InstrumentationProperties.getInt(InstrumentationProperties.DEDUP_MAX_TRACKED_KEYS, DEFAULT_DEDUP_MAX_TRACKED_KEYS),
+            InstrumentationProperties.getInt(InstrumentationProperties.DEDUP_BLOOM_EXPECTED_KEYS, DEFAULT_DEDUP_BLOOM_EXPECTED_KEYS));
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int threadBufferSize;
+    private final Queue<ThreadEventBuffer> threadBuffers = new ConcurrentLinkedQueue<>();
+    private volatile EventArena arena;
+    private SharedEventKeySet sharedEventKeys;
+    private volatile RuntimeMetrics metrics;
+    private long sharedDuplicateEvents;
+
+    // Only used in async mode
+    private final BlockingQueue<ConstructorContext> queue;
+    private final Queue<List<ConstructorContext>> handedOffBuffers = new ConcurrentLinkedQueue<>();
+    private final Queue<ArenaSegment> handedOffSegments = new ConcurrentLinkedQueue<>();
+    private final Queue<List<ConstructorContext>> failedBackgroundBatches = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingBufferedEvents = new AtomicInteger();
+    private final int queueSize;
+    private final QueueFullPolicy queueFullPolicy;
+    private final long shutdownTimeoutMillis;
+    private final Thread senderThread;
+    private volatile boolean running;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    // Counters showing how often the instrumented threads meet each other on a shared lock
+    private final LongAdder sharedLockAcquisitions = new LongAdder();
+    private final LongAdder contendedLockAcquisitions = new LongAdder();
+    private final LongAdder handedOffBufferCount = new LongAdder();
 
     public static synchronized ConstructorEventDispatcher getInstance(String apiUrl) {
         if (instance == null) {
-            instance = new ConstructorEventDispatcher(apiUrl);
+            instance = create(createSender(apiUrl));
         }
         return instance;
     }
 
-    private ConstructorEventDispatcher(String apiUrl) {
-        this(new HttpConstructorContextSender(apiUrl), 500);
+    /**
+     * Creates the sender selected by sentinel.sender: "http" (default) sends the contexts
+     * to the backend, "spool" appends them to a spool file in sentinel.spool.dir
+     */
+    private static ConstructorContextSender createSender(String apiUrl) {
+        if (isSpoolSenderSelected()) {
+            return new SpoolFileConstructorContextSender(new File(InstrumentationProperties.getString(InstrumentationProperties.SPOOL_DIR, DEFAULT_SPOOL_DIR)));
+        }
+        return new HttpConstructorContextSender(apiUrl);
+    }
+
+    public static boolean isSpoolSenderSelected() {
+        return InstrumentationProperties.getString(InstrumentationProperties.SENDER, "http").equalsIgnoreCase("spool");
     }
 
+    private static ConstructorEventDispatcher create(ConstructorContextSender sender) {
+        ConstructorEventDispatcher dispatcher = createDispatcher(sender);
+        if (InstrumentationProperties.getBoolean(InstrumentationProperties.ARENA_ENABLED, false)) {
+            dispatcher.setArena(new EventArena(
+                    InstrumentationProperties.getInt(InstrumentationProperties.ARENA_SEGMENT_SIZE, EventArena.DEFAULT_SEGMENT_SIZE),
+                    InstrumentationProperties.getLong(InstrumentationProperties.ARENA_MAX_SIZE, EventArena.DEFAULT_MAX_SIZE),
+                    // A sync dispatcher never gives the segments back to the pool, it has nothing to wait for
+                    dispatcher.isAsync() && dispatcher.queueFullPolicy != QueueFullPolicy.DROP));
+        }
+        String sharedFile = InstrumentationProperties.getString(InstrumentationProperties.DEDUP_SHARED_FILE, "");
+        if (!sharedFile.isEmpty()) {
+            dispatcher.setSharedEventKeys(createSharedEventKeys(new File(sharedFile)));
+        }
+        if (InstrumentationProperties.getBoolean(InstrumentationProperties.METRICS_ENABLED, false)) {
+            dispatcher.setMetrics(new RuntimeMetrics());
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Maps the event keys shared by the test JVMs, or returns null so that the events are only
+     * deduplicated within this JVM if it is not possible
+     */
+    private static SharedEventKeySet createSharedEventKeys(File file) {
+        if (!SharedEventKeySet.isAvailable()) {
+            System.err.println("[sentinel] The shared deduplication of the events needs Java 9 or later, the events are only deduplicated within each JVM");
+            return null;
+        }
+        try {
+            return new SharedEventKeySet(file, InstrumentationProperties.getInt(InstrumentationProperties.DEDUP_SHARED_EXPECTED_KEYS, DEFAULT_DEDUP_SHARED_EXPECTED_KEYS));
+        } catch (IOException e) {
+            System.err.println("[sentinel] Failed to map the shared event keys " + file + ", the events are only deduplicated within each JVM: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static ConstructorEventDispatcher createDispatcher(ConstructorContextSender sender) {
+        int threadBufferSize = InstrumentationProperties.getInt(InstrumentationProperties.THREAD_BUFFER_SIZE, 0);
+        String mode = InstrumentationProperties.getString(InstrumentationProperties.DISPATCHER_MODE, "sync");
+        if (mode.equalsIgnoreCase("async")) {
+            return new ConstructorEventDispatcher(
+                    sender,
+                    DEFAULT_BATCH_SIZE,
+                    InstrumentationProperties.getInt(InstrumentationProperties.QUEUE_SIZE, DEFAULT_QUEUE_SIZE),
+                    QueueFullPolicy.fromString(InstrumentationProperties.getString(InstrumentationProperties.QUEUE_FULL_POLICY, "block")),
+                    InstrumentationProperties.getLong(InstrumentationProperties.SHUTDOWN_TIMEOUT_MS, DEFAULT_SHUTDOWN_TIMEOUT_MS),
+                    threadBufferSize
+            );
+        }
+        return new ConstructorEventDispatcher(sender, DEFAULT_BATCH_SIZE, threadBufferSize);
+    }
+
+    /**
+     * Creates a synchronous dispatcher
+     * @param sender sender used to send the batches
+     * @param batchSize number of contexts in a batch
+     */
     public ConstructorEventDispatcher(ConstructorContextSender sender, int batchSize) {
+        this(sender, batchSize, 0);
+    }
+
+    /**
+     * Creates a synchronous dispatcher
+     * @param sender sender used to send the batches
+     * @param batchSize number of contexts in a batch
+     * @param threadBufferSize size of the buffer of each instrumented thread, 0 to disable the buffers
+     */
+    public ConstructorEventDispatcher(ConstructorContextSender sender, int batchSize, int threadBufferSize) {
+        this.sender = sender;
+        this.BATCH_SIZE = batchSize;
+        this.batch = new ArrayList<>(BATCH_SIZE);
+        this.threadBufferSize = threadBufferSize;
+        this.queue = null;
+        this.queueSize = 0;
+        this.queueFullPolicy = null;
+        this.shutdownTimeoutMillis = 0;
+        this.senderThread = null;
+        registerShutdownHook();
+    }
+
+    /**
+     * Creates an asynchronous dispatcher, with its own sender thread
+     * @param sender sender used to send the batches
+     * @param batchSize number of contexts in a batch
+     * @param queueSize maximum number of contexts waiting for the sender thread
+     * @param queueFullPolicy what to do with a new context when the queue is full
+     * @param shutdownTimeoutMillis maximum time given to the sender thread to drain the queue
+     *                              when the JVM shuts down
+     */
+    public ConstructorEventDispatcher(ConstructorContextSender sender, int batchSize, int queueSize, QueueFullPolicy queueFullPolicy, long shutdownTimeoutMillis) {
+        this(sender, batchSize, queueSize, queueFullPolicy, shutdownTimeoutMillis, 0);
+    }
+
+    /**
+     * Creates an asynchronous dispatcher, with its own sender thread
+     * @param sender sender used to send the batches
+     * @param batchSize number of contexts in a batch
+     * @param queueSize maximum number of contexts waiting for the sender thread
+     * @param queueFullPolicy what to do with a new context when the queue is full
+     * @param shutdownTimeoutMillis maximum time given to the sender thread to drain the queue
+     *                              when the JVM shuts down
+     * @param threadBufferSize size of the buffer of each instrumented thread, 0 to disable the buffers
+     */
+    public ConstructorEventDispatcher(ConstructorContextSender sender, int batchSize, int queueSize, QueueFullPolicy queueFullPolicy, long shutdownTimeoutMillis, int threadBufferSize) {
         this.sender = sender;
         this.BATCH_SIZE = batchSize;
-        batch = new ArrayList<>(BATCH_SIZE);
+        this.batch = new ArrayList<>(BATCH_SIZE);
+        this.threadBufferSize = threadBufferSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.queueSize = queueSize;
+        this.queueFullPolicy = queueFullPolicy;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.running = true;
+        this.senderThread = new Thread(this::runSenderLoop, "sentinel-constructor-sender");
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
         registerShutdownHook();
     }
 
-    public synchronized void submit(ConstructorContext context) {
-        String key = computeUniqueKey(context);
-        if (!keysInBatch.contains(key)) {
-            batch.add(context);
-            keysInBatch.add(key);
+    /**
+     * Submits the context of an event. The dispatcher does not keep the given context, so the
+     * caller can reuse it: in sync mode, only the contexts of the events that were never seen
+     * before are copied into the batch, and in async mode the context is copied before being
+     * queued.
+     * @param context the context of the event
+     */
+    public void submit(ConstructorContext context) {
+        sharedLockAcquisitions.increment();
+        if (queue == null) {
+            addToBatch(context, true);
+            return;
+        }
+        context = context.copy();
+        if (queueFullPolicy == QueueFullPolicy.DROP) {
+            if (!queue.offer(context)) {
+                droppedEvents.incrementAndGet();
+            }
+            return;
         }
+        try {
+            queue.put(context);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a full thread buffer off to the dispatcher. The list must not be used by the
+     * caller anymore. In async mode, this never takes a lock: the list is put in a lock-free
+     * queue that is drained by the sender thread.
+     * @param contexts the contexts of the buffer
+     */
+    public void submitAll(List<ConstructorContext> contexts) {
+        if (contexts == null || contexts.isEmpty()) return;
+        handedOffBufferCount.increment();
+        if (queue == null) {
+            sharedLockAcquisitions.increment();
+            acquireLock();
+            try {
+                for (ConstructorContext context : contexts) {
+                    addToBatch(context);
+                }
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        while (pendingBufferedEvents.get() >= queueSize) {
+            if (queueFullPolicy == QueueFullPolicy.DROP || !running) {
+                droppedEvents.addAndGet(contexts.size());
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        pendingBufferedEvents.addAndGet(contexts.size());
+        handedOffBuffers.offer(contexts);
+    }
+
+    /**
+     * Creates the buffer of an instrumented thread, and keeps track of it so that its
+     * content is not lost at shutdown
+     * @return the new buffer, or null if the thread buffers are disabled
+     */
+    public ThreadEventBuffer createThreadBuffer() {
+        if (threadBufferSize <= 0 || arena != null) return null;
+        ThreadEventBuffer buffer = new ThreadEventBuffer(threadBufferSize);
+        threadBuffers.offer(buffer);
+        return buffer;
+    }
+
+    /**
+     * Makes the instrumented threads write their events into the given arena, instead of
+     * creating a context for each event. It must be set before the first event.
+     */
+    public void setArena(EventArena arena) {
+        this.arena = arena;
+    }
+
+    /**
+     * Makes the dispatcher only send the events that no other test JVM sharing the same keys
+     * sent before. It must be set before the first event.
+     */
+    public void setSharedEventKeys(SharedEventKeySet sharedEventKeys) {
+        this.sharedEventKeys = sharedEventKeys;
+    }
+
+    /**
+     * Makes the dispatcher measure its batches, and export the given metrics at shutdown.
+     * It must be set before the first event.
+     */
+    public void setMetrics(RuntimeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics of the JVM, or null if they are not measured
+     */
+    public RuntimeMetrics getMetrics() {
+        return metrics;
+    }
+
+    public EventArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Creates the arena writer of an instrumented thread
+     * @return the new writer, or null if the events are not written in an arena
+     */
+    public ArenaEventWriter createArenaWriter() {
+        EventArena current = arena;
+        return current == null ? null : current.createWriter(this);
+    }
+
+    /**
+     * Hands a segment of the arena off to the dispatcher. In sync mode, its records are read
+     * right away by the calling thread. In async mode, the segment is put in a lock-free queue
+     * drained by the sender thread, and goes back to the arena once read.
+     * @param segment the segment, claimed by its writer or at shutdown
+     */
+    public void submitSegment(ArenaSegment segment) {
+        handedOffBufferCount.increment();
+        if (queue == null) {
+            sharedLockAcquisitions.increment();
+            addSegmentToBatch(segment);
+            return;
+        }
+        handedOffSegments.offer(segment);
+    }
+
+    /**
+     * Adds the events of a segment to the batch. Only the records of the events that were
+     * never seen before are turned into contexts.
+     */
+    protected void addSegmentToBatch(ArenaSegment segment) {
+        acquireLock();
+        try {
+            int end = segment.getCommittedPosition();
+            for (int position = 0; position < end; position = segment.nextRecord(position)) {
+                long key = segment.getEventKey(position);
+                if (isNewEvent(key)) {
+                    batch.add(segment.decode(position).withEventKey(EventKeyHasher.format(key)));
+                    if (batch.size() >= BATCH_SIZE) {
+                        flush();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+            arena.recycle(segment);
+        }
+    }
+
+    protected void addToBatch(ConstructorContext context) {
+        addToBatch(context, false);
+    }
+
+    /**
+     * Adds a context to the batch if its event was never seen before
+     * @param copy whether the context is reused by its caller, and must be copied to be kept
+     */
+    private void addToBatch(ConstructorContext context, boolean copy) {
+        acquireLock();
+        try {
+            long key = computeUniqueKey(context);
+            if (isNewEvent(key)) {
+                batch.add((copy ? context.copy() : context).withEventKey(EventKeyHasher.format(key)));
+            }
+
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records an occurrence of an event, and returns whether it must be sent: it must be the
+     * first occurrence in this JVM, and no other JVM sharing the event keys sent it before.
+     * Must be called while holding the lock.
+     */
+    private boolean isNewEvent(long key) {
+        if (!failedBackgroundBatches.isEmpty()) {
+            forgetFailedBackgroundBatches();
+        }
+        if (!registry.record(key)) {
+            return false;
+        }
+        if (sharedEventKeys == null || sharedEventKeys.add(key)) {
+            return true;
+        }
+        sharedDuplicateEvents++;
+        registry.markUpdated(key);
+        return false;
+    }
+
+    private void acquireLock() {
+        if (!lock.tryLock()) {
+            contendedLockAcquisitions.increment();
+            lock.lock();
+        }
+    }
 
-        if (batch.size() >= BATCH_SIZE) {
+    private void runSenderLoop() {
+        long lastActivity = System.currentTimeMillis();
+        while (running || !queue.isEmpty() || !handedOffBuffers.isEmpty() || !handedOffSegments.isEmpty()) {
+            try {
+                boolean received = drainHandedOffBuffers();
+                received |= drainHandedOffSegments();
+                ConstructorContext context = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (context != null) {
+                    received = true;
+                    addToBatchQuietly(context);
+                    List<ConstructorContext> drained = new ArrayList<>(BATCH_SIZE);
+                    queue.drainTo(drained, BATCH_SIZE);
+                    for (ConstructorContext c : drained) {
+                        addToBatchQuietly(c);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (received) {
+                    lastActivity = now;
+                } else if (now - lastActivity >= IDLE_FLUSH_INTERVAL_MS) {
+                    flushQuietly();
+                    lastActivity = now;
+                }
+            } catch (InterruptedException e) {
+                // Nothing is expected to interrupt this thread: stop waiting and drain what is left
+                running = false;
+            }
+        }
+        flushQuietly();
+    }
+
+    private boolean drainHandedOffBuffers() {
+        boolean received = false;
+        List<ConstructorContext> contexts;
+        while ((contexts = handedOffBuffers.poll()) != null) {
+            received = true;
+            pendingBufferedEvents.addAndGet(-contexts.size());
+            for (ConstructorContext context : contexts) {
+                addToBatchQuietly(context);
+            }
+        }
+        return received;
+    }
+
+    private boolean drainHandedOffSegments() {
+        boolean received = false;
+        ArenaSegment segment;
+        while ((segment = handedOffSegments.poll()) != null) {
+            received = true;
+            try {
+                addSegmentToBatch(segment);
+            } catch (RuntimeException e) {
+                reportFailedBatch(e);
+            }
+        }
+        return received;
+    }
+
+    private void addToBatchQuietly(ConstructorContext context) {
+        try {
+            addToBatch(context);
+        } catch (RuntimeException e) {
+            reportFailedBatch(e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
             flush();
+        } catch (RuntimeException e) {
+            reportFailedBatch(e);
         }
     }
 
+    private void reportFailedBatch(RuntimeException e) {
+        failedBatches.incrementAndGet();
+        System.err.println("[sentinel] Failed to send a batch of constructor contexts: " + e.getMessage());
+    }
+
     protected void registerShutdownHook() {
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            synchronized (ConstructorEventDispatcher.this) {
-                flush();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    /**
+     * Sends every context not sent yet, including the ones still in the thread buffers.
+     * In async mode, the sender thread is given at most shutdownTimeoutMillis to drain the
+     * queue, the contexts still in the queue, the handed off buffers and segments, and the batch
+     * after this delay are lost and counted as dropped. A batch that cannot be sent is reported
+     * as failed, the sender is closed and the statistics exported anyway.
+     */
+    protected void shutdown() {
+        for (ThreadEventBuffer buffer : threadBuffers) {
+            submitAll(buffer.drain());
+        }
+        if (arena != null) {
+            for (ArenaSegment segment : arena.claimWriterSegments()) {
+                submitSegment(segment);
+            }
+        }
+        if (senderThread == null) {
+            flushQuietly();
+            sender.close();
+            printStatistics();
+            exportMetrics();
+            return;
+        }
+        running = false;
+        try {
+            senderThread.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (senderThread.isAlive()) {
+            // The batch is read without its lock, held by the sender thread for as long as it is stuck
+            int remaining = queue.size() + pendingBufferedEvents.get() + countPendingSegmentRecords() + batch.size();
+            droppedEvents.addAndGet(remaining);
+            System.err.println("[sentinel] Shutdown timeout reached, " + remaining + " constructor contexts were not sent");
+        } else {
+            sender.close();
+        }
+        printStatistics();
+        exportMetrics();
+    }
+
+    /**
+     * Returns the number of records of the segments handed off but not read by the sender thread
+     */
+    private int countPendingSegmentRecords() {
+        int count = 0;
+        for (ArenaSegment segment : handedOffSegments) {
+            count += segment.getRecordCount();
+        }
+        return count;
+    }
+
+    private void exportMetrics() {
+        if (metrics != null) {
+            metrics.export(new File(InstrumentationProperties.getString(InstrumentationProperties.METRICS_DIR, DEFAULT_METRICS_DIR)), this);
+        }
+    }
+
+    private void printStatistics() {
+        if (InstrumentationProperties.getBoolean(InstrumentationProperties.PRINT_STATISTICS, false)) {
+            System.err.println("[sentinel] Dispatcher statistics: sharedLockAcquisitions=" + getSharedLockAcquisitionCount()
+                    + ", contendedLockAcquisitions=" + getContendedLockAcquisitionCount()
+                    + ", handedOffBuffers=" + getHandedOffBufferCount()
+                    + ", uniqueEvents=" + getUniqueEventCount()
+                    + ", duplicateEvents=" + getDuplicateEventCount()
+                    + (sharedEventKeys != null ? ", sharedDuplicateEvents=" + getSharedDuplicateEventCount() : "")
+                    + ", droppedEvents=" + getDroppedEventCount()
+                    + ", failedBatches=" + getFailedBatchCount()
+                    + (arena != null ? ", arenaSegments=" + arena.getAllocatedSegmentCount() : ""));
+        }
+    }
+
+    /**
+     * Sends the current batch, then the occurrence counts that changed since the last flush.
+     * The batch goes first so that the backend already knows the events of the counts.
+     * If the batch cannot be sent, its events are forgotten so that their next occurrence is
+     * sent again, and if the counts cannot be sent, they are part of the next updates. A batch
+     * posted in the background by a BackgroundBatchSender is only known to have failed once its
+     * callback is called: its events are then forgotten by the next flush or event, and the
+     * counts wait for the batches in flight so that the counts of these events are not sent.
+     */
+    protected void flush() {
+        acquireLock();
+        try {
+            forgetFailedBackgroundBatches();
+            if (!batch.isEmpty()) {
+                final List<ConstructorContext> toSend = new ArrayList<>(batch);
+                batch.clear();
+                try {
+                    sendBatch(toSend);
+                } catch (RuntimeException e) {
+                    forgetUnsentEvents(toSend);
+                    throw e;
+                }
             }
-        }));
+            if (registry.hasPendingUpdates()) {
+                if (sender instanceof BackgroundBatchSender) {
+                    ((BackgroundBatchSender) sender).awaitBatches();
+                    forgetFailedBackgroundBatches();
+                }
+                Map<String, Long> updates = registry.drainPendingUpdates();
+                if (updates.isEmpty()) {
+                    return;
+                }
+                try {
+                    sender.sendOccurrences(updates);
+                } catch (RuntimeException e) {
+                    for (String key : updates.keySet()) {
+                        registry.markUpdated(Long.parseUnsignedLong(key, 16));
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
-    protected synchronized void flush() {
-        if (batch.isEmpty()) return;
+    /**
+     * Sends a batch, measuring the time it takes to be stored. A BackgroundBatchSender tells
+     * the failure of a batch it posted in the background through the callback, the events of
+     * the batch being forgotten later.
+     */
+    private void sendBatch(final List<ConstructorContext> toSend) {
+        final long start = System.nanoTime();
+        if (!(sender instanceof BackgroundBatchSender)) {
+            sender.sendBatch(toSend);
+            if (metrics != null) {
+                metrics.recordBatch(System.nanoTime() - start);
+            }
+            return;
+        }
+        ((BackgroundBatchSender) sender).sendBatch(toSend, new BatchCallback() {
+            @Override
+            public void onSent() {
+                if (metrics != null) {
+                    metrics.recordBatch(System.nanoTime() - start);
+                }
+            }
 
-        sender.sendBatch(new ArrayList<>(batch));
-        batch.clear();
-        keysInBatch.clear();
+            @Override
+            public void onFailed(RuntimeException e) {
+                failedBackgroundBatches.offer(toSend);
+                reportFailedBatch(e);
+            }
+        });
     }
 
-    protected String computeUniqueKey(ConstructorContext context) {
-        int stacktraceHash = context.getStacktrace() != null ? context.getStacktrace().hashCode() : 0;
-        return context.getFileName() + "|" + context.getClassName() + "|" + context.getMethodName() + "|" + (context.getParameters() == null ? "" : context.getParameters().toString()) + "|" + stacktraceHash;
+    /**
+     * Forgets the events of the batches whose background post failed. Must be called while
+     * holding the lock.
+     */
+    private void forgetFailedBackgroundBatches() {
+        List<ConstructorContext> failed;
+        while ((failed = failedBackgroundBatches.poll()) != null) {
+            forgetUnsentEvents(failed);
+        }
+    }
+
+    /**
+     * Forgets the events of a batch that could not be sent, in this JVM and in the keys shared
+     * with the other JVMs. The events only remembered by the Bloom filter of the registry
+     * cannot be forgotten, they are counted as dropped. Must be called while holding the lock.
+     */
+    private void forgetUnsentEvents(List<ConstructorContext> contexts) {
+        for (ConstructorContext context : contexts) {
+            long key = Long.parseUnsignedLong(context.getEventKey(), 16);
+            if (sharedEventKeys != null) {
+                sharedEventKeys.remove(key);
+            }
+            if (!registry.forget(key)) {
+                droppedEvents.incrementAndGet();
+            }
+        }
+    }
+
+    protected long computeUniqueKey(ConstructorContext context) {
+        return EventKeyHasher.hash(context);
     }
 
     protected List<ConstructorContext> getBatch() {
         return batch;
     }
+
+    public boolean isAsync() {
+        return queue != null;
+    }
+
+    public long getDroppedEventCount() {
+        return droppedEvents.get() + (arena != null ? arena.getDroppedEventCount() : 0);
+    }
+
+    public long getFailedBatchCount() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Returns the number of times an instrumented thread reached a lock shared with the other
+     * threads (the lock of the batch in sync mode, the lock of the queue in async mode).
+     * It stays at 0 when the thread buffers are used in async mode.
+     */
+    public long getSharedLockAcquisitionCount() {
+        return sharedLockAcquisitions.sum();
+    }
+
+    /**
+     * Returns the number of times a thread had to wait for the lock of the batch because
+     * another thread was holding it
+     */
+    public long getContendedLockAcquisitionCount() {
+        return contendedLockAcquisitions.sum();
+    }
+
+    /**
+     * Returns the number of events sent to the backend as a new document
+     */
+    public long getUniqueEventCount() {
+        acquireLock();
+        try {
+            return registry.getUniqueEventCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of events that were already sent before, and were only counted
+     */
+    public long getDuplicateEventCount() {
+        acquireLock();
+        try {
+            return registry.getDuplicateEventCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of events seen for the first time by this JVM that were not sent
+     * because another JVM sharing the event keys already sent them
+     */
+    public long getSharedDuplicateEventCount() {
+        acquireLock();
+        try {
+            return sharedDuplicateEvents;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSentByteCount() {
+        return sender.getSentByteCount();
+    }
+
+    public long getHandedOffBufferCount() {
+        return handedOffBufferCount.sum();
+    }
 }
@@ -0,0 +1,140 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Off-heap storage of the constructor events, enabled with sentinel.arena.enabled. Each
+ * instrumented thread writes its events as records into its own direct ByteBuffer segment
+ * (see ArenaEventWriter and ArenaSegment) instead of creating a ConstructorContext, its
+ * lists and its AttributeContext objects, so that the heap and the GC activity of the tests
+ * stay close to the ones of the uninstrumented project. A full segment is handed off to the
+ * dispatcher, which only rebuilds the contexts of the events it did not see before, and then
+ * goes back to the pool of free segments.
+ * The arena allocates at most maxSize bytes of segments. When they are all in use, the
+ * writers wait for a free segment, or drop the events of their full segment when
+ * blockWhenExhausted is false. A record larger than a segment gets a dedicated segment,
+ * which is not pooled.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public class EventArena {
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean blockWhenExhausted;
+    private final Queue<ArenaSegment> freeSegments = new ConcurrentLinkedQueue<>();
+    private final Queue<ArenaEventWriter> writers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedSegments = new AtomicInteger();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile boolean closed;
+
+    public EventArena(int segmentSize, long maxSize, boolean blockWhenExhausted) {
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxSize / segmentSize));
+        this.blockWhenExhausted = blockWhenExhausted;
+    }
+
+    /**
+     * Creates the writer of an instrumented thread, and keeps track of it so that its events
+     * are not lost at shutdown
+     * @param dispatcher the dispatcher the full segments are handed off to
+     * @return the new writer
+     */
+    public ArenaEventWriter createWriter(ConstructorEventDispatcher dispatcher) {
+        ArenaEventWriter writer = new ArenaEventWriter(this, dispatcher);
+        writers.offer(writer);
+        return writer;
+    }
+
+    /**
+     * Returns a free segment able to hold minSize bytes
+     * @param minSize the size needed by the record being written
+     * @return the segment, or null if every segment is in use and the events must be dropped
+     */
+    ArenaSegment acquire(int minSize) {
+        if (minSize > segmentSize) {
+            return new ArenaSegment(minSize, false);
+        }
+        while (true) {
+            ArenaSegment segment = freeSegments.poll();
+            if (segment != null) {
+                segment.reset();
+                return segment;
+            }
+            int allocated = allocatedSegments.get();
+            if (allocated < maxSegments) {
+                if (allocatedSegments.compareAndSet(allocated, allocated + 1)) {
+                    return new ArenaSegment(segmentSize, true);
+                }
+                continue;
+            }
+            if (!blockWhenExhausted || closed) {
+                return null;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Gives a segment back to the pool once its records were read
+     */
+    public void recycle(ArenaSegment segment) {
+        if (segment.isRecyclable()) {
+            freeSegments.offer(segment);
+        }
+    }
+
+    /**
+     * Gives a segment that was not handed off back to the pool
+     */
+    void release(ArenaSegment segment) {
+        if (segment.isPooled()) {
+            freeSegments.offer(segment);
+        }
+    }
+
+    /**
+     * Claims the current segment of every writer, so that the events they did not hand off
+     * yet can be read at shutdown. Their writers stop recording events.
+     * @return the segments holding events
+     */
+    public List<ArenaSegment> claimWriterSegments() {
+        closed = true;
+        List<ArenaSegment> segments = new ArrayList<>();
+        for (ArenaEventWriter writer : writers) {
+            ArenaSegment segment = writer.getCurrentSegment();
+            if (segment != null && segment.getCommittedPosition() > 0 && segment.claim(false)) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    void recordDroppedEvents(int count) {
+        droppedEvents.addAndGet(count);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getAllocatedSegmentCount() {
+        return allocatedSegments.get();
+    }
+
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+}
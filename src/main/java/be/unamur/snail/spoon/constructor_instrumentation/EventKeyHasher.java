@@ -0,0 +1,103 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.List;
+
+/**
+ * Computes the 64-bit key identifying a constructor event, from its file, class and method
+ * names, its parameters and its whole stack trace. The hash is streamed over the characters
+ * of each field (MurmurHash3-like mixing of 4 chars at a time), so that no intermediate
+ * string is created, which matters because it runs for every instrumented constructor call.
+ * The length of each field is mixed in as well, so that ("ab", "c") and ("a", "bc") differ.
+ * With 64 bits, the probability of a collision stays below 1e-5 for ten million events.
+ */
+public final class EventKeyHasher {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long SEED = 0x9e3779b97f4a7c15L;
+    private static final long NULL_MARKER = 0x5bd1e9955bd1e995L;
+
+    private EventKeyHasher() {}
+
+    public static long hash(ConstructorContext context) {
+        long h = SEED;
+        h = mixString(h, context.getFileName());
+        h = mixString(h, context.getClassName());
+        h = mixString(h, context.getMethodName());
+        List<String> parameters = context.getParameters();
+        if (parameters == null) {
+            h = mixLong(h, NULL_MARKER);
+        } else {
+            h = mixLong(h, parameters.size());
+            for (int i = 0; i < parameters.size(); i++) {
+                h = mixString(h, parameters.get(i));
+            }
+        }
+        List<StackTraceElement> stacktrace = context.getStacktrace();
+        if (stacktrace == null) {
+            h = mixLong(h, NULL_MARKER);
+        } else {
+            h = mixLong(h, stacktrace.size());
+            for (int i = 0; i < stacktrace.size(); i++) {
+                StackTraceElement element = stacktrace.get(i);
+                h = mixString(h, element.getClassName());
+                h = mixString(h, element.getMethodName());
+                h = mixString(h, element.getFileName());
+                h = mixLong(h, element.getLineNumber());
+            }
+        }
+        return fmix(h);
+    }
+
+    /**
+     * Formats a key as the 16 hexadecimal characters sent to the backend
+     */
+    public static String format(long key) {
+        String hex = Long.toHexString(key);
+        if (hex.length() == 16) {
+            return hex;
+        }
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    private static long mixString(long h, String value) {
+        if (value == null) {
+            return mixLong(h, NULL_MARKER);
+        }
+        int length = value.length();
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            long k = value.charAt(i)
+                    | (long) value.charAt(i + 1) << 16
+                    | (long) value.charAt(i + 2) << 32
+                    | (long) value.charAt(i + 3) << 48;
+            h = mixLong(h, k);
+        }
+        long k = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            k |= (long) value.charAt(i) << shift;
+        }
+        return mixLong(h, k ^ ((long) length << 48 | length));
+    }
+
+    private static long mixLong(long h, long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        k *= C2;
+        h ^= k;
+        h = Long.rotateLeft(h, 27);
+        return h * 5 + 0x52dce729;
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,146 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers, for the whole life of the JVM, which constructor events were already sent,
+ * so that each unique (constructor, parameters, stack trace) is only sent once. The next
+ * occurrences of an event only increment a counter, and the counters that changed since
+ * the last flush are sent as occurrence updates.
+ * The number of keys tracked with a counter is bounded. Once the bound is reached, the new
+ * keys are only remembered in a Bloom filter: they are still sent once, but their next
+ * occurrences are not counted anymore, only the number of such occurrences is kept.
+ * Keys and counters are stored in primitive open-addressing tables, so that recording a
+ * duplicate never allocates.
+ * An event whose first occurrence could not be delivered can be forgotten: its next occurrence
+ * is then sent again, its occurrences counted so far being kept.
+ * It is not thread-safe: the dispatcher only uses it while holding the lock of its batch.
+ */
+public class EventOccurrenceRegistry {
+    private static final double BLOOM_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final int maxTrackedKeys;
+    private final int bloomExpectedInsertions;
+    private final LongCounterMap occurrences;
+    private final LongOpenHashSet pendingUpdates = new LongOpenHashSet();
+    private final LongCounterMap unsent = new LongCounterMap(16);
+    private LongBloomFilter overflow;
+    private long uniqueEvents;
+    private long duplicateEvents;
+    private long untrackedDuplicateEvents;
+
+    /**
+     * @param maxTrackedKeys maximum number of keys with an occurrence counter
+     * @param bloomExpectedInsertions number of keys the Bloom filter used after the bound is
+     *                                reached is sized for
+     */
+    public EventOccurrenceRegistry(int maxTrackedKeys, int bloomExpectedInsertions) {
+        this.maxTrackedKeys = maxTrackedKeys;
+        this.bloomExpectedInsertions = bloomExpectedInsertions;
+        this.occurrences = new LongCounterMap(Math.min(maxTrackedKeys, 1024));
+    }
+
+    /**
+     * Records an occurrence of an event
+     * @param key the unique key of the event
+     * @return true if it is the first occurrence of the event and it must be sent, false if
+     * it was already sent before
+     */
+    public boolean record(long key) {
+        if (occurrences.increment(key) > 0) {
+            pendingUpdates.add(key);
+            duplicateEvents++;
+            return unsent.size() > 0 && unsent.remove(key) > 0;
+        }
+        if (overflow == null && occurrences.size() < maxTrackedKeys) {
+            occurrences.put(key, 1);
+            uniqueEvents++;
+            return true;
+        }
+        if (overflow == null) {
+            overflow = new LongBloomFilter(bloomExpectedInsertions, BLOOM_FALSE_POSITIVE_PROBABILITY);
+        }
+        if (overflow.put(key)) {
+            duplicateEvents++;
+            untrackedDuplicateEvents++;
+            return false;
+        }
+        uniqueEvents++;
+        return true;
+    }
+
+    /**
+     * Forgets that an event was sent, when the batch of its first occurrence could not be
+     * delivered, so that its next occurrence is sent again
+     * @param key the unique key of the event
+     * @return false if the event cannot be forgotten because it is only remembered by the
+     * Bloom filter, in which case it is lost
+     */
+    public boolean forget(long key) {
+        if (occurrences.get(key) == 0) {
+            return false;
+        }
+        unsent.put(key, 1);
+        return true;
+    }
+
+    /**
+     * Makes the occurrence count of a recorded event part of the next updates, when its first
+     * occurrence was not sent because another JVM already sent the event
+     * @param key the unique key of the event
+     */
+    public void markUpdated(long key) {
+        if (occurrences.get(key) > 0) {
+            pendingUpdates.add(key);
+        }
+    }
+
+    /**
+     * Returns the total number of occurrences of every event whose counter changed since the
+     * last call, and forgets these changes. The counts of the forgotten events stay pending
+     * until they are sent again, since the backend does not know them.
+     * @return the map from the formatted event key to its total number of occurrences
+     */
+    public Map<String, Long> drainPendingUpdates() {
+        Map<String, Long> updates = new LinkedHashMap<>();
+        long[] keys = pendingUpdates.toArray();
+        pendingUpdates.clear();
+        for (long key : keys) {
+            if (unsent.size() > 0 && unsent.get(key) > 0) {
+                pendingUpdates.add(key);
+            } else {
+                updates.put(EventKeyHasher.format(key), occurrences.get(key));
+            }
+        }
+        return updates;
+    }
+
+    public boolean hasPendingUpdates() {
+        return !pendingUpdates.isEmpty();
+    }
+
+    public int getTrackedKeyCount() {
+        return occurrences.size();
+    }
+
+    public boolean isOverflowing() {
+        return overflow != null;
+    }
+
+    public long getUniqueEventCount() {
+        return uniqueEvents;
+    }
+
+    public long getDuplicateEventCount() {
+        return duplicateEvents;
+    }
+
+    /**
+     * Returns the number of occurrences of events that were not counted because the
+     * registry was full when the event was first seen
+     */
+    public long getUntrackedDuplicateEventCount() {
+        return untrackedDuplicateEvents;
+    }
+}
@@ -0,0 +1,18 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.List;
+
+/**
+ * StackTraceProvider able to filter the frames while it walks the stack, so that the
+ * frames that are not kept are never materialized.
+ */
+public interface FilteringStackTraceProvider extends StackTraceProvider {
+    /**
+     * Returns the frames of the current thread whose class starts with the prefix, from the
+     * top of the stack
+     * @param prefix package prefix of the frames to keep
+     * @param maxFrames maximum number of frames to keep, the walk stops when it is reached
+     * @return the kept frames
+     */
+    List<StackTraceElement> getFilteredStackTrace(String prefix, int maxFrames);
+}
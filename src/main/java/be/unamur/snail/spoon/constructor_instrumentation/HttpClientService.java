@@ -2,34 +2,229 @@ package be.unamur.snail.spoon.constructor_instrumentation;
 
 import java.io.IOException;
 import java.util.InvalidPropertiesFormatException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Posts the data of the instrumentation to the backend.
+ * - The requests failing with an IOException or a transient status (429, 502, 503, 504) are
+ * retried up to maxRetries times, waiting retryBackoffMillis before the first retry and
+ * twice as long before each next one (plus a random jitter of up to 50%).
+ * - postAsync() lets up to maxInFlight requests be sent at the same time by background
+ * threads, on as many kept-alive connections. The caller only waits when maxInFlight
+ * requests are already in flight, and awaitInFlight() waits for all of them.
+ */
 public class HttpClientService {
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BACKOFF_MS = 200;
+
     private final SimpleHttpClient httpClient;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private ExecutorService executor;
+    private final LongAdder retriedRequests = new LongAdder();
+    private final LongAdder failedAsyncRequests = new LongAdder();
 
     public HttpClientService() {
-        this.httpClient = new Java8HttpClient();
+        this(new Java8HttpClient(),
+                InstrumentationProperties.getInt(InstrumentationProperties.HTTP_MAX_RETRIES, DEFAULT_MAX_RETRIES),
+                InstrumentationProperties.getLong(InstrumentationProperties.HTTP_RETRY_BACKOFF_MS, DEFAULT_RETRY_BACKOFF_MS),
+                InstrumentationProperties.getInt(InstrumentationProperties.HTTP_MAX_IN_FLIGHT, 1));
     }
 
     // Constructor for tests
     public HttpClientService(SimpleHttpClient httpClient) {
+        this(httpClient, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_BACKOFF_MS, 1);
+    }
+
+    public HttpClientService(SimpleHttpClient httpClient, int maxRetries, long retryBackoffMillis, int maxInFlight) {
         this.httpClient = httpClient;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBackoffMillis = Math.max(0, retryBackoffMillis);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
     }
 
-    public String post(String url, String jsonPayload) throws IOException, InterruptedException {
+    public String post(final String url, final String jsonPayload) throws IOException, InterruptedException {
         if (jsonPayload == null) {
             throw new InvalidPropertiesFormatException("No data to send to the server");
         }
+        return handleResponse(postWithRetries(new Attempt() {
+            @Override
+            public SimpleHttpResponse run() throws IOException {
+                return httpClient.post(url, jsonPayload);
+            }
+        }));
+    }
+
+    /**
+     * Posts a body streamed to the connection
+     * @param url the url to post to
+     * @param body the body, written again for each retry
+     * @return the body of the response, null if the backend answered 409 (already stored)
+     */
+    public String postBody(final String url, final RequestBody body) throws IOException, InterruptedException {
+        if (body == null) {
+            throw new InvalidPropertiesFormatException("No data to send to the server");
+        }
+        return handleResponse(postWithRetries(new Attempt() {
+            @Override
+            public SimpleHttpResponse run() throws IOException {
+                return httpClient.post(url, body);
+            }
+        }));
+    }
+
+    /**
+     * Posts a body from a background thread, once less than maxInFlight requests are in
+     * flight. With maxInFlight = 1, the body is posted by the calling thread, which gets the
+     * failure as an exception. Otherwise, the failures are counted and given to the callback,
+     * which is called before the request stops being in flight, so that awaitInFlight() also
+     * waits for the callbacks.
+     */
+    public void postAsync(final String url, final RequestBody body, final Callback callback) throws IOException, InterruptedException {
+        if (maxInFlight == 1) {
+            postBody(url, body);
+            callback.completed();
+            return;
+        }
+        inFlight.acquire();
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        try {
+                            postBody(url, body);
+                        } catch (Exception e) {
+                            failedAsyncRequests.increment();
+                            callback.failed(e);
+                            return;
+                        }
+                        callback.completed();
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw new IOException("The http client is closed", e);
+        }
+    }
+
+    /**
+     * Waits until every request sent by postAsync() is completed
+     */
+    public void awaitInFlight() throws InterruptedException {
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    /**
+     * Waits for the requests in flight, then stops the background threads
+     */
+    public synchronized void close() throws InterruptedException {
+        if (executor != null) {
+            awaitInFlight();
+            executor.shutdown();
+        }
+    }
+
+    public long getRetriedRequestCount() {
+        return retriedRequests.sum();
+    }
+
+    public long getFailedAsyncRequestCount() {
+        return failedAsyncRequests.sum();
+    }
 
-        SimpleHttpResponse response = httpClient.post(url, jsonPayload);
+    public long getSentByteCount() {
+        return httpClient.getSentByteCount();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "sentinel-http-sender");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    private SimpleHttpResponse postWithRetries(Attempt attempt) throws IOException, InterruptedException {
+        long backoff = retryBackoffMillis;
+        for (int retry = 0; ; retry++) {
+            SimpleHttpResponse response;
+            try {
+                response = attempt.run();
+            } catch (IOException e) {
+                if (retry >= maxRetries) {
+                    throw e;
+                }
+                backoff = waitBeforeRetry(backoff);
+                continue;
+            }
+            if (!isTransient(response.statusCode()) || retry >= maxRetries) {
+                return response;
+            }
+            backoff = waitBeforeRetry(backoff);
+        }
+    }
+
+    private long waitBeforeRetry(long backoff) throws InterruptedException {
+        retriedRequests.increment();
+        if (backoff > 0) {
+            Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+        }
+        return backoff * 2;
+    }
+
+    private static boolean isTransient(int statusCode) {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    private static String handleResponse(SimpleHttpResponse response) {
         if (response.statusCode() == 409) {
             return null;
         }
 
         if (response.statusCode() < 200 || response.statusCode() >= 300) {
-//                System.out.println("Error: " + response.statusCode() + " " + response.body());
             throw new HttpErrorException(response.statusCode());
         }
 
         return response.body();
     }
+
+    /**
+     * Result of a request posted by postAsync()
+     */
+    public interface Callback {
+        void completed();
+
+        void failed(Exception e);
+    }
+
+    private interface Attempt {
+        SimpleHttpResponse run() throws IOException;
+    }
 }
@@ -1,21 +1,60 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
-public class HttpConstructorContextSender implements ConstructorContextSender {
+/**
+ * Sends the constructor contexts to the backend. When sentinel.wire.internStackTraces is
+ * set, the batches are sent to /batch/interned with their stack traces and constructor
+ * descriptors replaced by ids of a WireDictionary, whose new entries are sent along with
+ * each batch.
+ * When the client allows several requests in flight, the plain batches given a BatchCallback
+ * are posted in the background, the callback being told whether they were stored, and the
+ * occurrences are only posted once every batch in flight is completed, so that the backend
+ * already knows their events. The interned batches are always posted one at a time, as each
+ * one relies on the dictionary entries of the previous ones.
+ * The batches are serialized straight into the body of the request, without building the
+ * whole JSON document in memory first. When sentinel.wire.format is "binary", they are
+ * written in the format of BinaryBatchFormat instead, with its own content type; such a
+ * batch carries its own string and stack trace tables, so it takes precedence over the
+ * interned batches.
+ */
+public class HttpConstructorContextSender implements BackgroundBatchSender {
     private final HttpClientService client;
     private final String apiURL;
     private final ConstructorContextSerializer serializer;
+    private final WireDictionary dictionary;
+    private final BinaryBatchEncoder binaryEncoder;
+    private final String sessionId = UUID.randomUUID().toString();
 
     public HttpConstructorContextSender(String apiURL) {
-        this(new HttpClientService(), apiURL, new ConstructorContextSerializer());
+        this(new HttpClientService(), apiURL, new ConstructorContextSerializer(),
+                InstrumentationProperties.getBoolean(InstrumentationProperties.INTERN_STACK_TRACES, false),
+                BinaryBatchFormat.isBinarySelected() ? new BinaryBatchEncoder() : null);
     }
 
     // For dependency injection and tests
     public HttpConstructorContextSender(HttpClientService client, String apiURL, ConstructorContextSerializer serializer) {
+        this(client, apiURL, serializer, false);
+    }
+
+    // For dependency injection and tests
+    public HttpConstructorContextSender(HttpClientService client, String apiURL, ConstructorContextSerializer serializer, boolean internStackTraces) {
+        this(client, apiURL, serializer, internStackTraces, null);
+    }
+
+    /**
+     * @param binaryEncoder the encoder of the binary batches, or null to send JSON batches
+     */
+    public HttpConstructorContextSender(HttpClientService client, String apiURL, ConstructorContextSerializer serializer, boolean internStackTraces, BinaryBatchEncoder binaryEncoder) {
         this.client = client;
         this.apiURL = apiURL;
         this.serializer = serializer;
+        this.binaryEncoder = binaryEncoder;
+        this.dictionary = internStackTraces && binaryEncoder == null ? new WireDictionary() : null;
     }
 
     @Override
@@ -33,11 +72,125 @@ public class HttpConstructorContextSender implements ConstructorContextSender {
         if (contexts == null || contexts.isEmpty()) {
             return;
         }
-        String json = serializer.serializeList(contexts);
+        if (dictionary != null) {
+            sendInternedBatch(contexts);
+            return;
+        }
+        RequestBody body = binaryEncoder != null ? binaryBody(contexts) : jsonBody(contexts);
         try {
-            client.post(apiURL + "/batch", json);
+            client.postBody(apiURL + "/batch", body);
         } catch (Exception e) {
             throw new ConstructorContextSendFailedException(e);
         }
     }
+
+    @Override
+    public void sendBatch(List<ConstructorContext> contexts, final BatchCallback callback) {
+        if (dictionary != null || client.getMaxInFlight() <= 1 || contexts == null || contexts.isEmpty()) {
+            sendBatch(contexts);
+            callback.onSent();
+            return;
+        }
+        RequestBody body = binaryEncoder != null ? binaryBody(contexts) : jsonBody(contexts);
+        try {
+            client.postAsync(apiURL + "/batch", body, new HttpClientService.Callback() {
+                @Override
+                public void completed() {
+                    callback.onSent();
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    callback.onFailed(new ConstructorContextSendFailedException(e));
+                }
+            });
+        } catch (Exception e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+    }
+
+    @Override
+    public void awaitBatches() {
+        try {
+            client.awaitInFlight();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RequestBody jsonBody(final List<ConstructorContext> contexts) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                serializer.writeList(contexts, out);
+            }
+        };
+    }
+
+    private RequestBody binaryBody(final List<ConstructorContext> contexts) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                binaryEncoder.write(contexts, out);
+            }
+
+            @Override
+            public String getContentType() {
+                return BinaryBatchFormat.CONTENT_TYPE;
+            }
+        };
+    }
+
+    private synchronized void sendInternedBatch(final List<ConstructorContext> contexts) {
+        final int[] stacktraceIds = new int[contexts.size()];
+        for (int i = 0; i < stacktraceIds.length; i++) {
+            stacktraceIds[i] = dictionary.intern(contexts.get(i).getStacktrace());
+            dictionary.useDescriptor(contexts.get(i).getDescriptorId());
+        }
+        final WireDictionary.Delta delta = dictionary.getPendingDelta();
+        RequestBody body = new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                serializer.writeInternedBatch(sessionId, contexts, stacktraceIds, delta, out);
+            }
+        };
+        try {
+            client.postBody(apiURL + "/batch/interned", body);
+        } catch (Exception e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+        dictionary.acknowledge(delta);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public void sendOccurrences(Map<String, Long> occurrences) {
+        if (occurrences == null || occurrences.isEmpty()) {
+            return;
+        }
+        String json = serializer.serializeOccurrences(occurrences);
+        try {
+            client.awaitInFlight();
+            client.post(apiURL + "/occurrences", json);
+        } catch (Exception e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+    }
+
+    @Override
+    public long getSentByteCount() {
+        return client.getSentByteCount();
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Reads the runtime settings of the instrumentation. Every setting is given to the
+ * test JVM as a system property (see RunInstrumentedProjectTestsStage), with an
+ * environment variable as fallback.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public final class InstrumentationProperties {
+    public static final String DISPATCHER_MODE = "sentinel.dispatcher.mode";
+    public static final String QUEUE_SIZE = "sentinel.dispatcher.queueSize";
+    public static final String QUEUE_FULL_POLICY = "sentinel.dispatcher.queueFullPolicy";
+    public static final String SHUTDOWN_TIMEOUT_MS = "sentinel.dispatcher.shutdownTimeoutMs";
+    public static final String THREAD_BUFFER_SIZE = "sentinel.dispatcher.threadBufferSize";
+    public static final String PRINT_STATISTICS = "sentinel.dispatcher.printStatistics";
+    public static final String DEDUP_MAX_TRACKED_KEYS = "sentinel.dedup.maxTrackedKeys";
+    public static final String DEDUP_BLOOM_EXPECTED_KEYS = "sentinel.dedup.bloomExpectedKeys";
+    public static final String DEDUP_SHARED_FILE = "sentinel.dedup.sharedFile";
+    public static final String DEDUP_SHARED_EXPECTED_KEYS = "sentinel.dedup.sharedExpectedKeys";
+    public static final String STACKTRACE_MAX_FRAMES = "sentinel.stacktrace.maxFrames";
+    public static final String STACKTRACE_CALLER_ONLY = "sentinel.stacktrace.callerOnly";
+    public static final String INTERN_STACK_TRACES = "sentinel.wire.internStackTraces";
+    public static final String WIRE_FORMAT = "sentinel.wire.format";
+    public static final String CAPTURE_SAMPLE_RATE = "sentinel.capture.sampleRate";
+    public static final String CAPTURE_MAX_TRACES_PER_CONSTRUCTOR = "sentinel.capture.maxTracesPerConstructor";
+    public static final String CAPTURE_MAX_EVENTS_PER_SECOND = "sentinel.capture.maxEventsPerSecond";
+    public static final String SENDER = "sentinel.sender";
+    public static final String SPOOL_DIR = "sentinel.spool.dir";
+    public static final String HTTP_GZIP = "sentinel.http.gzip";
+    public static final String HTTP_MAX_IN_FLIGHT = "sentinel.http.maxInFlight";
+    public static final String HTTP_MAX_RETRIES = "sentinel.http.maxRetries";
+    public static final String HTTP_RETRY_BACKOFF_MS = "sentinel.http.retryBackoffMs";
+    public static final String ARENA_ENABLED = "sentinel.arena.enabled";
+    public static final String ARENA_SEGMENT_SIZE = "sentinel.arena.segmentSize";
+    public static final String ARENA_MAX_SIZE = "sentinel.arena.maxSize";
+    public static final String CAPTURE_LEVEL = "sentinel.capture.level";
+    public static final String CAPTURE_PACKAGE_LEVELS = "sentinel.capture.packageLevels";
+    public static final String CAPTURE_COUNTS_DIR = "sentinel.capture.countsDir";
+    public static final String METRICS_ENABLED = "sentinel.metrics.enabled";
+    public static final String METRICS_DIR = "sentinel.metrics.dir";
+
+    private InstrumentationProperties() {}
+
+    /**
+     * Returns the value of the system property, or of the matching environment variable
+     * (e.g. sentinel.dispatcher.queueSize -> SENTINEL_DISPATCHER_QUEUESIZE) if not set
+     * @param name name of the system property
+     * @param defaultValue value returned when neither the property nor the variable are set
+     * @return the configured value or the default one
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(name.replace('.', '_').toUpperCase());
+        }
+        return value == null || value.isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -1,48 +1,129 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP client based on HttpURLConnection, as the instrumentation code must stay Java 8
+ * compatible. The connections are kept alive by the JDK as long as every response is fully
+ * read and closed, which is why the responses are always drained, even the error ones.
+ * The body is streamed to the connection in chunks instead of being built in memory, and
+ * gzip-compressed when sentinel.http.gzip is set: the request then has a
+ * "Content-Encoding: gzip" header, and the backend must decompress it.
+ */
+public class Java8HttpClient implements SimpleHttpClient {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5_000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 60_000;
+
+    private final boolean gzip;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final LongAdder sentBytes = new LongAdder();
+
+    public Java8HttpClient() {
+        this(InstrumentationProperties.getBoolean(InstrumentationProperties.HTTP_GZIP, false),
+                DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    public Java8HttpClient(boolean gzip, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.gzip = gzip;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
 
-public class Java8HttpClient implements SimpleHttpClient{
     @Override
     public SimpleHttpResponse post(String url, String jsonPayload) throws IOException {
-        URL targetUrl = new URL(url);
-        HttpURLConnection connection = (HttpURLConnection) targetUrl.openConnection();
+        return post(url, RequestBody.ofString(jsonPayload));
+    }
 
+    @Override
+    public SimpleHttpResponse post(String url, RequestBody body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
         connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("Content-Type", body.getContentType());
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
         connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
 
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonPayload.getBytes(StandardCharsets.UTF_8);
-            os.write(input);
+        try (OutputStream os = new CountingOutputStream(connection.getOutputStream(), sentBytes)) {
+            if (gzip) {
+                GZIPOutputStream gzipStream = new GZIPOutputStream(os, CHUNK_SIZE);
+                body.writeTo(gzipStream);
+                gzipStream.finish();
+            } else {
+                body.writeTo(os);
+            }
         }
 
         int statusCode = connection.getResponseCode();
+        InputStream in = statusCode >= 200 && statusCode < 300 ? connection.getInputStream() : connection.getErrorStream();
+        return new SimpleHttpResponse(statusCode, readBody(in, "gzip".equalsIgnoreCase(connection.getContentEncoding())));
+    }
 
-        StringBuilder body = getStringBuilder(statusCode, connection);
+    public boolean isGzip() {
+        return gzip;
+    }
 
-        return new SimpleHttpResponse(statusCode, body.toString());
+    /**
+     * Returns the number of bytes written to the connections, after compression
+     */
+    @Override
+    public long getSentByteCount() {
+        return sentBytes.sum();
     }
 
-    private static StringBuilder getStringBuilder(int statusCode, HttpURLConnection connection) throws IOException {
-        BufferedReader reader;
-        if (statusCode >= 200 && statusCode < 300) {
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
-        } else {
-            reader = new BufferedReader(new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8));
+    /**
+     * Reads the whole response and closes its stream, so that the connection goes back to
+     * the keep-alive cache of the JDK
+     */
+    private static String readBody(InputStream in, boolean gzipped) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream stream = gzipped ? new GZIPInputStream(in) : in) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private final LongAdder count;
+
+        private CountingOutputStream(OutputStream out, LongAdder count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count.increment();
         }
 
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            body.append(line);
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count.add(len);
         }
-        return body;
     }
 }
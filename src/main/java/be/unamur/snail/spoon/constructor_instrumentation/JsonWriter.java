@@ -0,0 +1,211 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON as UTF-8 bytes into a reusable buffer, without any intermediate String. The
+ * buffer is either written to an OutputStream each time it is full (streaming mode), or
+ * grown to hold the whole document (string mode).
+ * The strings are escaped with a single scan: the ASCII characters that need no escaping
+ * are copied as is, which is the case of nearly every class, method and file name.
+ */
+public final class JsonWriter {
+    private static final int DEFAULT_CAPACITY = 16 * 1024;
+    // A buffer grown above this size in string mode is not kept for the next documents
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer = new byte[DEFAULT_CAPACITY];
+    private int count;
+    private OutputStream out;
+
+    /**
+     * Starts a new document
+     * @param out the stream the document is written to, or null to keep it in memory
+     */
+    public JsonWriter reset(OutputStream out) {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[DEFAULT_CAPACITY];
+        }
+        this.out = out;
+        this.count = 0;
+        return this;
+    }
+
+    /**
+     * Writes an ASCII string as is, used for the punctuation and the field names
+     */
+    public JsonWriter raw(String ascii) throws IOException {
+        int length = ascii.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    public JsonWriter raw(char ascii) throws IOException {
+        ensureCapacity(1);
+        buffer[count++] = (byte) ascii;
+        return this;
+    }
+
+    public JsonWriter number(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            return raw(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // The digits were written from the least significant one
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a quoted and escaped string, or null
+     */
+    public JsonWriter string(String value) throws IOException {
+        if (value == null) {
+            ensureCapacity(NULL.length);
+            System.arraycopy(NULL, 0, buffer, count, NULL.length);
+            count += NULL.length;
+            return this;
+        }
+        int length = value.length();
+        // Worst case: 6 bytes per char (\\u00XX) and the quotes
+        if (length * 6 + 2 <= buffer.length || out == null) {
+            ensureCapacity(length * 6 + 2);
+            writeString(value, 0, length);
+        } else {
+            // A string larger than the streaming buffer is written in slices
+            ensureCapacity(1);
+            buffer[count++] = '"';
+            for (int start = 0; start < length; ) {
+                int end = Math.min(length, start + (buffer.length - 2) / 6);
+                if (end < length && Character.isHighSurrogate(value.charAt(end - 1))) {
+                    end--;
+                }
+                ensureCapacity((end - start) * 6);
+                count = escape(value, start, end, count);
+                start = end;
+            }
+            ensureCapacity(1);
+            buffer[count++] = '"';
+        }
+        return this;
+    }
+
+    private void writeString(String value, int start, int end) {
+        int position = count;
+        buffer[position++] = '"';
+        int i = start;
+        // Fast path: ASCII characters needing no escaping
+        for (; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7f || c == '"' || c == '\\') {
+                break;
+            }
+            buffer[position++] = (byte) c;
+        }
+        if (i < end) {
+            position = escape(value, i, end, position);
+        }
+        buffer[position++] = '"';
+        count = position;
+    }
+
+    private int escape(String value, int start, int end, int position) {
+        byte[] b = buffer;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    b[position++] = '\\';
+                }
+                b[position++] = (byte) c;
+            } else if (c < 0x20) {
+                b[position++] = '\\';
+                switch (c) {
+                    case '\n': b[position++] = 'n'; break;
+                    case '\r': b[position++] = 'r'; break;
+                    case '\t': b[position++] = 't'; break;
+                    case '\b': b[position++] = 'b'; break;
+                    case '\f': b[position++] = 'f'; break;
+                    default:
+                        b[position++] = 'u';
+                        b[position++] = '0';
+                        b[position++] = '0';
+                        b[position++] = HEX[c >> 4];
+                        b[position++] = HEX[c & 0xf];
+                }
+            } else if (c < 0x800) {
+                b[position++] = (byte) (0xc0 | (c >> 6));
+                b[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    b[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    b[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    b[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    b[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    // Same replacement as String.getBytes for a lone surrogate
+                    b[position++] = '?';
+                }
+            } else {
+                b[position++] = (byte) (0xe0 | (c >> 12));
+                b[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Writes the content of the buffer to the stream, in streaming mode
+     */
+    public void flush() throws IOException {
+        if (out != null && count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Returns the document, in string mode
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, StandardCharsets.UTF_8);
+    }
+
+    private void ensureCapacity(int size) throws IOException {
+        if (count + size <= buffer.length) {
+            return;
+        }
+        if (out != null) {
+            flush();
+            if (size <= buffer.length) {
+                return;
+            }
+        }
+        byte[] larger = new byte[Math.max(buffer.length * 2, count + size)];
+        System.arraycopy(buffer, 0, larger, 0, count);
+        buffer = larger;
+    }
+}
@@ -0,0 +1,77 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with power of two buckets: bucket i counts the
+ * durations between 2^i and 2^(i+1) - 1 nanoseconds (bucket 0 also counts 0). Recording a
+ * duration never allocates nor locks, so it can be done by every instrumented thread.
+ * The buckets are written as a JSON array so that the histograms of several JVMs can be
+ * merged by summing them.
+ */
+public class LatencyHistogram {
+    static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    static int bucketOf(long nanos) {
+        return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getBucket(int index) {
+        return buckets.get(index);
+    }
+
+    /**
+     * Writes the histogram as {"count":..,"totalNanos":..,"maxNanos":..,"buckets":[..]},
+     * the buckets after the last non empty one being left out
+     */
+    public void writeTo(JsonWriter writer) throws IOException {
+        writer.raw("{\"count\":").number(getCount())
+                .raw(",\"totalNanos\":").number(getTotalNanos())
+                .raw(",\"maxNanos\":").number(getMaxNanos())
+                .raw(",\"buckets\":[");
+        int last = BUCKET_COUNT - 1;
+        while (last >= 0 && buckets.get(last) == 0) {
+            last--;
+        }
+        for (int i = 0; i <= last; i++) {
+            if (i > 0) {
+                writer.raw(',');
+            }
+            writer.number(buckets.get(i));
+        }
+        writer.raw("]}");
+    }
+}
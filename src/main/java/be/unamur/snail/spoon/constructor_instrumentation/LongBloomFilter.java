@@ -0,0 +1,64 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Minimal Bloom filter over 64-bit event keys, used by the EventOccurrenceRegistry once it tracks
+ * too many keys to keep them all. It can answer that a key might have been seen while
+ * it was not (with the configured false positive probability), never the opposite.
+ * It is not thread-safe.
+ */
+public class LongBloomFilter {
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions number of keys the filter is sized for
+     * @param falsePositiveProbability wanted false positive probability once the expected
+     *                                 number of keys has been added, e.g. 0.01
+     */
+    public LongBloomFilter(int expectedInsertions, double falsePositiveProbability) {
+        int n = Math.max(1, expectedInsertions);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+        this.bits = new long[(bitCount + 63) / 64];
+    }
+
+    /**
+     * Adds a key to the filter
+     * @param key the key to add
+     * @return true if the key was possibly added before, false if it is new for sure
+     */
+    public boolean put(long key) {
+        long hash = LongOpenHashSet.mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean seen = true;
+        for (int i = 0; i < hashCount; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            long mask = 1L << index;
+            if ((bits[index >>> 6] & mask) == 0) {
+                seen = false;
+                bits[index >>> 6] |= mask;
+            }
+        }
+        return seen;
+    }
+
+    public boolean mightContain(long key) {
+        long hash = LongOpenHashSet.mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            if ((bits[index >>> 6] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+}
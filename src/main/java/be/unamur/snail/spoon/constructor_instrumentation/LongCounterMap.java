@@ -0,0 +1,137 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Map from primitive long keys to long counters, using open addressing with linear probing
+ * like LongOpenHashSet, so that incrementing a counter never allocates. The table is kept
+ * at most half full. Key 0 is used to mark empty slots, so its counter is stored aside.
+ * It is not thread-safe.
+ */
+public class LongCounterMap {
+    private long[] keys;
+    private long[] counts;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+    private long zeroCount;
+
+    /**
+     * @param expectedSize number of keys the map can hold without growing
+     */
+    public LongCounterMap(int expectedSize) {
+        int capacity = LongOpenHashSet.tableSizeFor(expectedSize);
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Increments the counter of a key already in the map
+     * @param key the key of the counter
+     * @return the new value of the counter, or 0 if the key is not in the map
+     */
+    public long increment(long key) {
+        if (key == 0) {
+            return containsZero ? ++zeroCount : 0;
+        }
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return ++counts[slot];
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the counter of a key, adding the key if needed
+     */
+    public void put(long key, long count) {
+        if (key == 0) {
+            if (!containsZero) size++;
+            containsZero = true;
+            zeroCount = count;
+            return;
+        }
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                counts[slot] = count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        if (++size > keys.length >>> 1) {
+            grow();
+        }
+    }
+
+    /**
+     * @return the counter of the key, or 0 if the key is not in the map
+     */
+    public long get(long key) {
+        if (key == 0) return containsZero ? zeroCount : 0;
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return counts[slot];
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Removes a key, moving back the keys probed after it so that they can still be found
+     * @return the counter of the removed key, or 0 if the key is not in the map
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            if (!containsZero) return 0;
+            containsZero = false;
+            size--;
+            return zeroCount;
+        }
+        int gap = slot(key);
+        while (keys[gap] != key) {
+            if (keys[gap] == 0) return 0;
+            gap = (gap + 1) & mask;
+        }
+        long count = counts[gap];
+        size--;
+        for (int slot = (gap + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            // A key can fill the gap if the gap is between its own slot and the slot it was probed to
+            if (((slot - slot(keys[slot])) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                counts[gap] = counts[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = 0;
+        counts[gap] = 0;
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        return (int) LongOpenHashSet.mix(key) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new long[oldKeys.length << 1];
+        counts = new long[oldKeys.length << 1];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+}
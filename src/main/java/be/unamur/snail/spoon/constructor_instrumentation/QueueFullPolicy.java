@@ -0,0 +1,22 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * What the asynchronous dispatcher does with a new event when its queue is full
+ */
+public enum QueueFullPolicy {
+    /**
+     * The instrumented thread waits until the sender thread makes room in the queue
+     */
+    BLOCK,
+    /**
+     * The event is dropped and counted, the instrumented thread never waits
+     */
+    DROP;
+
+    public static QueueFullPolicy fromString(String value) {
+        if (value != null && value.equalsIgnoreCase("drop")) {
+            return DROP;
+        }
+        return BLOCK;
+    }
+}
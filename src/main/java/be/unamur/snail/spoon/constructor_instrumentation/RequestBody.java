@@ -0,0 +1,32 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Body of a POST request, written directly to the stream of the connection so that it does
+ * not have to be built in memory first. It can be written several times, when the request
+ * is retried.
+ */
+public interface RequestBody {
+    String JSON_CONTENT_TYPE = "application/json";
+
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Returns the value of the Content-Type header of the request
+     */
+    default String getContentType() {
+        return JSON_CONTENT_TYPE;
+    }
+
+    static RequestBody ofString(final String content) {
+        return new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+}
@@ -0,0 +1,185 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures what the instrumentation costs in a test JVM, when sentinel.metrics.enabled is
+ * set: the time spent by each instrumented constructor call in the instrumentation (stack
+ * walk and send), per constructor, the time taken by each batch sent by the dispatcher, and
+ * the number of calls of send() that threw an exception.
+ * At shutdown, the dispatcher writes these metrics with its own counters (unique,
+ * duplicate and dropped events, failed batches, sent bytes) as a JSON file in
+ * sentinel.metrics.dir, one file per JVM. The files are merged by
+ * CollectRuntimeMetricsStage once the tests are over.
+ */
+public class RuntimeMetrics {
+    private final long startMillis = System.currentTimeMillis();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LongAdder sendFailures = new LongAdder();
+    private volatile ConstructorMetrics[] descriptorMetrics = new ConstructorMetrics[0];
+    private final ConcurrentHashMap<String, ConstructorMetrics> legacyMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * Records the time spent in the instrumentation by a constructor call
+     * @param context the context of the call, before its frame is reused
+     * @param nanos time spent in the instrumentation
+     */
+    public void recordConstructorCall(ConstructorContext context, long nanos) {
+        constructorMetricsOf(context).latency.record(nanos);
+    }
+
+    /**
+     * Records the time taken by the sender to send a batch
+     */
+    public void recordBatch(long nanos) {
+        batchLatency.record(nanos);
+    }
+
+    public void recordSendFailure() {
+        sendFailures.increment();
+    }
+
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    public long getSendFailureCount() {
+        return sendFailures.sum();
+    }
+
+    /**
+     * @return the histogram of the instrumentation time of the constructor with this
+     * descriptor id, or null if it was never called
+     */
+    public LatencyHistogram getConstructorLatency(int descriptorId) {
+        ConstructorMetrics[] metrics = descriptorMetrics;
+        return descriptorId < metrics.length && metrics[descriptorId] != null ? metrics[descriptorId].latency : null;
+    }
+
+    private ConstructorMetrics constructorMetricsOf(ConstructorContext context) {
+        int id = context.getDescriptorId();
+        if (id < 0) {
+            String key = context.getClassName() + "#" + context.getFileName() + "#" + context.getParameters();
+            ConstructorMetrics metrics = legacyMetrics.get(key);
+            if (metrics == null) {
+                legacyMetrics.putIfAbsent(key, new ConstructorMetrics(new ConstructorDescriptor(-1, context.getFileName(), context.getClassName(), context.getMethodName(), context.getParameters(), context.getCommit())));
+                metrics = legacyMetrics.get(key);
+            }
+            return metrics;
+        }
+        ConstructorMetrics[] metrics = descriptorMetrics;
+        if (id < metrics.length && metrics[id] != null) {
+            return metrics[id];
+        }
+        return createDescriptorMetrics(id);
+    }
+
+    private synchronized ConstructorMetrics createDescriptorMetrics(int id) {
+        ConstructorMetrics[] metrics = descriptorMetrics;
+        if (id >= metrics.length) {
+            metrics = Arrays.copyOf(metrics, Math.max(id + 1, metrics.length * 2));
+        } else if (metrics[id] != null) {
+            return metrics[id];
+        } else {
+            metrics = metrics.clone();
+        }
+        metrics[id] = new ConstructorMetrics(ConstructorDescriptors.get(id));
+        descriptorMetrics = metrics;
+        return metrics[id];
+    }
+
+    /**
+     * Writes the metrics of this JVM as a JSON object
+     * @param dispatcher the dispatcher whose counters are written, can be null
+     */
+    public void writeTo(OutputStream out, ConstructorEventDispatcher dispatcher) throws IOException {
+        JsonWriter writer = new JsonWriter().reset(out);
+        writer.raw("{\"jvm\":").string(ManagementFactory.getRuntimeMXBean().getName())
+                .raw(",\"durationMillis\":").number(System.currentTimeMillis() - startMillis);
+        if (dispatcher != null) {
+            writer.raw(",\"uniqueEvents\":").number(dispatcher.getUniqueEventCount())
+                    .raw(",\"duplicateEvents\":").number(dispatcher.getDuplicateEventCount())
+                    .raw(",\"sharedDuplicateEvents\":").number(dispatcher.getSharedDuplicateEventCount())
+                    .raw(",\"droppedEvents\":").number(dispatcher.getDroppedEventCount())
+                    .raw(",\"failedBatches\":").number(dispatcher.getFailedBatchCount())
+                    .raw(",\"sentBytes\":").number(dispatcher.getSentByteCount());
+        }
+        writer.raw(",\"sendFailures\":").number(getSendFailureCount())
+                .raw(",\"batchLatency\":");
+        batchLatency.writeTo(writer);
+        writer.raw(",\"constructors\":[");
+        boolean first = true;
+        ConstructorMetrics[] metrics = descriptorMetrics;
+        for (ConstructorMetrics constructorMetrics : metrics) {
+            if (constructorMetrics != null) {
+                writeConstructor(writer, constructorMetrics, first);
+                first = false;
+            }
+        }
+        for (Map.Entry<String, ConstructorMetrics> entry : legacyMetrics.entrySet()) {
+            writeConstructor(writer, entry.getValue(), first);
+            first = false;
+        }
+        writer.raw("]}");
+        writer.flush();
+    }
+
+    private void writeConstructor(JsonWriter writer, ConstructorMetrics metrics, boolean first) throws IOException {
+        if (!first) {
+            writer.raw(',');
+        }
+        ConstructorDescriptor descriptor = metrics.descriptor;
+        writer.raw("{\"fileName\":").string(descriptor.getFileName())
+                .raw(",\"className\":").string(descriptor.getClassName())
+                .raw(",\"methodName\":").string(descriptor.getMethodName())
+                .raw(",\"parameters\":[");
+        for (int i = 0; i < descriptor.getParameters().size(); i++) {
+            if (i > 0) {
+                writer.raw(',');
+            }
+            writer.string(descriptor.getParameters().get(i));
+        }
+        writer.raw("],\"latency\":");
+        metrics.latency.writeTo(writer);
+        writer.raw('}');
+    }
+
+    /**
+     * Writes the metrics into a new file of the given directory
+     * @return the file, or null if it could not be written
+     */
+    public File export(File directory, ConstructorEventDispatcher dispatcher) {
+        File file = new File(directory, "runtime-metrics-" + System.currentTimeMillis() + "-" + UUID.randomUUID() + ".json");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                writeTo(out, dispatcher);
+            }
+            return file;
+        } catch (IOException e) {
+            System.err.println("[sentinel] Failed to export the runtime metrics: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class ConstructorMetrics {
+        private final ConstructorDescriptor descriptor;
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private ConstructorMetrics(ConstructorDescriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+    }
+}
@@ -1,13 +1,62 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Collects the data of the instrumented constructor calls of the current thread. By default,
+ * each call is stored in a ConstructorContext that is only copied by the dispatcher when its
+ * event was never seen before. When sentinel.arena.enabled is set, the fields of the call are
+ * written directly as a record of an off-heap EventArena instead, and the context only keeps
+ * what the capture policy needs.
+ * An instrumented constructor can call other instrumented constructors before sending its own
+ * context, so each call gets its own frame of a per-thread stack: initConstructorContext
+ * pushes a frame, send pops it, and addAttribute and getStackTrace always apply to the frame
+ * of the innermost call. The frames and their attribute lists are reused from one call to the
+ * next, with room for the attributes of their descriptor.
+ * The code generated by ConstructorInstrumentationProcessor records an assignment with the
+ * index of its AttributeDescriptor and the assigned value only: the AttributeContext of each
+ * runtime class is cached by the descriptor, so that recording it does not allocate.
+ * The generated code also gives the depth returned by
+ * initConstructorContext to exitConstructorContext in a finally block, so that the frames of
+ * the constructors throwing an exception do not stay on the stack.
+ * The CaptureLevels decide how much of each call is captured: the calls of the constructors
+ * at the count level are only counted by the ConstructorCallCounter, and the calls of the
+ * constructors at the caller level are sent without attributes, with the constructor and its
+ * immediate caller as stack trace. When some constructors are not fully captured, the calls
+ * of every constructor are counted and the counts are exported at shutdown.
+ * When the dispatcher has RuntimeMetrics, the time spent in getStackTrace and send by each
+ * call is recorded for its constructor, as well as the calls of send that threw.
+ */
 public class SendConstructorsUtils {
+    private static final int INITIAL_STACK_DEPTH = 8;
+
+    // Frames of the constructor calls in progress, the innermost one being constructorContext
+    private ConstructorContext[] frames = new ConstructorContext[INITIAL_STACK_DEPTH];
+    private boolean[] capturingFrames = new boolean[INITIAL_STACK_DEPTH];
+    private boolean[] callerOnlyFrames = new boolean[INITIAL_STACK_DEPTH];
+    private long[] frameStackTraceNanos = new long[INITIAL_STACK_DEPTH];
+    private ConstructorDescriptor[] frameDescriptors = new ConstructorDescriptor[INITIAL_STACK_DEPTH];
+    private int depth;
     private ConstructorContext constructorContext;
+    private ConstructorDescriptor constructorDescriptor;
     private final StackTraceHelper stackTraceHelper;
     private final ConstructorContextSender sender; // Only used in tests
+    private final ThreadEventBuffer buffer;
+    private final ArenaEventWriter arenaWriter;
+    private final CapturePolicy capturePolicy;
+    private final CaptureLevels captureLevels;
+    private final ConstructorCallCounter callCounter;
+    private RuntimeMetrics metrics;
+    private boolean capturing = true;
+    private boolean callerOnly;
     private static volatile  ConstructorEventDispatcher dispatcher;
+    private static final CapturePolicy SHARED_CAPTURE_POLICY = CapturePolicy.fromProperties();
+    private static final CaptureLevels SHARED_CAPTURE_LEVELS = CaptureLevels.fromProperties();
+    private static final ConstructorCallCounter SHARED_CALL_COUNTER = SHARED_CAPTURE_LEVELS.isTiered() ? new ConstructorCallCounter(SHARED_CAPTURE_LEVELS) : null;
     private static final ThreadLocal<SendConstructorsUtils> LOCAL = new ThreadLocal<SendConstructorsUtils>() {
         @Override
         protected SendConstructorsUtils initialValue() {
@@ -20,17 +69,53 @@ public class SendConstructorsUtils {
     }
 
     public SendConstructorsUtils() {
-        this.constructorContext = new ConstructorContext();
-        this.stackTraceHelper = new StackTraceHelper(new DefaultStackTraceProvider());
+        this.frames[0] = new ConstructorContext();
+        this.constructorContext = frames[0];
+        this.stackTraceHelper = new StackTraceHelper(StackTraceHelper.createDefaultProvider());
         this.sender = null;
+        this.capturePolicy = SHARED_CAPTURE_POLICY;
+        this.captureLevels = SHARED_CAPTURE_LEVELS;
+        this.callCounter = SHARED_CALL_COUNTER;
         initDispatcher();
+        this.buffer = dispatcher.createThreadBuffer();
+        this.arenaWriter = dispatcher.createArenaWriter();
+        this.metrics = dispatcher.getMetrics();
     }
 
     // Constructor for tests
     public SendConstructorsUtils(StackTraceHelper stackTraceHelper, ConstructorContextSender sender) {
-        this.constructorContext = new ConstructorContext();
+        this(stackTraceHelper, sender, CapturePolicy.captureAll());
+    }
+
+    // Constructor for tests
+    public SendConstructorsUtils(StackTraceHelper stackTraceHelper, ConstructorContextSender sender, CapturePolicy capturePolicy) {
+        this(stackTraceHelper, sender, capturePolicy, CaptureLevels.full(), null);
+    }
+
+    // Constructor for tests
+    public SendConstructorsUtils(StackTraceHelper stackTraceHelper, ConstructorContextSender sender, CapturePolicy capturePolicy, CaptureLevels captureLevels, ConstructorCallCounter callCounter) {
+        this.frames[0] = new ConstructorContext();
+        this.constructorContext = frames[0];
         this.stackTraceHelper = stackTraceHelper;
         this.sender = sender;
+        this.buffer = null;
+        this.arenaWriter = null;
+        this.capturePolicy = capturePolicy;
+        this.captureLevels = captureLevels;
+        this.callCounter = callCounter;
+    }
+
+    // Constructor for tests
+    public SendConstructorsUtils(StackTraceHelper stackTraceHelper, ArenaEventWriter arenaWriter, CapturePolicy capturePolicy) {
+        this.frames[0] = new ConstructorContext();
+        this.constructorContext = frames[0];
+        this.stackTraceHelper = stackTraceHelper;
+        this.sender = null;
+        this.buffer = null;
+        this.arenaWriter = arenaWriter;
+        this.capturePolicy = capturePolicy;
+        this.captureLevels = CaptureLevels.full();
+        this.callCounter = null;
     }
 
     protected static void initDispatcher() {
@@ -38,19 +123,44 @@ public class SendConstructorsUtils {
             synchronized (SendConstructorsUtils.class) {
                 if (dispatcher == null) {
                     String apiURL = System.getProperty("apiUrl", System.getenv("API_URL"));
-                    if (apiURL == null || apiURL.isEmpty()) {
+                    // The spool sender writes the contexts to local files, it does not need the backend
+                    if ((apiURL == null || apiURL.isEmpty()) && !ConstructorEventDispatcher.isSpoolSenderSelected()) {
                         throw new IllegalArgumentException("apiUrl not set");
                     }
                     dispatcher = ConstructorEventDispatcher.getInstance(apiURL);
+                    if (!SHARED_CAPTURE_POLICY.isUnrestricted()) {
+                        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                SHARED_CAPTURE_POLICY.printStatistics();
+                            }
+                        }));
+                    }
+                    if (SHARED_CALL_COUNTER != null) {
+                        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                SHARED_CALL_COUNTER.export(new File(InstrumentationProperties.getString(InstrumentationProperties.CAPTURE_COUNTS_DIR, "sentinel-counts")));
+                            }
+                        }));
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Returns the context of the innermost constructor call in progress, or of the last call
+     * sent if there is none
+     */
     public ConstructorContext getConstructorContextForTests() {
         return constructorContext;
     }
 
+    public int getDepthForTests() {
+        return depth;
+    }
+
     /**
      * Initialize a new ConstructorContext object
      * @param fileName file where the constructor is
@@ -58,15 +168,144 @@ public class SendConstructorsUtils {
      * @param methodName method/constructor name
      * @param parameters a list of parameters of the constructor
      * @param commit commit information containing SHA, project name and owner
+     * @return the depth of the call, to give to exitConstructorContext
+     */
+    public int initConstructorContext(String fileName, String className, String methodName, List<String> parameters, CommitSimpleInstrDTO commit) {
+        ConstructorContext frame = pushFrame();
+        frame.withFileName(fileName).withClassName(className).withMethodName(methodName).withParameters(parameters).withAttributes(resetAttributes(frame, 0)).withStackTrace(null).withCommit(commit).withDescriptorId(-1);
+        selectCaptureLevel(frame);
+        frameDescriptors[depth - 1] = null;
+        constructorDescriptor = null;
+        if (capturing && arenaWriter != null) {
+            arenaWriter.begin(-1, fileName, className, methodName, parameters, commit);
+        }
+        return depth - 1;
+    }
+
+    /**
+     * Initialize a new ConstructorContext object from the descriptor of the constructor,
+     * registered once by the code generated by ConstructorInstrumentationProcessor
+     * @param descriptorId id of the ConstructorDescriptor of the constructor
+     * @return the depth of the call, to give to exitConstructorContext
+     */
+    public int initConstructorContext(int descriptorId) {
+        ConstructorDescriptor descriptor = ConstructorDescriptors.get(descriptorId);
+        ConstructorContext frame = pushFrame();
+        frame.withFileName(descriptor.getFileName()).withClassName(descriptor.getClassName()).withMethodName(descriptor.getMethodName()).withParameters(descriptor.getParameters()).withAttributes(resetAttributes(frame, descriptor.getAttributeCount())).withStackTrace(null).withCommit(descriptor.getCommit()).withDescriptorId(descriptorId);
+        selectCaptureLevel(frame);
+        frameDescriptors[depth - 1] = descriptor;
+        constructorDescriptor = descriptor;
+        if (capturing && arenaWriter != null) {
+            arenaWriter.begin(descriptorId, null, null, null, null, null);
+        }
+        return depth - 1;
+    }
+
+    /**
+     * Counts the call of the innermost frame and decides how much of it is captured
+     */
+    private void selectCaptureLevel(ConstructorContext frame) {
+        CaptureLevel level = captureLevels.levelOf(frame);
+        if (callCounter != null) {
+            callCounter.increment(frame);
+        }
+        capturing = level != CaptureLevel.COUNT && capturePolicy.shouldCapture(frame);
+        callerOnly = level == CaptureLevel.CALLER;
+        capturingFrames[depth - 1] = capturing;
+        callerOnlyFrames[depth - 1] = callerOnly;
+        frameStackTraceNanos[depth - 1] = 0;
+    }
+
+    /**
+     * Pops the frames of the calls at the given depth and deeper that were not sent, because
+     * their constructor threw an exception. Does nothing if the call at this depth was sent.
+     * @param callDepth the depth returned by initConstructorContext
+     */
+    public void exitConstructorContext(int callDepth) {
+        while (depth > callDepth) {
+            if (arenaWriter != null && capturingFrames[depth - 1]) {
+                arenaWriter.discard();
+            }
+            depth--;
+        }
+        restoreInnermostFrame();
+    }
+
+    /**
+     * Makes the next frame of the stack the innermost one, growing the stack if needed
      */
-    public void initConstructorContext(String fileName, String className, String methodName, List<String> parameters, CommitSimpleInstrDTO commit) {
-        constructorContext = constructorContext.withFileName(fileName).withClassName(className).withMethodName(methodName).withParameters(parameters).withAttributes(new ArrayList<>()).withCommit(commit);
+    private ConstructorContext pushFrame() {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+            capturingFrames = Arrays.copyOf(capturingFrames, depth * 2);
+            callerOnlyFrames = Arrays.copyOf(callerOnlyFrames, depth * 2);
+            frameStackTraceNanos = Arrays.copyOf(frameStackTraceNanos, depth * 2);
+            frameDescriptors = Arrays.copyOf(frameDescriptors, depth * 2);
+        }
+        ConstructorContext frame = frames[depth];
+        if (frame == null) {
+            frame = new ConstructorContext();
+            frames[depth] = frame;
+        }
+        depth++;
+        constructorContext = frame;
+        return frame;
+    }
+
+    private void popFrame() {
+        if (depth > 0) {
+            depth--;
+        }
+        restoreInnermostFrame();
+    }
+
+    /**
+     * Makes the frame of the enclosing call the current one again. Once the stack is empty,
+     * the frame of the last call stays the current one.
+     */
+    private void restoreInnermostFrame() {
+        if (depth > 0) {
+            constructorContext = frames[depth - 1];
+            capturing = capturingFrames[depth - 1];
+            callerOnly = callerOnlyFrames[depth - 1];
+            constructorDescriptor = frameDescriptors[depth - 1];
+        }
+    }
+
+    /**
+     * Returns the emptied attribute list of a frame, with room for the given number of
+     * attributes. The attributes are not kept in the context when they are written in the arena.
+     */
+    private List<AttributeContext> resetAttributes(ConstructorContext frame, int expectedAttributes) {
+        if (arenaWriter != null) {
+            return Collections.<AttributeContext>emptyList();
+        }
+        List<AttributeContext> attributes = frame.getAttributes();
+        if (!(attributes instanceof ArrayList)) {
+            return new ArrayList<AttributeContext>(Math.max(expectedAttributes, 10));
+        }
+        attributes.clear();
+        ((ArrayList<AttributeContext>) attributes).ensureCapacity(expectedAttributes);
+        return attributes;
+    }
+
+    public void setMetricsForTests(RuntimeMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public void resetConstructorContextForTests() {
         constructorContext = null;
     }
 
+    /**
+     * Returns false if the CapturePolicy decided not to capture the current call, or if its
+     * constructor is only counted, in which case addAttribute, getStackTrace and send do
+     * nothing until the next initialization
+     */
+    public boolean isCapturing() {
+        return capturing;
+    }
+
     /**
      * Add an attribute to an already initialized ConstructorContext
      * @param attributeName name of the attribute
@@ -79,12 +318,46 @@ public class SendConstructorsUtils {
         if (constructorContext == null || constructorContext.isEmpty()) {
             throw new IllegalStateException("ConstructorContext is not initialized");
         }
+        if (!capturing || callerOnly) {
+            return;
+        }
 
         String actualType = actualObject != null ? actualObject.getClass().getName() : "null";
+        if (arenaWriter != null) {
+            arenaWriter.addAttribute(attributeName, attributeType, actualType, rightHandSideExpressionType);
+            return;
+        }
         AttributeContext attributeContext = new AttributeContext(attributeName, attributeType, actualType, rightHandSideExpressionType);
         constructorContext.addAttribute(attributeContext);
     }
 
+    /**
+     * Add an attribute described by the descriptor of the constructor to an already
+     * initialized ConstructorContext. Nothing is allocated, except the first time a value of
+     * a given class is assigned to the field.
+     * @param attributeIndex index of the AttributeDescriptor of the assignment
+     * @param actualObject value assigned to the field
+     * @throws IllegalStateException if the constructor context is not initialized from a descriptor
+     */
+    public void addAttribute(int attributeIndex, Object actualObject) {
+        if (constructorContext == null || constructorContext.isEmpty()) {
+            throw new IllegalStateException("ConstructorContext is not initialized");
+        }
+        if (!capturing || callerOnly) {
+            return;
+        }
+        if (constructorDescriptor == null) {
+            throw new IllegalStateException("ConstructorContext is not initialized from a descriptor");
+        }
+
+        AttributeContext attribute = constructorDescriptor.getAttribute(attributeIndex).attributeFor(actualObject);
+        if (arenaWriter != null) {
+            arenaWriter.addAttribute(attributeIndex, attribute.getActualType());
+            return;
+        }
+        constructorContext.addAttribute(attribute);
+    }
+
     /**
      * Get the stacktrace of this at a t time, and puts it in the
      * current constructor context
@@ -93,24 +366,97 @@ public class SendConstructorsUtils {
         if (constructorContext == null || constructorContext.isEmpty()) {
             throw new IllegalStateException("ConstructorContext is not initialized");
         }
-        List<StackTraceElement> stackTrace = stackTraceHelper.getFilteredStackTrace();
+        if (!capturing) {
+            return;
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        List<StackTraceElement> stackTrace = callerOnly ? stackTraceHelper.getCallerStackTrace() : stackTraceHelper.getFilteredStackTrace();
+        if (metrics != null && depth > 0) {
+            frameStackTraceNanos[depth - 1] += System.nanoTime() - start;
+        }
         constructorContext = constructorContext.withStackTrace(stackTrace);
+        if (arenaWriter != null) {
+            arenaWriter.setStackTrace(stackTrace);
+        }
     }
 
     /**
-     * Send the constructor data into the database
+     * Send the constructor data into the database, and pops the frame of the call
      */
     public void send() {
+        if (metrics == null) {
+            sendFrame();
+            return;
+        }
+        ConstructorContext frame = constructorContext;
+        long stackTraceNanos = depth > 0 ? frameStackTraceNanos[depth - 1] : 0;
+        long start = System.nanoTime();
+        try {
+            sendFrame();
+        } catch (RuntimeException e) {
+            metrics.recordSendFailure();
+            throw e;
+        }
+        // The frame is only reused by the next call, its fields are still those of this call
+        metrics.recordConstructorCall(frame, stackTraceNanos + System.nanoTime() - start);
+    }
+
+    /**
+     * Captures the stack trace and sends the context of the innermost call, then leaves it even
+     * if sending failed. Called by the code injected by the load-time agent at each return of
+     * an instrumented constructor, instead of a try/finally block around its body
+     * @param callDepth the depth returned by initConstructorContext
+     */
+    public void sendAndExitConstructorContext(int callDepth) {
+        try {
+            getStackTrace();
+            send();
+        } finally {
+            exitConstructorContext(callDepth);
+        }
+    }
+
+    private void sendFrame() {
+        if (!capturing) {
+            popFrame();
+            return;
+        }
         if (!constructorContext.isComplete()) {
             throw new ConstructorContextNotCompletedException();
         }
-        if (sender != null) {
+        if (!capturePolicy.admit(constructorContext)) {
+            if (arenaWriter != null) {
+                arenaWriter.discard();
+            }
+            popFrame();
+            return;
+        }
+        if (arenaWriter != null) {
+            arenaWriter.commit(EventKeyHasher.hash(constructorContext));
+        } else if (sender != null) {
             sender.send(constructorContext);
         } else {
             if (dispatcher == null) {
                 initDispatcher();
             }
-            dispatcher.submit(constructorContext.copy());
+            submitToDispatcher(constructorContext);
+        }
+        popFrame();
+    }
+
+    /**
+     * Gives the context to the dispatcher, which copies it if needed since the frame is
+     * reused. If this thread has its own buffer, the context is copied into it and the
+     * dispatcher is only reached when the buffer is full.
+     */
+    private void submitToDispatcher(ConstructorContext context) {
+        if (buffer == null) {
+            dispatcher.submit(context);
+            return;
+        }
+        List<ConstructorContext> full = buffer.add(context.copy());
+        if (full != null) {
+            dispatcher.submitAll(full);
         }
     }
 }
@@ -0,0 +1,168 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Set of event keys shared by every test JVM of a run, so that an event already sent by a
+ * surefire or Gradle fork is not sent again by the others. The set is an open-addressing
+ * table of longs with linear probing in a memory-mapped file: the forks map the same file
+ * and insert a key by a compare-and-set of its slot from 0 (empty) to the key, so that they
+ * never wait for each other. A slot is only cleared when the event of its key could not be
+ * sent: a key probed past this slot can then be inserted again, and its event sent twice
+ * rather than lost.
+ * The file must be deleted before the run, RunInstrumentedProjectTestsStage does it. Its size
+ * gives the number of slots, every fork maps it with the same size.
+ * This code is copied into the analyzed projects, which can still target Java 8, so the
+ * compare-and-set of the mapped memory goes through the byte buffer view VarHandle of Java 9+,
+ * only reached through method handles. Use isAvailable() before creating an instance.
+ */
+public class SharedEventKeySet {
+    private static final int SLOT_SIZE = 8;
+    private static final int MAX_PROBES = 256;
+    // Key stored instead of 0, which marks the empty slots
+    private static final long ZERO_KEY = 1;
+
+    private static final MethodHandle GET_VOLATILE;
+    private static final MethodHandle COMPARE_AND_SET;
+
+    static {
+        MethodHandle getVolatile = null;
+        MethodHandle compareAndSet = null;
+        try {
+            Class<?> varHandleClass = Class.forName("java.lang.invoke.VarHandle");
+            Class<?> accessModeClass = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Object varHandle = java.lang.invoke.MethodHandles.class
+                    .getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class)
+                    .invoke(null, long[].class, ByteOrder.nativeOrder());
+            java.lang.reflect.Method toMethodHandle = varHandleClass.getMethod("toMethodHandle", accessModeClass);
+            getVolatile = (MethodHandle) toMethodHandle.invoke(varHandle, accessMode(accessModeClass, "GET_VOLATILE"));
+            compareAndSet = (MethodHandle) toMethodHandle.invoke(varHandle, accessMode(accessModeClass, "COMPARE_AND_SET"));
+        } catch (Exception | LinkageError e) {
+            compareAndSet = null;
+        }
+        GET_VOLATILE = getVolatile;
+        COMPARE_AND_SET = compareAndSet;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object accessMode(Class<?> accessModeClass, String name) {
+        return Enum.valueOf((Class) accessModeClass, name);
+    }
+
+    private final ByteBuffer table;
+    private final int mask;
+    private long probeOverflows;
+
+    /**
+     * Maps the shared file, created with room for the expected number of keys if it does not
+     * exist yet
+     * @param file the file shared by the test JVMs
+     * @param expectedKeys number of keys the table is sized for, it is kept at most half full
+     */
+    public SharedEventKeySet(File file, int expectedKeys) throws IOException {
+        if (!isAvailable()) {
+            throw new IllegalStateException("The shared event keys need Java 9 or later");
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create the directory " + parent);
+        }
+        int slots = LongOpenHashSet.tableSizeFor(expectedKeys);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid once the channel is closed
+            this.table = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * SLOT_SIZE);
+        }
+        this.mask = slots - 1;
+    }
+
+    public static boolean isAvailable() {
+        return COMPARE_AND_SET != null;
+    }
+
+    /**
+     * Adds a key to the set, unless another JVM or thread added it before
+     * @param key the key of an event
+     * @return true if the key was not in the set yet, or if it could not be inserted because
+     * the table is too full, in which case the event is sent again rather than lost
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            key = ZERO_KEY;
+        }
+        int slot = (int) LongOpenHashSet.mix(key) & mask;
+        try {
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int index = slot * SLOT_SIZE;
+                long current = (long) GET_VOLATILE.invokeExact(table, index);
+                if (current == key) {
+                    return false;
+                }
+                if (current == 0) {
+                    if ((boolean) COMPARE_AND_SET.invokeExact(table, index, 0L, key)) {
+                        return true;
+                    }
+                    // Another JVM took the slot first, maybe with the same key
+                    if ((long) GET_VOLATILE.invokeExact(table, index) == key) {
+                        return false;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        probeOverflows++;
+        return true;
+    }
+
+    /**
+     * Removes a key added by this JVM, so that the event can be sent again by any JVM
+     * @param key the key of an event
+     * @return true if the key was removed, false if it was not found
+     */
+    public boolean remove(long key) {
+        if (key == 0) {
+            key = ZERO_KEY;
+        }
+        int slot = (int) LongOpenHashSet.mix(key) & mask;
+        try {
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int index = slot * SLOT_SIZE;
+                long current = (long) GET_VOLATILE.invokeExact(table, index);
+                if (current == 0) {
+                    return false;
+                }
+                if (current == key) {
+                    return (boolean) COMPARE_AND_SET.invokeExact(table, index, key, 0L);
+                }
+                slot = (slot + 1) & mask;
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of keys that could not be inserted because the table was too full
+     * around their slot
+     */
+    public long getProbeOverflowCount() {
+        return probeOverflows;
+    }
+
+    public int getSlotCount() {
+        return mask + 1;
+    }
+}
@@ -1,7 +1,31 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public interface SimpleHttpClient {
     SimpleHttpResponse post(String url, String jsonPayload) throws IOException;
+
+    /**
+     * Posts a body written directly to the connection. The default implementation builds
+     * the body in memory, the clients able to stream it override this method. It only
+     * supports JSON bodies.
+     */
+    default SimpleHttpResponse post(String url, RequestBody body) throws IOException {
+        if (!RequestBody.JSON_CONTENT_TYPE.equals(body.getContentType())) {
+            throw new IOException("Unsupported content type " + body.getContentType());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return post(url, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the number of bytes of the request bodies written to the connections, or 0 if
+     * the client does not count them
+     */
+    default long getSentByteCount() {
+        return 0;
+    }
 }
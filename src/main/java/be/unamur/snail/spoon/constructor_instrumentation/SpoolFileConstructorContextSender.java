@@ -0,0 +1,258 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Appends the constructor contexts to a local spool file instead of sending them to the
+ * backend, so that the tests do not depend on the availability nor on the throughput of the
+ * backend. Each JVM writes its own file, named after the current time and a random UUID, so
+ * that several surefire forks can share the same directory. The file is memory-mapped by
+ * regions of regionSize bytes: appending a record is a copy into the mapped region, and the
+ * operating system writes the pages back even if the JVM is killed.
+ * The records use the compact binary format described in SpoolFormat. The files are then
+ * sent to the backend by ReplaySpoolFilesStage.
+ */
+public class SpoolFileConstructorContextSender implements ConstructorContextSender {
+    public static final int DEFAULT_REGION_SIZE = 8 * 1024 * 1024;
+
+    private final File file;
+    private final int regionSize;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private boolean closed;
+
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+    private final DataOutputStream record = new DataOutputStream(recordBuffer);
+    private final RecordBuffer stringBuffer = new RecordBuffer();
+    private final DataOutputStream stringRecord = new DataOutputStream(stringBuffer);
+
+    public SpoolFileConstructorContextSender(File directory) {
+        this(new File(directory, "constructors-" + System.currentTimeMillis() + "-" + UUID.randomUUID() + SpoolFormat.FILE_EXTENSION), DEFAULT_REGION_SIZE);
+    }
+
+    // For tests
+    public SpoolFileConstructorContextSender(File file, int regionSize) {
+        this.file = file;
+        this.regionSize = regionSize;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Could not create the spool directory " + parent);
+            }
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.channel = randomAccessFile.getChannel();
+            remap(0, SpoolFormat.HEADER_SIZE);
+            region.putInt(SpoolFormat.MAGIC);
+            region.putInt(SpoolFormat.VERSION);
+        } catch (IOException e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+    }
+
+    @Override
+    public synchronized void send(ConstructorContext context) {
+        try {
+            writeEvent(context);
+        } catch (IOException e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+    }
+
+    @Override
+    public synchronized void sendBatch(List<ConstructorContext> contexts) {
+        if (contexts == null || contexts.isEmpty()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < contexts.size(); i++) {
+                writeEvent(contexts.get(i));
+            }
+        } catch (IOException e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+    }
+
+    @Override
+    public synchronized void sendOccurrences(Map<String, Long> occurrences) {
+        if (occurrences == null || occurrences.isEmpty()) {
+            return;
+        }
+        try {
+            beginRecord(SpoolFormat.OCCURRENCES_RECORD);
+            record.writeInt(occurrences.size());
+            for (Map.Entry<String, Long> entry : occurrences.entrySet()) {
+                record.writeInt(stringId(entry.getKey()));
+                record.writeLong(entry.getValue());
+            }
+            endRecord(recordBuffer);
+        } catch (IOException e) {
+            throw new ConstructorContextSendFailedException(e);
+        }
+    }
+
+    /**
+     * Writes the mapped pages back to the file, and truncates the file after its last record
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long end = regionStart + region.position();
+            region.force();
+            channel.truncate(end);
+            channel.close();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            // The end marker left by the mapping (zeroes) keeps the file readable
+            System.err.println("[sentinel] Could not close the spool file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to the spool file
+     */
+    @Override
+    public synchronized long getSentByteCount() {
+        return regionStart + region.position();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void writeEvent(ConstructorContext context) throws IOException {
+        beginRecord(SpoolFormat.EVENT_RECORD);
+        record.writeInt(stringId(context.getFileName()));
+        record.writeInt(stringId(context.getClassName()));
+        record.writeInt(stringId(context.getMethodName()));
+        record.writeInt(stringId(context.getSnapshot()));
+        record.writeInt(stringId(context.getEventKey()));
+        CommitSimpleInstrDTO commit = context.getCommit();
+        RepositorySimpleInstrDTO repository = commit == null ? null : commit.getRepository();
+        record.writeInt(commit == null ? SpoolFormat.NULL_ID : stringId(commit.getSha()));
+        record.writeInt(repository == null ? SpoolFormat.NULL_ID : stringId(repository.getName()));
+        record.writeInt(repository == null ? SpoolFormat.NULL_ID : stringId(repository.getOwner()));
+
+        List<String> parameters = context.getParameters();
+        record.writeInt(parameters == null ? -1 : parameters.size());
+        if (parameters != null) {
+            for (int i = 0; i < parameters.size(); i++) {
+                record.writeInt(stringId(parameters.get(i)));
+            }
+        }
+        List<AttributeContext> attributes = context.getAttributes();
+        record.writeInt(attributes == null ? -1 : attributes.size());
+        if (attributes != null) {
+            for (int i = 0; i < attributes.size(); i++) {
+                AttributeContext attribute = attributes.get(i);
+                record.writeInt(stringId(attribute.getName()));
+                record.writeInt(stringId(attribute.getType()));
+                record.writeInt(stringId(attribute.getActualType()));
+                record.writeInt(stringId(attribute.getRhs()));
+            }
+        }
+        List<StackTraceElement> stacktrace = context.getStacktrace();
+        record.writeInt(stacktrace == null ? -1 : stacktrace.size());
+        if (stacktrace != null) {
+            for (int i = 0; i < stacktrace.size(); i++) {
+                StackTraceElement element = stacktrace.get(i);
+                record.writeInt(stringId(element.getClassName()));
+                record.writeInt(stringId(element.getMethodName()));
+                record.writeInt(stringId(element.getFileName()));
+                record.writeInt(element.getLineNumber());
+            }
+        }
+        endRecord(recordBuffer);
+    }
+
+    /**
+     * Returns the id of a string, and appends its definition to the file first if it was
+     * never written before
+     */
+    private int stringId(String value) throws IOException {
+        if (value == null) {
+            return SpoolFormat.NULL_ID;
+        }
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        int newId = stringIds.size();
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        stringBuffer.reset();
+        stringRecord.writeInt(0);
+        stringRecord.writeByte(SpoolFormat.STRING_RECORD);
+        stringRecord.writeInt(newId);
+        stringRecord.writeInt(bytes.length);
+        stringRecord.write(bytes);
+        endRecord(stringBuffer);
+        stringIds.put(value, newId);
+        return newId;
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        if (closed) {
+            throw new IOException("The spool file " + file + " is closed");
+        }
+        recordBuffer.reset();
+        record.writeInt(0);
+        record.writeByte(type);
+    }
+
+    /**
+     * Writes the length of the record in its first 4 bytes, then appends it to the file.
+     * 4 more bytes are always left in the region for the end marker.
+     */
+    private void endRecord(RecordBuffer buffer) throws IOException {
+        buffer.writeLength();
+        int size = buffer.size();
+        if (region.remaining() < size + 4) {
+            remap(regionStart + region.position(), size + 4);
+        }
+        region.put(buffer.array(), 0, size);
+    }
+
+    private void remap(long position, int minSize) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(regionSize, minSize));
+        regionStart = position;
+    }
+
+    /**
+     * ByteArrayOutputStream giving access to its array, so that a record is copied into the
+     * mapped region without any intermediate array
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void writeLength() {
+            int length = count - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+/**
+ * Binary format of the spool files written by SpoolFileConstructorContextSender and read
+ * back by SpoolFileReader. A file starts with MAGIC and VERSION (two ints), followed by
+ * records made of their length (int, counting the type byte and the payload), their type
+ * (byte) and their payload. A length of 0 marks the end of the file, so that a file whose
+ * JVM died before it was truncated can still be read up to its last complete record.
+ * Every string is written once, in a STRING_RECORD defining its id, and then referred to by
+ * this id (NULL_ID for null):
+ * - STRING_RECORD: id (int), length of the UTF-8 bytes (int), UTF-8 bytes
+ * - EVENT_RECORD: file, class and method names, snapshot and event key (5 string ids),
+ * commit sha, repository name and owner (3 string ids, NULL_ID when there is no commit),
+ * parameters (count then string ids), attributes (count then name, type, actual type and
+ * right hand side string ids), stack trace (count then class name, method name and file
+ * name string ids and line number), where a count of -1 stands for a null list
+ * - OCCURRENCES_RECORD: count (int), then event key string id and total occurrences (long)
+ * All the numbers are big-endian.
+ * This code is copied into the analyzed projects, so it must stay Java 8 compatible.
+ */
+public final class SpoolFormat {
+    public static final int MAGIC = 0x534E5350;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final String FILE_EXTENSION = ".spool";
+
+    public static final byte STRING_RECORD = 1;
+    public static final byte EVENT_RECORD = 2;
+    public static final byte OCCURRENCES_RECORD = 3;
+
+    public static final int NULL_ID = -1;
+
+    private SpoolFormat() {}
+}
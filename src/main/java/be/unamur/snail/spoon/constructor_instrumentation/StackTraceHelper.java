@@ -1,25 +1,93 @@
 package be.unamur.snail.spoon.constructor_instrumentation;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Captures the frames of the analyzed project in the stack of the current thread, i.e. the
+ * frames whose class starts with the packagePrefix system property.
+ * The number of kept frames can be limited with sentinel.stacktrace.maxFrames. With
+ * sentinel.stacktrace.callerOnly, only the instrumented constructor and its immediate
+ * project caller (the first two project frames) are kept, which is also what
+ * getCallerStackTrace() returns for the constructors captured at the caller level.
+ */
 public class StackTraceHelper {
+    static final int CALLER_ONLY_FRAMES = 2;
+
     private final StackTraceProvider stackTraceProvider;
+    private final int maxFrames;
+    private String prefix;
 
     public StackTraceHelper(StackTraceProvider stackTraceProvider) {
+        this(stackTraceProvider, readMaxFrames());
+    }
+
+    public StackTraceHelper(StackTraceProvider stackTraceProvider, int maxFrames) {
         this.stackTraceProvider = stackTraceProvider;
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Returns the most efficient provider of the running JVM: the StackWalker one on Java 9+,
+     * the Thread.getStackTrace() one on Java 8
+     */
+    public static StackTraceProvider createDefaultProvider() {
+        if (StackWalkerStackTraceProvider.isAvailable()) {
+            return new StackWalkerStackTraceProvider();
+        }
+        return new DefaultStackTraceProvider();
+    }
+
+    private static int readMaxFrames() {
+        if (InstrumentationProperties.getBoolean(InstrumentationProperties.STACKTRACE_CALLER_ONLY, false)) {
+            return CALLER_ONLY_FRAMES;
+        }
+        int maxFrames = InstrumentationProperties.getInt(InstrumentationProperties.STACKTRACE_MAX_FRAMES, Integer.MAX_VALUE);
+        return maxFrames > 0 ? maxFrames : Integer.MAX_VALUE;
     }
 
     public List<StackTraceElement> getFilteredStackTrace() {
-        String prefix = System.getProperty("packagePrefix", System.getenv("PACKAGE_PREFIX"));
-        if (prefix == null || prefix.isEmpty()) {
-            throw new IllegalArgumentException("Package prefix not set");
+        return getFilteredStackTrace(maxFrames);
+    }
+
+    /**
+     * Returns the instrumented constructor and its immediate project caller only
+     */
+    public List<StackTraceElement> getCallerStackTrace() {
+        return getFilteredStackTrace(Math.min(maxFrames, CALLER_ONLY_FRAMES));
+    }
+
+    private List<StackTraceElement> getFilteredStackTrace(int maxFrames) {
+        String prefix = getPrefix();
+        if (stackTraceProvider instanceof FilteringStackTraceProvider) {
+            return ((FilteringStackTraceProvider) stackTraceProvider).getFilteredStackTrace(prefix, maxFrames);
+        }
+        List<StackTraceElement> result = new ArrayList<>();
+        StackTraceElement[] stackTrace = stackTraceProvider.getStackTrace();
+        for (int i = 0; i < stackTrace.length && result.size() < maxFrames; i++) {
+            if (stackTrace[i].getClassName().startsWith(prefix)) {
+                result.add(stackTrace[i]);
+            }
+        }
+        return result;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    /**
+     * Reads the package prefix the first time it is set, it is then kept for the life of
+     * this helper
+     */
+    private String getPrefix() {
+        if (prefix == null) {
+            String value = System.getProperty("packagePrefix", System.getenv("PACKAGE_PREFIX"));
+            if (value == null || value.isEmpty()) {
+                throw new IllegalArgumentException("Package prefix not set");
+            }
+            prefix = value;
         }
-        return new ArrayList<>(Arrays.stream(this.stackTraceProvider.getStackTrace())
-                .filter(element -> element.getClassName().startsWith(prefix))
-                .collect(Collectors.toList())
-        );
+        return prefix;
     }
 }
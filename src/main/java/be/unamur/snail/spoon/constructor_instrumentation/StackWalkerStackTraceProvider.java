@@ -0,0 +1,92 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * StackTraceProvider based on java.lang.StackWalker (Java 9+). The frames are walked lazily:
+ * only the class name of a frame is read to filter it, a StackTraceElement is only created
+ * for the kept frames, and the walk stops as soon as enough frames are kept.
+ * This code is copied into the analyzed projects, which can still target Java 8, so
+ * StackWalker is only reached through method handles. Use isAvailable() before creating
+ * an instance, and fall back on DefaultStackTraceProvider otherwise.
+ */
+public class StackWalkerStackTraceProvider implements FilteringStackTraceProvider {
+    private static final Object WALKER;
+    private static final MethodHandle WALK;
+    private static final MethodHandle GET_CLASS_NAME;
+    private static final MethodHandle TO_STACK_TRACE_ELEMENT;
+
+    static {
+        Object walker = null;
+        MethodHandle walk = null;
+        MethodHandle getClassName = null;
+        MethodHandle toStackTraceElement = null;
+        try {
+            // StackWalker.walk is caller-sensitive, so it cannot be found with the public lookup
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = lookup.findVirtual(walkerClass, "walk", MethodType.methodType(Object.class, Function.class));
+            getClassName = lookup.findVirtual(frameClass, "getClassName", MethodType.methodType(String.class));
+            toStackTraceElement = lookup.findVirtual(frameClass, "toStackTraceElement", MethodType.methodType(StackTraceElement.class));
+        } catch (Exception | LinkageError e) {
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walk;
+        GET_CLASS_NAME = getClassName;
+        TO_STACK_TRACE_ELEMENT = toStackTraceElement;
+    }
+
+    public static boolean isAvailable() {
+        return WALKER != null;
+    }
+
+    @Override
+    public StackTraceElement[] getStackTrace() {
+        List<StackTraceElement> frames = getFilteredStackTrace("", Integer.MAX_VALUE);
+        return frames.toArray(new StackTraceElement[0]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<StackTraceElement> getFilteredStackTrace(final String prefix, final int maxFrames) {
+        if (WALKER == null) {
+            throw new IllegalStateException("StackWalker is not available on this JVM");
+        }
+        Function<Stream<Object>, List<StackTraceElement>> collector = new Function<Stream<Object>, List<StackTraceElement>>() {
+            @Override
+            public List<StackTraceElement> apply(Stream<Object> frames) {
+                List<StackTraceElement> result = new ArrayList<>();
+                Iterator<Object> it = frames.iterator();
+                try {
+                    while (result.size() < maxFrames && it.hasNext()) {
+                        Object frame = it.next();
+                        String className = (String) GET_CLASS_NAME.invoke(frame);
+                        if (className.startsWith(prefix)) {
+                            result.add((StackTraceElement) TO_STACK_TRACE_ELEMENT.invoke(frame));
+                        }
+                    }
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Failed to walk the stack", e);
+                }
+                return result;
+            }
+        };
+        try {
+            return (List<StackTraceElement>) WALK.invoke(WALKER, collector);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to walk the stack", e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffer of constructor contexts owned by a single instrumented thread. When it is full,
+ * its content is handed off to the dispatcher as a whole, so that the thread only reaches
+ * the dispatcher once every {@code capacity} events.
+ * The monitor of the buffer is only shared with the shutdown hook, that drains the
+ * buffers of every thread, so it is never contended during the tests.
+ */
+public class ThreadEventBuffer {
+    private final int capacity;
+    private List<ConstructorContext> events;
+
+    public ThreadEventBuffer(int capacity) {
+        this.capacity = capacity;
+        this.events = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Adds a context to the buffer
+     * @param context the context to add
+     * @return the full list of contexts to hand off to the dispatcher, or null if the
+     * buffer is not full yet
+     */
+    public synchronized List<ConstructorContext> add(ConstructorContext context) {
+        events.add(context);
+        if (events.size() < capacity) {
+            return null;
+        }
+        List<ConstructorContext> full = events;
+        events = new ArrayList<>(capacity);
+        return full;
+    }
+
+    /**
+     * Removes every context of the buffer
+     * @return the contexts that were in the buffer
+     */
+    public synchronized List<ConstructorContext> drain() {
+        List<ConstructorContext> drained = events;
+        events = new ArrayList<>(capacity);
+        return drained;
+    }
+
+    public synchronized int size() {
+        return events.size();
+    }
+}
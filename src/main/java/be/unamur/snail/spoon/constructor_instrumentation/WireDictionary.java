@@ -0,0 +1,147 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns stack frames and whole stack traces into integer ids, so that a stack trace is
+ * sent once as a dictionary entry and then only referenced by its id. The constructor
+ * descriptors already have an id (see ConstructorDescriptors), the dictionary only keeps
+ * track of the ones the backend did not receive yet.
+ * The dictionary is sent incrementally: getPendingDelta() returns the entries created since
+ * the last acknowledged delta, and acknowledge() must only be called once the batch that
+ * contains the delta was received by the backend. If the batch fails, the same entries are
+ * sent again with the next batch, so the backend never receives an unknown id.
+ */
+public class WireDictionary {
+    private final BitSet pendingDescriptors = new BitSet();
+    private final BitSet acknowledgedDescriptors = new BitSet();
+    private final Map<StackTraceElement, Integer> frameIds = new HashMap<>();
+    private final List<StackTraceElement> frames = new ArrayList<>();
+    private final Map<List<StackTraceElement>, Integer> traceIds = new HashMap<>();
+    private final List<int[]> traces = new ArrayList<>();
+    private int acknowledgedFrames;
+    private int acknowledgedTraces;
+
+    /**
+     * Returns the id of a stack trace, adding it and its frames to the dictionary if needed
+     * @param stacktrace the stack trace to intern
+     * @return the id of the stack trace, or -1 if it is null
+     */
+    public synchronized int intern(List<StackTraceElement> stacktrace) {
+        if (stacktrace == null) return -1;
+        Integer id = traceIds.get(stacktrace);
+        if (id != null) return id;
+        int[] frameRefs = new int[stacktrace.size()];
+        for (int i = 0; i < frameRefs.length; i++) {
+            frameRefs[i] = internFrame(stacktrace.get(i));
+        }
+        int traceId = traces.size();
+        traces.add(frameRefs);
+        traceIds.put(new ArrayList<>(stacktrace), traceId);
+        return traceId;
+    }
+
+    /**
+     * Marks a constructor descriptor as used by the next batch, so that it is part of the
+     * next delta if the backend did not receive it yet
+     * @param descriptorId the id of the descriptor, ignored if negative
+     */
+    public synchronized void useDescriptor(int descriptorId) {
+        if (descriptorId >= 0 && !acknowledgedDescriptors.get(descriptorId)) {
+            pendingDescriptors.set(descriptorId);
+        }
+    }
+
+    private int internFrame(StackTraceElement frame) {
+        Integer id = frameIds.get(frame);
+        if (id != null) return id;
+        int frameId = frames.size();
+        frames.add(frame);
+        frameIds.put(frame, frameId);
+        return frameId;
+    }
+
+    /**
+     * Returns the entries of the dictionary that were not acknowledged yet
+     */
+    public synchronized Delta getPendingDelta() {
+        List<ConstructorDescriptor> descriptors = new ArrayList<>();
+        for (int id = pendingDescriptors.nextSetBit(0); id >= 0; id = pendingDescriptors.nextSetBit(id + 1)) {
+            descriptors.add(ConstructorDescriptors.get(id));
+        }
+        return new Delta(
+                acknowledgedFrames, new ArrayList<>(frames.subList(acknowledgedFrames, frames.size())),
+                acknowledgedTraces, new ArrayList<>(traces.subList(acknowledgedTraces, traces.size())),
+                descriptors);
+    }
+
+    /**
+     * Marks the entries of the delta as received by the backend
+     */
+    public synchronized void acknowledge(Delta delta) {
+        acknowledgedFrames = Math.max(acknowledgedFrames, delta.getFirstFrameId() + delta.getFrames().size());
+        acknowledgedTraces = Math.max(acknowledgedTraces, delta.getFirstTraceId() + delta.getTraces().size());
+        for (ConstructorDescriptor descriptor : delta.getDescriptors()) {
+            acknowledgedDescriptors.set(descriptor.getId());
+            pendingDescriptors.clear(descriptor.getId());
+        }
+    }
+
+    public synchronized int getFrameCount() {
+        return frames.size();
+    }
+
+    public synchronized int getTraceCount() {
+        return traces.size();
+    }
+
+    /**
+     * Entries added to the dictionary since the last acknowledged delta. The frames and the
+     * traces have consecutive ids, starting at firstFrameId and firstTraceId. The descriptors
+     * are the ones used since the last acknowledged delta and never acknowledged.
+     */
+    public static class Delta {
+        private final int firstFrameId;
+        private final List<StackTraceElement> frames;
+        private final int firstTraceId;
+        private final List<int[]> traces;
+        private final List<ConstructorDescriptor> descriptors;
+
+        public Delta(int firstFrameId, List<StackTraceElement> frames, int firstTraceId, List<int[]> traces) {
+            this(firstFrameId, frames, firstTraceId, traces, Collections.<ConstructorDescriptor>emptyList());
+        }
+
+        public Delta(int firstFrameId, List<StackTraceElement> frames, int firstTraceId, List<int[]> traces, List<ConstructorDescriptor> descriptors) {
+            this.firstFrameId = firstFrameId;
+            this.frames = frames;
+            this.firstTraceId = firstTraceId;
+            this.traces = traces;
+            this.descriptors = descriptors;
+        }
+
+        public int getFirstFrameId() {
+            return firstFrameId;
+        }
+
+        public List<StackTraceElement> getFrames() {
+            return frames;
+        }
+
+        public int getFirstTraceId() {
+            return firstTraceId;
+        }
+
+        public List<int[]> getTraces() {
+            return traces;
+        }
+
+        public List<ConstructorDescriptor> getDescriptors() {
+            return descriptors;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingConfigKeyException;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.AllocationSampleAnalyzer;
+import be.unamur.snail.spoon.constructor_instrumentation.CommitSimpleInstrDTO;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorContext;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorContextSender;
+import be.unamur.snail.spoon.constructor_instrumentation.EventKeyHasher;
+import be.unamur.snail.spoon.constructor_instrumentation.RepositorySimpleInstrDTO;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stage made to report the allocations sampled in the flight recordings written by
+ * RecordAllocationSamplesStage: the types of the samples concerning the project and the
+ * call sites of the project allocating them, by estimated allocated bytes. When
+ * instrumentation.allocation-export-enabled is set, the samples of the classes of the
+ * package prefix are also sent to the backend as constructor contexts, one per class and
+ * project stack trace, with the number of samples as occurrences. The recordings do not tell
+ * which constructor was called, so these contexts have no parameters and no attributes.
+ */
+public class AnalyzeAllocationSamplesStage implements Stage {
+    private static final int REPORTED_ALLOCATIONS = 20;
+
+    private final AllocationSampleAnalyzer analyzer;
+    private final ConstructorContextSender sender;
+
+    public AnalyzeAllocationSamplesStage() {
+        this(new AllocationSampleAnalyzer(), null);
+    }
+
+    // For dependency injection and tests, the sender is created from the configuration if null
+    public AnalyzeAllocationSamplesStage(AllocationSampleAnalyzer analyzer, ConstructorContextSender sender) {
+        this.analyzer = analyzer;
+        this.sender = sender;
+    }
+
+    @Override
+    public void execute(Context context) throws Exception {
+        PipelineLogger log = context.getLogger();
+        String repoPath = context.getRepoPath();
+        if (repoPath == null || repoPath.isBlank()) {
+            throw new MissingContextKeyException("repoPath");
+        }
+        Config config = Config.getInstance();
+        String packagePrefix = config.getProject().getPackagePrefix();
+        if (packagePrefix == null || packagePrefix.isBlank()) {
+            throw new MissingConfigKeyException("project.package-prefix");
+        }
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+
+        Path recordingsDir = RecordAllocationSamplesStage.resolveRecordingsDirectory(instrumentation, repoPath);
+        List<Path> recordings = RecordAllocationSamplesStage.listRecordings(recordingsDir);
+        if (recordings.isEmpty()) {
+            log.warn("No flight recordings found in {}", recordingsDir);
+            return;
+        }
+
+        AllocationSampleAnalyzer.AllocationSamples samples = analyzer.analyze(recordings, packagePrefix);
+        log.info("Allocation samples of {} test JVMs: {} samples of {}, {} bytes, {} samples ignored",
+                recordings.size(), samples.getSampleCount(), packagePrefix, samples.getTotalWeight(), samples.getIgnoredSampleCount());
+        log.info("Most allocated types:");
+        for (AllocationSampleAnalyzer.Allocations type : limit(samples.getTypes())) {
+            log.info("  {}: {} bytes in {} samples", type.getType(), type.getWeight(), type.getSamples());
+        }
+        log.info("Most allocating call sites:");
+        for (AllocationSampleAnalyzer.Allocations callSite : limit(samples.getCallSites())) {
+            log.info("  {} at {}: {} bytes in {} samples", callSite.getType(), callSite.getCallSite(), callSite.getWeight(), callSite.getSamples());
+        }
+
+        if (instrumentation != null && Boolean.TRUE.equals(instrumentation.getAllocationExportEnabled())) {
+            ConstructorContextSender target = sender != null ? sender : ReplaySpoolFilesStage.createBackendSender(config);
+            int batchSize = instrumentation.getReplayBatchSize() != null ? instrumentation.getReplayBatchSize() : ReplaySpoolFilesStage.DEFAULT_REPLAY_BATCH_SIZE;
+            int exported = export(samples, config, target, batchSize);
+            target.close();
+            log.info("Exported {} allocation contexts to the backend", exported);
+        }
+    }
+
+    /**
+     * Sends a constructor context per class and project stack trace in batches, then the
+     * number of samples of each
+     * @return the number of contexts sent
+     */
+    int export(AllocationSampleAnalyzer.AllocationSamples samples, Config config, ConstructorContextSender target, int batchSize) {
+        CommitSimpleInstrDTO commit = new CommitSimpleInstrDTO(config.getRepo().getCommit(),
+                new RepositorySimpleInstrDTO(config.getProject().getName(), config.getProject().getOwner()));
+        List<ConstructorContext> batch = new ArrayList<>(batchSize);
+        Map<String, Long> occurrences = new HashMap<>();
+        for (AllocationSampleAnalyzer.ProjectAllocations allocations : samples.getProjectAllocations()) {
+            ConstructorContext context = toConstructorContext(allocations, commit);
+            occurrences.put(context.getEventKey(), allocations.getSamples());
+            batch.add(context);
+            if (batch.size() >= batchSize) {
+                target.sendBatch(new ArrayList<>(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            target.sendBatch(batch);
+        }
+        target.sendOccurrences(occurrences);
+        return occurrences.size();
+    }
+
+    static ConstructorContext toConstructorContext(AllocationSampleAnalyzer.ProjectAllocations allocations, CommitSimpleInstrDTO commit) {
+        String className = allocations.getClassName();
+        int packageEnd = className.lastIndexOf('.');
+        String simpleName = className.substring(packageEnd + 1);
+        ConstructorContext context = new ConstructorContext()
+                .withFileName(className.substring(0, packageEnd + 1).replace('.', '/') + AllocationSampleAnalyzer.sourceFileName(className))
+                .withClassName(className)
+                .withMethodName(simpleName.substring(simpleName.lastIndexOf('$') + 1))
+                .withParameters(List.of())
+                .withAttributes(new ArrayList<>())
+                .withStackTrace(allocations.getStackTrace())
+                .withCommit(commit);
+        return context.withEventKey(EventKeyHasher.format(EventKeyHasher.hash(context)));
+    }
+
+    private static <T> List<T> limit(List<T> allocations) {
+        return allocations.subList(0, Math.min(REPORTED_ALLOCATIONS, allocations.size()));
+    }
+}
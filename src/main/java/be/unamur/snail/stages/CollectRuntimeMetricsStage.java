@@ -0,0 +1,105 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.RuntimeMetricsMerger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stage made to report what the instrumentation cost during the tests of the analyzed
+ * project, when instrumentation.metrics-enabled is set. It merges the runtime metrics files
+ * written by each test JVM in instrumentation.metrics-dir and logs the totals, the batch send
+ * times and the constructors whose instrumentation took the most time.
+ */
+public class CollectRuntimeMetricsStage implements Stage {
+    public static final String DEFAULT_METRICS_DIR = "sentinel-metrics";
+    private static final int REPORTED_CONSTRUCTORS = 10;
+
+    private final RuntimeMetricsMerger merger;
+
+    public CollectRuntimeMetricsStage() {
+        this(new RuntimeMetricsMerger());
+    }
+
+    public CollectRuntimeMetricsStage(RuntimeMetricsMerger merger) {
+        this.merger = merger;
+    }
+
+    @Override
+    public void execute(Context context) throws Exception {
+        PipelineLogger log = context.getLogger();
+        String repoPath = context.getRepoPath();
+        if (repoPath == null || repoPath.isBlank()) {
+            throw new MissingContextKeyException("repoPath");
+        }
+        Path metricsDir = resolveMetricsDirectory(Config.getInstance().getInstrumentation(), repoPath);
+        List<Path> files = listMetricsFiles(metricsDir);
+        if (files.isEmpty()) {
+            log.warn("No runtime metrics found in {}", metricsDir);
+            return;
+        }
+
+        RuntimeMetricsMerger.MergedMetrics metrics = merger.merge(files);
+        log.info("Runtime metrics of {} test JVMs (longest {} ms): {} unique events, {} duplicate events ({} across JVMs), {} dropped events, {} failed batches, {} send failures, {} bytes sent",
+                metrics.getJvmCount(), metrics.getDurationMillis(),
+                metrics.getCounter("uniqueEvents"), metrics.getCounter("duplicateEvents"), metrics.getCounter("sharedDuplicateEvents"),
+                metrics.getCounter("droppedEvents"), metrics.getCounter("failedBatches"), metrics.getCounter("sendFailures"),
+                metrics.getCounter("sentBytes"));
+        RuntimeMetricsMerger.Histogram batches = metrics.getBatchLatency();
+        log.info("Batches: {} sent in {} ms, mean {} us, p50 <= {} us, p99 <= {} us, max {} us",
+                batches.getCount(), batches.getTotalNanos() / 1_000_000, batches.getMeanNanos() / 1_000,
+                batches.getPercentileNanos(50) / 1_000, batches.getPercentileNanos(99) / 1_000, batches.getMaxNanos() / 1_000);
+        RuntimeMetricsMerger.Histogram calls = metrics.getConstructorLatency();
+        log.info("Instrumented constructor calls: {} in {} ms, mean {} ns, p50 <= {} ns, p99 <= {} ns, max {} ns",
+                calls.getCount(), calls.getTotalNanos() / 1_000_000, calls.getMeanNanos(),
+                calls.getPercentileNanos(50), calls.getPercentileNanos(99), calls.getMaxNanos());
+        for (RuntimeMetricsMerger.ConstructorMetrics constructor : metrics.getSlowestConstructors(REPORTED_CONSTRUCTORS)) {
+            RuntimeMetricsMerger.Histogram latency = constructor.getLatency();
+            log.info("  {}({}): {} calls in {} ms, mean {} ns, p99 <= {} ns",
+                    constructor.getClassName(), String.join(", ", constructor.getParameters()),
+                    latency.getCount(), latency.getTotalNanos() / 1_000_000, latency.getMeanNanos(), latency.getPercentileNanos(99));
+        }
+    }
+
+    static List<Path> listMetricsFiles(Path metricsDir) throws Exception {
+        if (!Files.isDirectory(metricsDir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(metricsDir)) {
+            return paths.filter(CollectRuntimeMetricsStage::isMetricsFile).sorted().toList();
+        }
+    }
+
+    static boolean isMetricsFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(RuntimeMetricsMerger.FILE_PREFIX) && name.endsWith(RuntimeMetricsMerger.FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the absolute directory of the runtime metrics files:
+     * instrumentation.metrics-dir if it is absolute, resolved against the analyzed project
+     * otherwise, so that every test JVM writes to the same directory
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     * @param repoPath path of the analyzed project
+     * @return the metrics directory
+     */
+    public static Path resolveMetricsDirectory(Config.InstrumentationConfig instrumentation, String repoPath) {
+        String metricsDir = instrumentation != null && instrumentation.getMetricsDir() != null && !instrumentation.getMetricsDir().isBlank()
+                ? instrumentation.getMetricsDir() : DEFAULT_METRICS_DIR;
+        Path path = Path.of(metricsDir);
+        return path.isAbsolute() ? path : Path.of(repoPath).resolve(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns whether the test JVMs write their runtime metrics
+     */
+    public static boolean isMetricsEnabled(Config.InstrumentationConfig instrumentation) {
+        return instrumentation != null && Boolean.TRUE.equals(instrumentation.getMetricsEnabled());
+    }
+}
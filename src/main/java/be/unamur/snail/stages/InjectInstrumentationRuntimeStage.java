@@ -0,0 +1,185 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.CouldNotInstallRuntimeJarException;
+import be.unamur.snail.exceptions.CouldNotUpdatePomException;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.exceptions.SourceFileNotFoundException;
+import be.unamur.snail.exceptions.UnknownProjectBuildException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.utils.CommandRunner;
+import be.unamur.snail.utils.SimpleCommandRunner;
+import be.unamur.snail.utils.Utils;
+import be.unamur.snail.utils.maven.SurefireArgLineComposer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stage responsible for adding the prebuilt instrumentation runtime jar (see
+ * instrumentation.runtime-jar) to the dependencies of the analyzed project, instead of
+ * copying the sources of the runtime into it with CopySourceCodeStage. The jar is added to the
+ * build file of the project, or of its sub-project: as a dependency of a pom.xml file, once
+ * installed in the local Maven repository with install:install-file, or as a files()
+ * implementation dependency in a build.gradle(.kts) file. It must be run after the build file
+ * of the instrumentation has been copied into the project.
+ */
+public class InjectInstrumentationRuntimeStage implements Stage {
+    public static final String RUNTIME_GROUP_ID = "be.unamur.snail";
+    public static final String RUNTIME_ARTIFACT_ID = "sentinel-instrumentation-runtime";
+    public static final String RUNTIME_VERSION = "1.0-SNAPSHOT";
+
+    private final CommandRunner runner;
+
+    public InjectInstrumentationRuntimeStage() {
+        this(new SimpleCommandRunner());
+    }
+
+    public InjectInstrumentationRuntimeStage(CommandRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public void execute(Context context) throws Exception {
+        PipelineLogger log = context.getLogger();
+        Config config = Config.getInstance();
+
+        Path runtimeJar = Path.of(config.getInstrumentation().getRuntimeJar()).toAbsolutePath().normalize();
+        if (!Files.isRegularFile(runtimeJar)) {
+            throw new SourceFileNotFoundException(runtimeJar.toString());
+        }
+
+        String repoPath = context.getRepoPath();
+        if (repoPath == null || repoPath.isBlank()) {
+            throw new MissingContextKeyException("repoPath");
+        }
+        String subProject = config.getProject().getSubProject();
+        Path projectRoot = subProject == null || subProject.isBlank() ? Path.of(repoPath) : Path.of(repoPath).resolve(subProject);
+
+        Path buildFile = findBuildFile(projectRoot);
+        if (buildFile.getFileName().toString().equals("pom.xml")) {
+            installMavenArtifact(projectRoot, runtimeJar);
+            addMavenDependency(buildFile);
+        } else {
+            addGradleDependency(buildFile, runtimeJar);
+        }
+        log.info("Added instrumentation runtime {} to {}", runtimeJar, buildFile);
+    }
+
+    /**
+     * Returns the build file of the project, the Gradle one first as in ProjectTypeDetector
+     * @throws UnknownProjectBuildException if the project has no build file
+     */
+    public Path findBuildFile(Path projectRoot) {
+        for (String name : new String[]{"build.gradle", "build.gradle.kts", "pom.xml"}) {
+            Path buildFile = projectRoot.resolve(name);
+            if (Files.isRegularFile(buildFile)) {
+                return buildFile;
+            }
+        }
+        throw new UnknownProjectBuildException();
+    }
+
+    /**
+     * Installs the runtime jar in the local Maven repository used by the project, so that it is
+     * resolved like any other artifact, offline and through the mirrors of the settings too.
+     * The jar is installed again on each run, since it changes with the runtime.
+     * @throws CouldNotInstallRuntimeJarException if Maven fails
+     */
+    public void installMavenArtifact(Path projectRoot, Path runtimeJar) throws IOException, InterruptedException {
+        String command = "mvn -B -N install:install-file"
+                + " -Dfile=" + SurefireArgLineComposer.quote(runtimeJar.toString())
+                + " -DgroupId=" + RUNTIME_GROUP_ID
+                + " -DartifactId=" + RUNTIME_ARTIFACT_ID
+                + " -Dversion=" + RUNTIME_VERSION
+                + " -Dpackaging=jar";
+        Utils.CompletedProcess result = runner.run(command, projectRoot.toFile());
+        if (result.returnCode() != 0) {
+            throw new CouldNotInstallRuntimeJarException(runtimeJar, result.returnCode());
+        }
+    }
+
+    /**
+     * Adds the installed runtime artifact as a compile scope dependency of the project, so that
+     * it is on both the compile and test classpaths. The dependencies of the dependencyManagement
+     * section and of the plugins are left untouched. Nothing is done if the pom already has the
+     * dependency.
+     */
+    public void addMavenDependency(Path pom) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().parse(pom.toFile());
+            document.setXmlStandalone(true);
+            Element project = document.getDocumentElement();
+
+            Element dependencies = findChild(project, "dependencies");
+            if (dependencies == null) {
+                dependencies = createElement(document, project, "dependencies", null);
+                project.appendChild(dependencies);
+            }
+            for (Node node = dependencies.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element dependency && findChild(dependency, "artifactId") != null
+                        && RUNTIME_ARTIFACT_ID.equals(findChild(dependency, "artifactId").getTextContent().trim())) {
+                    return;
+                }
+            }
+
+            Element dependency = createElement(document, project, "dependency", null);
+            dependency.appendChild(createElement(document, project, "groupId", RUNTIME_GROUP_ID));
+            dependency.appendChild(createElement(document, project, "artifactId", RUNTIME_ARTIFACT_ID));
+            dependency.appendChild(createElement(document, project, "version", RUNTIME_VERSION));
+            dependencies.appendChild(dependency);
+
+            var transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(document), new StreamResult(pom.toFile()));
+        } catch (Exception e) {
+            throw new CouldNotUpdatePomException(pom, e);
+        }
+    }
+
+    /**
+     * Adds the runtime jar as an implementation dependency of the project, with a syntax
+     * valid in both Groovy and Kotlin build scripts. Nothing is done if the build file already
+     * references the jar.
+     */
+    public void addGradleDependency(Path buildFile, Path runtimeJar) throws IOException {
+        String jarPath = runtimeJar.toString().replace("\\", "/");
+        if (Files.readString(buildFile).contains(jarPath)) {
+            return;
+        }
+        String dependency = System.lineSeparator() + "dependencies {" + System.lineSeparator()
+                + "    implementation(files(\"" + jarPath + "\"))" + System.lineSeparator()
+                + "}" + System.lineSeparator();
+        Files.writeString(buildFile, dependency, StandardOpenOption.APPEND);
+    }
+
+    private Element findChild(Element parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && name.equals(element.getLocalName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private Element createElement(Document document, Element project, String name, String text) {
+        Element element = document.createElementNS(project.getNamespaceURI(), name);
+        if (text != null) {
+            element.setTextContent(text);
+        }
+        return element;
+    }
+}
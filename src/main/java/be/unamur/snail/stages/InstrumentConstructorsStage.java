@@ -7,18 +7,60 @@ import be.unamur.snail.exceptions.MissingContextKeyException;
 import be.unamur.snail.exceptions.ModuleException;
 import be.unamur.snail.logging.PipelineLogger;
 import be.unamur.snail.processors.ConstructorInstrumentationProcessor;
+import be.unamur.snail.processors.ConstructorSelector;
+import be.unamur.snail.processors.InstrumentationUtils;
+import be.unamur.snail.services.InstrumentationCache;
+import be.unamur.snail.utils.SourcePartitioner;
+import be.unamur.snail.utils.Utils;
 import spoon.Launcher;
+import spoon.OutputType;
+import spoon.compiler.Environment;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.support.modelobs.ChangeCollector;
+import spoon.support.sniper.SniperJavaPrettyPrinter;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * Stage responsible for the instrumentation of a project to get data
- * about the constructors of this project
+ * about the constructors of this project.
+ * When execution-plan.instrumentation-cache-dir is set, the instrumented files are cached
+ * between runs (see InstrumentationCache): only the files that changed since a cached run,
+ * and the files referencing their types, are modelled and processed by Spoon, the others are
+ * restored from the cache once Spoon is done. The source root is then on the source
+ * classpath, so that the types of the files left out of the model are still resolved.
+ * When execution-plan.spoon-parallelism is greater than 1, the files to instrument are split
+ * in clusters of packages (see SourcePartitioner) instrumented concurrently, each by its own
+ * launcher with the source root on its source classpath.
+ * Only the files of the types with an instrumented constructor are printed, with the sniper
+ * printer of Spoon unless execution-plan.spoon-sniper-printing is false: the code left
+ * unchanged by the instrumentation keeps its original text, and the other files are not
+ * written at all. The constructors can be restricted to the classes matching the include and
+ * exclude patterns of the instrumentation configuration and to the constructors executed by
+ * the tests, found by RecordConstructorCoverageStage.
  */
 public class InstrumentConstructorsStage implements Stage {
+    // The classes whose code determines the instrumented files, part of the fingerprint of the cache
+    private static final List<Class<?>> PROCESSOR_CLASSES = List.of(ConstructorInstrumentationProcessor.class, InstrumentationUtils.class, ConstructorSelector.class);
+
     @Override
     public void execute(Context context) throws ModuleException {
         PipelineLogger log = context.getLogger();
@@ -34,19 +76,54 @@ public class InstrumentConstructorsStage implements Stage {
         log.info("Starting instrumentation process for {}", inputSourceCodePath);
 
         try {
-            Launcher launcher = new Launcher();
+            List<Path> sourceFiles = new ArrayList<>();
             for (Path p : Files.walk(Path.of(inputSourceCodePath)).toList()) {
                 boolean isJavaFile = p.toString().endsWith(".java");
                 boolean isNotModuleInfo = !p.getFileName().toString().equals("module-info.java");
                 if (isJavaFile && isNotModuleInfo) {
-                    launcher.addInputResource(p.toString());
+                    sourceFiles.add(p);
                 }
             }
-            launcher.setSourceOutputDirectory(inputSourceCodePath);
             List<String> classPaths = context.getClassPath();
-            launcher.getEnvironment().setSourceClasspath(classPaths.toArray(new String[0]));
-            launcher.addProcessor(new ConstructorInstrumentationProcessor());
-            launcher.run();
+            Path sourceRoot = Path.of(inputSourceCodePath);
+            String commit = config.getRepo().getCommit();
+
+            InstrumentationCache cache = null;
+            InstrumentationCache.Plan plan = null;
+            List<Path> filesToInstrument = sourceFiles;
+            ConstructorSelector selector = buildConstructorSelector(config, context);
+            String cacheDir = config.getExecutionPlan().getInstrumentationCacheDir();
+            if (cacheDir != null && !cacheDir.isBlank()) {
+                cache = new InstrumentationCache(Path.of(cacheDir), buildCacheFingerprint(config, classPaths, repoPath, selector));
+                plan = cache.plan(sourceRoot, sourceFiles);
+                filesToInstrument = plan.getFilesToInstrument();
+                log.info("{} of {} source files restored from the instrumentation cache, {} to instrument ({} referencing changed types)",
+                        plan.getCachedFiles().size(), sourceFiles.size(), filesToInstrument.size(), plan.getDependentFileCount());
+            }
+
+            int parallelism = Math.max(1, config.getExecutionPlan().getSpoonParallelism());
+            List<List<Path>> partitions = new SourcePartitioner().partition(sourceRoot, filesToInstrument, parallelism);
+            boolean partialModel = plan != null && !plan.getCachedFiles().isEmpty();
+            boolean sniperPrinting = !Boolean.FALSE.equals(config.getExecutionPlan().getSpoonSniperPrinting());
+            List<CtType<?>> instrumentedTypes;
+            if (partitions.size() > 1) {
+                log.info("Instrumenting {} files with {} Spoon launchers", filesToInstrument.size(), partitions.size());
+                instrumentedTypes = instrumentInParallel(partitions, sourceRoot, classPaths, selector, sniperPrinting, log);
+            } else {
+                instrumentedTypes = new ArrayList<>();
+                for (List<Path> partition : partitions) {
+                    instrumentedTypes.addAll(instrument(partition, sourceRoot, sourceRoot, classPaths, partialModel, selector, sniperPrinting, log));
+                }
+            }
+            if (cache != null) {
+                storeInstrumentedFiles(instrumentedTypes, cache, plan, sourceRoot, commit);
+            }
+            // Restored once Spoon is done, so that it models the original sources
+            if (cache != null) {
+                for (Map.Entry<Path, InstrumentationCache.Entry> cached : plan.getCachedFiles().entrySet()) {
+                    cache.restore(cached.getKey(), cached.getValue(), sourceRoot, commit);
+                }
+            }
             log.info("Instrumentation completed.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -57,4 +134,172 @@ public class InstrumentConstructorsStage implements Stage {
             log.warn("Ignoring failures, continuing anyway.");
         }
     }
+
+    /**
+     * Instruments source files with a Spoon launcher
+     * @param files the files to model and instrument
+     * @param outputDir the directory the instrumented files are printed in, following their packages
+     * @param partialModel true if some sources of the source root are not among the files, it
+     *                     is then added to the source classpath to resolve their types
+     * @param selector the constructors to instrument
+     * @param sniperPrinting true to print the instrumented files with the sniper printer
+     * @return the types of the model declared in the files
+     */
+    private List<CtType<?>> instrument(List<Path> files, Path outputDir, Path sourceRoot, List<String> classPaths, boolean partialModel, ConstructorSelector selector, boolean sniperPrinting, PipelineLogger log) {
+        Launcher launcher = new Launcher();
+        for (Path p : files) {
+            launcher.addInputResource(p.toString());
+        }
+        launcher.setSourceOutputDirectory(outputDir.toString());
+        List<String> sourceClasspath = new ArrayList<>(classPaths);
+        if (partialModel) {
+            sourceClasspath.add(sourceRoot.toAbsolutePath().normalize().toString());
+        }
+        Environment environment = launcher.getEnvironment();
+        environment.setSourceClasspath(sourceClasspath.toArray(new String[0]));
+        ConstructorInstrumentationProcessor processor = new ConstructorInstrumentationProcessor(selector);
+        launcher.addProcessor(processor);
+        launcher.setOutputFilter(processor::isInstrumented);
+        if (sniperPrinting) {
+            environment.setPrettyPrinterCreator(() -> new SniperJavaPrettyPrinter(environment));
+        }
+
+        launcher.buildModel();
+        if (sniperPrinting) {
+            // Records the changes made by the processor, the sniper printer only reprints them
+            new ChangeCollector().attachTo(environment);
+        }
+        launcher.process();
+        // buildModel() switches the output to compilation units for the sniper printer, which
+        // ignores the output filter and prints every file
+        environment.setOutputType(OutputType.CLASSES);
+        launcher.prettyprint();
+        log.debug("{} of {} files modified by the instrumentation", processor.getInstrumentedTypes().size(), files.size());
+
+        Set<Path> inputs = new HashSet<>();
+        for (Path file : files) {
+            inputs.add(file.toAbsolutePath().normalize());
+        }
+        List<CtType<?>> types = new ArrayList<>();
+        for (CtType<?> type : launcher.getModel().getAllTypes()) {
+            File file = type.getPosition().getFile();
+            if (file != null && inputs.contains(file.toPath().toAbsolutePath().normalize())) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Instruments each partition of the source files with its own launcher, on a pool of one
+     * thread per partition. Each launcher prints in a temporary directory, from which only the
+     * files of its partition are copied back, once all the launchers are done, so that a file
+     * is never written by two launchers nor read by one while another writes it. The files of
+     * the partitions that failed are left unchanged and their failures are rethrown together.
+     * @return the types declared in the files of the partitions instrumented
+     */
+    private List<CtType<?>> instrumentInParallel(List<List<Path>> partitions, Path sourceRoot, List<String> classPaths, ConstructorSelector selector, boolean sniperPrinting, PipelineLogger log) throws Exception {
+        Path outputRoot = Files.createTempDirectory("sentinel-spoon");
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+        try {
+            List<Future<List<CtType<?>>>> futures = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                List<Path> partition = partitions.get(i);
+                Path outputDir = outputRoot.resolve("partition-" + i);
+                futures.add(executor.submit(() -> instrument(partition, outputDir, sourceRoot, classPaths, true, selector, sniperPrinting, log)));
+            }
+
+            List<CtType<?>> types = new ArrayList<>();
+            ModuleException failure = null;
+            for (int i = 0; i < partitions.size(); i++) {
+                List<Path> partition = partitions.get(i);
+                try {
+                    types.addAll(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("Failed to instrument partition {} of {} files", i, partition.size(), e.getCause());
+                    if (failure == null) {
+                        failure = new ModuleException("Failed to instrument " + partition.size() + " files starting with " + partition.get(0), e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                    continue;
+                }
+                Path outputDir = outputRoot.resolve("partition-" + i);
+                for (Path file : partition) {
+                    Path printed = outputDir.resolve(sourceRoot.relativize(file).toString());
+                    if (Files.isRegularFile(printed)) {
+                        Files.copy(printed, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return types;
+        } finally {
+            executor.shutdownNow();
+            Utils.deleteDirectory(outputRoot.toFile());
+        }
+    }
+
+    /**
+     * Caches the files printed by Spoon, with the top-level types each one declares and references
+     */
+    private void storeInstrumentedFiles(List<CtType<?>> instrumentedTypes, InstrumentationCache cache, InstrumentationCache.Plan plan, Path sourceRoot, String commit) throws IOException {
+        Map<Path, Set<String>> declaredTypes = new HashMap<>();
+        Map<Path, Set<String>> referencedTypes = new HashMap<>();
+        for (CtType<?> type : instrumentedTypes) {
+            File file = type.getPosition().getFile();
+            if (file == null) {
+                continue;
+            }
+            Path path = file.toPath().toAbsolutePath().normalize();
+            declaredTypes.computeIfAbsent(path, p -> new HashSet<>()).add(type.getQualifiedName());
+            Set<String> references = referencedTypes.computeIfAbsent(path, p -> new HashSet<>());
+            for (CtTypeReference<?> reference : type.getReferencedTypes()) {
+                references.add(reference.getTopLevelType().getQualifiedName());
+            }
+        }
+        for (Path file : plan.getFilesToInstrument()) {
+            Path path = file.toAbsolutePath().normalize();
+            if (!declaredTypes.containsKey(path)) {
+                // Not in the model, e.g. Spoon could not parse it: it is instrumented again on the next run
+                continue;
+            }
+            cache.store(plan.getKeys().get(file), Files.readString(file), sourceRoot, commit,
+                    declaredTypes.get(path), referencedTypes.getOrDefault(path, Set.of()));
+        }
+    }
+
+    /**
+     * Returns the selector of the constructors to instrument: the ones of the classes matching
+     * instrumentation.include-patterns and not instrumentation.exclude-patterns and, if
+     * RecordConstructorCoverageStage put them in the context, executed by the tests
+     */
+    static ConstructorSelector buildConstructorSelector(Config config, Context context) {
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+        return new ConstructorSelector(
+                instrumentation != null ? instrumentation.getIncludePatterns() : null,
+                instrumentation != null ? instrumentation.getExcludePatterns() : null,
+                context.getExecutedConstructors());
+    }
+
+    /**
+     * Returns the fingerprint of everything besides the sources the instrumented files depend
+     * on: the bytecode of the processor, the classpath, the project name and owner written
+     * in the descriptors and the selected constructors
+     */
+    static String buildCacheFingerprint(Config config, List<String> classPath, String repoPath, ConstructorSelector selector) throws IOException {
+        List<String> parts = new ArrayList<>();
+        for (Class<?> processorClass : PROCESSOR_CLASSES) {
+            try (InputStream in = processorClass.getResourceAsStream(processorClass.getSimpleName() + ".class")) {
+                parts.add(in == null ? processorClass.getName() : HexFormat.of().formatHex(in.readAllBytes()));
+            }
+        }
+        parts.add(config.getProject().getName());
+        parts.add(config.getProject().getOwner());
+        parts.addAll(InstrumentationCache.classPathFingerprint(classPath, Path.of(repoPath)));
+        parts.addAll(selector.fingerprint());
+        return InstrumentationCache.fingerprint(parts);
+    }
 }
@@ -0,0 +1,151 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.exceptions.TestSuiteExecutionFailedException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.AllocationSampleAnalyzer;
+import be.unamur.snail.utils.ProjectTypeDetector;
+import be.unamur.snail.utils.Utils;
+import be.unamur.snail.utils.gradle.InitScriptGenerator;
+import be.unamur.snail.utils.maven.SurefireArgLineComposer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stage made to execute the test suite of the analyzed project, unmodified, with a flight
+ * recording in each test JVM that only enables the jdk.ObjectAllocationSample event with its
+ * stack traces. The recording is started through the argLine of surefire for Maven projects
+ * (see SurefireArgLineComposer) and through the jvmArgs of the test tasks for Gradle projects; each JVM writes it when it
+ * exits, in instrumentation.allocation-recordings-dir, emptied of the recordings of the
+ * previous runs. The allocation samples need a JDK 16 or later in the test JVMs.
+ */
+public class RecordAllocationSamplesStage implements Stage {
+    public static final String DEFAULT_RECORDINGS_DIR = "sentinel-jfr";
+    public static final String DEFAULT_SAMPLING_RATE = "150/s";
+    public static final String SETTINGS_FILE_NAME = "sentinel-allocations.jfc";
+    public static final String RECORDING_EXTENSION = ".jfr";
+
+    private final InitScriptGenerator initScriptGenerator;
+    private final ProjectTypeDetector projectTypeDetector;
+    private final SurefireArgLineComposer argLineComposer;
+
+    public RecordAllocationSamplesStage() {
+        this(new InitScriptGenerator(), new ProjectTypeDetector(), new SurefireArgLineComposer());
+    }
+
+    public RecordAllocationSamplesStage(InitScriptGenerator initScriptGenerator, ProjectTypeDetector projectTypeDetector, SurefireArgLineComposer argLineComposer) {
+        this.initScriptGenerator = initScriptGenerator;
+        this.projectTypeDetector = projectTypeDetector;
+        this.argLineComposer = argLineComposer;
+    }
+
+    @Override
+    public void execute(Context context) throws Exception {
+        PipelineLogger log = context.getLogger();
+        if (context.getRepoPath() == null || context.getRepoPath().isBlank()) {
+            throw new MissingContextKeyException("repoPath");
+        }
+
+        Config config = Config.getInstance();
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+        String cwd = context.getRepoPath();
+        File repoPath = new File(cwd);
+
+        Path recordingsDir = resolveRecordingsDirectory(instrumentation, cwd);
+        Files.createDirectories(recordingsDir);
+        for (Path recording : listRecordings(recordingsDir)) {
+            Files.delete(recording);
+        }
+        Path settings = recordingsDir.resolve(SETTINGS_FILE_NAME);
+        Files.writeString(settings, buildSettings(instrumentation));
+        String recordingOption = buildRecordingOption(settings, recordingsDir);
+
+        String command = config.getExecutionPlan().getTestCommand();
+        File initScript = null;
+        if (projectTypeDetector.isMavenProject(repoPath)) {
+            command += " " + argLineComposer.buildArgument(repoPath.toPath(), "-XX:StartFlightRecording=" + recordingOption);
+        } else if (projectTypeDetector.isGradleProject(repoPath)) {
+            initScript = initScriptGenerator.generateShowLogsInitScriptForGradle();
+            command += " --init-script " + initScript.getAbsolutePath() + " -DsentinelFlightRecording=" + recordingOption;
+        }
+        log.info("Executing test command {}", command);
+        Utils.CompletedProcess result;
+        try {
+            result = Utils.runCommand(command, cwd);
+        } finally {
+            if (initScript != null) {
+                Files.deleteIfExists(initScript.toPath());
+            }
+        }
+
+        if (result.returnCode() != 0) {
+            log.error("Project tests execution failed with code {}", result.returnCode());
+            if (!config.getExecutionPlan().getIgnoreFailures()) {
+                throw new TestSuiteExecutionFailedException();
+            }
+            log.warn("Ignoring failures, continuing anyway.");
+        }
+        log.info("Project tests execution completed, {} flight recordings written in {}", listRecordings(recordingsDir).size(), recordingsDir);
+    }
+
+    /**
+     * Returns the JFR settings enabling only the allocation samples, with their stack traces,
+     * throttled to instrumentation.allocation-sampling-rate
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     */
+    static String buildSettings(Config.InstrumentationConfig instrumentation) {
+        String rate = instrumentation != null && instrumentation.getAllocationSamplingRate() != null && !instrumentation.getAllocationSamplingRate().isBlank()
+                ? instrumentation.getAllocationSamplingRate() : DEFAULT_SAMPLING_RATE;
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <configuration version="2.0" label="Sentinel allocation sampling">
+                  <event name="%s">
+                    <setting name="enabled">true</setting>
+                    <setting name="throttle">%s</setting>
+                    <setting name="stackTrace">true</setting>
+                  </event>
+                </configuration>
+                """.formatted(AllocationSampleAnalyzer.EVENT_NAME, rate);
+    }
+
+    /**
+     * Returns the value of -XX:StartFlightRecording. The file name is the recordings
+     * directory, so that each JVM writes a recording named after its pid in it.
+     */
+    static String buildRecordingOption(Path settings, Path recordingsDir) {
+        return "settings=" + settings + ",filename=" + recordingsDir;
+    }
+
+    /**
+     * @return the flight recordings of the directory, sorted by name, empty if it does not exist
+     */
+    public static List<Path> listRecordings(Path recordingsDir) throws Exception {
+        if (!Files.isDirectory(recordingsDir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(recordingsDir)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(RECORDING_EXTENSION)).sorted().toList();
+        }
+    }
+
+    /**
+     * Returns the absolute directory of the flight recordings:
+     * instrumentation.allocation-recordings-dir if it is absolute, resolved against the
+     * analyzed project otherwise
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     * @param repoPath path of the analyzed project
+     * @return the recordings directory
+     */
+    public static Path resolveRecordingsDirectory(Config.InstrumentationConfig instrumentation, String repoPath) {
+        String recordingsDir = instrumentation != null && instrumentation.getAllocationRecordingsDir() != null && !instrumentation.getAllocationRecordingsDir().isBlank()
+                ? instrumentation.getAllocationRecordingsDir() : DEFAULT_RECORDINGS_DIR;
+        Path path = Path.of(recordingsDir);
+        return path.isAbsolute() ? path : Path.of(repoPath).resolve(path).toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,181 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.exceptions.SourceFileNotFoundException;
+import be.unamur.snail.exceptions.TestSuiteExecutionFailedException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.ConstructorCoverageAnalyzer;
+import be.unamur.snail.utils.ProjectTypeDetector;
+import be.unamur.snail.utils.Utils;
+import be.unamur.snail.utils.gradle.InitScriptGenerator;
+import be.unamur.snail.utils.maven.SurefireArgLineComposer;
+import org.jacoco.agent.AgentJar;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stage made to find the constructors executed by the test suite of the analyzed project,
+ * so that InstrumentConstructorsStage only instruments them. The JaCoCo execution data is
+ * either instrumentation.coverage-exec-file, or recorded by running the unmodified test
+ * suite once with the JaCoCo agent, appended to the argLine of surefire for Maven projects
+ * (see SurefireArgLineComposer) and to the jvmArgs of the test tasks for Gradle projects. It is then analyzed
+ * with the classes compiled by the build of the project, and the executed constructors are
+ * put in the context. The classes of an existing execution data file are looked for in its
+ * build directory, then in the analyzed project. If no compiled class is found, every
+ * constructor is instrumented.
+ */
+public class RecordConstructorCoverageStage implements Stage {
+    public static final String COVERAGE_DIR = "sentinel-coverage";
+    public static final String EXEC_FILE_NAME = "jacoco.exec";
+    private static final List<String> CLASSES_DIRS = List.of("target/classes", "build/classes/java/main");
+
+    private final InitScriptGenerator initScriptGenerator;
+    private final ProjectTypeDetector projectTypeDetector;
+    private final SurefireArgLineComposer argLineComposer;
+    private final ConstructorCoverageAnalyzer analyzer;
+
+    public RecordConstructorCoverageStage() {
+        this(new InitScriptGenerator(), new ProjectTypeDetector(), new SurefireArgLineComposer(), new ConstructorCoverageAnalyzer());
+    }
+
+    public RecordConstructorCoverageStage(InitScriptGenerator initScriptGenerator, ProjectTypeDetector projectTypeDetector, SurefireArgLineComposer argLineComposer, ConstructorCoverageAnalyzer analyzer) {
+        this.initScriptGenerator = initScriptGenerator;
+        this.projectTypeDetector = projectTypeDetector;
+        this.argLineComposer = argLineComposer;
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    public void execute(Context context) throws Exception {
+        PipelineLogger log = context.getLogger();
+        String repoPath = context.getRepoPath();
+        if (repoPath == null || repoPath.isBlank()) {
+            throw new MissingContextKeyException("repoPath");
+        }
+        Config config = Config.getInstance();
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+        String subProject = config.getProject().getSubProject();
+        Path projectDir = subProject == null || subProject.isBlank() ? Path.of(repoPath) : Path.of(repoPath, subProject);
+
+        Path execFile;
+        String configuredExecFile = instrumentation != null ? instrumentation.getCoverageExecFile() : null;
+        if (configuredExecFile != null && !configuredExecFile.isBlank()) {
+            execFile = resolveExecFile(configuredExecFile, repoPath);
+            if (!Files.isRegularFile(execFile)) {
+                throw new SourceFileNotFoundException(execFile.toString());
+            }
+            log.info("Using the JaCoCo execution data {}", execFile);
+        } else {
+            execFile = Path.of(repoPath, COVERAGE_DIR, EXEC_FILE_NAME).toAbsolutePath().normalize();
+            recordCoverage(config, repoPath, execFile, log);
+        }
+
+        List<Path> classesDirs = new ArrayList<>();
+        if (configuredExecFile != null && !configuredExecFile.isBlank()) {
+            classesDirs.addAll(findBuildClassesDirectories(execFile));
+        }
+        if (classesDirs.isEmpty()) {
+            for (String classesDir : CLASSES_DIRS) {
+                if (Files.isDirectory(projectDir.resolve(classesDir))) {
+                    classesDirs.add(projectDir.resolve(classesDir));
+                }
+            }
+        }
+        if (classesDirs.isEmpty() || !Files.isRegularFile(execFile)) {
+            log.warn("No compiled classes or execution data found in {}, every constructor will be instrumented", projectDir);
+            return;
+        }
+
+        ConstructorCoverageAnalyzer.ConstructorCoverage coverage = analyzer.analyze(List.of(execFile), classesDirs);
+        if (coverage.getNoMatchClassCount() > 0) {
+            log.warn("{} classes of the execution data differ from the compiled classes, their constructors are considered not executed", coverage.getNoMatchClassCount());
+        }
+        log.info("{} of {} constructors executed by the tests, in {} classes",
+                coverage.getExecutedConstructorCount(), coverage.getConstructorCount(), coverage.getExecutedConstructors().size());
+        context.setExecutedConstructors(coverage.getExecutedConstructors());
+    }
+
+    /**
+     * Runs the test suite with the JaCoCo agent writing its execution data in execFile
+     */
+    private void recordCoverage(Config config, String repoPath, Path execFile, PipelineLogger log) throws Exception {
+        Files.createDirectories(execFile.getParent());
+        Files.deleteIfExists(execFile);
+        String agent = buildAgentArgument(AgentJar.extractToTempLocation().getAbsolutePath(), execFile, config.getProject().getPackagePrefix());
+
+        File repo = new File(repoPath);
+        String command = config.getExecutionPlan().getTestCommand();
+        File initScript = null;
+        if (projectTypeDetector.isMavenProject(repo)) {
+            command += " " + argLineComposer.buildArgument(repo.toPath(), "-javaagent:" + agent);
+        } else if (projectTypeDetector.isGradleProject(repo)) {
+            initScript = initScriptGenerator.generateShowLogsInitScriptForGradle();
+            command += " --init-script " + initScript.getAbsolutePath() + " -DsentinelAgent=" + agent;
+        }
+        log.info("Executing test command {}", command);
+        Utils.CompletedProcess result = Utils.runCommand(command, repoPath);
+        if (initScript != null) {
+            Files.deleteIfExists(initScript.toPath());
+        }
+
+        if (result.returnCode() != 0) {
+            log.error("Project tests execution failed with code {}", result.returnCode());
+            if (!config.getExecutionPlan().getIgnoreFailures()) {
+                throw new TestSuiteExecutionFailedException();
+            }
+            log.warn("Ignoring failures, continuing anyway.");
+        }
+    }
+
+    /**
+     * Returns the argument of -javaagent attaching JaCoCo: its jar, then its options, the
+     * execution data of every test JVM being appended to the same file and, when the package
+     * prefix is known, only the classes of the project being instrumented by JaCoCo
+     */
+    static String buildAgentArgument(String agentJar, Path execFile, String packagePrefix) {
+        String argument = agentJar + "=destfile=" + execFile + ",append=true";
+        if (packagePrefix != null && !packagePrefix.isBlank()) {
+            argument += ",includes=" + packagePrefix + ".*";
+        }
+        return argument;
+    }
+
+    /**
+     * Returns the classes compiled by the build that wrote an execution data file, if it is
+     * in the build directory: target/classes for target/jacoco.exec of Maven,
+     * build/classes/java/main for build/jacoco/test.exec of Gradle
+     */
+    static List<Path> findBuildClassesDirectories(Path execFile) {
+        Path parent = execFile.toAbsolutePath().normalize().getParent();
+        List<Path> classesDirs = new ArrayList<>();
+        for (Path candidate : List.of(parent.resolve("classes"), parent.resolveSibling("classes/java/main"))) {
+            if (Files.isDirectory(candidate)) {
+                classesDirs.add(candidate);
+            }
+        }
+        return classesDirs;
+    }
+
+    /**
+     * Returns instrumentation.coverage-exec-file if it is absolute, resolved against the
+     * analyzed project otherwise
+     */
+    static Path resolveExecFile(String execFile, String repoPath) {
+        Path path = Path.of(execFile);
+        return path.isAbsolute() ? path : Path.of(repoPath).resolve(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns true if the instrumentation is restricted to the constructors executed by the tests
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     */
+    public static boolean isCoverageEnabled(Config.InstrumentationConfig instrumentation) {
+        return instrumentation != null && Boolean.TRUE.equals(instrumentation.getCoverageEnabled());
+    }
+}
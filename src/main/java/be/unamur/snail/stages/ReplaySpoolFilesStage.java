@@ -0,0 +1,164 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingConfigKeyException;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.SpoolFileReader;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+import be.unamur.snail.utils.Utils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Stage made to send to the backend the constructor contexts written in spool files by the
+ * tests of the analyzed project, when the instrumentation uses the spool sender
+ * (instrumentation.sender: spool). The contexts are sent in batches of
+ * instrumentation.replay-batch-size, then the occurrence counts of each file. The spool
+ * files are kept, so that the import can be replayed without running the tests again.
+ */
+public class ReplaySpoolFilesStage implements Stage {
+    public static final String DEFAULT_SPOOL_DIR = "sentinel-spool";
+    public static final int DEFAULT_REPLAY_BATCH_SIZE = 5000;
+    private static final int DEFAULT_REPLAY_MAX_RETRIES = 3;
+    private static final long DEFAULT_REPLAY_RETRY_BACKOFF_MS = 200;
+    private static final int REPLAY_CONNECT_TIMEOUT_MS = 5_000;
+    private static final int REPLAY_READ_TIMEOUT_MS = 120_000;
+
+    private final SpoolFileReader reader;
+    private final ConstructorContextSender sender;
+    private final String defaultRepoPath;
+
+    public ReplaySpoolFilesStage() {
+        this(null);
+    }
+
+    /**
+     * @param defaultRepoPath path of the analyzed project used when the context has none,
+     *                        i.e. when the stage is not run after the tests of the project
+     */
+    public ReplaySpoolFilesStage(String defaultRepoPath) {
+        this(new SpoolFileReader(), null, defaultRepoPath);
+    }
+
+    // For dependency injection and tests, the sender is created from the configuration if null
+    public ReplaySpoolFilesStage(SpoolFileReader reader, ConstructorContextSender sender, String defaultRepoPath) {
+        this.reader = reader;
+        this.sender = sender;
+        this.defaultRepoPath = defaultRepoPath;
+    }
+
+    @Override
+    public void execute(Context context) throws Exception {
+        PipelineLogger log = context.getLogger();
+        Config config = Config.getInstance();
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+
+        String repoPath = context.getRepoPath();
+        if (repoPath == null || repoPath.isBlank()) {
+            repoPath = defaultRepoPath;
+        }
+        if (repoPath == null || repoPath.isBlank()) {
+            throw new MissingContextKeyException("repoPath");
+        }
+        Path spoolDir = resolveSpoolDirectory(instrumentation, repoPath);
+        if (!Files.isDirectory(spoolDir)) {
+            log.warn("No spool directory found at {}, nothing to replay", spoolDir);
+            return;
+        }
+
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(spoolDir)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(SpoolFormat.FILE_EXTENSION)).sorted().toList();
+        }
+        ConstructorContextSender target = sender != null ? sender : createSender(config);
+        int batchSize = instrumentation != null && instrumentation.getReplayBatchSize() != null
+                ? instrumentation.getReplayBatchSize() : DEFAULT_REPLAY_BATCH_SIZE;
+
+        long total = 0;
+        for (Path file : files) {
+            long events = replayFile(file, target, batchSize);
+            log.info("Replayed {} constructor contexts from {}", events, file.getFileName());
+            total += events;
+        }
+        // Waits for the batches still in flight
+        target.close();
+        log.info("Replayed {} constructor contexts from {} spool files", total, files.size());
+    }
+
+    /**
+     * Sends the contexts of a spool file in batches, then the last occurrence counts of the
+     * file, which are totals for the whole JVM
+     */
+    long replayFile(Path file, ConstructorContextSender target, int batchSize) throws Exception {
+        List<ConstructorContext> batch = new ArrayList<>(batchSize);
+        Map<String, Long> occurrences = new HashMap<>();
+        long events = reader.read(file, context -> {
+            batch.add(context);
+            if (batch.size() >= batchSize) {
+                target.sendBatch(new ArrayList<>(batch));
+                batch.clear();
+            }
+        }, occurrences::putAll);
+        if (!batch.isEmpty()) {
+            target.sendBatch(batch);
+        }
+        target.sendOccurrences(occurrences);
+        return events;
+    }
+
+    protected ConstructorContextSender createSender(Config config) {
+        return createBackendSender(config);
+    }
+
+    /**
+     * Creates the sender posting constructor contexts to backend.endpoint from the pipeline,
+     * with the HTTP and wire format settings of the instrumentation section but the longer
+     * timeouts suited to large batches
+     * @throws MissingConfigKeyException if backend.endpoint is not set
+     */
+    public static ConstructorContextSender createBackendSender(Config config) {
+        String endpoint = config.getBackend().getEndpoint();
+        if (endpoint == null || endpoint.isBlank()) {
+            throw new MissingConfigKeyException("backend.endpoint");
+        }
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation() != null ? config.getInstrumentation() : new Config.InstrumentationConfig();
+        HttpClientService client = new HttpClientService(
+                new Java8HttpClient(Boolean.TRUE.equals(instrumentation.getHttpGzip()), REPLAY_CONNECT_TIMEOUT_MS, REPLAY_READ_TIMEOUT_MS),
+                instrumentation.getHttpMaxRetries() != null ? instrumentation.getHttpMaxRetries() : DEFAULT_REPLAY_MAX_RETRIES,
+                instrumentation.getHttpRetryBackoffMs() != null ? instrumentation.getHttpRetryBackoffMs() : DEFAULT_REPLAY_RETRY_BACKOFF_MS,
+                instrumentation.getHttpMaxInFlight() != null ? instrumentation.getHttpMaxInFlight() : 1);
+        BinaryBatchEncoder binaryEncoder = BinaryBatchFormat.BINARY_WIRE_FORMAT.equalsIgnoreCase(instrumentation.getWireFormat()) ? new BinaryBatchEncoder() : null;
+        return new HttpConstructorContextSender(client, Utils.createEndpointURL(config, endpoint), new ConstructorContextSerializer(), Boolean.TRUE.equals(instrumentation.getInternStackTraces()), binaryEncoder);
+    }
+
+    /**
+     * Returns the absolute directory of the spool files: instrumentation.spool-dir if it is
+     * absolute, resolved against the analyzed project otherwise, so that every test JVM
+     * writes to the same directory whatever its working directory
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     * @param repoPath path of the analyzed project
+     * @return the spool directory
+     */
+    public static Path resolveSpoolDirectory(Config.InstrumentationConfig instrumentation, String repoPath) {
+        String spoolDir = instrumentation != null && instrumentation.getSpoolDir() != null && !instrumentation.getSpoolDir().isBlank()
+                ? instrumentation.getSpoolDir() : DEFAULT_SPOOL_DIR;
+        Path path = Path.of(spoolDir);
+        return path.isAbsolute() ? path : Path.of(repoPath).resolve(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns whether the instrumentation writes the constructor contexts to spool files
+     * instead of sending them to the backend
+     */
+    public static boolean isSpoolSenderConfigured(Config.InstrumentationConfig instrumentation) {
+        return instrumentation != null && "spool".equalsIgnoreCase(instrumentation.getSender());
+    }
+}
@@ -8,9 +8,15 @@ import be.unamur.snail.logging.PipelineLogger;
 import be.unamur.snail.utils.ProjectTypeDetector;
 import be.unamur.snail.utils.Utils;
 import be.unamur.snail.utils.gradle.InitScriptGenerator;
+import be.unamur.snail.utils.maven.SurefireArgLineComposer;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 
 /**
  * Stage made to execute the test suite of the analyzed project. It passes some
@@ -18,17 +24,39 @@ import java.nio.file.Files;
  * - packagePrefix: the package prefix used by the instrumented code to filter the
  * stacktraces
  * - apiUrl: the complete apiUrl used by the instrumented code to post data to the db
+ * - sentinel.*: the settings of the instrumentation code, from the instrumentation
+ * section of the configuration, the absolute spool directory when the spool sender
+ * is used, the absolute directory of the constructor call counts, and the file of the
+ * event keys shared by the test JVMs
+ * - -javaagent: the constructor instrumentation agent, when the constructors are
+ * instrumented at class-load time instead of in the sources, added to the argLine of the
+ * project (see SurefireArgLineComposer)
  * PRE: this stages needs the module CkModule to be run, as this module will add Ck data
  * into the db, data needed by the instrumented code in this stage to add constructor
  * context data into the db
  */
 public class RunInstrumentedProjectTestsStage implements Stage {
+    public static final String DEFAULT_CAPTURE_COUNTS_DIR = "sentinel-counts";
+    public static final String SHARED_DEDUP_FILE_NAME = "sentinel-dedup.keys";
+
     private final InitScriptGenerator initScriptGenerator;
     private final ProjectTypeDetector projectTypeDetector;
+    private final SurefireArgLineComposer argLineComposer;
+    private final String agentJar;
 
     public RunInstrumentedProjectTestsStage() {
+        this(null);
+    }
+
+    /**
+     * @param agentJar path of the constructor instrumentation agent attached to the test JVMs,
+     *                 or null if the sources of the project were instrumented
+     */
+    public RunInstrumentedProjectTestsStage(String agentJar) {
         this.initScriptGenerator = new InitScriptGenerator();
         this.projectTypeDetector = new ProjectTypeDetector();
+        this.argLineComposer = new SurefireArgLineComposer();
+        this.agentJar = agentJar;
     }
 
     @Override
@@ -68,6 +96,42 @@ public class RunInstrumentedProjectTestsStage implements Stage {
             log.info("Setting endpoint to {}", completeEndpoint);
             commandWithInit += " -DapiUrl=" + completeEndpoint;
         }
+
+        // Add the settings of the instrumentation code (dispatcher mode, queue size, ...)
+        for (String property : buildInstrumentationProperties(config.getInstrumentation())) {
+            commandWithInit += " " + property;
+        }
+        // Every test JVM must write its spool file in the same directory, whatever its working directory
+        if (ReplaySpoolFilesStage.isSpoolSenderConfigured(config.getInstrumentation())) {
+            commandWithInit += " -Dsentinel.spool.dir=" + ReplaySpoolFilesStage.resolveSpoolDirectory(config.getInstrumentation(), cwd);
+        }
+        // Likewise for the call counts exported when capture levels are used
+        Config.InstrumentationConfig instrumentation = config.getInstrumentation();
+        if (instrumentation != null && (instrumentation.getCaptureLevel() != null || instrumentation.getPackageCaptureLevels() != null)) {
+            commandWithInit += " -Dsentinel.capture.countsDir=" + resolveCaptureCountsDirectory(instrumentation, cwd);
+        }
+        // The forks share the keys of the sent events through a file of the build directory, started empty at each run
+        if (instrumentation != null && Boolean.TRUE.equals(instrumentation.getSharedDedupEnabled())) {
+            File sharedDedupFile = resolveSharedDedupFile(repoPath);
+            Files.deleteIfExists(sharedDedupFile.toPath());
+            commandWithInit += " -Dsentinel.dedup.sharedFile=" + sharedDedupFile.getAbsolutePath();
+        }
+        // Attach the agent instrumenting the constructors when the classes are loaded: through the argLine of
+        // surefire for Maven projects, kept with the one of the project, through the init script for Gradle projects
+        if (agentJar != null) {
+            String agent = buildAgentArgument(agentJar, config);
+            commandWithInit += projectTypeDetector.isMavenProject(repoPath)
+                    ? " " + argLineComposer.buildArgument(repoPath.toPath(), "-javaagent:" + agent)
+                    : " -DsentinelAgent=" + agent;
+        }
+        // Each test JVM writes its runtime metrics in the same directory, emptied of the files of the previous runs
+        if (CollectRuntimeMetricsStage.isMetricsEnabled(instrumentation)) {
+            Path metricsDir = CollectRuntimeMetricsStage.resolveMetricsDirectory(instrumentation, cwd);
+            for (Path file : CollectRuntimeMetricsStage.listMetricsFiles(metricsDir)) {
+                Files.delete(file);
+            }
+            commandWithInit += " -Dsentinel.metrics.dir=" + metricsDir;
+        }
         log.info("Executing test command {}", commandWithInit);
         Utils.CompletedProcess result = Utils.runCommand(commandWithInit, cwd);
 
@@ -83,4 +147,117 @@ public class RunInstrumentedProjectTestsStage implements Stage {
         // Delete init script
         Files.deleteIfExists(initScript.toPath());
     }
+
+    /**
+     * Creates the system properties passed to the tests to configure the instrumentation
+     * code. Only the values set in the configuration are passed, so that the instrumentation
+     * code uses its own defaults for the other ones.
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     * @return the list of "-Dname=value" arguments to add to the test command
+     */
+    public List<String> buildInstrumentationProperties(Config.InstrumentationConfig instrumentation) {
+        List<String> properties = new ArrayList<>();
+        if (instrumentation == null) {
+            return properties;
+        }
+        addProperty(properties, "sentinel.dispatcher.mode", instrumentation.getDispatcherMode());
+        addProperty(properties, "sentinel.dispatcher.queueSize", instrumentation.getQueueSize());
+        addProperty(properties, "sentinel.dispatcher.queueFullPolicy", instrumentation.getQueueFullPolicy());
+        addProperty(properties, "sentinel.dispatcher.shutdownTimeoutMs", instrumentation.getShutdownTimeoutMs());
+        addProperty(properties, "sentinel.dispatcher.threadBufferSize", instrumentation.getThreadBufferSize());
+        addProperty(properties, "sentinel.dispatcher.printStatistics", instrumentation.getPrintStatistics());
+        addProperty(properties, "sentinel.dedup.maxTrackedKeys", instrumentation.getDedupMaxTrackedKeys());
+        addProperty(properties, "sentinel.dedup.bloomExpectedKeys", instrumentation.getDedupBloomExpectedKeys());
+        addProperty(properties, "sentinel.dedup.sharedExpectedKeys", instrumentation.getSharedDedupExpectedKeys());
+        addProperty(properties, "sentinel.stacktrace.maxFrames", instrumentation.getStacktraceMaxFrames());
+        addProperty(properties, "sentinel.stacktrace.callerOnly", instrumentation.getStacktraceCallerOnly());
+        addProperty(properties, "sentinel.wire.internStackTraces", instrumentation.getInternStackTraces());
+        addProperty(properties, "sentinel.wire.format", instrumentation.getWireFormat());
+        addProperty(properties, "sentinel.capture.sampleRate", instrumentation.getSampleRate());
+        addProperty(properties, "sentinel.capture.maxTracesPerConstructor", instrumentation.getMaxTracesPerConstructor());
+        addProperty(properties, "sentinel.capture.maxEventsPerSecond", instrumentation.getMaxEventsPerSecond());
+        addProperty(properties, "sentinel.sender", instrumentation.getSender());
+        addProperty(properties, "sentinel.http.gzip", instrumentation.getHttpGzip());
+        addProperty(properties, "sentinel.http.maxInFlight", instrumentation.getHttpMaxInFlight());
+        addProperty(properties, "sentinel.http.maxRetries", instrumentation.getHttpMaxRetries());
+        addProperty(properties, "sentinel.http.retryBackoffMs", instrumentation.getHttpRetryBackoffMs());
+        addProperty(properties, "sentinel.arena.enabled", instrumentation.getArenaEnabled());
+        addProperty(properties, "sentinel.arena.segmentSize", instrumentation.getArenaSegmentSize());
+        addProperty(properties, "sentinel.arena.maxSize", instrumentation.getArenaMaxSize());
+        addProperty(properties, "sentinel.capture.level", instrumentation.getCaptureLevel());
+        addProperty(properties, "sentinel.capture.packageLevels", joinPackageCaptureLevels(instrumentation.getPackageCaptureLevels()));
+        addProperty(properties, "sentinel.metrics.enabled", instrumentation.getMetricsEnabled());
+        return properties;
+    }
+
+    /**
+     * Creates the argument of -javaagent attaching the constructor instrumentation agent: the
+     * absolute path of its jar, followed by the package prefix and the commit of the analyzed
+     * project (see AgentOptions)
+     * @param agentJar path of the agent jar
+     * @return the agent argument, "path=packagePrefix=...,commit=...,project=...,owner=..."
+     */
+    public static String buildAgentArgument(String agentJar, Config config) {
+        StringJoiner options = new StringJoiner(",");
+        addAgentOption(options, "packagePrefix", config.getProject().getPackagePrefix());
+        addAgentOption(options, "commit", config.getRepo().getCommit());
+        addAgentOption(options, "project", config.getProject().getName());
+        addAgentOption(options, "owner", config.getProject().getOwner());
+        String path = Path.of(agentJar).toAbsolutePath().normalize().toString();
+        return options.length() == 0 ? path : path + "=" + options;
+    }
+
+    private static void addAgentOption(StringJoiner options, String name, String value) {
+        if (value != null && !value.isBlank()) {
+            options.add(name + "=" + value);
+        }
+    }
+
+    /**
+     * Joins the capture levels of the package prefixes as "prefix=level,prefix=level"
+     * @param packageCaptureLevels the capture level of each package prefix, can be null
+     * @return the joined levels, or null if there is none
+     */
+    private String joinPackageCaptureLevels(Map<String, String> packageCaptureLevels) {
+        if (packageCaptureLevels == null || packageCaptureLevels.isEmpty()) {
+            return null;
+        }
+        StringJoiner joiner = new StringJoiner(",");
+        for (Map.Entry<String, String> entry : packageCaptureLevels.entrySet()) {
+            joiner.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Returns the file of the event keys shared by the test JVMs, in the build directory of
+     * the analyzed project: target/ for Maven projects, build/ otherwise
+     * @param repoPath path of the analyzed project
+     * @return the shared deduplication file
+     */
+    public File resolveSharedDedupFile(File repoPath) {
+        String buildDirectory = projectTypeDetector.isMavenProject(repoPath) ? "target" : "build";
+        return new File(new File(repoPath, buildDirectory), SHARED_DEDUP_FILE_NAME).getAbsoluteFile();
+    }
+
+    /**
+     * Returns the absolute directory of the exported constructor call counts:
+     * instrumentation.capture-counts-dir if it is absolute, resolved against the analyzed
+     * project otherwise
+     * @param instrumentation the instrumentation section of the configuration, can be null
+     * @param repoPath path of the analyzed project
+     * @return the counts directory
+     */
+    public static Path resolveCaptureCountsDirectory(Config.InstrumentationConfig instrumentation, String repoPath) {
+        String countsDir = instrumentation != null && instrumentation.getCaptureCountsDir() != null && !instrumentation.getCaptureCountsDir().isBlank()
+                ? instrumentation.getCaptureCountsDir() : DEFAULT_CAPTURE_COUNTS_DIR;
+        Path path = Path.of(countsDir);
+        return path.isAbsolute() ? path : Path.of(repoPath).resolve(path).toAbsolutePath().normalize();
+    }
+
+    private void addProperty(List<String> properties, String name, Object value) {
+        if (value != null && !value.toString().isBlank()) {
+            properties.add("-D" + name + "=" + value);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package be.unamur.snail.utils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the source files of a source root into partitions of similar sizes that can be
+ * instrumented independently. The files are clustered by package, with the shortest package
+ * prefix giving small enough clusters, so that the files of a package and of its sub-packages,
+ * which reference each other the most, end up in the same partition. The clusters are then
+ * assigned, largest first, to the partition with the fewest files.
+ */
+public class SourcePartitioner {
+
+    /**
+     * @param sourceRoot the source root of the files
+     * @param files the source files, within the source root
+     * @param partitions the maximum number of partitions
+     * @return the non-empty partitions, each with its files in the order of the given files
+     */
+    public List<List<Path>> partition(Path sourceRoot, List<Path> files, int partitions) {
+        if (partitions <= 1 || files.size() <= 1) {
+            return files.isEmpty() ? List.of() : List.of(new ArrayList<>(files));
+        }
+        Map<String, List<Path>> clusters = cluster(sourceRoot, files, partitions);
+
+        List<List<Path>> sortedClusters = new ArrayList<>(clusters.values());
+        sortedClusters.sort(Comparator.comparingInt((List<Path> cluster) -> cluster.size()).reversed());
+        List<List<Path>> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(partitions, sortedClusters.size()); i++) {
+            result.add(new ArrayList<>());
+        }
+        for (List<Path> cluster : sortedClusters) {
+            result.stream().min(Comparator.comparingInt(List::size)).orElseThrow().addAll(cluster);
+        }
+        Map<Path, Integer> order = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            order.put(files.get(i), i);
+        }
+        for (List<Path> partition : result) {
+            partition.sort(Comparator.comparingInt(order::get));
+        }
+        return result;
+    }
+
+    /**
+     * Groups the files by package prefix, at the smallest depth giving at least as many
+     * clusters as partitions with no cluster larger than a partition, or by package if no
+     * depth does
+     */
+    private Map<String, List<Path>> cluster(Path sourceRoot, List<Path> files, int partitions) {
+        Path root = sourceRoot.toAbsolutePath().normalize();
+        int maxDepth = 0;
+        for (Path file : files) {
+            Path parent = root.relativize(file.toAbsolutePath().normalize()).getParent();
+            maxDepth = Math.max(maxDepth, parent == null ? 0 : parent.getNameCount());
+        }
+        Map<String, List<Path>> clusters = new LinkedHashMap<>();
+        for (int depth = 1; depth <= Math.max(1, maxDepth); depth++) {
+            clusters = new LinkedHashMap<>();
+            for (Path file : files) {
+                clusters.computeIfAbsent(packagePrefix(root, file, depth), k -> new ArrayList<>()).add(file);
+            }
+            int largest = clusters.values().stream().mapToInt(List::size).max().orElse(0);
+            if (clusters.size() >= partitions && largest <= (files.size() + partitions - 1) / partitions) {
+                break;
+            }
+        }
+        return clusters;
+    }
+
+    private static String packagePrefix(Path root, Path file, int depth) {
+        Path parent = root.relativize(file.toAbsolutePath().normalize()).getParent();
+        if (parent == null) {
+            return "";
+        }
+        return parent.subpath(0, Math.min(depth, parent.getNameCount())).toString();
+    }
+}
@@ -98,6 +98,20 @@ public class InitScriptGenerator {
                         if (System.getProperty("apiUrl") != null) {
                             systemProperty "apiUrl", System.getProperty("apiUrl")
                         }
+                        // Attach the constructor instrumentation agent to the test JVM
+                        if (System.getProperty("sentinelAgent") != null) {
+                            jvmArgs "-javaagent:" + System.getProperty("sentinelAgent")
+                        }
+                        // Start a flight recording in the test JVM
+                        if (System.getProperty("sentinelFlightRecording") != null) {
+                            jvmArgs "-XX:StartFlightRecording=" + System.getProperty("sentinelFlightRecording")
+                        }
+                        // Forward the settings of the instrumentation code to the test JVM
+                        System.getProperties().each { key, value ->
+                            if (key.toString().startsWith("sentinel.")) {
+                                systemProperty key.toString(), value
+                            }
+                        }
                     }
                 }
                 """;
@@ -0,0 +1,128 @@
+package be.unamur.snail.utils.maven;
+
+import be.unamur.snail.exceptions.CouldNotUpdatePomException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the argument of a Maven test command adding JVM arguments to the test JVMs forked by
+ * surefire, without replacing the ones of the project.
+ * -DargLine only sets the argLine property, which surefire uses when its argLine parameter is
+ * not configured: the argLine property of the pom is then kept by appending the JVM arguments
+ * to it. A configured argLine parameter ignores -DargLine, so a reference to the
+ * sentinelArgLine property, empty by default, is appended to it in the pom, and the JVM
+ * arguments are passed through this property instead.
+ */
+public class SurefireArgLineComposer {
+    public static final String PROPERTY = "sentinelArgLine";
+    private static final String SUREFIRE_ARTIFACT_ID = "maven-surefire-plugin";
+    private static final String REFERENCE = "${" + PROPERTY + "}";
+
+    /**
+     * @param projectDir the directory of the pom.xml file the test command is run on
+     * @param jvmArguments the JVM arguments to add, e.g. -javaagent:agent.jar
+     * @return the argument to append to the test command, quoted for bash
+     * @throws CouldNotUpdatePomException if the pom cannot be read or updated
+     */
+    public String buildArgument(Path projectDir, String jvmArguments) {
+        Path pom = projectDir.resolve("pom.xml");
+        if (!Files.isRegularFile(pom)) {
+            return "-DargLine=" + quote(jvmArguments);
+        }
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().parse(pom.toFile());
+            document.setXmlStandalone(true);
+            Element project = document.getDocumentElement();
+
+            List<Element> argLines = findSurefireArgLines(project);
+            if (argLines.isEmpty()) {
+                Element argLineProperty = findChild(findChild(project, "properties"), "argLine");
+                String projectArgLine = argLineProperty == null ? "" : argLineProperty.getTextContent().trim();
+                return "-DargLine=" + quote(projectArgLine.isEmpty() ? jvmArguments : projectArgLine + " " + jvmArguments);
+            }
+
+            boolean updated = false;
+            for (Element argLine : argLines) {
+                if (!argLine.getTextContent().contains(REFERENCE)) {
+                    argLine.setTextContent(argLine.getTextContent().trim() + " " + REFERENCE);
+                    updated = true;
+                }
+            }
+            Element properties = findChild(project, "properties");
+            if (properties == null) {
+                properties = document.createElementNS(project.getNamespaceURI(), "properties");
+                project.appendChild(properties);
+                updated = true;
+            }
+            if (findChild(properties, PROPERTY) == null) {
+                properties.appendChild(document.createElementNS(project.getNamespaceURI(), PROPERTY));
+                updated = true;
+            }
+            if (updated) {
+                var transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+                transformer.transform(new DOMSource(document), new StreamResult(pom.toFile()));
+            }
+            return "-D" + PROPERTY + "=" + quote(jvmArguments);
+        } catch (Exception e) {
+            throw new CouldNotUpdatePomException(pom, e);
+        }
+    }
+
+    /**
+     * Returns the argLine parameters configured for surefire, in the plugins, the plugin
+     * management, the executions and the profiles of the pom
+     */
+    private List<Element> findSurefireArgLines(Element project) {
+        List<Element> argLines = new ArrayList<>();
+        NodeList plugins = project.getElementsByTagNameNS("*", "plugin");
+        for (int i = 0; i < plugins.getLength(); i++) {
+            Element plugin = (Element) plugins.item(i);
+            Element artifactId = findChild(plugin, "artifactId");
+            if (artifactId == null || !SUREFIRE_ARTIFACT_ID.equals(artifactId.getTextContent().trim())) {
+                continue;
+            }
+            NodeList configured = plugin.getElementsByTagNameNS("*", "argLine");
+            for (int j = 0; j < configured.getLength(); j++) {
+                Element argLine = (Element) configured.item(j);
+                if ("configuration".equals(argLine.getParentNode().getLocalName())) {
+                    argLines.add(argLine);
+                }
+            }
+        }
+        return argLines;
+    }
+
+    private Element findChild(Element parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && name.equals(element.getLocalName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Quotes a value for bash, which runs the commands of the pipeline
+     */
+    public static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
@@ -30,6 +30,8 @@ class MainTest {
         return Stream.of(
             Arguments.of("measure",               "checkstyle_measurements_abc123.log"),
             Arguments.of("instrument-constructors", "checkstyle_instrumentation_abc123.log"),
+            Arguments.of("instrument-constructors-agent", "checkstyle_agent-instrumentation_abc123.log"),
+            Arguments.of("sample-allocations", "checkstyle_allocation-sampling_abc123.log"),
             Arguments.of("import-measurements",   "checkstyle_import_abc123.log"),
             Arguments.of("unknown-module",         "checkstyle_unknown-module_abc123.log")
         );
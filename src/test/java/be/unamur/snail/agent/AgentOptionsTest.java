@@ -0,0 +1,40 @@
+package be.unamur.snail.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentOptionsTest {
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("packagePrefix");
+    }
+
+    @Test
+    void parseShouldReadEveryOptionTest() {
+        AgentOptions options = AgentOptions.parse("packagePrefix=com.example,commit=abc123,project=app,owner=me");
+
+        assertEquals("com.example", options.getPackagePrefix());
+        assertEquals("abc123", options.getCommit());
+        assertEquals("app", options.getProject());
+        assertEquals("me", options.getOwner());
+    }
+
+    @Test
+    void parseShouldIgnoreUnknownKeysAndMalformedPairsTest() {
+        AgentOptions options = AgentOptions.parse("unknown=value,=empty,commit,packagePrefix=com.example");
+
+        assertEquals("com.example", options.getPackagePrefix());
+        assertNull(options.getCommit());
+    }
+
+    @Test
+    void parseShouldFallBackToPackagePrefixPropertyTest() {
+        System.setProperty("packagePrefix", "org.fallback");
+
+        assertEquals("org.fallback", AgentOptions.parse(null).getPackagePrefix());
+        assertEquals("com.example", AgentOptions.parse("packagePrefix=com.example").getPackagePrefix());
+    }
+}
@@ -0,0 +1,109 @@
+package be.unamur.snail.agent;
+
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorDescriptor;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorDescriptors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstructorClassTransformerTest {
+    private static final String FIXTURE = Fixture.class.getName();
+
+    private ConstructorClassTransformer transformer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        transformer = new ConstructorClassTransformer("be.unamur.snail", "abc123", "app", "me",
+                ConstructorInstrumentationAgent.registerMethod());
+    }
+
+    @Test
+    void instrumentShouldRegisterConstructorsWithTheirAttributesTest() throws Exception {
+        int firstId = ConstructorDescriptors.size();
+
+        byte[] instrumented = transformer.instrument(readClassFile(Fixture.class));
+
+        assertNotNull(instrumented);
+        assertEquals(firstId + 2, ConstructorDescriptors.size());
+        ConstructorDescriptor descriptor = ConstructorDescriptors.get(firstId);
+        assertEquals("be/unamur/snail/agent/ConstructorClassTransformerTest.java", descriptor.getFileName());
+        assertEquals(FIXTURE, descriptor.getClassName());
+        assertEquals("Fixture", descriptor.getMethodName());
+        assertEquals(List.of("int", "java.lang.String"), descriptor.getParameters());
+        assertEquals(3, descriptor.getAttributeCount());
+        assertEquals("size", descriptor.getAttribute(0).getName());
+        assertEquals("int", descriptor.getAttribute(0).getType());
+        assertEquals("constructor parameter", descriptor.getAttribute(0).getRhs());
+        assertEquals("name", descriptor.getAttribute(1).getName());
+        assertEquals("constructor parameter", descriptor.getAttribute(1).getRhs());
+        assertEquals("items", descriptor.getAttribute(2).getName());
+        assertEquals("java.util.List", descriptor.getAttribute(2).getType());
+        assertEquals("constructor call", descriptor.getAttribute(2).getRhs());
+        assertEquals(List.of(), ConstructorDescriptors.get(firstId + 1).getParameters());
+        assertEquals("literal", ConstructorDescriptors.get(firstId + 1).getAttribute(0).getRhs());
+    }
+
+    @Test
+    void instrumentedClassShouldPassVerificationTest() throws Exception {
+        byte[] instrumented = transformer.instrument(readClassFile(Fixture.class));
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.equals(FIXTURE)) {
+                    return defineClass(name, instrumented, 0, instrumented.length);
+                }
+                return super.loadClass(name, resolve);
+            }
+        };
+
+        Class<?> fixture = Class.forName(FIXTURE, true, loader);
+
+        assertNotSame(Fixture.class, fixture);
+        assertEquals(2, fixture.getDeclaredConstructors().length);
+    }
+
+    @Test
+    void instrumentShouldSkipInterfacesTest() throws Exception {
+        assertNull(transformer.instrument(readClassFile(Runnable.class)));
+    }
+
+    @Test
+    void transformShouldSkipClassesOutsideOfPackagePrefixTest() throws Exception {
+        ConstructorClassTransformer otherPrefix = new ConstructorClassTransformer("com.example", "abc123", "app", "me",
+                ConstructorInstrumentationAgent.registerMethod());
+        int size = ConstructorDescriptors.size();
+
+        assertNull(otherPrefix.transform(getClass().getClassLoader(), "org/other/Type", null, null, readClassFile(Fixture.class)));
+        assertNull(transformer.transform(getClass().getClassLoader(), FIXTURE.replace('.', '/'), null, null, readClassFile(Fixture.class)));
+        assertEquals(size, ConstructorDescriptors.size());
+    }
+
+    private static byte[] readClassFile(Class<?> type) throws Exception {
+        try (InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+
+    static class Fixture {
+        private final int size;
+        private final String name;
+        private final List<String> items;
+
+        Fixture(int size, String name) {
+            this.size = size;
+            this.name = name;
+            this.items = new ArrayList<>();
+        }
+
+        Fixture() {
+            this.size = 0;
+            this.name = null;
+            this.items = null;
+        }
+    }
+}
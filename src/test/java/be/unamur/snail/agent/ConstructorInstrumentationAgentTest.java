@@ -0,0 +1,56 @@
+package be.unamur.snail.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstructorInstrumentationAgentTest {
+    private static final String OPCODES = "org/objectweb/asm/Opcodes.class";
+
+    @TempDir
+    Path tempDir;
+
+    private byte[] readOpcodes() throws Exception {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(OPCODES)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void transformerClassPathShouldOnlyExposeAsmOfAgentJarToTransformerTest() throws Exception {
+        Path jar = tempDir.resolve("agent.jar");
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out)) {
+            jarOut.putNextEntry(new JarEntry(ConstructorInstrumentationAgent.ASM_DIRECTORY + OPCODES));
+            jarOut.write(readOpcodes());
+            jarOut.closeEntry();
+        }
+        URL agentJar = jar.toUri().toURL();
+
+        try (URLClassLoader transformerLoader = new URLClassLoader(ConstructorInstrumentationAgent.transformerClassPath(agentJar), null);
+             URLClassLoader testsLoader = new URLClassLoader(new URL[]{agentJar}, null)) {
+            assertSame(transformerLoader, transformerLoader.loadClass("org.objectweb.asm.Opcodes").getClassLoader());
+            assertThrows(ClassNotFoundException.class, () -> testsLoader.loadClass("org.objectweb.asm.Opcodes"));
+        }
+    }
+
+    @Test
+    void transformerClassPathShouldResolveAsmInClassesDirectoryTest() throws Exception {
+        Path opcodes = tempDir.resolve(ConstructorInstrumentationAgent.ASM_DIRECTORY + OPCODES);
+        Files.createDirectories(opcodes.getParent());
+        Files.write(opcodes, readOpcodes());
+
+        try (URLClassLoader transformerLoader = new URLClassLoader(ConstructorInstrumentationAgent.transformerClassPath(tempDir.toUri().toURL()), null)) {
+            assertSame(transformerLoader, transformerLoader.loadClass("org.objectweb.asm.Opcodes").getClassLoader());
+        }
+    }
+}
@@ -169,4 +169,24 @@ class ConfigTest {
         assertEquals("/code/instrumentation/path", config.getCodeConstructorsInstrumentationPath());
         assertEquals(42, config.getCommandTimeout());
     }
-}
\ No newline at end of file
+
+    @Test
+    void loadInstrumentationSectionFromYamlTest() throws Exception {
+        Path yaml = tempDir.resolve("config.yaml");
+        Files.writeString(yaml, """
+            instrumentation:
+              dispatcher-mode: "async"
+              queue-size: 5000
+              queue-full-policy: "drop"
+              shutdown-timeout-ms: 20000
+        """);
+        Config.load(yaml.toString());
+        Config.InstrumentationConfig instrumentation = Config.getInstance().getInstrumentation();
+
+        assertNotNull(instrumentation);
+        assertEquals("async", instrumentation.getDispatcherMode());
+        assertEquals(5000, instrumentation.getQueueSize());
+        assertEquals("drop", instrumentation.getQueueFullPolicy());
+        assertEquals(20000L, instrumentation.getShutdownTimeoutMs());
+    }
+}
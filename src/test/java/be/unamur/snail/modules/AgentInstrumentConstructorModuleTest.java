@@ -0,0 +1,38 @@
+package be.unamur.snail.modules;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.exceptions.MissingConfigKeyException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentInstrumentConstructorModuleTest {
+
+    @AfterEach
+    void tearDown() {
+        Config.reset();
+    }
+
+    @Test
+    void constructorThrowsWhenAgentJarIsMissingTest() {
+        Config config = new Config();
+        config.setInstrumentationForTests(new Config.InstrumentationConfig());
+        Config.setInstanceForTests(config);
+
+        assertThrows(MissingConfigKeyException.class, AgentInstrumentConstructorModule::new);
+    }
+
+    @Test
+    void buildRepoDirReturnsAgentInstrumentationNameWithCommitTest() {
+        Config config = new Config();
+        Config.ProjectConfig project = new Config.ProjectConfig();
+        project.setNameForTests("checkstyle");
+        config.setProjectForTests(project);
+        Config.RepoConfig repo = new Config.RepoConfig();
+        repo.setCommitForTests("abc123");
+        config.setRepoForTests(repo);
+
+        assertEquals("checkstyle_agent-instrumentation_abc123", AgentInstrumentConstructorModule.buildRepoDir(config));
+    }
+}
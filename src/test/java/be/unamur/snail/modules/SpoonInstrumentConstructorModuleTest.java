@@ -4,6 +4,9 @@ import be.unamur.snail.core.Config;
 import be.unamur.snail.core.Context;
 import be.unamur.snail.logging.ConsolePipelineLogger;
 import be.unamur.snail.stages.CopyFileStage;
+import be.unamur.snail.stages.CopySourceCodeStage;
+import be.unamur.snail.stages.InjectInstrumentationRuntimeStage;
+import be.unamur.snail.stages.RecordConstructorCoverageStage;
 import be.unamur.snail.stages.Stage;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -148,6 +151,42 @@ class SpoonInstrumentConstructorModuleTest {
 
     // ── buildRepoDir ─────────────────────────────────────────────────────────
 
+    @Test
+    void createInstrumentationRuntimeStageReturnsCopySourceCodeStageByDefaultTest() {
+        Config config = new Config();
+        config.setInstrumentationForTests(new Config.InstrumentationConfig());
+
+        assertInstanceOf(CopySourceCodeStage.class, module.createInstrumentationRuntimeStage(config));
+    }
+
+    @Test
+    void createInstrumentationRuntimeStageReturnsInjectStageWhenRuntimeJarIsSetTest() {
+        Config config = new Config();
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setRuntimeJarForTests("runtime.jar");
+        config.setInstrumentationForTests(instrumentation);
+
+        assertInstanceOf(InjectInstrumentationRuntimeStage.class, module.createInstrumentationRuntimeStage(config));
+    }
+
+    @Test
+    void createRecordConstructorCoverageStageReturnsNullByDefaultTest() {
+        Config config = new Config();
+        config.setInstrumentationForTests(new Config.InstrumentationConfig());
+
+        assertNull(module.createRecordConstructorCoverageStage(config));
+    }
+
+    @Test
+    void createRecordConstructorCoverageStageReturnsStageWhenCoverageIsEnabledTest() {
+        Config config = new Config();
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setCoverageEnabledForTests(true);
+        config.setInstrumentationForTests(instrumentation);
+
+        assertInstanceOf(RecordConstructorCoverageStage.class, module.createRecordConstructorCoverageStage(config));
+    }
+
     @Test
     void buildRepoDirReturnsInstrumentationNameWithCommitTest() {
         Config config = new Config();
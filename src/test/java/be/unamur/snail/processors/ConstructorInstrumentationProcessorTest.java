@@ -10,10 +10,13 @@ import spoon.reflect.CtModel;
 import spoon.reflect.code.CtBlock;
 import spoon.reflect.code.CtExpression;
 import spoon.reflect.code.CtStatement;
+import spoon.reflect.code.CtTry;
 import spoon.reflect.cu.SourcePosition;
 import spoon.reflect.declaration.CtClass;
 import spoon.reflect.declaration.CtConstructor;
+import spoon.reflect.declaration.CtField;
 import spoon.reflect.declaration.CtParameter;
+import spoon.reflect.declaration.CtType;
 import spoon.reflect.factory.Factory;
 import spoon.reflect.visitor.filter.TypeFilter;
 
@@ -21,6 +24,7 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -106,13 +110,116 @@ class ConstructorInstrumentationProcessorTest {
         System.out.println(statements);
 
         assertThat(statements.get(1).toString()).contains("SendConstructorsUtils utils = be.unamur.snail.spoon.constructor_instrumentation.SendConstructorsUtils.getInstance()");
-        assertThat(statements.get(2).toString()).contains("utils.initConstructorContext(");
-        assertThat(statements.get(3).toString()).contains("this.field1 = field1");
-        assertThat(statements.get(4).toString()).contains("utils.addAttribute(\"field1\", \"java.lang.String\", this.field1, \"constructor parameter\"");
-        assertThat(statements.get(5).toString()).contains("this.field2 = field2");
-        assertThat(statements.get(6).toString()).contains("utils.addAttribute(\"field2\", \"int\", this.field2, \"constructor parameter\"");
-        assertThat(statements.get(7).toString()).contains("utils.getStackTrace()");
-        assertThat(statements.get(8).toString()).contains("utils.send()");
+        assertThat(statements.get(2).toString()).contains("int __sentinelContextDepth = utils.initConstructorContext(test.TestConstructorClassWithAssignments.__SentinelConstructorDescriptors.CONSTRUCTOR_0)");
+        assertThat(statements).hasSize(4);
+        CtTry tryStatement = (CtTry) statements.get(3);
+        List<CtStatement> instrumented = tryStatement.getBody().getStatements();
+        assertThat(instrumented.get(0).toString()).contains("this.field1 = field1");
+        assertThat(instrumented.get(1).toString()).contains("utils.addAttribute(0, this.field1)");
+        assertThat(instrumented.get(2).toString()).contains("this.field2 = field2");
+        assertThat(instrumented.get(3).toString()).contains("utils.addAttribute(1, this.field2)");
+        assertThat(instrumented.get(4).toString()).contains("utils.getStackTrace()");
+        assertThat(instrumented.get(5).toString()).contains("utils.send()");
+        assertThat(tryStatement.getFinalizer().toString()).contains("utils.exitConstructorContext(__sentinelContextDepth)");
+    }
+
+    @Test
+    void descriptorHolderIsGeneratedTest() {
+        launcher.run();
+
+        CtClass<?> clazz = launcher.getModel().getElements(new TypeFilter<>(CtClass.class))
+                .stream()
+                .filter(c -> c.getSimpleName().equals("TestConstructorClassWithAssignments"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Class not found in the model"));
+
+        CtType<?> holder = clazz.getNestedType("__SentinelConstructorDescriptors");
+        assertNotNull(holder);
+        CtField<?> field = holder.getField("CONSTRUCTOR_0");
+        assertNotNull(field);
+        assertTrue(field.isStatic());
+        assertTrue(field.isFinal());
+        assertThat(field.getDefaultExpression().toString())
+                .contains("be.unamur.snail.spoon.constructor_instrumentation.ConstructorDescriptors.register(")
+                .contains("\"test.TestConstructorClassWithAssignments\"")
+                .contains("\"123abc\"")
+                .contains("new java.lang.String[]{\"java.lang.String\", \"int\"}")
+                .contains("new java.lang.String[]{\"field1\", \"java.lang.String\", \"constructor parameter\", \"field2\", \"int\", \"constructor parameter\"})");
+    }
+
+    @Test
+    void instrumentedTypesAreTrackedTest() {
+        launcher.run();
+
+        CtClass<?> clazz = launcher.getModel().getElements(new TypeFilter<>(CtClass.class))
+                .stream()
+                .filter(c -> c.getSimpleName().equals("TestConstructorClassWithAssignments"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Class not found in the model"));
+
+        assertTrue(processor.getInstrumentedTypes().contains(clazz));
+        assertTrue(processor.isInstrumented(clazz));
+        assertTrue(processor.isInstrumented(clazz.getNestedType("__SentinelConstructorDescriptors")));
+        assertFalse(processor.isInstrumented(factory.Class().create("test.NotInstrumented")));
+    }
+
+    @Test
+    void unselectedConstructorsAreNotInstrumentedTest() {
+        ConstructorInstrumentationProcessor selectiveProcessor = new ConstructorInstrumentationProcessor(
+                new ConstructorSelector(null, List.of("test.*Assignments"), null));
+        Launcher selectiveLauncher = new Launcher();
+        selectiveLauncher.addInputResource(inputPath.toString());
+        selectiveLauncher.getEnvironment().setNoClasspath(true);
+        selectiveLauncher.addProcessor(selectiveProcessor);
+        selectiveLauncher.buildModel();
+        selectiveLauncher.process();
+
+        CtClass<?> clazz = selectiveLauncher.getModel().getElements(new TypeFilter<>(CtClass.class))
+                .stream()
+                .filter(c -> c.getSimpleName().equals("TestConstructorClassWithAssignments"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Class not found in the model"));
+
+        assertNull(clazz.getNestedType("__SentinelConstructorDescriptors"));
+        assertFalse(selectiveProcessor.isInstrumented(clazz));
+        assertEquals(1, selectiveProcessor.getInstrumentedTypes().size());
+    }
+
+    @Test
+    void hasImplicitConstructorParametersTest() {
+        CtClass<?> outer = Launcher.parseClass("""
+                class Outer {
+                    class Inner {}
+                    static class Nested {}
+                    enum Color { RED }
+                    record Point(int x) {}
+                    interface Callback { class Member {} }
+                    void run() {
+                        class Local {}
+                        new Object() {};
+                    }
+                }
+                """);
+
+        assertFalse(processor.hasImplicitConstructorParameters(outer));
+        assertTrue(processor.hasImplicitConstructorParameters(outer.getNestedType("Inner")));
+        assertFalse(processor.hasImplicitConstructorParameters(outer.getNestedType("Nested")));
+        assertTrue(processor.hasImplicitConstructorParameters(outer.getNestedType("Color")));
+        assertFalse(processor.hasImplicitConstructorParameters(outer.getNestedType("Point")));
+        assertFalse(processor.hasImplicitConstructorParameters(outer.getNestedType("Callback").getNestedType("Member")));
+        for (CtClass<?> localType : outer.getMethod("run").getElements(new TypeFilter<>(CtClass.class))) {
+            assertTrue(processor.hasImplicitConstructorParameters(localType), localType.getQualifiedName());
+        }
+    }
+
+    @Test
+    void attributeIndexReusesIdenticalAssignmentsTest() {
+        List<String> attributes = new ArrayList<>();
+
+        assertEquals(0, processor.attributeIndex(attributes, "field", "int", "literal"));
+        assertEquals(1, processor.attributeIndex(attributes, "field", "int", "constructor parameter"));
+        assertEquals(0, processor.attributeIndex(attributes, "field", "int", "literal"));
+        assertEquals(List.of("field", "int", "literal", "field", "int", "constructor parameter"), attributes);
     }
 
     @Test
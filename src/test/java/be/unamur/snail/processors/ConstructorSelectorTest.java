@@ -0,0 +1,92 @@
+package be.unamur.snail.processors;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstructorSelectorTest {
+
+    @Test
+    void allSelectsEveryConstructorTest() {
+        assertTrue(ConstructorSelector.all().isSelected("com.example.Foo", List.of("int")));
+    }
+
+    @Test
+    void includePatternsRestrictClassesTest() {
+        ConstructorSelector selector = new ConstructorSelector(List.of("com.example.*", "org.Fo?"), null, null);
+
+        assertTrue(selector.isSelected("com.example.Foo", List.of()));
+        assertTrue(selector.isSelected("com.example.sub.Foo$Inner", List.of()));
+        assertTrue(selector.isSelected("org.Foo", List.of()));
+        assertFalse(selector.isSelected("org.Fooo", List.of()));
+        assertFalse(selector.isSelected("com.exampleX", List.of()));
+    }
+
+    @Test
+    void excludePatternsWinOverIncludePatternsTest() {
+        ConstructorSelector selector = new ConstructorSelector(List.of("com.example.*"), List.of("*.generated.*", "*Dto"), null);
+
+        assertTrue(selector.isSelected("com.example.Foo", List.of()));
+        assertFalse(selector.isSelected("com.example.generated.Foo", List.of()));
+        assertFalse(selector.isSelected("com.example.FooDto", List.of()));
+    }
+
+    @Test
+    void patternCharactersAreLiteralTest() {
+        ConstructorSelector selector = new ConstructorSelector(List.of("com.example.Foo$Inner"), null, null);
+
+        assertTrue(selector.isSelected("com.example.Foo$Inner", List.of()));
+        assertFalse(selector.isSelected("comXexample.Foo$Inner", List.of()));
+    }
+
+    @Test
+    void onlyExecutedConstructorsAreSelectedTest() {
+        ConstructorSelector selector = new ConstructorSelector(null, null, Map.of(
+                "com.example.Foo", List.of(List.of("java.lang.String", "int"))));
+
+        assertTrue(selector.isSelected("com.example.Foo", List.of("java.lang.String", "int")));
+        assertFalse(selector.isSelected("com.example.Foo", List.of("java.lang.String")));
+        assertFalse(selector.isSelected("com.example.Bar", List.of()));
+    }
+
+    @Test
+    void implicitParametersAreIgnoredTest() {
+        ConstructorSelector selector = new ConstructorSelector(null, null, Map.of(
+                "com.example.Outer$Inner", List.of(List.of("com.example.Outer", "int[]")),
+                "com.example.Color", List.of(List.of("java.lang.String", "int")),
+                "com.example.Outer$1Local", List.of(List.of("com.example.Outer", "int", "java.lang.String"))));
+
+        assertTrue(selector.isSelected("com.example.Outer$Inner", List.of("int[]"), true));
+        assertTrue(selector.isSelected("com.example.Color", List.of(), true));
+        assertTrue(selector.isSelected("com.example.Outer$1Local", List.of("int"), true));
+        assertFalse(selector.isSelected("com.example.Outer$Inner", List.of("java.lang.String", "int[]"), true));
+        assertFalse(selector.isSelected("com.example.Outer$1Local", List.of("long"), true));
+    }
+
+    @Test
+    void plainClassParametersMustBeEqualTest() {
+        ConstructorSelector selector = new ConstructorSelector(null, null, Map.of(
+                "com.example.Foo", List.of(List.of("java.lang.String", "int"), List.of("long", "int")),
+                "com.example.Outer$Nested", List.of(List.of("com.example.Outer", "int"))));
+
+        assertTrue(selector.isSelected("com.example.Foo", List.of("java.lang.String", "int"), false));
+        assertFalse(selector.isSelected("com.example.Foo", List.of("int"), false));
+        assertFalse(selector.isSelected("com.example.Foo", List.of(), false));
+        assertFalse(selector.isSelected("com.example.Foo", List.of("java.lang.String"), false));
+        assertFalse(selector.isSelected("com.example.Outer$Nested", List.of("int"), false));
+        assertTrue(selector.isSelected("com.example.Outer$Nested", List.of("com.example.Outer", "int")));
+    }
+
+    @Test
+    void fingerprintChangesWithSelectionTest() {
+        List<String> all = ConstructorSelector.all().fingerprint();
+
+        assertEquals(all, ConstructorSelector.all().fingerprint());
+        assertNotEquals(all, new ConstructorSelector(List.of("com.*"), null, null).fingerprint());
+        assertNotEquals(all, new ConstructorSelector(null, List.of("com.*"), null).fingerprint());
+        assertNotEquals(all, new ConstructorSelector(null, null, Map.of()).fingerprint());
+    }
+}
@@ -0,0 +1,111 @@
+package be.unamur.snail.services;
+
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AllocationSampleAnalyzerTest {
+    private static final StackTraceElement JDK_FRAME = new StackTraceElement("java.util.ArrayList", "grow", "ArrayList.java", 237);
+    private static final StackTraceElement CALL_SITE = new StackTraceElement("com.example.Parser", "parse", "Parser.java", 42);
+    private static final StackTraceElement CALLER = new StackTraceElement("com.example.App", "run", "App.java", 10);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void addShouldIgnoreSamplesOutsideOfPackagePrefixTest() {
+        AllocationSampleAnalyzer.AllocationSamples samples = new AllocationSampleAnalyzer.AllocationSamples("com.example");
+
+        samples.add("byte[]", 1000, List.of(JDK_FRAME, new StackTraceElement("org.junit.Runner", "run", "Runner.java", 1)));
+
+        assertEquals(0, samples.getSampleCount());
+        assertEquals(1, samples.getIgnoredSampleCount());
+        assertTrue(samples.getTypes().isEmpty());
+    }
+
+    @Test
+    void addShouldAggregateTypesAndCallSitesByWeightTest() {
+        AllocationSampleAnalyzer.AllocationSamples samples = new AllocationSampleAnalyzer.AllocationSamples("com.example");
+
+        samples.add("java.lang.Object[]", 1000, List.of(JDK_FRAME, CALL_SITE, CALLER));
+        samples.add("java.lang.Object[]", 3000, List.of(JDK_FRAME, CALL_SITE, CALLER));
+        samples.add("com.example.Token", 2000, List.of(CALL_SITE, CALLER));
+
+        assertEquals(3, samples.getSampleCount());
+        assertEquals(6000, samples.getTotalWeight());
+        List<AllocationSampleAnalyzer.Allocations> types = samples.getTypes();
+        assertEquals("java.lang.Object[]", types.get(0).getType());
+        assertEquals(4000, types.get(0).getWeight());
+        assertEquals(2, types.get(0).getSamples());
+        assertNull(types.get(0).getCallSite());
+        assertEquals("com.example.Token", types.get(1).getType());
+        List<AllocationSampleAnalyzer.Allocations> callSites = samples.getCallSites();
+        assertEquals(2, callSites.size());
+        assertEquals(CALL_SITE, callSites.get(0).getCallSite());
+    }
+
+    @Test
+    void addShouldOnlyKeepClassesOfPackagePrefixForExportTest() {
+        AllocationSampleAnalyzer.AllocationSamples samples = new AllocationSampleAnalyzer.AllocationSamples("com.example");
+
+        samples.add("java.lang.String", 100, List.of(CALL_SITE));
+        samples.add("com.example.Token[]", 100, List.of(CALL_SITE));
+        samples.add("com.example.Token", 100, List.of(JDK_FRAME, CALL_SITE, CALLER));
+        samples.add("com.example.Token", 300, List.of(CALL_SITE, CALLER));
+        samples.add("com.example.Token", 50, List.of(CALLER));
+
+        List<AllocationSampleAnalyzer.ProjectAllocations> allocations = samples.getProjectAllocations();
+        assertEquals(2, allocations.size());
+        assertEquals("com.example.Token", allocations.get(0).getClassName());
+        assertEquals(List.of(CALL_SITE, CALLER), allocations.get(0).getStackTrace());
+        assertEquals(2, allocations.get(0).getSamples());
+        assertEquals(400, allocations.get(0).getWeight());
+        assertEquals(List.of(CALLER), allocations.get(1).getStackTrace());
+    }
+
+    @Test
+    void toJavaNameShouldConvertArrayNamesTest() {
+        assertEquals("byte[]", AllocationSampleAnalyzer.toJavaName("[B"));
+        assertEquals("int[][]", AllocationSampleAnalyzer.toJavaName("[[I"));
+        assertEquals("java.lang.String[]", AllocationSampleAnalyzer.toJavaName("[Ljava.lang.String;"));
+        assertEquals("com.example.Foo$Bar", AllocationSampleAnalyzer.toJavaName("com.example.Foo$Bar"));
+    }
+
+    @Test
+    void sourceFileNameShouldUseOutermostClassTest() {
+        assertEquals("Foo.java", AllocationSampleAnalyzer.sourceFileName("com.example.Foo$Bar"));
+        assertEquals("Foo.java", AllocationSampleAnalyzer.sourceFileName("Foo"));
+    }
+
+    @Test
+    void analyzeShouldReadAllocationSamplesOfRecordingTest() throws Exception {
+        Path file = tempDir.resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(AllocationSampleAnalyzer.EVENT_NAME).with("throttle", "10000/s").withStackTrace();
+            recording.start();
+            allocate();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        AllocationSampleAnalyzer.AllocationSamples samples = new AllocationSampleAnalyzer().analyze(List.of(file), getClass().getName());
+
+        assertTrue(samples.getSampleCount() > 0);
+        assertEquals(getClass().getName(), samples.getCallSites().get(0).getCallSite().getClassName());
+        assertEquals("AllocationSampleAnalyzerTest.java", samples.getCallSites().get(0).getCallSite().getFileName());
+    }
+
+    // Arrays larger than a TLAB are allocated outside of it, each of them is sampled
+    private static long allocate() {
+        long total = 0;
+        for (int i = 0; i < 20; i++) {
+            total += new long[2_000_000].length;
+        }
+        return total;
+    }
+}
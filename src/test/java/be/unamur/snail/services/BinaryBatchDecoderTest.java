@@ -0,0 +1,123 @@
+package be.unamur.snail.services;
+
+import be.unamur.snail.exceptions.InvalidBinaryBatchException;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryBatchDecoderTest {
+    private BinaryBatchDecoder decoder;
+    private BinaryBatchEncoder encoder;
+    private ConstructorContextSerializer serializer;
+
+    @BeforeEach
+    void setUp() {
+        decoder = new BinaryBatchDecoder();
+        encoder = new BinaryBatchEncoder();
+        serializer = new ConstructorContextSerializer();
+    }
+
+    private ConstructorContext createContext(String className, List<StackTraceElement> stacktrace) {
+        List<AttributeContext> attributes = new ArrayList<>();
+        attributes.add(new AttributeContext("field", "java.lang.String", "java.lang.String", "java.lang.String"));
+        attributes.add(new AttributeContext("other", "int", null, null));
+        return new ConstructorContext()
+                .withFileName(className + ".java")
+                .withClassName(className)
+                .withMethodName(className)
+                .withParameters(List.of("int", "java.lang.String"))
+                .withAttributes(attributes)
+                .withStackTrace(stacktrace)
+                .withCommit(new CommitSimpleInstrDTO("sha", new RepositorySimpleInstrDTO("repo", "owner")))
+                .withEventKey("000000000000002a");
+    }
+
+    private byte[] encode(List<ConstructorContext> contexts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(contexts, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void decodeShouldRestoreContextsTest() throws IOException {
+        List<StackTraceElement> stacktrace = List.of(
+                new StackTraceElement("com.example.A", "a", "A.java", 1),
+                new StackTraceElement("com.example.B", "b", null, -2));
+        List<ConstructorContext> contexts = List.of(
+                createContext("A", stacktrace),
+                createContext("B", stacktrace),
+                createContext("Café中😀", null));
+
+        List<ConstructorContext> decoded = decoder.decode(encode(contexts));
+
+        assertEquals(serializer.serializeList(contexts), serializer.serializeList(decoded));
+    }
+
+    @Test
+    void decodeShouldRestoreNullFieldsTest() throws IOException {
+        ConstructorContext context = new ConstructorContext()
+                .withCommit(new CommitSimpleInstrDTO("sha", null));
+
+        List<ConstructorContext> decoded = decoder.decode(encode(List.of(context, new ConstructorContext())));
+
+        assertEquals(serializer.serializeList(List.of(context, new ConstructorContext())), serializer.serializeList(decoded));
+        assertNull(decoded.get(1).getParameters());
+        assertNull(decoded.get(1).getStacktrace());
+    }
+
+    @Test
+    void decodeShouldRestoreEmptyBatchTest() throws IOException {
+        assertTrue(decoder.decode(encode(List.of())).isEmpty());
+    }
+
+    @Test
+    void decodeFromStreamShouldRestoreContextsTest() throws IOException {
+        List<ConstructorContext> contexts = List.of(createContext("A", List.of(new StackTraceElement("com.example.A", "a", "A.java", 1))));
+
+        List<ConstructorContext> decoded = decoder.decode(new ByteArrayInputStream(encode(contexts)));
+
+        assertEquals(serializer.serializeList(contexts), serializer.serializeList(decoded));
+    }
+
+    @Test
+    void encodeShouldWriteSharedStringsAndStackTracesOnceTest() throws IOException {
+        List<StackTraceElement> stacktrace = List.of(new StackTraceElement("com.example.VeryLongClassName", "a", "A.java", 1));
+        byte[] one = encode(List.of(createContext("A", stacktrace)));
+        byte[] two = encode(List.of(createContext("A", stacktrace), createContext("A", stacktrace)));
+
+        // The second event only adds its references to the batch
+        assertTrue(two.length - one.length < 30);
+        assertTrue(two.length < serializer.serializeList(List.of(createContext("A", stacktrace))).length());
+    }
+
+    @Test
+    void decodeShouldThrowOnWrongMagicTest() {
+        assertThrows(InvalidBinaryBatchException.class, () -> decoder.decode("[{}]".getBytes()));
+    }
+
+    @Test
+    void decodeShouldThrowOnTruncatedBatchTest() throws IOException {
+        byte[] batch = encode(List.of(createContext("A", null)));
+
+        assertThrows(InvalidBinaryBatchException.class, () -> decoder.decode(Arrays.copyOf(batch, batch.length - 1)));
+    }
+
+    @Test
+    void decodeShouldThrowOnUnknownStringTest() throws IOException {
+        byte[] batch = encode(List.of(new ConstructorContext().withFileName("A.java")));
+        // header, 1 string of 6 bytes, no frame, no trace, 1 event whose file name is string 1
+        assertEquals(1, batch[7 + 6 + 3]);
+        batch[7 + 6 + 3] = 5;
+
+        assertThrows(InvalidBinaryBatchException.class, () -> decoder.decode(batch));
+    }
+}
@@ -0,0 +1,21 @@
+package be.unamur.snail.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstructorCoverageAnalyzerTest {
+
+    @Test
+    void parameterTypesOfNoArgConstructorTest() {
+        assertEquals(List.of(), ConstructorCoverageAnalyzer.parameterTypes("()V"));
+    }
+
+    @Test
+    void parameterTypesUseJavaNamesTest() {
+        assertEquals(List.of("java.lang.String", "int", "long[]", "com.example.Outer$Inner", "java.util.List[][]"),
+                ConstructorCoverageAnalyzer.parameterTypes("(Ljava/lang/String;I[JLcom/example/Outer$Inner;[[Ljava/util/List;)V"));
+    }
+}
@@ -0,0 +1,109 @@
+package be.unamur.snail.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentationCacheTest {
+    @TempDir
+    Path tempDir;
+    private Path sourceRoot;
+    private InstrumentationCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        sourceRoot = Files.createDirectories(tempDir.resolve("repo_abc123/src/main/java"));
+        cache = new InstrumentationCache(tempDir.resolve("cache"), "fingerprint");
+    }
+
+    private Path writeSource(String relativePath, String content) throws Exception {
+        Path file = sourceRoot.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, content);
+    }
+
+    private void storeOriginal(Path file, Set<String> declaredTypes, Set<String> referencedTypes) throws Exception {
+        String key = cache.key(sourceRoot.relativize(file).toString(), Files.readAllBytes(file));
+        cache.store(key, "// instrumented " + file.getFileName(), sourceRoot, "abc123", declaredTypes, referencedTypes);
+    }
+
+    @Test
+    void planShouldInstrumentEveryFileOfEmptyCacheTest() throws Exception {
+        Path a = writeSource("com/example/A.java", "class A {}");
+        Path b = writeSource("com/example/B.java", "class B {}");
+
+        InstrumentationCache.Plan plan = cache.plan(sourceRoot, List.of(a, b));
+
+        assertEquals(List.of(a, b), plan.getFilesToInstrument());
+        assertTrue(plan.getCachedFiles().isEmpty());
+        assertEquals(2, plan.getKeys().size());
+    }
+
+    @Test
+    void planShouldInstrumentChangedFilesAndTheirDependentsTest() throws Exception {
+        Path a = writeSource("com/example/A.java", "class A {}");
+        Path b = writeSource("com/example/B.java", "class B { A a; }");
+        Path c = writeSource("com/example/C.java", "class C {}");
+        storeOriginal(a, Set.of("com.example.A"), Set.of("java.lang.Object"));
+        storeOriginal(b, Set.of("com.example.B"), Set.of("com.example.A"));
+        storeOriginal(c, Set.of("com.example.C"), Set.of("java.lang.Object"));
+        Files.writeString(a, "class A { int changed; }");
+
+        InstrumentationCache.Plan plan = cache.plan(sourceRoot, List.of(a, b, c));
+
+        assertEquals(List.of(a, b), plan.getFilesToInstrument());
+        assertEquals(1, plan.getDependentFileCount());
+        assertEquals(Set.of(c), plan.getCachedFiles().keySet());
+    }
+
+    @Test
+    void keyShouldDependOnFingerprintPathAndContentTest() {
+        byte[] content = "class A {}".getBytes();
+        String key = cache.key("com/example/A.java", content);
+
+        assertEquals(key, new InstrumentationCache(tempDir, "fingerprint").key("com/example/A.java", content));
+        assertNotEquals(key, new InstrumentationCache(tempDir, "other").key("com/example/A.java", content));
+        assertNotEquals(key, cache.key("com/other/A.java", content));
+        assertNotEquals(key, cache.key("com/example/A.java", "class A { }".getBytes()));
+    }
+
+    @Test
+    void storeAndRestoreShouldReplaceSourceRootAndCommitTest() throws Exception {
+        String instrumented = "register(\"" + sourceRoot + "/com/example/A.java\", \"com.example.A\", \"abc123\")";
+        cache.store("ab12", instrumented, sourceRoot, "abc123", Set.of("com.example.A"), Set.of("java.lang.String"));
+
+        InstrumentationCache.Entry entry = cache.lookup("ab12");
+        assertFalse(entry.getSource().contains("abc123"));
+        assertEquals(Set.of("com.example.A"), entry.getDeclaredTypes());
+        assertEquals(Set.of("java.lang.String"), entry.getReferencedTypes());
+
+        Path otherRoot = Files.createDirectories(tempDir.resolve("repo_def456/src/main/java"));
+        Path file = otherRoot.resolve("A.java");
+        cache.restore(file, entry, otherRoot, "def456");
+        assertEquals("register(\"" + otherRoot + "/com/example/A.java\", \"com.example.A\", \"def456\")", Files.readString(file));
+    }
+
+    @Test
+    void lookupShouldReturnNullForUnknownKeyTest() throws Exception {
+        assertNull(cache.lookup("ffff"));
+    }
+
+    @Test
+    void classPathFingerprintShouldIgnoreLocationOfProjectTest() throws Exception {
+        Path firstRepo = Files.createDirectories(tempDir.resolve("repo_abc123"));
+        Path secondRepo = Files.createDirectories(tempDir.resolve("repo_def456"));
+        Files.writeString(firstRepo.resolve("lib.jar"), "jar");
+        Files.writeString(secondRepo.resolve("lib.jar"), "jar");
+
+        assertEquals(InstrumentationCache.classPathFingerprint(List.of(firstRepo.resolve("lib.jar").toString()), firstRepo),
+                InstrumentationCache.classPathFingerprint(List.of(secondRepo.resolve("lib.jar").toString()), secondRepo));
+        assertNotEquals(InstrumentationCache.fingerprint(List.of("a", "bc")), InstrumentationCache.fingerprint(List.of("ab", "c")));
+    }
+}
@@ -0,0 +1,109 @@
+package be.unamur.snail.services;
+
+import be.unamur.snail.exceptions.UnknownDictionaryIdException;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InternedBatchDecoderTest {
+    private InternedBatchDecoder decoder;
+    private ConstructorContextSerializer serializer;
+    private WireDictionary dictionary;
+
+    @BeforeEach
+    void setUp() {
+        decoder = new InternedBatchDecoder();
+        serializer = new ConstructorContextSerializer();
+        dictionary = new WireDictionary();
+    }
+
+    private ConstructorContext createContext(String className, List<StackTraceElement> stacktrace) {
+        List<AttributeContext> attributes = new ArrayList<>();
+        attributes.add(new AttributeContext("field", "java.lang.String", "java.lang.String", "java.lang.String"));
+        return new ConstructorContext()
+                .withFileName(className + ".java")
+                .withClassName(className)
+                .withMethodName(className)
+                .withParameters(List.of("int"))
+                .withAttributes(attributes)
+                .withStackTrace(stacktrace)
+                .withCommit(new CommitSimpleInstrDTO("sha", new RepositorySimpleInstrDTO("repo", "owner")))
+                .withEventKey("000000000000002a");
+    }
+
+    private String encode(String sessionId, List<ConstructorContext> contexts) {
+        int[] ids = new int[contexts.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dictionary.intern(contexts.get(i).getStacktrace());
+            dictionary.useDescriptor(contexts.get(i).getDescriptorId());
+        }
+        WireDictionary.Delta delta = dictionary.getPendingDelta();
+        dictionary.acknowledge(delta);
+        return serializer.serializeInternedBatch(sessionId, contexts, ids, delta);
+    }
+
+    @Test
+    void decodeShouldRestoreContextsTest() {
+        List<StackTraceElement> stacktrace = List.of(
+                new StackTraceElement("com.example.A", "a", "A.java", 1),
+                new StackTraceElement("com.example.B", "b", null, 2));
+        List<ConstructorContext> contexts = List.of(createContext("A", stacktrace), createContext("B", null));
+
+        List<ConstructorContext> decoded = decoder.decode(encode("session", contexts));
+
+        assertEquals(serializer.serializeList(contexts), serializer.serializeList(decoded));
+    }
+
+    @Test
+    void decodeShouldUseDictionaryOfPreviousBatchesTest() {
+        List<StackTraceElement> stacktrace = List.of(new StackTraceElement("com.example.A", "a", "A.java", 1));
+        decoder.decode(encode("session", List.of(createContext("A", stacktrace))));
+
+        String secondBatch = encode("session", List.of(createContext("B", stacktrace)));
+        List<ConstructorContext> decoded = decoder.decode(secondBatch);
+
+        assertTrue(secondBatch.contains("\"frames\":[],\"traces\":[]"));
+        assertEquals(stacktrace, decoded.get(0).getStacktrace());
+    }
+
+    @Test
+    void decodeShouldKeepOneDictionaryPerSessionTest() {
+        List<StackTraceElement> stacktrace = List.of(new StackTraceElement("com.example.A", "a", "A.java", 1));
+        decoder.decode(encode("session1", List.of(createContext("A", stacktrace))));
+
+        String otherSession = encode("session2", List.of(createContext("B", stacktrace)));
+
+        assertThrows(UnknownDictionaryIdException.class, () -> decoder.decode(otherSession));
+    }
+
+    @Test
+    void decodeShouldRestoreContextsInitializedFromDescriptorTest() {
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner", "int");
+        ConstructorDescriptor descriptor = ConstructorDescriptors.get(id);
+        ConstructorContext context = new ConstructorContext()
+                .withFileName(descriptor.getFileName())
+                .withClassName(descriptor.getClassName())
+                .withMethodName(descriptor.getMethodName())
+                .withParameters(descriptor.getParameters())
+                .withAttributes(new ArrayList<>())
+                .withCommit(descriptor.getCommit())
+                .withDescriptorId(id);
+
+        String batch = encode("session", List.of(context));
+        List<ConstructorContext> decoded = decoder.decode(batch);
+
+        assertFalse(batch.contains("\"className\":\"A\",\"methodName\":\"A\",\"parameters\":[\"int\"],\"attributes\""));
+        assertEquals(serializer.serializeList(List.of(context)), serializer.serializeList(decoded));
+        assertEquals(id, decoded.get(0).getDescriptorId());
+    }
+
+    @Test
+    void decodeShouldThrowOnInvalidJsonTest() {
+        assertThrows(JsonException.class, () -> decoder.decode("{not json"));
+    }
+}
@@ -0,0 +1,75 @@
+package be.unamur.snail.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuntimeMetricsMergerTest {
+    @TempDir
+    Path tempDir;
+
+    private Path writeFile(String name, String json) throws Exception {
+        return Files.writeString(tempDir.resolve(name), json);
+    }
+
+    @Test
+    void mergeShouldSumCountersAndHistogramsTest() throws Exception {
+        Path first = writeFile("runtime-metrics-1.json", """
+                {"jvm":"1@host","durationMillis":100,"uniqueEvents":10,"duplicateEvents":2,"sentBytes":1000,"sendFailures":1,
+                 "batchLatency":{"count":2,"totalNanos":3000,"maxNanos":2000,"buckets":[0,0,0,0,0,0,0,0,0,0,1,1]},
+                 "constructors":[{"fileName":"A.java","className":"A","methodName":"A","parameters":["int"],
+                                  "latency":{"count":1,"totalNanos":100,"maxNanos":100,"buckets":[0,0,0,0,0,0,1]}}]}
+                """);
+        Path second = writeFile("runtime-metrics-2.json", """
+                {"jvm":"2@host","durationMillis":300,"uniqueEvents":5,"droppedEvents":4,"sendFailures":0,
+                 "batchLatency":{"count":1,"totalNanos":5000,"maxNanos":5000,"buckets":[0,0,0,0,0,0,0,0,0,0,0,0,1]},
+                 "constructors":[{"fileName":"A.java","className":"A","methodName":"A","parameters":["int"],
+                                  "latency":{"count":2,"totalNanos":500,"maxNanos":400,"buckets":[0,0,0,0,0,0,1,0,1]}},
+                                 {"fileName":"B.java","className":"B","methodName":"B","parameters":[],
+                                  "latency":{"count":1,"totalNanos":50,"maxNanos":50,"buckets":[0,0,0,0,0,1]}}]}
+                """);
+
+        RuntimeMetricsMerger.MergedMetrics metrics = new RuntimeMetricsMerger().merge(List.of(first, second));
+
+        assertEquals(2, metrics.getJvmCount());
+        assertEquals(300, metrics.getDurationMillis());
+        assertEquals(15, metrics.getCounter("uniqueEvents"));
+        assertEquals(4, metrics.getCounter("droppedEvents"));
+        assertEquals(1000, metrics.getCounter("sentBytes"));
+        assertEquals(1, metrics.getCounter("sendFailures"));
+        assertEquals(0, metrics.getCounter("failedBatches"));
+        assertEquals(3, metrics.getBatchLatency().getCount());
+        assertEquals(5000, metrics.getBatchLatency().getMaxNanos());
+        assertEquals(2, metrics.getConstructors().size());
+        assertEquals(4, metrics.getConstructorLatency().getCount());
+
+        RuntimeMetricsMerger.ConstructorMetrics slowest = metrics.getSlowestConstructors(1).get(0);
+        assertEquals("A", slowest.getClassName());
+        assertEquals(List.of("int"), slowest.getParameters());
+        assertEquals(3, slowest.getLatency().getCount());
+        assertEquals(600, slowest.getLatency().getTotalNanos());
+    }
+
+    @Test
+    void percentileShouldReturnUpperBoundOfBucketCappedByMaxTest() throws Exception {
+        Path file = writeFile("runtime-metrics-1.json", """
+                {"batchLatency":{"count":100,"totalNanos":0,"maxNanos":3000,"buckets":[0,0,0,0,0,0,0,0,0,0,98,1,1]},"constructors":[]}
+                """);
+
+        RuntimeMetricsMerger.Histogram latency = new RuntimeMetricsMerger().merge(List.of(file)).getBatchLatency();
+
+        assertEquals(2047, latency.getPercentileNanos(50));
+        assertEquals(2047, latency.getPercentileNanos(98));
+        assertEquals(3000, latency.getPercentileNanos(99));
+    }
+
+    @Test
+    void percentileOfEmptyHistogramShouldBeZeroTest() {
+        assertEquals(0, new RuntimeMetricsMerger.Histogram().getPercentileNanos(99));
+    }
+}
@@ -0,0 +1,120 @@
+package be.unamur.snail.services;
+
+import be.unamur.snail.exceptions.InvalidSpoolFileException;
+import be.unamur.snail.spoon.constructor_instrumentation.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolFileReaderTest {
+    @TempDir
+    Path tempDir;
+
+    private final SpoolFileReader reader = new SpoolFileReader();
+    private final ConstructorContextSerializer serializer = new ConstructorContextSerializer();
+
+    private ConstructorContext createContext(int line) {
+        ConstructorContext context = new ConstructorContext()
+                .withFileName("File.java")
+                .withClassName("Class")
+                .withMethodName("<init>")
+                .withParameters(new ArrayList<>(List.of("java.lang.String", "int")))
+                .withAttributes(new ArrayList<>())
+                .withStackTrace(List.of(
+                        new StackTraceElement("Caller", "call", "Caller.java", line),
+                        new StackTraceElement("Test", "test", null, -1)))
+                .withCommit(new CommitSimpleInstrDTO("sha", new RepositorySimpleInstrDTO("repo", "owner")))
+                .withEventKey("00000000000000" + (10 + line));
+        context.addAttribute(new AttributeContext("name", "java.lang.String", "java.lang.String", "literal"));
+        context.addAttribute(new AttributeContext("value", "int", "null", null));
+        return context;
+    }
+
+    @Test
+    void readReturnsTheWrittenContextsTest() throws Exception {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 256);
+        List<ConstructorContext> written = List.of(createContext(1), createContext(2), createContext(1));
+        sender.sendBatch(written);
+        sender.sendOccurrences(Map.of("0000000000000011", 3L));
+        sender.close();
+
+        List<ConstructorContext> read = new ArrayList<>();
+        List<Map<String, Long>> occurrences = new ArrayList<>();
+        long count = reader.read(file.toPath(), read::add, occurrences::add);
+
+        assertEquals(3, count);
+        // AttributeContext has no equals, the contexts are compared through their JSON form
+        assertEquals(serializer.serializeList(written), serializer.serializeList(read));
+        assertEquals(List.of(Map.of("0000000000000011", 3L)), occurrences);
+    }
+
+    @Test
+    void readKeepsNullValuesTest() throws Exception {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 256);
+        sender.send(new ConstructorContext().withClassName("Class"));
+        sender.close();
+
+        List<ConstructorContext> read = new ArrayList<>();
+        reader.read(file.toPath(), read::add, occurrences -> {});
+
+        ConstructorContext context = read.get(0);
+        assertEquals("Class", context.getClassName());
+        assertNull(context.getFileName());
+        assertNull(context.getParameters());
+        assertNull(context.getAttributes());
+        assertNull(context.getStacktrace());
+        assertNull(context.getCommit());
+        assertNull(context.getEventKey());
+    }
+
+    @Test
+    void readStopsAtTheLastCompleteRecordTest() throws Exception {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 1 << 16);
+        sender.send(createContext(1));
+        sender.send(createContext(2));
+        sender.close();
+        // Simulates a JVM killed while writing the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        List<ConstructorContext> read = new ArrayList<>();
+        assertEquals(1, reader.read(file.toPath(), read::add, occurrences -> {}));
+    }
+
+    @Test
+    void readStopsAtEndMarkerOfNotTruncatedFileTest() throws Exception {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 1 << 16);
+        sender.send(createContext(1));
+        // The sender is not closed, as if its JVM was killed: the end of the region is zeroes
+
+        assertEquals(1, reader.read(file.toPath(), context -> {}, occurrences -> {}));
+    }
+
+    @Test
+    void readThrowsOnWrongMagicNumberTest() throws Exception {
+        Path file = tempDir.resolve("test.spool");
+        Files.write(file, new byte[]{1, 2, 3, 4, 0, 0, 0, 1});
+        assertThrows(InvalidSpoolFileException.class, () -> reader.read(file, context -> {}, occurrences -> {}));
+    }
+
+    @Test
+    void readThrowsOnEmptyFileTest() throws Exception {
+        Path file = tempDir.resolve("test.spool");
+        Files.write(file, new byte[0]);
+        assertThrows(InvalidSpoolFileException.class, () -> reader.read(file, context -> {}, occurrences -> {}));
+    }
+}
@@ -0,0 +1,182 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ArenaEventWriterTest {
+    private ConstructorEventDispatcher dispatcher;
+    private ConstructorContextSerializer serializer;
+
+    @BeforeEach
+    void setUp() {
+        dispatcher = mock(ConstructorEventDispatcher.class);
+        serializer = new ConstructorContextSerializer();
+    }
+
+    private ConstructorContext createContext(String className) {
+        List<AttributeContext> attributes = new ArrayList<>();
+        attributes.add(new AttributeContext("field", "java.lang.String", "java.lang.String", null));
+        return new ConstructorContext()
+                .withFileName(className + ".java")
+                .withClassName(className)
+                .withMethodName("<init>")
+                .withParameters(List.of("int", "java.lang.String"))
+                .withAttributes(attributes)
+                .withStackTrace(List.of(new StackTraceElement("com.example.Test", "test", null, 12)))
+                .withCommit(new CommitSimpleInstrDTO("sha", new RepositorySimpleInstrDTO("repo", "owner")));
+    }
+
+    private void write(ArenaEventWriter writer, ConstructorContext context, long key) {
+        writer.begin(-1, context.getFileName(), context.getClassName(), context.getMethodName(), context.getParameters(), context.getCommit());
+        for (AttributeContext attribute : context.getAttributes()) {
+            writer.addAttribute(attribute.getName(), attribute.getType(), attribute.getActualType(), attribute.getRhs());
+        }
+        writer.setStackTrace(context.getStacktrace());
+        writer.commit(key);
+    }
+
+    @Test
+    void commitShouldWriteRecordDecodedAsSameContextTest() {
+        EventArena arena = new EventArena(1024, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+        ConstructorContext context = createContext("Café中😀");
+
+        write(writer, context, 42L);
+
+        ArenaSegment segment = writer.getCurrentSegment();
+        assertEquals(segment.getCommittedPosition(), segment.nextRecord(0));
+        assertEquals(42L, segment.getEventKey(0));
+        assertEquals(serializer.serialize(context), serializer.serialize(segment.decode(0)));
+    }
+
+    @Test
+    void commitShouldWriteOnlyDescriptorIdOfRegisteredConstructorTest() {
+        int id = ConstructorDescriptors.register("A.java", "A", "<init>", "sha", "repo", "owner", "int");
+        EventArena arena = new EventArena(1024, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+
+        writer.begin(id, null, null, null, null, null);
+        writer.commit(1L);
+
+        ArenaSegment segment = writer.getCurrentSegment();
+        assertEquals(ArenaSegment.HEADER_SIZE, segment.getCommittedPosition());
+        ConstructorContext decoded = segment.decode(0);
+        assertEquals("A", decoded.getClassName());
+        assertEquals(List.of("int"), decoded.getParameters());
+        assertEquals(id, decoded.getDescriptorId());
+    }
+
+    @Test
+    void discardShouldForgetPendingRecordTest() {
+        EventArena arena = new EventArena(1024, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+        write(writer, createContext("A"), 1L);
+        int committed = writer.getCurrentSegment().getCommittedPosition();
+
+        writer.begin(-1, "B.java", "B", "<init>", List.of(), null);
+        writer.addAttribute("field", "int", "java.lang.Integer", null);
+        writer.discard();
+        write(writer, createContext("C"), 3L);
+
+        ArenaSegment segment = writer.getCurrentSegment();
+        assertFalse(writer.hasPendingEvent());
+        assertEquals(3L, segment.getEventKey(committed));
+        assertEquals("C", segment.decode(committed).getClassName());
+    }
+
+    @Test
+    void nestedRecordShouldSuspendPendingRecordTest() {
+        EventArena arena = new EventArena(1024, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+        ConstructorContext outer = createContext("Outer");
+        ConstructorContext inner = createContext("Inner");
+
+        writer.begin(-1, outer.getFileName(), outer.getClassName(), outer.getMethodName(), outer.getParameters(), outer.getCommit());
+        write(writer, inner, 2L);
+        assertEquals(1, writer.getNestingLevel());
+        for (AttributeContext attribute : outer.getAttributes()) {
+            writer.addAttribute(attribute.getName(), attribute.getType(), attribute.getActualType(), attribute.getRhs());
+        }
+        writer.setStackTrace(outer.getStacktrace());
+        writer.commit(1L);
+
+        ArenaSegment segment = writer.getCurrentSegment();
+        int second = segment.nextRecord(0);
+        assertEquals(0, writer.getNestingLevel());
+        assertEquals(2L, segment.getEventKey(0));
+        assertEquals(serializer.serialize(inner), serializer.serialize(segment.decode(0)));
+        assertEquals(1L, segment.getEventKey(second));
+        assertEquals(serializer.serialize(outer), serializer.serialize(segment.decode(second)));
+    }
+
+    @Test
+    void fullSegmentShouldBeHandedOffToDispatcherTest() {
+        when(dispatcher.isAsync()).thenReturn(true);
+        EventArena arena = new EventArena(1024, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+
+        for (int i = 0; i < 10; i++) {
+            write(writer, createContext("A"), i);
+        }
+
+        ArgumentCaptor<ArenaSegment> captor = ArgumentCaptor.forClass(ArenaSegment.class);
+        verify(dispatcher, atLeastOnce()).submitSegment(captor.capture());
+        ArenaSegment full = captor.getAllValues().get(0);
+        assertNotSame(full, writer.getCurrentSegment());
+        assertEquals(0L, full.getEventKey(0));
+        assertEquals(serializer.serialize(createContext("A")), serializer.serialize(writer.getCurrentSegment().decode(0)));
+    }
+
+    @Test
+    void recordLargerThanSegmentShouldMoveToDedicatedSegmentTest() {
+        EventArena arena = new EventArena(64, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+        ConstructorContext context = createContext("A");
+
+        write(writer, context, 7L);
+
+        verify(dispatcher, never()).submitSegment(any());
+        ArenaSegment segment = writer.getCurrentSegment();
+        assertTrue(segment.capacity() > 64);
+        assertEquals(serializer.serialize(context), serializer.serialize(segment.decode(0)));
+    }
+
+    @Test
+    void eventsShouldBeDroppedWhenArenaIsExhaustedTest() {
+        when(dispatcher.isAsync()).thenReturn(true);
+        EventArena arena = new EventArena(1024, 1024, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+
+        for (int i = 0; i < 10; i++) {
+            write(writer, createContext("A"), i);
+        }
+
+        verify(dispatcher, never()).submitSegment(any());
+        assertTrue(arena.getDroppedEventCount() > 0);
+        assertEquals(1, arena.getAllocatedSegmentCount());
+    }
+
+    @Test
+    void writerShouldStopRecordingOnceSegmentIsClaimedTest() {
+        EventArena arena = new EventArena(1024, 4096, false);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+        write(writer, createContext("A"), 1L);
+
+        ArenaSegment claimed = arena.claimWriterSegments().get(0);
+        int committed = claimed.getCommittedPosition();
+        for (int i = 0; i < 10; i++) {
+            write(writer, createContext("B"), i);
+        }
+
+        assertTrue(writer.isClosed());
+        assertEquals(committed, claimed.getCommittedPosition());
+        verify(dispatcher, never()).submitSegment(any());
+    }
+}
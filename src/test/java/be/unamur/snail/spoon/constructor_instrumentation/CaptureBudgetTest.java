@@ -0,0 +1,27 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptureBudgetTest {
+    @Test
+    void budgetIsExhaustedOnceMaxTracesAreAdmittedTest() {
+        CaptureBudget budget = new CaptureBudget(2);
+        assertTrue(budget.admit(1L));
+        assertFalse(budget.isExhausted());
+        assertTrue(budget.admit(2L));
+        assertTrue(budget.isExhausted());
+        assertEquals(2, budget.getTraceCount());
+    }
+
+    @Test
+    void suppressedCallsAreCountedTest() {
+        CaptureBudget budget = new CaptureBudget(1);
+        budget.admit(1L);
+        assertTrue(budget.admit(1L));
+        assertFalse(budget.admit(2L));
+        budget.suppress();
+        assertEquals(2, budget.getSuppressedCallCount());
+    }
+}
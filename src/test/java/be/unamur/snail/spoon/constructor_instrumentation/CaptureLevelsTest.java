@@ -0,0 +1,58 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptureLevelsTest {
+
+    @AfterEach
+    void tearDown() {
+        ConstructorDescriptors.resetForTests();
+    }
+
+    @Test
+    void fromStringShouldAcceptLevelNamesTest() {
+        assertEquals(CaptureLevel.COUNT, CaptureLevel.fromString("count"));
+        assertEquals(CaptureLevel.COUNT, CaptureLevel.fromString(" Count-Only "));
+        assertEquals(CaptureLevel.CALLER, CaptureLevel.fromString("caller"));
+        assertEquals(CaptureLevel.CALLER, CaptureLevel.fromString("caller-only"));
+        assertEquals(CaptureLevel.FULL, CaptureLevel.fromString("full"));
+        assertEquals(CaptureLevel.FULL, CaptureLevel.fromString("unknown"));
+        assertEquals(CaptureLevel.FULL, CaptureLevel.fromString(null));
+    }
+
+    @Test
+    void longestPackagePrefixShouldWinTest() {
+        CaptureLevels levels = new CaptureLevels(CaptureLevel.CALLER, "com.example=count, com.example.core=full,invalid");
+
+        assertEquals(CaptureLevel.FULL, levels.levelOf("com.example.core.Service"));
+        assertEquals(CaptureLevel.COUNT, levels.levelOf("com.example.model.Model"));
+        assertEquals(CaptureLevel.CALLER, levels.levelOf("org.other.Type"));
+        assertEquals(CaptureLevel.CALLER, levels.levelOf((String) null));
+    }
+
+    @Test
+    void levelOfShouldResolveDescriptorLevelOnceTest() {
+        CaptureLevels levels = new CaptureLevels(CaptureLevel.FULL, "com.example.model=count");
+        ConstructorDescriptors.register("A.java", "com.example.core.A", "A", "sha", "repo", "owner");
+        int id = ConstructorDescriptors.register("Model.java", "com.example.model.Model", "Model", "sha", "repo", "owner");
+        ConstructorContext context = new ConstructorContext().withClassName("com.example.model.Model").withDescriptorId(id);
+
+        assertEquals(CaptureLevel.COUNT, levels.levelOf(context));
+        assertEquals(CaptureLevel.COUNT, levels.levelOf(context));
+        assertEquals(CaptureLevel.FULL, levels.levelOf(new ConstructorContext().withClassName("com.example.core.A").withDescriptorId(0)));
+        assertEquals(CaptureLevel.COUNT, levels.levelOf(new ConstructorContext().withClassName("com.example.model.Legacy").withParameters(new ArrayList<>()).withDescriptorId(-1)));
+    }
+
+    @Test
+    void isTieredShouldBeFalseWhenEveryLevelIsFullTest() {
+        assertFalse(CaptureLevels.full().isTiered());
+        assertFalse(new CaptureLevels(CaptureLevel.FULL, "com.example=full").isTiered());
+        assertTrue(new CaptureLevels(CaptureLevel.FULL, "com.example=caller").isTiered());
+        assertTrue(new CaptureLevels(CaptureLevel.COUNT, null).isTiered());
+    }
+}
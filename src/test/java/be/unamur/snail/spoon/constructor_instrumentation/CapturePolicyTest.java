@@ -0,0 +1,89 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CapturePolicyTest {
+    private ConstructorContext context(int descriptorId, String caller) {
+        return new ConstructorContext()
+                .withFileName("File.java")
+                .withClassName("Class")
+                .withMethodName("<init>")
+                .withParameters(new ArrayList<>())
+                .withAttributes(new ArrayList<>())
+                .withDescriptorId(descriptorId)
+                .withStackTrace(List.of(new StackTraceElement(caller, "call", caller + ".java", 1)));
+    }
+
+    @Test
+    void captureAllCapturesEveryCallTest() {
+        CapturePolicy policy = CapturePolicy.captureAll();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.shouldCapture(context(0, "A")));
+            assertTrue(policy.admit(context(0, "Caller" + i)));
+        }
+        assertTrue(policy.isUnrestricted());
+    }
+
+    @Test
+    void sampleRateCapturesAboutOneCallOutOfNTest() {
+        CapturePolicy policy = new CapturePolicy(10, 0, 0);
+        int captured = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (policy.shouldCapture(context(0, "A"))) {
+                captured++;
+            }
+        }
+        assertTrue(captured > 8_000 && captured < 12_000, "captured " + captured);
+        assertEquals(100_000 - captured, policy.getSampledOutCallCount());
+    }
+
+    @Test
+    void budgetAdmitsKnownStackTracesAndRejectsNewOnesOnceExhaustedTest() {
+        CapturePolicy policy = new CapturePolicy(1, 2, 0);
+
+        assertTrue(policy.admit(context(3, "A")));
+        assertTrue(policy.admit(context(3, "B")));
+        assertTrue(policy.admit(context(3, "A")));
+        assertFalse(policy.admit(context(3, "C")));
+        assertEquals(1, policy.getBudgetSuppressedCallCount());
+    }
+
+    @Test
+    void exhaustedBudgetSkipsTheNextCallsOfTheConstructorOnlyTest() {
+        CapturePolicy policy = new CapturePolicy(1, 1, 0);
+        policy.admit(context(5, "A"));
+
+        assertFalse(policy.shouldCapture(context(5, "A")));
+        assertTrue(policy.shouldCapture(context(6, "A")));
+        assertEquals(1, policy.budgetOf(context(5, "A")).getSuppressedCallCount());
+        assertEquals(1, policy.getBudgetSuppressedCallCount());
+    }
+
+    @Test
+    void budgetIsKeyedByClassAndParametersWithoutDescriptorTest() {
+        CapturePolicy policy = new CapturePolicy(1, 1, 0);
+        policy.admit(context(-1, "A"));
+
+        assertSame(policy.budgetOf(context(-1, "B")), policy.budgetOf(context(-1, "C")));
+        assertFalse(policy.shouldCapture(context(-1, "B")));
+    }
+
+    @Test
+    void maxEventsPerSecondCapsTheCapturedCallsTest() {
+        CapturePolicy policy = new CapturePolicy(1, 0, 100);
+        int captured = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (policy.shouldCapture(context(0, "A"))) {
+                captured++;
+            }
+        }
+        // The loop may straddle two seconds
+        assertTrue(captured >= 100 && captured <= 200, "captured " + captured);
+        assertEquals(1000 - captured, policy.getRateLimitedCallCount());
+    }
+}
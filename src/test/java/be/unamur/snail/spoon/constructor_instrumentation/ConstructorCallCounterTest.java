@@ -0,0 +1,87 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstructorCallCounterTest {
+    private final CaptureLevels levels = new CaptureLevels(CaptureLevel.FULL, "com.example.model=count");
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        ConstructorDescriptors.resetForTests();
+    }
+
+    private ConstructorContext context(int descriptorId, String className) {
+        return new ConstructorContext()
+                .withFileName("File.java")
+                .withClassName(className)
+                .withMethodName(className)
+                .withParameters(List.of("int"))
+                .withCommit(new CommitSimpleInstrDTO("sha", new RepositorySimpleInstrDTO("repo", "owner")))
+                .withDescriptorId(descriptorId);
+    }
+
+    @Test
+    void incrementShouldCountCallsOfEachConstructorTest() {
+        ConstructorCallCounter counter = new ConstructorCallCounter(levels);
+        int first = ConstructorDescriptors.register("A.java", "com.example.A", "A", "sha", "repo", "owner");
+        int second = ConstructorDescriptors.register("B.java", "com.example.model.B", "B", "sha", "repo", "owner");
+
+        counter.increment(context(first, "com.example.A"));
+        counter.increment(context(second, "com.example.model.B"));
+        counter.increment(context(second, "com.example.model.B"));
+
+        assertEquals(1, counter.getCount(first));
+        assertEquals(2, counter.getCount(second));
+        assertEquals(0, counter.getCount(5));
+    }
+
+    @Test
+    void writeToShouldWriteCountsAndLevelsAsJsonTest() throws Exception {
+        ConstructorCallCounter counter = new ConstructorCallCounter(levels);
+        int id = ConstructorDescriptors.register("B.java", "com.example.model.B", "B", "sha", "repo", "owner", "int");
+        counter.increment(context(id, "com.example.model.B"));
+        counter.increment(context(-1, "com.example.Legacy"));
+        counter.increment(context(-1, "com.example.Legacy"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        counter.writeTo(out);
+        JsonNode counts = new ObjectMapper().readTree(out.toByteArray());
+
+        assertEquals(2, counts.size());
+        assertEquals("com.example.model.B", counts.get(0).get("className").asText());
+        assertEquals("int", counts.get(0).get("parameters").get(0).asText());
+        assertEquals("count", counts.get(0).get("level").asText());
+        assertEquals(1, counts.get(0).get("count").asLong());
+        assertEquals("com.example.Legacy", counts.get(1).get("className").asText());
+        assertEquals("full", counts.get(1).get("level").asText());
+        assertEquals(2, counts.get(1).get("count").asLong());
+    }
+
+    @Test
+    void exportShouldWriteNewFileInDirectoryTest() throws Exception {
+        ConstructorCallCounter counter = new ConstructorCallCounter(levels);
+        counter.increment(context(-1, "com.example.Legacy"));
+        File directory = tempDir.resolve("counts").toFile();
+
+        File first = counter.export(directory);
+        File second = counter.export(directory);
+
+        assertNotNull(first);
+        assertNotEquals(first, second);
+        assertEquals(1, new ObjectMapper().readTree(first).get(0).get("count").asLong());
+    }
+}
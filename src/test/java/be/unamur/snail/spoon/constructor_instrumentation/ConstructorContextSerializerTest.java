@@ -3,8 +3,13 @@ package be.unamur.snail.spoon.constructor_instrumentation;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -285,4 +290,118 @@ class ConstructorContextSerializerTest {
         assertNotNull(json);
         assertEquals("[]", json);
     }
+
+    @Test
+    void serializeContextWithEventKeyTest() {
+        ConstructorContext context = new ConstructorContext()
+                .withFileName("file.java")
+                .withClassName("Class")
+                .withMethodName("method")
+                .withParameters(new ArrayList<>())
+                .withAttributes(new ArrayList<>())
+                .withEventKey("file.java|Class|method");
+
+        String json = serializer.serialize(context);
+
+        assertTrue(json.endsWith("\"commit\":null,\"eventKey\":\"file.java|Class|method\"}"));
+    }
+
+    @Test
+    void serializeOccurrencesTest() {
+        Map<String, Long> occurrences = new LinkedHashMap<>();
+        occurrences.put("a", 2L);
+        occurrences.put("b\"", 5L);
+
+        String json = serializer.serializeOccurrences(occurrences);
+
+        assertEquals("[{\"eventKey\":\"a\",\"occurrences\":2},{\"eventKey\":\"b\\\"\",\"occurrences\":5}]", json);
+    }
+
+    @Test
+    void serializeEmptyOccurrencesTest() {
+        assertEquals("[]", serializer.serializeOccurrences(new LinkedHashMap<>()));
+    }
+
+    @Test
+    void serializeInternedBatchTest() {
+        StackTraceElement frame = new StackTraceElement("com.example.Main", "main", "Main.java", 10);
+        ConstructorContext context = new ConstructorContext()
+                .withFileName("Main.java")
+                .withClassName("Main")
+                .withMethodName("Main")
+                .withParameters(new ArrayList<>())
+                .withAttributes(new ArrayList<>())
+                .withStackTrace(List.of(frame));
+        List<int[]> traces = new ArrayList<>();
+        traces.add(new int[]{0});
+        WireDictionary.Delta delta = new WireDictionary.Delta(0, List.of(frame), 0, traces);
+
+        String json = serializer.serializeInternedBatch("session", List.of(context), new int[]{0}, delta);
+
+        assertEquals(
+                "{\"sessionId\":\"session\"," +
+                        "\"descriptors\":[]," +
+                        "\"frames\":[{\"id\":0,\"className\":\"com.example.Main\",\"methodName\":\"main\",\"fileName\":\"Main.java\",\"lineNumber\":10}]," +
+                        "\"traces\":[{\"id\":0,\"frames\":[0]}]," +
+                        "\"events\":[{\"fileName\":\"Main.java\"," +
+                        "\"className\":\"Main\"," +
+                        "\"methodName\":\"Main\"," +
+                        "\"parameters\":[]," +
+                        "\"attributes\":[]," +
+                        "\"stacktraceId\":0," +
+                        "\"snapshot\":null," +
+                        "\"commit\":null}]}",
+                json);
+    }
+
+    @Test
+    void writeListProducesTheSameJsonAsSerializeListTest() throws IOException {
+        ConstructorContext context = new ConstructorContext()
+                .withFileName("Main.java")
+                .withClassName("Main")
+                .withMethodName("Main")
+                .withParameters(List.of("java.lang.String"))
+                .withAttributes(new ArrayList<>())
+                .withStackTrace(List.of(new StackTraceElement("com.example.Main", "main", "Main.java", 10)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        serializer.writeList(List.of(context, context), out);
+
+        assertEquals(serializer.serializeList(List.of(context, context)), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writeInternedBatchProducesTheSameJsonAsSerializeInternedBatchTest() throws IOException {
+        StackTraceElement frame = new StackTraceElement("com.example.Main", "main", "Main.java", 10);
+        ConstructorContext context = new ConstructorContext()
+                .withFileName("Main.java")
+                .withClassName("Main")
+                .withMethodName("Main")
+                .withParameters(new ArrayList<>())
+                .withAttributes(new ArrayList<>())
+                .withStackTrace(List.of(frame));
+        List<int[]> traces = new ArrayList<>();
+        traces.add(new int[]{0});
+        WireDictionary.Delta delta = new WireDictionary.Delta(0, List.of(frame), 0, traces);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        serializer.writeInternedBatch("session", List.of(context), new int[]{0}, delta, out);
+
+        assertEquals(serializer.serializeInternedBatch("session", List.of(context), new int[]{0}, delta),
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void serializeEscapesSpecialCharactersTest() {
+        ConstructorContext context = new ConstructorContext()
+                .withFileName("Main.java")
+                .withClassName("Caf\u00e9\t\"Main\"\u0001")
+                .withMethodName("Main")
+                .withParameters(new ArrayList<>())
+                .withAttributes(new ArrayList<>());
+
+        String json = serializer.serialize(context);
+
+        assertTrue(json.contains("\"className\":\"Caf\u00e9\\t\\\"Main\\\"\\u0001\""));
+    }
 }
@@ -0,0 +1,89 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstructorDescriptorsTest {
+
+    @AfterEach
+    void tearDown() {
+        ConstructorDescriptors.resetForTests();
+    }
+
+    @Test
+    void registerShouldReturnConsecutiveIdsTest() {
+        ConstructorDescriptors.resetForTests();
+        int first = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner");
+        int second = ConstructorDescriptors.register("B.java", "B", "B", "sha", "repo", "owner", "int");
+
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(2, ConstructorDescriptors.size());
+    }
+
+    @Test
+    void getShouldReturnRegisteredDescriptorTest() {
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner", "int", "java.lang.String");
+
+        ConstructorDescriptor descriptor = ConstructorDescriptors.get(id);
+
+        assertEquals(id, descriptor.getId());
+        assertEquals("A.java", descriptor.getFileName());
+        assertEquals(List.of("int", "java.lang.String"), descriptor.getParameters());
+        assertEquals(new CommitSimpleInstrDTO("sha", new RepositorySimpleInstrDTO("repo", "owner")), descriptor.getCommit());
+    }
+
+    @Test
+    void descriptorParametersShouldBeImmutableTest() {
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner", "int");
+
+        assertThrows(UnsupportedOperationException.class, () -> ConstructorDescriptors.get(id).getParameters().add("long"));
+    }
+
+    @Test
+    void getShouldThrowForUnknownIdTest() {
+        assertThrows(IllegalArgumentException.class, () -> ConstructorDescriptors.get(-1));
+        assertThrows(IllegalArgumentException.class, () -> ConstructorDescriptors.get(ConstructorDescriptors.size()));
+    }
+
+    @Test
+    void registerShouldDescribeAssignedFieldsTest() {
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner",
+                new String[]{"int"},
+                new String[]{"count", "int", "constructor parameter", "name", "java.lang.String", "literal"});
+
+        ConstructorDescriptor descriptor = ConstructorDescriptors.get(id);
+
+        assertEquals(List.of("int"), descriptor.getParameters());
+        assertEquals(2, descriptor.getAttributeCount());
+        assertEquals("name", descriptor.getAttribute(1).getName());
+        assertEquals("java.lang.String", descriptor.getAttribute(1).getType());
+        assertEquals("literal", descriptor.getAttribute(1).getRhs());
+        assertThrows(IllegalArgumentException.class, () -> descriptor.getAttribute(2));
+    }
+
+    @Test
+    void registerShouldThrowWhenAttributesAreNotTriplesTest() {
+        assertThrows(IllegalArgumentException.class, () -> ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner",
+                new String[0], new String[]{"count", "int"}));
+    }
+
+    @Test
+    void attributeForShouldReuseAttributeOfSameClassTest() {
+        AttributeDescriptor descriptor = new AttributeDescriptor("value", "java.lang.Object", "constructor parameter");
+
+        AttributeContext first = descriptor.attributeFor("a");
+        AttributeContext second = descriptor.attributeFor("b");
+        AttributeContext integer = descriptor.attributeFor(1);
+
+        assertSame(first, second);
+        assertEquals("java.lang.String", first.getActualType());
+        assertEquals("java.lang.Integer", integer.getActualType());
+        assertEquals("constructor parameter", integer.getRhs());
+        assertEquals("null", descriptor.attributeFor(null).getActualType());
+    }
+}
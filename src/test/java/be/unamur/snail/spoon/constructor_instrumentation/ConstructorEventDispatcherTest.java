@@ -2,8 +2,15 @@ package be.unamur.snail.spoon.constructor_instrumentation;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -51,6 +58,17 @@ class ConstructorEventDispatcherTest {
         assertEquals(1, dispatcher.getBatch().size());
     }
 
+    @Test
+    void submitShouldNotKeepSubmittedContextTest() {
+        ConstructorContext context = createContext("1");
+        dispatcher.submit(context);
+        context.withFileName("File 2");
+
+        assertNotSame(context, dispatcher.getBatch().get(0));
+        assertEquals("File 1", dispatcher.getBatch().get(0).getFileName());
+        assertNull(context.getEventKey());
+    }
+
     @Test
     void submitShouldStartNewBatchAfterFlushTest() {
         dispatcher.submit(createContext("1"));
@@ -79,21 +97,32 @@ class ConstructorEventDispatcherTest {
     }
 
     @Test
-    void computeUniqueKeyShouldHandleNullStacktraceTest() {
-        ConstructorContext context = createContext("1");
-        context = context.withStackTrace(null);
-        String key = dispatcher.computeUniqueKey(context);
-        assertNotNull(key);
-        assertTrue(key.contains("File 1"));
+    void flushShouldRecordBatchLatencyWhenMetricsAreSetTest() {
+        RuntimeMetrics metrics = new RuntimeMetrics();
+        dispatcher.setMetrics(metrics);
+        dispatcher.submit(createContext("1"));
+
+        dispatcher.flush();
+        dispatcher.flush();
+
+        assertSame(metrics, dispatcher.getMetrics());
+        assertEquals(1, metrics.getBatchLatency().getCount());
     }
 
     @Test
-    void computeUniqueKeyShouldIncludeStacktraceHashTest() {
-        ConstructorContext context = createContext("1").withStackTrace(Collections.singletonList(new StackTraceElement("Class", "method", "File 1", 10)));
+    void computeUniqueKeyShouldHandleNullStacktraceTest() {
+        ConstructorContext context = createContext("1").withStackTrace(null);
+
+        assertEquals(dispatcher.computeUniqueKey(context), dispatcher.computeUniqueKey(context.copy()));
+        assertNotEquals(dispatcher.computeUniqueKey(context), dispatcher.computeUniqueKey(createContext("2")));
+    }
 
-        String key1 = dispatcher.computeUniqueKey(context);
+    @Test
+    void computeUniqueKeyShouldIncludeStacktraceTest() {
+        ConstructorContext context1 = createContext("1").withStackTrace(Collections.singletonList(new StackTraceElement("Class", "method", "File 1", 10)));
+        ConstructorContext context2 = createContext("1").withStackTrace(Collections.singletonList(new StackTraceElement("Class", "method", "File 1", 11)));
 
-        assertNotNull(key1);
+        assertNotEquals(dispatcher.computeUniqueKey(context1), dispatcher.computeUniqueKey(context2));
     }
 
     @Test
@@ -104,9 +133,413 @@ class ConstructorEventDispatcherTest {
                 .withMethodName("method")
                 .withParameters(null);
 
-        String key = dispatcher.computeUniqueKey(context);
-        assertNotNull(key);
-        assertTrue(key.contains("File"));
+        assertNotEquals(dispatcher.computeUniqueKey(context), dispatcher.computeUniqueKey(context.copy().withParameters(Collections.emptyList())));
+    }
+
+    @Test
+    void asyncSubmitShouldSendBatchFromSenderThreadTest() {
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 2, 10, QueueFullPolicy.BLOCK, 5000);
+        asyncDispatcher.submit(createContext("1"));
+        asyncDispatcher.submit(createContext("2"));
+
+        verify(sender, timeout(2000).times(1)).sendBatch(argThat(batch -> batch.size() == 2));
+        assertTrue(asyncDispatcher.isAsync());
+    }
+
+    @Test
+    void asyncSubmitShouldNotWaitForSenderTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(sender).sendBatch(any());
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 1, 100, QueueFullPolicy.BLOCK, 5000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            asyncDispatcher.submit(createContext(String.valueOf(i)));
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+
+        assertTrue(elapsedMillis < 1000, "submit should not be blocked by the sender");
+    }
+
+    @Test
+    void asyncSubmitShouldDropContextsWhenQueueIsFullTest() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await();
+            return null;
+        }).when(sender).sendBatch(any());
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 1, 1, QueueFullPolicy.DROP, 5000);
+
+        asyncDispatcher.submit(createContext("1"));
+        assertTrue(sending.await(2, TimeUnit.SECONDS));
+        asyncDispatcher.submit(createContext("2"));
+        asyncDispatcher.submit(createContext("3"));
+        release.countDown();
+
+        assertEquals(1, asyncDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    void asyncShutdownShouldDrainQueueTest() {
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 100, 100, QueueFullPolicy.BLOCK, 5000);
+        asyncDispatcher.submit(createContext("1"));
+        asyncDispatcher.submit(createContext("2"));
+
+        asyncDispatcher.shutdown();
+
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 2));
+        assertEquals(0, asyncDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    void asyncSenderShouldSurviveFailedBatchTest() {
+        doThrow(new ConstructorContextSendFailedException(new RuntimeException("down")))
+                .doNothing()
+                .when(sender).sendBatch(any());
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 1, 10, QueueFullPolicy.BLOCK, 5000);
+
+        asyncDispatcher.submit(createContext("1"));
+        asyncDispatcher.submit(createContext("2"));
+
+        verify(sender, timeout(2000).times(2)).sendBatch(any());
+        assertEquals(1, asyncDispatcher.getFailedBatchCount());
+    }
+
+    @Test
+    void asyncShutdownTimeoutShouldCountEveryContextNotSentAsDroppedTest() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 100, 10, QueueFullPolicy.BLOCK, 200) {
+            @Override
+            protected long computeUniqueKey(ConstructorContext context) {
+                if (context.getFileName().equals("File 3")) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.computeUniqueKey(context);
+            }
+        };
+        asyncDispatcher.setArena(new EventArena(1024, 4096, true));
+        ArenaEventWriter writer = asyncDispatcher.createArenaWriter();
+        writeToArena(writer, "4");
+        writeToArena(writer, "5");
+
+        asyncDispatcher.submit(createContext("1"));
+        asyncDispatcher.submit(createContext("2"));
+        asyncDispatcher.submit(createContext("3"));
+        assertTrue(blocked.await(2, TimeUnit.SECONDS));
+        asyncDispatcher.submit(createContext("6"));
+        asyncDispatcher.shutdown();
+        release.countDown();
+
+        // Contexts 1 and 2 in the batch, 6 in the queue, 4 and 5 in the segment claimed at shutdown
+        assertEquals(5, asyncDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    void shutdownShouldCloseSenderWhenLastBatchFailsTest() {
+        doThrow(new ConstructorContextSendFailedException(new RuntimeException("down")))
+                .when(sender).sendBatch(any());
+        dispatcher.submit(createContext("1"));
+
+        dispatcher.shutdown();
+
+        verify(sender).close();
+        assertEquals(1, dispatcher.getFailedBatchCount());
+    }
+
+    @Test
+    void submitAllShouldAddEveryContextToBatchTest() {
+        List<ConstructorContext> contexts = new ArrayList<>();
+        contexts.add(createContext("1"));
+        contexts.add(createContext("2"));
+        contexts.add(createContext("3"));
+
+        dispatcher.submitAll(contexts);
+
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 3));
+        assertEquals(1, dispatcher.getHandedOffBufferCount());
+        assertEquals(1, dispatcher.getSharedLockAcquisitionCount());
+    }
+
+    @Test
+    void asyncSubmitAllShouldNotTakeSharedLockTest() {
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 2, 10, QueueFullPolicy.BLOCK, 5000, 2);
+        List<ConstructorContext> contexts = new ArrayList<>();
+        contexts.add(createContext("1"));
+        contexts.add(createContext("2"));
+
+        asyncDispatcher.submitAll(contexts);
+
+        verify(sender, timeout(2000).times(1)).sendBatch(argThat(batch -> batch.size() == 2));
+        assertEquals(0, asyncDispatcher.getSharedLockAcquisitionCount());
+        assertEquals(1, asyncDispatcher.getHandedOffBufferCount());
+    }
+
+    @Test
+    void asyncSubmitAllShouldDropBufferWhenQueueIsFullTest() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await();
+            return null;
+        }).when(sender).sendBatch(any());
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 1, 1, QueueFullPolicy.DROP, 5000, 1);
+
+        asyncDispatcher.submitAll(Collections.singletonList(createContext("1")));
+        assertTrue(sending.await(2, TimeUnit.SECONDS));
+        asyncDispatcher.submitAll(Collections.singletonList(createContext("2")));
+        List<ConstructorContext> dropped = new ArrayList<>();
+        dropped.add(createContext("3"));
+        dropped.add(createContext("4"));
+        asyncDispatcher.submitAll(dropped);
+        release.countDown();
+
+        assertEquals(2, asyncDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    void createThreadBufferShouldReturnNullWhenDisabledTest() {
+        assertNull(dispatcher.createThreadBuffer());
+    }
+
+    @Test
+    void shutdownShouldSendContextsLeftInThreadBuffersTest() {
+        ConstructorEventDispatcher bufferedDispatcher = new ConstructorEventDispatcher(sender, 100, 10);
+        ThreadEventBuffer buffer = bufferedDispatcher.createThreadBuffer();
+        buffer.add(createContext("1"));
+        buffer.add(createContext("2"));
+
+        bufferedDispatcher.shutdown();
+
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 2));
+        assertEquals(0, buffer.size());
+    }
+
+    private void writeToArena(ArenaEventWriter writer, String id) {
+        ConstructorContext context = createContext(id);
+        writer.begin(-1, context.getFileName(), context.getClassName(), context.getMethodName(), context.getParameters(), null);
+        writer.commit(EventKeyHasher.hash(context));
+    }
+
+    @Test
+    void submitSegmentShouldOnlyAddUniqueEventsToBatchTest() {
+        dispatcher.setArena(new EventArena(1024, 4096, false));
+        ArenaEventWriter writer = dispatcher.createArenaWriter();
+        writeToArena(writer, "1");
+        writeToArena(writer, "1");
+        writeToArena(writer, "2");
+
+        dispatcher.submitSegment(writer.getCurrentSegment());
+
+        assertEquals(2, dispatcher.getBatch().size());
+        assertEquals("File 1", dispatcher.getBatch().get(0).getFileName());
+        assertEquals(EventKeyHasher.format(EventKeyHasher.hash(createContext("1"))), dispatcher.getBatch().get(0).getEventKey());
+        assertEquals(1, dispatcher.getDuplicateEventCount());
+    }
+
+    @Test
+    void createThreadBufferShouldReturnNullWhenArenaIsSetTest() {
+        ConstructorEventDispatcher bufferedDispatcher = new ConstructorEventDispatcher(sender, 100, 10);
+        bufferedDispatcher.setArena(new EventArena(1024, 4096, false));
+
+        assertNull(bufferedDispatcher.createThreadBuffer());
+        assertNotNull(bufferedDispatcher.createArenaWriter());
+    }
+
+    @Test
+    void shutdownShouldSendEventsLeftInArenaSegmentsTest() {
+        ConstructorEventDispatcher asyncDispatcher = new ConstructorEventDispatcher(sender, 100, 10, QueueFullPolicy.BLOCK, 5000);
+        asyncDispatcher.setArena(new EventArena(1024, 4096, true));
+        ArenaEventWriter writer = asyncDispatcher.createArenaWriter();
+        writeToArena(writer, "1");
+        writeToArena(writer, "2");
+
+        asyncDispatcher.shutdown();
+
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 2));
+        assertTrue(writer.getCurrentSegment().getCommittedPosition() > 0);
+    }
+
+    @Test
+    void concurrentSubmitsShouldBeCountedTest() throws InterruptedException {
+        ConstructorEventDispatcher countingDispatcher = new ConstructorEventDispatcher(sender, 1000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int threadId = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    countingDispatcher.submit(createContext(threadId + "-" + i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400, countingDispatcher.getSharedLockAcquisitionCount());
+        assertTrue(countingDispatcher.getContendedLockAcquisitionCount() <= 400);
+    }
+
+    @Test
+    void submitShouldNotResendContextAfterFlushTest() {
+        dispatcher.submit(createContext("1"));
+        dispatcher.flush();
+        dispatcher.submit(createContext("1"));
+        dispatcher.submit(createContext("1"));
+
+        assertTrue(dispatcher.getBatch().isEmpty());
+        verify(sender, times(1)).sendBatch(any());
+        assertEquals(1, dispatcher.getUniqueEventCount());
+        assertEquals(2, dispatcher.getDuplicateEventCount());
+    }
+
+    @Test
+    void flushShouldSendOccurrenceCountsOfDuplicatesTest() {
+        dispatcher.submit(createContext("1"));
+        dispatcher.submit(createContext("1"));
+        dispatcher.flush();
+        dispatcher.submit(createContext("1"));
+        dispatcher.flush();
+
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 1 && batch.get(0).getEventKey() != null));
+        verify(sender).sendOccurrences(argThat(occurrences -> occurrences.size() == 1 && occurrences.containsValue(2L)));
+        verify(sender).sendOccurrences(argThat(occurrences -> occurrences.size() == 1 && occurrences.containsValue(3L)));
+    }
+
+    @Test
+    void flushShouldNotSendOccurrencesWithoutDuplicatesTest() {
+        dispatcher.submit(createContext("1"));
+        dispatcher.flush();
+
+        verify(sender, never()).sendOccurrences(any());
+    }
+
+    @Test
+    void submitShouldNotSendEventSentByDispatcherSharingKeysTest(@TempDir Path tempDir) throws Exception {
+        File file = tempDir.resolve("keys").toFile();
+        ConstructorContextSender otherSender = mock(ConstructorContextSender.class);
+        ConstructorEventDispatcher other = new ConstructorEventDispatcher(otherSender, 3);
+        dispatcher.setSharedEventKeys(new SharedEventKeySet(file, 100));
+        other.setSharedEventKeys(new SharedEventKeySet(file, 100));
+
+        dispatcher.submit(createContext("1"));
+        other.submit(createContext("1"));
+        other.submit(createContext("1"));
+        other.submit(createContext("2"));
+        other.flush();
+
+        assertEquals(1, dispatcher.getBatch().size());
+        verify(otherSender).sendBatch(argThat(batch -> batch.size() == 1 && batch.get(0).getFileName().equals("File 2")));
+        verify(otherSender).sendOccurrences(argThat(occurrences -> occurrences.size() == 1 && occurrences.containsValue(2L)));
+        assertEquals(1, other.getSharedDuplicateEventCount());
+    }
+
+    @Test
+    void flushShouldResendEventsOfFailedBatchOnNextOccurrenceTest() {
+        doThrow(new ConstructorContextSendFailedException(new RuntimeException("down")))
+                .doNothing()
+                .when(sender).sendBatch(any());
+        dispatcher.submit(createContext("1"));
+
+        assertThrows(ConstructorContextSendFailedException.class, () -> dispatcher.flush());
+        dispatcher.submit(createContext("1"));
+        dispatcher.flush();
+
+        verify(sender, times(2)).sendBatch(argThat(batch -> batch.size() == 1 && batch.get(0).getFileName().equals("File 1")));
+        verify(sender).sendOccurrences(argThat(occurrences -> occurrences.containsValue(2L)));
+        assertEquals(1, dispatcher.getUniqueEventCount());
+    }
+
+    @Test
+    void flushShouldLetOtherDispatcherSendEventsOfFailedBatchTest(@TempDir Path tempDir) throws Exception {
+        File file = tempDir.resolve("keys").toFile();
+        ConstructorContextSender otherSender = mock(ConstructorContextSender.class);
+        ConstructorEventDispatcher other = new ConstructorEventDispatcher(otherSender, 3);
+        dispatcher.setSharedEventKeys(new SharedEventKeySet(file, 100));
+        other.setSharedEventKeys(new SharedEventKeySet(file, 100));
+        doThrow(new ConstructorContextSendFailedException(new RuntimeException("down")))
+                .when(sender).sendBatch(any());
+
+        dispatcher.submit(createContext("1"));
+        assertThrows(ConstructorContextSendFailedException.class, () -> dispatcher.flush());
+        other.submit(createContext("1"));
+
+        assertEquals(1, other.getBatch().size());
+        assertEquals(0, other.getSharedDuplicateEventCount());
+    }
+
+    @Test
+    void flushShouldSendOccurrenceCountsAgainAfterFailureTest() {
+        doThrow(new ConstructorContextSendFailedException(new RuntimeException("down")))
+                .doNothing()
+                .when(sender).sendOccurrences(any());
+        dispatcher.submit(createContext("1"));
+        dispatcher.submit(createContext("1"));
+
+        assertThrows(ConstructorContextSendFailedException.class, () -> dispatcher.flush());
+        dispatcher.flush();
+
+        verify(sender, times(2)).sendOccurrences(argThat(occurrences -> occurrences.size() == 1 && occurrences.containsValue(2L)));
+    }
+
+    @Test
+    void flushShouldResendEventsOfFailedBackgroundBatchOnNextOccurrenceTest() throws Exception {
+        SimpleHttpClient httpClient = mock(SimpleHttpClient.class);
+        when(httpClient.post(eq("http://fake.api/batch"), any(RequestBody.class)))
+                .thenReturn(new SimpleHttpResponse(503, ""))
+                .thenReturn(new SimpleHttpResponse(200, ""));
+        when(httpClient.post(eq("http://fake.api/occurrences"), anyString())).thenReturn(new SimpleHttpResponse(200, ""));
+        HttpConstructorContextSender httpSender = new HttpConstructorContextSender(
+                new HttpClientService(httpClient, 0, 0, 2), "http://fake.api", new ConstructorContextSerializer());
+        ConstructorEventDispatcher backgroundDispatcher = new ConstructorEventDispatcher(httpSender, 10);
+
+        backgroundDispatcher.submit(createContext("1"));
+        backgroundDispatcher.flush();
+        httpSender.awaitBatches();
+        backgroundDispatcher.submit(createContext("1"));
+        backgroundDispatcher.flush();
+        httpSender.awaitBatches();
+
+        verify(httpClient, times(2)).post(eq("http://fake.api/batch"), any(RequestBody.class));
+        verify(httpClient).post(eq("http://fake.api/occurrences"), contains(":2"));
+        assertEquals(1, backgroundDispatcher.getFailedBatchCount());
+    }
+
+    @Test
+    void flushShouldNotSendOccurrencesOfFailedBackgroundBatchTest() {
+        BackgroundBatchSender sender = mock(BackgroundBatchSender.class);
+        ConstructorEventDispatcher dispatcher = new ConstructorEventDispatcher(sender, 3);
+        BatchCallback[] callbacks = new BatchCallback[1];
+        doAnswer(invocation -> {
+            callbacks[0] = invocation.getArgument(1);
+            return null;
+        }).when(sender).sendBatch(any(), any(BatchCallback.class));
+        doAnswer(invocation -> {
+            callbacks[0].onFailed(new ConstructorContextSendFailedException(new RuntimeException("down")));
+            return null;
+        }).when(sender).awaitBatches();
+        dispatcher.submit(createContext("1"));
+        dispatcher.submit(createContext("1"));
+
+        dispatcher.flush();
+
+        verify(sender, never()).sendOccurrences(any());
+        assertEquals(1, dispatcher.getFailedBatchCount());
+        dispatcher.submit(createContext("1"));
+        assertEquals(1, dispatcher.getBatch().size());
     }
 
     @Test
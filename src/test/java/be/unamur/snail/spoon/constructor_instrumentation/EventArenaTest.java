@@ -0,0 +1,73 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventArenaTest {
+
+    @Test
+    void acquireShouldAllocateSegmentsUpToMaxSizeTest() {
+        EventArena arena = new EventArena(64, 128, false);
+
+        assertNotNull(arena.acquire(16));
+        assertNotNull(arena.acquire(16));
+        assertNull(arena.acquire(16));
+        assertEquals(2, arena.getAllocatedSegmentCount());
+    }
+
+    @Test
+    void acquireShouldReuseRecycledSegmentTest() {
+        EventArena arena = new EventArena(64, 64, false);
+        ArenaSegment segment = arena.acquire(16);
+        segment.commit(20);
+        segment.claim(true);
+
+        arena.recycle(segment);
+
+        ArenaSegment reused = arena.acquire(16);
+        assertSame(segment, reused);
+        assertEquals(0, reused.getCommittedPosition());
+    }
+
+    @Test
+    void recycleShouldIgnoreSegmentClaimedAtShutdownTest() {
+        EventArena arena = new EventArena(64, 64, false);
+        ArenaSegment segment = arena.acquire(16);
+        segment.claim(false);
+
+        arena.recycle(segment);
+
+        assertNull(arena.acquire(16));
+    }
+
+    @Test
+    void acquireShouldGiveOversizedSegmentOutsideOfPoolTest() {
+        EventArena arena = new EventArena(64, 64, false);
+
+        ArenaSegment segment = arena.acquire(200);
+
+        assertEquals(200, segment.capacity());
+        assertEquals(0, arena.getAllocatedSegmentCount());
+    }
+
+    @Test
+    void claimWriterSegmentsShouldReturnSegmentsHoldingEventsTest() {
+        EventArena arena = new EventArena(256, 1024, false);
+        ConstructorEventDispatcher dispatcher = mock(ConstructorEventDispatcher.class);
+        ArenaEventWriter writer = arena.createWriter(dispatcher);
+        ArenaEventWriter idleWriter = arena.createWriter(dispatcher);
+        writer.begin(-1, "A.java", "A", "A", List.of(), null);
+        writer.commit(1L);
+
+        List<ArenaSegment> segments = arena.claimWriterSegments();
+
+        assertEquals(List.of(writer.getCurrentSegment()), segments);
+        assertNull(idleWriter.getCurrentSegment());
+        assertTrue(arena.isClosed());
+        assertFalse(writer.getCurrentSegment().claim(true));
+    }
+}
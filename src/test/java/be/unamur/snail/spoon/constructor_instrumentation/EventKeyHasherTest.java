@@ -0,0 +1,57 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventKeyHasherTest {
+
+    private ConstructorContext createContext(String fileName, String className) {
+        return new ConstructorContext()
+                .withFileName(fileName)
+                .withClassName(className)
+                .withMethodName("method")
+                .withParameters(Collections.singletonList("java.lang.String"))
+                .withStackTrace(Collections.singletonList(new StackTraceElement("Test", "test", "Test.java", 12)));
+    }
+
+    @Test
+    void hashShouldBeSameForEqualContextsTest() {
+        assertEquals(EventKeyHasher.hash(createContext("File.java", "Class")), EventKeyHasher.hash(createContext("File.java", "Class")));
+    }
+
+    @Test
+    void hashShouldSeparateFieldsTest() {
+        assertNotEquals(EventKeyHasher.hash(createContext("ab", "c")), EventKeyHasher.hash(createContext("a", "bc")));
+    }
+
+    @Test
+    void hashShouldDependOnParametersOrderTest() {
+        ConstructorContext context1 = createContext("File.java", "Class").withParameters(Arrays.asList("int", "long"));
+        ConstructorContext context2 = createContext("File.java", "Class").withParameters(Arrays.asList("long", "int"));
+
+        assertNotEquals(EventKeyHasher.hash(context1), EventKeyHasher.hash(context2));
+    }
+
+    @Test
+    void hashShouldNotCollideOnManyLineNumbersTest() {
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            ConstructorContext context = createContext("File.java", "Class")
+                    .withStackTrace(Collections.singletonList(new StackTraceElement("Test", "test", "Test.java", i)));
+            keys.add(EventKeyHasher.hash(context));
+        }
+        assertEquals(100_000, keys.size());
+    }
+
+    @Test
+    void formatShouldPadToSixteenCharactersTest() {
+        assertEquals("000000000000002a", EventKeyHasher.format(42L));
+        assertEquals("ffffffffffffffff", EventKeyHasher.format(-1L));
+    }
+}
@@ -0,0 +1,108 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventOccurrenceRegistryTest {
+
+    @Test
+    void recordShouldReturnTrueOnlyForFirstOccurrenceTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(10, 100);
+
+        assertTrue(registry.record(1L));
+        assertFalse(registry.record(1L));
+        assertTrue(registry.record(2L));
+        assertEquals(2, registry.getUniqueEventCount());
+        assertEquals(1, registry.getDuplicateEventCount());
+    }
+
+    @Test
+    void drainPendingUpdatesShouldReturnTotalOccurrencesTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(10, 100);
+        registry.record(1L);
+        registry.record(1L);
+        registry.record(1L);
+        registry.record(2L);
+
+        Map<String, Long> updates = registry.drainPendingUpdates();
+
+        assertEquals(1, updates.size());
+        assertEquals(3L, updates.get(EventKeyHasher.format(1L)));
+        assertFalse(registry.hasPendingUpdates());
+    }
+
+    @Test
+    void drainPendingUpdatesShouldOnlyReturnChangedCountsTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(10, 100);
+        registry.record(1L);
+        registry.record(1L);
+        registry.record(2L);
+        registry.drainPendingUpdates();
+        registry.record(2L);
+
+        Map<String, Long> updates = registry.drainPendingUpdates();
+
+        assertEquals(1, updates.size());
+        assertEquals(2L, updates.get(EventKeyHasher.format(2L)));
+    }
+
+    @Test
+    void recordShouldFallBackOnBloomFilterWhenFullTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(1, 100);
+        registry.record(1L);
+
+        assertTrue(registry.record(2L));
+        assertFalse(registry.record(2L));
+        assertTrue(registry.isOverflowing());
+        assertEquals(1, registry.getTrackedKeyCount());
+        assertEquals(1, registry.getUntrackedDuplicateEventCount());
+        assertFalse(registry.hasPendingUpdates());
+    }
+
+    @Test
+    void recordShouldKeepCountingTrackedKeysWhenFullTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(1, 100);
+        registry.record(1L);
+        registry.record(2L);
+
+        assertFalse(registry.record(1L));
+        assertEquals(2L, registry.drainPendingUpdates().get(EventKeyHasher.format(1L)));
+    }
+
+    @Test
+    void markUpdatedShouldReportFirstOccurrenceTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(10, 100);
+        registry.record(1L);
+        registry.markUpdated(1L);
+        registry.markUpdated(2L);
+
+        assertEquals(Map.of(EventKeyHasher.format(1L), 1L), registry.drainPendingUpdates());
+    }
+
+    @Test
+    void forgetShouldMakeNextOccurrenceSentAgainTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(10, 100);
+        registry.record(1L);
+        registry.drainPendingUpdates();
+
+        assertTrue(registry.forget(1L));
+        assertTrue(registry.record(1L));
+        assertFalse(registry.record(1L));
+        assertEquals(1, registry.getUniqueEventCount());
+        assertEquals(3L, registry.drainPendingUpdates().get(EventKeyHasher.format(1L)));
+    }
+
+    @Test
+    void forgetShouldFailForKeysOnlyInBloomFilterTest() {
+        EventOccurrenceRegistry registry = new EventOccurrenceRegistry(1, 100);
+        registry.record(1L);
+        registry.record(2L);
+
+        assertFalse(registry.forget(2L));
+        assertFalse(registry.forget(3L));
+        assertFalse(registry.record(2L));
+    }
+}
@@ -3,7 +3,11 @@ package be.unamur.snail.spoon.constructor_instrumentation;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.util.InvalidPropertiesFormatException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -51,4 +55,120 @@ class HttpClientServiceTest {
     void postThrowsExceptionIfPayloadIsNullTest() {
         assertThrows(InvalidPropertiesFormatException.class, () -> service.post("http://fake.api", null));
     }
-}
\ No newline at end of file
+
+    @Test
+    void postRetriesTransientStatusTest() throws Exception {
+        service = new HttpClientService(httpClient, 3, 0, 1);
+        when(httpClient.post(anyString(), anyString()))
+                .thenReturn(new SimpleHttpResponse(503, ""))
+                .thenReturn(new SimpleHttpResponse(429, ""))
+                .thenReturn(new SimpleHttpResponse(200, "OK"));
+
+        assertEquals("OK", service.post("http://fake.api", "{}"));
+        verify(httpClient, times(3)).post(anyString(), anyString());
+        assertEquals(2, service.getRetriedRequestCount());
+    }
+
+    @Test
+    void postReturnsLastTransientStatusOnceRetriesAreExhaustedTest() throws Exception {
+        service = new HttpClientService(httpClient, 2, 0, 1);
+        when(httpClient.post(anyString(), anyString())).thenReturn(new SimpleHttpResponse(502, ""));
+
+        assertThrows(HttpErrorException.class, () -> service.post("http://fake.api", "{}"));
+        verify(httpClient, times(3)).post(anyString(), anyString());
+    }
+
+    @Test
+    void postRetriesIOExceptionTest() throws Exception {
+        service = new HttpClientService(httpClient, 1, 0, 1);
+        when(httpClient.post(anyString(), anyString())).thenThrow(new IOException("reset")).thenReturn(new SimpleHttpResponse(200, "OK"));
+
+        assertEquals("OK", service.post("http://fake.api", "{}"));
+    }
+
+    @Test
+    void postThrowsIOExceptionOnceRetriesAreExhaustedTest() throws Exception {
+        service = new HttpClientService(httpClient, 1, 0, 1);
+        when(httpClient.post(anyString(), anyString())).thenThrow(new IOException("refused"));
+
+        assertThrows(IOException.class, () -> service.post("http://fake.api", "{}"));
+        verify(httpClient, times(2)).post(anyString(), anyString());
+    }
+
+    @Test
+    void postDoesNotRetryClientErrorsTest() throws Exception {
+        service = new HttpClientService(httpClient, 3, 0, 1);
+        when(httpClient.post(anyString(), anyString())).thenReturn(new SimpleHttpResponse(400, ""));
+
+        assertThrows(HttpErrorException.class, () -> service.post("http://fake.api", "{}"));
+        verify(httpClient, times(1)).post(anyString(), anyString());
+    }
+
+    @Test
+    void postRequestBodyUsesStreamingClientTest() throws Exception {
+        RequestBody body = RequestBody.ofString("{}");
+        when(httpClient.post("http://fake.api", body)).thenReturn(new SimpleHttpResponse(200, "OK"));
+
+        assertEquals("OK", service.postBody("http://fake.api", body));
+    }
+
+    @Test
+    void postAsyncPostsInCallingThreadWithOneRequestInFlightTest() throws Exception {
+        RequestBody body = RequestBody.ofString("{}");
+        when(httpClient.post("http://fake.api", body)).thenReturn(new SimpleHttpResponse(500, ""));
+
+        HttpClientService.Callback callback = mock(HttpClientService.Callback.class);
+
+        assertThrows(HttpErrorException.class, () -> service.postAsync("http://fake.api", body, callback));
+        verifyNoInteractions(callback);
+    }
+
+    @Test
+    void postAsyncKeepsSeveralRequestsInFlightTest() throws Exception {
+        service = new HttpClientService(httpClient, 0, 0, 3);
+        CountDownLatch allInFlight = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        when(httpClient.post(anyString(), any(RequestBody.class))).thenAnswer(invocation -> {
+            allInFlight.countDown();
+            release.await();
+            return new SimpleHttpResponse(200, "OK");
+        });
+        HttpClientService.Callback callback = new HttpClientService.Callback() {
+            @Override
+            public void completed() {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                fail(e);
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            service.postAsync("http://fake.api", RequestBody.ofString("{}"), callback);
+        }
+
+        assertTrue(allInFlight.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        service.awaitInFlight();
+        assertEquals(3, completed.get());
+        service.close();
+    }
+
+    @Test
+    void postAsyncCountsFailuresAndGivesThemToCallbackTest() throws Exception {
+        service = new HttpClientService(httpClient, 0, 0, 2);
+        when(httpClient.post(anyString(), any(RequestBody.class))).thenReturn(new SimpleHttpResponse(500, ""));
+        HttpClientService.Callback callback = mock(HttpClientService.Callback.class);
+
+        service.postAsync("http://fake.api", out -> out.write('x'), callback);
+        service.awaitInFlight();
+
+        assertEquals(1, service.getFailedAsyncRequestCount());
+        verify(callback).failed(any(HttpErrorException.class));
+        verify(callback, never()).completed();
+        service.close();
+    }
+}
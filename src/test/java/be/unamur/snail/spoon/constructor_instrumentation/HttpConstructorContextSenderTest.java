@@ -2,8 +2,15 @@ package be.unamur.snail.spoon.constructor_instrumentation;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -39,4 +46,124 @@ class HttpConstructorContextSenderTest {
         assertDoesNotThrow(() -> sender.send(context));
         verify(client, times(1)).post(eq("http://fake.api"), contains("TestClass"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void sendOccurrencesPostsToOccurrencesEndpointTest() throws IOException, InterruptedException {
+        Map<String, Long> occurrences = Collections.singletonMap("key", 3L);
+        when(serializer.serializeOccurrences(occurrences)).thenReturn("[{\"eventKey\":\"key\",\"occurrences\":3}]");
+
+        sender.sendOccurrences(occurrences);
+
+        verify(client, times(1)).post(eq("http://fake.api/occurrences"), contains("\"occurrences\":3"));
+    }
+
+    @Test
+    void sendOccurrencesDoesNothingWhenEmptyTest() throws IOException, InterruptedException {
+        sender.sendOccurrences(Collections.emptyMap());
+        verify(client, never()).post(anyString(), anyString());
+    }
+
+    @Test
+    void sendBatchWithInternedStackTracesPostsToInternedEndpointTest() throws IOException, InterruptedException {
+        HttpConstructorContextSender internedSender = new HttpConstructorContextSender(client, "http://fake.api", new ConstructorContextSerializer(), true);
+        context.withStackTrace(List.of(new StackTraceElement("com.example.A", "a", "A.java", 1)));
+
+        internedSender.sendBatch(List.of(context));
+        internedSender.sendBatch(List.of(context));
+
+        ArgumentCaptor<RequestBody> bodies = ArgumentCaptor.forClass(RequestBody.class);
+        verify(client, times(2)).postBody(eq("http://fake.api/batch/interned"), bodies.capture());
+        assertTrue(render(bodies.getAllValues().get(0)).contains("\"traces\":[{\"id\":0,\"frames\":[0]}]"));
+        assertTrue(render(bodies.getAllValues().get(1)).contains("\"frames\":[],\"traces\":[]"));
+    }
+
+    @Test
+    void sendBatchWithInternedStackTracesResendsDictionaryAfterFailureTest() throws IOException, InterruptedException {
+        HttpConstructorContextSender internedSender = new HttpConstructorContextSender(client, "http://fake.api", new ConstructorContextSerializer(), true);
+        context.withStackTrace(List.of(new StackTraceElement("com.example.A", "a", "A.java", 1)));
+        when(client.postBody(anyString(), any(RequestBody.class))).thenThrow(new IOException("down")).thenReturn("ok");
+
+        assertThrows(ConstructorContextSendFailedException.class, () -> internedSender.sendBatch(List.of(context)));
+        internedSender.sendBatch(List.of(context));
+
+        ArgumentCaptor<RequestBody> bodies = ArgumentCaptor.forClass(RequestBody.class);
+        verify(client, times(2)).postBody(eq("http://fake.api/batch/interned"), bodies.capture());
+        for (RequestBody body : bodies.getAllValues()) {
+            assertTrue(render(body).contains("\"traces\":[{\"id\":0,\"frames\":[0]}]"));
+        }
+    }
+
+    @Test
+    void sendBatchStreamsTheBatchIntoTheRequestBodyTest() throws IOException, InterruptedException {
+        HttpConstructorContextSender streamingSender = new HttpConstructorContextSender(client, "http://fake.api", new ConstructorContextSerializer());
+
+        streamingSender.sendBatch(List.of(context));
+
+        ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+        verify(client).postBody(eq("http://fake.api/batch"), body.capture());
+        assertEquals(new ConstructorContextSerializer().serializeList(List.of(context)), render(body.getValue()));
+    }
+
+    @Test
+    void sendBatchInBinaryFormatPostsBinaryBodyTest() throws IOException, InterruptedException {
+        HttpConstructorContextSender binarySender = new HttpConstructorContextSender(client, "http://fake.api", serializer, true, new BinaryBatchEncoder());
+
+        binarySender.sendBatch(List.of(context));
+
+        ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+        verify(client).postBody(eq("http://fake.api/batch"), body.capture());
+        assertEquals(BinaryBatchFormat.CONTENT_TYPE, body.getValue().getContentType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.getValue().writeTo(out);
+        assertEquals(BinaryBatchFormat.MAGIC, ByteBuffer.wrap(out.toByteArray()).getInt());
+        verifyNoInteractions(serializer);
+    }
+
+    @Test
+    void sendBatchPostsInBackgroundWhenSeveralRequestsCanBeInFlightTest() throws IOException, InterruptedException {
+        when(client.getMaxInFlight()).thenReturn(4);
+        BatchCallback callback = mock(BatchCallback.class);
+        ArgumentCaptor<HttpClientService.Callback> posted = ArgumentCaptor.forClass(HttpClientService.Callback.class);
+
+        sender.sendBatch(List.of(context), callback);
+
+        verify(client).postAsync(eq("http://fake.api/batch"), any(RequestBody.class), posted.capture());
+        verify(client, never()).postBody(anyString(), any(RequestBody.class));
+        verifyNoInteractions(callback);
+        posted.getValue().failed(new IOException("down"));
+        verify(callback).onFailed(any(ConstructorContextSendFailedException.class));
+    }
+
+    @Test
+    void sendBatchWithoutCallbackWaitsForBatchTest() throws IOException, InterruptedException {
+        when(client.getMaxInFlight()).thenReturn(4);
+        when(client.postBody(anyString(), any(RequestBody.class))).thenThrow(new IOException("down"));
+
+        assertThrows(ConstructorContextSendFailedException.class, () -> sender.sendBatch(List.of(context)));
+        verify(client, never()).postAsync(anyString(), any(RequestBody.class), any(HttpClientService.Callback.class));
+    }
+
+    @Test
+    void sendOccurrencesWaitsForBatchesInFlightTest() throws IOException, InterruptedException {
+        Map<String, Long> occurrences = Map.of("key", 3L);
+        when(serializer.serializeOccurrences(occurrences)).thenReturn("[]");
+
+        sender.sendOccurrences(occurrences);
+
+        var inOrder = inOrder(client);
+        inOrder.verify(client).awaitInFlight();
+        inOrder.verify(client).post("http://fake.api/occurrences", "[]");
+    }
+
+    @Test
+    void closeClosesTheClientTest() throws InterruptedException {
+        sender.close();
+        verify(client).close();
+    }
+
+    private static String render(RequestBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Java8HttpClientTest {
+    private HttpServer server;
+    private String url;
+    private final List<String> receivedBodies = new CopyOnWriteArrayList<>();
+    private final List<String> receivedEncodings = new CopyOnWriteArrayList<>();
+    private final List<String> receivedContentTypes = new CopyOnWriteArrayList<>();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/batch", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            receivedEncodings.add(String.valueOf(encoding));
+            receivedContentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+            InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            receivedBodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            byte[] response = "stored".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(201, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.createContext("/gzipped", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write("line1\nline2".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(compressed.toByteArray());
+            }
+        });
+        server.createContext("/error", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] response = "unavailable".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(503, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void postSendsBodyAndReturnsResponseTest() throws Exception {
+        SimpleHttpResponse response = new Java8HttpClient(false, 1000, 1000).post(url + "/batch", "[{\"a\":1}]");
+
+        assertEquals(201, response.statusCode());
+        assertEquals("stored", response.body());
+        assertEquals(List.of("[{\"a\":1}]"), receivedBodies);
+        assertEquals(List.of("null"), receivedEncodings);
+    }
+
+    @Test
+    void postSendsContentTypeOfBodyTest() throws Exception {
+        RequestBody binary = new RequestBody() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(new byte[]{1, 2, 3});
+            }
+
+            @Override
+            public String getContentType() {
+                return BinaryBatchFormat.CONTENT_TYPE;
+            }
+        };
+        Java8HttpClient client = new Java8HttpClient(false, 1000, 1000);
+        client.post(url + "/batch", "[]");
+        client.post(url + "/batch", binary);
+
+        assertEquals(List.of("application/json", BinaryBatchFormat.CONTENT_TYPE), receivedContentTypes);
+    }
+
+    @Test
+    void postCompressesBodyWithGzipTest() throws Exception {
+        new Java8HttpClient(true, 1000, 1000).post(url + "/batch", RequestBody.ofString("compressed body"));
+
+        assertEquals(List.of("compressed body"), receivedBodies);
+        assertEquals(List.of("gzip"), receivedEncodings);
+    }
+
+    @Test
+    void postStreamsBodyWrittenSeveralTimesTest() throws Exception {
+        RequestBody body = out -> {
+            for (int i = 0; i < 1000; i++) {
+                out.write(("chunk" + i + ",").getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        Java8HttpClient client = new Java8HttpClient(false, 1000, 1000);
+        client.post(url + "/batch", body);
+        client.post(url + "/batch", body);
+
+        assertEquals(2, receivedBodies.size());
+        assertEquals(receivedBodies.get(0), receivedBodies.get(1));
+        assertTrue(receivedBodies.get(0).endsWith("chunk999,"));
+    }
+
+    @Test
+    void postKeepsTheConnectionAliveTest() throws Exception {
+        Java8HttpClient client = new Java8HttpClient(false, 1000, 1000);
+        for (int i = 0; i < 5; i++) {
+            client.post(url + "/batch", "[]");
+        }
+        // An error response is drained too, so the connection can still be reused
+        client.post(url + "/error", "[]");
+        client.post(url + "/batch", "[]");
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    void postReadsErrorBodyTest() throws Exception {
+        SimpleHttpResponse response = new Java8HttpClient(false, 1000, 1000).post(url + "/error", "[]");
+
+        assertEquals(503, response.statusCode());
+        assertEquals("unavailable", response.body());
+    }
+
+    @Test
+    void postDecompressesGzipResponseAndKeepsLinesTest() throws Exception {
+        SimpleHttpResponse response = new Java8HttpClient(false, 1000, 1000).post(url + "/gzipped", "[]");
+
+        assertEquals("line1\nline2", response.body());
+    }
+}
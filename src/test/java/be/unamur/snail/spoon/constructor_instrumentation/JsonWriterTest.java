@@ -0,0 +1,84 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonWriterTest {
+    private JsonWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        writer = new JsonWriter().reset(null);
+    }
+
+    @Test
+    void stringWithoutSpecialCharactersIsWrittenAsIsTest() throws IOException {
+        writer.string("be.unamur.snail.Main$Inner");
+        assertEquals("\"be.unamur.snail.Main$Inner\"", writer.toString());
+    }
+
+    @Test
+    void nullStringIsWrittenAsNullTest() throws IOException {
+        writer.string(null);
+        assertEquals("null", writer.toString());
+    }
+
+    @Test
+    void stringEscapesQuotesBackslashesAndControlCharactersTest() throws IOException {
+        writer.string("a\"b\\c\nd\re\tf\bg\fh\u0001");
+        assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\\bg\\fh\\u0001\"", writer.toString());
+    }
+
+    @Test
+    void stringEncodesNonAsciiCharactersInUtf8Test() throws IOException {
+        writer.string("café 中 😀");
+        assertEquals("\"café 中 😀\"", writer.toString());
+    }
+
+    @Test
+    void stringWritesDeleteAsSingleByteTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.reset(out).string("a\u007fb").raw(',').string("\u007f\u0080").flush();
+
+        assertArrayEquals(new byte[]{'"', 'a', 0x7f, 'b', '"', ',', '"', 0x7f, (byte) 0xc2, (byte) 0x80, '"'}, out.toByteArray());
+    }
+
+    @Test
+    void stringReplacesLoneSurrogatesTest() throws IOException {
+        writer.string("a\uD83Db");
+        assertEquals("\"a?b\"", writer.toString());
+    }
+
+    @Test
+    void numberWritesEveryLongTest() throws IOException {
+        writer.number(0).raw(',').number(-42).raw(',').number(Long.MAX_VALUE).raw(',').number(Long.MIN_VALUE);
+        assertEquals("0,-42,9223372036854775807,-9223372036854775808", writer.toString());
+    }
+
+    @Test
+    void streamingModeWritesStringsLargerThanTheBufferTest() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            builder.append(i % 10 == 0 ? 'é' : 'a');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.reset(out).raw('[').string(builder.toString()).raw(']').flush();
+
+        assertEquals("[\"" + builder + "\"]", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void resetStartsANewDocumentTest() throws IOException {
+        writer.raw("first");
+        writer.reset(null).raw("second");
+        assertEquals("second", writer.toString());
+    }
+}
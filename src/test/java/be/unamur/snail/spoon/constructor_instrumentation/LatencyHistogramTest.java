@@ -0,0 +1,58 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketOfShouldReturnPowerOfTwoBucketTest() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(1));
+        assertEquals(1, LatencyHistogram.bucketOf(2));
+        assertEquals(1, LatencyHistogram.bucketOf(3));
+        assertEquals(10, LatencyHistogram.bucketOf(1024));
+        assertEquals(61, LatencyHistogram.bucketOf((1L << 62) - 1));
+        assertEquals(62, LatencyHistogram.bucketOf(1L << 62));
+        assertEquals(62, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void recordShouldUpdateCountTotalAndMaxTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(3000);
+        histogram.record(50);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(3150, histogram.getTotalNanos());
+        assertEquals(3000, histogram.getMaxNanos());
+    }
+
+    @Test
+    void writeToShouldWriteTrimmedBucketsTest() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(6);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter().reset(out);
+
+        histogram.writeTo(writer);
+        writer.flush();
+
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(3, json.get("count").asLong());
+        assertEquals(12, json.get("totalNanos").asLong());
+        assertEquals(6, json.get("maxNanos").asLong());
+        assertEquals(3, json.get("buckets").size());
+        assertEquals(1, json.get("buckets").get(0).asLong());
+        assertEquals(0, json.get("buckets").get(1).asLong());
+        assertEquals(2, json.get("buckets").get(2).asLong());
+    }
+}
@@ -0,0 +1,43 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongBloomFilterTest {
+
+    @Test
+    void putShouldReturnFalseForNewKeyTest() {
+        LongBloomFilter filter = new LongBloomFilter(100, 0.01);
+
+        assertFalse(filter.put(42L));
+        assertTrue(filter.put(42L));
+        assertTrue(filter.mightContain(42L));
+    }
+
+    @Test
+    void mightContainShouldNeverMissAddedKeysTest() {
+        LongBloomFilter filter = new LongBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.put(i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+    }
+
+    @Test
+    void falsePositiveRateShouldStayCloseToExpectedTest() {
+        LongBloomFilter filter = new LongBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.put(i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(1_000_000L + i)) falsePositives++;
+        }
+        assertTrue(falsePositives < 500, "too many false positives: " + falsePositives);
+    }
+}
@@ -0,0 +1,66 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongCounterMapTest {
+
+    @Test
+    void incrementShouldReturnZeroForMissingKeyTest() {
+        LongCounterMap map = new LongCounterMap(16);
+
+        assertEquals(0, map.increment(1L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void incrementShouldIncreaseExistingCounterTest() {
+        LongCounterMap map = new LongCounterMap(16);
+        map.put(1L, 1);
+
+        assertEquals(2, map.increment(1L));
+        assertEquals(3, map.increment(1L));
+        assertEquals(3, map.get(1L));
+    }
+
+    @Test
+    void mapShouldHandleZeroKeyTest() {
+        LongCounterMap map = new LongCounterMap(16);
+        map.put(0L, 1);
+
+        assertEquals(2, map.increment(0L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void mapShouldGrowAndKeepEveryCounterTest() {
+        LongCounterMap map = new LongCounterMap(4);
+        for (long i = 1; i <= 10_000; i++) {
+            map.put(i, i);
+        }
+
+        assertEquals(10_000, map.size());
+        for (long i = 1; i <= 10_000; i++) {
+            assertEquals(i, map.get(i));
+        }
+    }
+
+    @Test
+    void removeShouldKeepOtherKeysReachableTest() {
+        LongCounterMap map = new LongCounterMap(4);
+        for (long i = 0; i <= 1_000; i++) {
+            map.put(i, i + 1);
+        }
+
+        for (long i = 0; i <= 1_000; i += 2) {
+            assertEquals(i + 1, map.remove(i));
+        }
+
+        assertEquals(500, map.size());
+        assertEquals(0, map.remove(2L));
+        for (long i = 0; i <= 1_000; i++) {
+            assertEquals(i % 2 == 0 ? 0 : i + 1, map.get(i));
+        }
+    }
+}
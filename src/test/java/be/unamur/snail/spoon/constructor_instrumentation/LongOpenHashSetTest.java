@@ -0,0 +1,69 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongOpenHashSetTest {
+
+    @Test
+    void addShouldReturnFalseForExistingKeyTest() {
+        LongOpenHashSet set = new LongOpenHashSet();
+
+        assertTrue(set.add(5L));
+        assertFalse(set.add(5L));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void addShouldHandleZeroKeyTest() {
+        LongOpenHashSet set = new LongOpenHashSet();
+
+        assertFalse(set.contains(0L));
+        assertTrue(set.add(0L));
+        assertFalse(set.add(0L));
+        assertTrue(set.contains(0L));
+        assertArrayEquals(new long[]{0L}, set.toArray());
+    }
+
+    @Test
+    void setShouldGrowAndKeepEveryKeyTest() {
+        LongOpenHashSet set = new LongOpenHashSet(4);
+        for (long i = 1; i <= 10_000; i++) {
+            set.add(i * 31);
+        }
+
+        assertEquals(10_000, set.size());
+        for (long i = 1; i <= 10_000; i++) {
+            assertTrue(set.contains(i * 31));
+        }
+        assertFalse(set.contains(7L));
+    }
+
+    @Test
+    void clearShouldRemoveEveryKeyTest() {
+        LongOpenHashSet set = new LongOpenHashSet();
+        set.add(1L);
+        set.add(0L);
+
+        set.clear();
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(1L));
+        assertFalse(set.contains(0L));
+    }
+
+    @Test
+    void toArrayShouldReturnEveryKeyTest() {
+        LongOpenHashSet set = new LongOpenHashSet();
+        set.add(3L);
+        set.add(-1L);
+
+        long[] keys = set.toArray();
+        Arrays.sort(keys);
+
+        assertArrayEquals(new long[]{-1L, 3L}, keys);
+    }
+}
@@ -0,0 +1,82 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RuntimeMetricsTest {
+
+    @Test
+    void recordConstructorCallShouldAggregatePerDescriptorTest() {
+        RuntimeMetrics metrics = new RuntimeMetrics();
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner");
+        ConstructorContext context = new ConstructorContext().withDescriptorId(id);
+
+        metrics.recordConstructorCall(context, 100);
+        metrics.recordConstructorCall(context, 300);
+
+        assertEquals(2, metrics.getConstructorLatency(id).getCount());
+        assertEquals(400, metrics.getConstructorLatency(id).getTotalNanos());
+        assertNull(metrics.getConstructorLatency(id + 1));
+    }
+
+    @Test
+    void writeToShouldWriteCountersAndConstructorsTest() throws Exception {
+        RuntimeMetrics metrics = new RuntimeMetrics();
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner", "int");
+        metrics.recordConstructorCall(new ConstructorContext().withDescriptorId(id), 100);
+        metrics.recordConstructorCall(new ConstructorContext().withFileName("B.java").withClassName("B").withMethodName("B").withParameters(new ArrayList<>(List.of("long"))), 200);
+        metrics.recordBatch(5000);
+        metrics.recordSendFailure();
+        ConstructorEventDispatcher dispatcher = mock(ConstructorEventDispatcher.class);
+        when(dispatcher.getUniqueEventCount()).thenReturn(7L);
+        when(dispatcher.getSentByteCount()).thenReturn(1024L);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        metrics.writeTo(out, dispatcher);
+
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(7, json.get("uniqueEvents").asLong());
+        assertEquals(1024, json.get("sentBytes").asLong());
+        assertEquals(1, json.get("sendFailures").asLong());
+        assertEquals(1, json.get("batchLatency").get("count").asLong());
+        assertEquals(2, json.get("constructors").size());
+        assertEquals("A", json.get("constructors").get(0).get("className").asText());
+        assertEquals("int", json.get("constructors").get(0).get("parameters").get(0).asText());
+        assertEquals("long", json.get("constructors").get(1).get("parameters").get(0).asText());
+        assertEquals(200, json.get("constructors").get(1).get("latency").get("totalNanos").asLong());
+    }
+
+    @Test
+    void writeToWithoutDispatcherShouldOmitDispatcherCountersTest() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new RuntimeMetrics().writeTo(out, null);
+
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertFalse(json.has("uniqueEvents"));
+        assertEquals(0, json.get("sendFailures").asLong());
+        assertEquals(0, json.get("constructors").size());
+    }
+
+    @Test
+    void exportShouldWriteMetricsFileTest(@TempDir Path tempDir) throws Exception {
+        File directory = tempDir.resolve("metrics").toFile();
+
+        File file = new RuntimeMetrics().export(directory, null);
+
+        assertNotNull(file);
+        assertTrue(file.getName().startsWith("runtime-metrics-"));
+        assertTrue(new ObjectMapper().readTree(file).has("batchLatency"));
+    }
+}
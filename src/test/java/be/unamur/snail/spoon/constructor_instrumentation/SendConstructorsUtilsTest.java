@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
 import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 class SendConstructorsUtilsTest {
@@ -54,6 +55,30 @@ class SendConstructorsUtilsTest {
         assertNotNull(context.getCommit());
     }
 
+    @Test
+    void initConstructorContextFromDescriptorStoresCorrectContextTest() {
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner", "java.lang.String");
+        constructorUtils.initConstructorContext(id);
+        ConstructorContext context = constructorUtils.getConstructorContextForTests();
+
+        assertEquals("file.java", context.getFileName());
+        assertEquals("Class", context.getClassName());
+        assertEquals("method", context.getMethodName());
+        assertEquals(List.of("java.lang.String"), context.getParameters());
+        assertEquals("sha", context.getCommit().getSha());
+        assertEquals(id, context.getDescriptorId());
+        assertTrue(context.getAttributes().isEmpty());
+    }
+
+    @Test
+    void initConstructorContextFromStringsResetsDescriptorIdTest() {
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner");
+        constructorUtils.initConstructorContext(id);
+        constructorUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(), createTestCommit());
+
+        assertEquals(-1, constructorUtils.getConstructorContextForTests().getDescriptorId());
+    }
+
     @Test
     void addAttributeWorkingTest() {
         CommitSimpleInstrDTO commit = createTestCommit();
@@ -69,6 +94,33 @@ class SendConstructorsUtilsTest {
         assertEquals("java.lang.String", attribute.getActualType());
     }
 
+    @Test
+    void addAttributeFromDescriptorRecordsCachedAttributeTest() {
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner",
+                new String[0], new String[]{"field", "java.lang.Object", "constructor parameter"});
+        constructorUtils.initConstructorContext(id);
+        constructorUtils.addAttribute(0, "hello");
+        constructorUtils.addAttribute(0, null);
+        AttributeContext first = constructorUtils.getConstructorContextForTests().getAttributes().get(0);
+
+        constructorUtils.initConstructorContext(id);
+        constructorUtils.addAttribute(0, "world");
+
+        List<AttributeContext> attributes = constructorUtils.getConstructorContextForTests().getAttributes();
+        assertEquals("field", first.getName());
+        assertEquals("java.lang.Object", first.getType());
+        assertEquals("java.lang.String", first.getActualType());
+        assertEquals("constructor parameter", first.getRhs());
+        assertSame(first, attributes.get(0));
+    }
+
+    @Test
+    void addAttributeFromDescriptorThrowsIfContextIsNotFromDescriptorTest() {
+        constructorUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(), createTestCommit());
+
+        assertThrows(IllegalStateException.class, () -> constructorUtils.addAttribute(0, "hello"));
+    }
+
     @Test
     void addAttributeThrowsExceptionIfConstructorContextNotInitializedTest() {
         assertThrows(IllegalStateException.class, () -> constructorUtils.addAttribute("field", "String", "hello", "literal"));
@@ -144,6 +196,43 @@ class SendConstructorsUtilsTest {
         verify(sender, times(1)).send(context);
     }
 
+    @Test
+    void callSkippedByCapturePolicyIsNotSentTest() {
+        StackTraceHelper helper = mock(StackTraceHelper.class);
+        constructorUtils = new SendConstructorsUtils(helper, sender, new CapturePolicy(1, 0, 1));
+
+        CommitSimpleInstrDTO commit = createTestCommit();
+        constructorUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(List.of("java.lang.String")), commit);
+        assertTrue(constructorUtils.isCapturing());
+        constructorUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(List.of("java.lang.String")), commit);
+        assertFalse(constructorUtils.isCapturing());
+        constructorUtils.addAttribute("field", "String", "hello", "literal");
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+
+        verifyNoInteractions(helper, sender);
+    }
+
+    @Test
+    void callWithNewStackTraceIsNotSentOnceBudgetIsExhaustedTest() {
+        StackTraceHelper helper = mock(StackTraceHelper.class);
+        when(helper.getFilteredStackTrace())
+                .thenReturn(List.of(new StackTraceElement("Caller", "first", "Caller.java", 1)))
+                .thenReturn(List.of(new StackTraceElement("Caller", "second", "Caller.java", 2)));
+        CapturePolicy policy = new CapturePolicy(1, 1, 0);
+        constructorUtils = new SendConstructorsUtils(helper, sender, policy);
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner");
+
+        for (int i = 0; i < 2; i++) {
+            constructorUtils.initConstructorContext(id);
+            constructorUtils.getStackTrace();
+            constructorUtils.send();
+        }
+
+        verify(sender, times(1)).send(any(ConstructorContext.class));
+        assertEquals(1, policy.getBudgetSuppressedCallCount());
+    }
+
     @Test
     void sendUsesDispatcherWhenSenderIsNullTest() {
         constructorUtils = new SendConstructorsUtils(mock(StackTraceHelper.class), null);
@@ -163,6 +252,116 @@ class SendConstructorsUtilsTest {
         verify(dispatcher, times(1)).submit(any(ConstructorContext.class));
     }
 
+    @Test
+    void nestedCallShouldNotOverwriteEnclosingContextTest() {
+        CommitSimpleInstrDTO commit = createTestCommit();
+        int outerDepth = constructorUtils.initConstructorContext("Outer.java", "Outer", "Outer", new ArrayList<>(), commit);
+        constructorUtils.addAttribute("before", "int", 1, "literal");
+        int innerDepth = constructorUtils.initConstructorContext("Inner.java", "Inner", "Inner", new ArrayList<>(), commit);
+        constructorUtils.addAttribute("inner", "int", 2, "literal");
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+        constructorUtils.addAttribute("after", "int", 3, "literal");
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+
+        assertEquals(0, outerDepth);
+        assertEquals(1, innerDepth);
+        assertEquals(0, constructorUtils.getDepthForTests());
+        verify(sender).send(argThat(context -> context.getClassName().equals("Inner") && context.getAttributes().size() == 1));
+        verify(sender).send(argThat(context -> context.getClassName().equals("Outer")
+                && context.getAttributes().get(0).getName().equals("before")
+                && context.getAttributes().get(1).getName().equals("after")));
+    }
+
+    @Test
+    void exitConstructorContextShouldPopFramesOfCallsThatWereNotSentTest() {
+        CommitSimpleInstrDTO commit = createTestCommit();
+        int outerDepth = constructorUtils.initConstructorContext("Outer.java", "Outer", "Outer", new ArrayList<>(), commit);
+        int innerDepth = constructorUtils.initConstructorContext("Inner.java", "Inner", "Inner", new ArrayList<>(), commit);
+        constructorUtils.initConstructorContext("Deepest.java", "Deepest", "Deepest", new ArrayList<>(), commit);
+
+        constructorUtils.exitConstructorContext(innerDepth);
+
+        assertEquals(1, constructorUtils.getDepthForTests());
+        assertEquals("Outer", constructorUtils.getConstructorContextForTests().getClassName());
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+        constructorUtils.exitConstructorContext(outerDepth);
+        assertEquals(0, constructorUtils.getDepthForTests());
+        verify(sender, times(1)).send(any(ConstructorContext.class));
+    }
+
+    @Test
+    void framesShouldBeReusedByNextCallsTest() {
+        CommitSimpleInstrDTO commit = createTestCommit();
+        constructorUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(), commit);
+        constructorUtils.addAttribute("field", "int", 1, "literal");
+        ConstructorContext frame = constructorUtils.getConstructorContextForTests();
+        List<AttributeContext> attributes = frame.getAttributes();
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+
+        constructorUtils.initConstructorContext("other.java", "Other", "method", new ArrayList<>(), commit);
+
+        assertSame(frame, constructorUtils.getConstructorContextForTests());
+        assertSame(attributes, frame.getAttributes());
+        assertTrue(attributes.isEmpty());
+        assertNull(frame.getStacktrace());
+    }
+
+    @Test
+    void addAttributeFromDescriptorShouldWriteIndexToArenaTest() {
+        StackTraceHelper mockHelper = mock(StackTraceHelper.class);
+        when(mockHelper.getFilteredStackTrace()).thenReturn(List.of(new StackTraceElement("com.example.Test", "test", "Test.java", 3)));
+        ConstructorEventDispatcher arenaDispatcher = new ConstructorEventDispatcher(sender, 10);
+        arenaDispatcher.setArena(new EventArena(1024, 4096, false));
+        ArenaEventWriter writer = arenaDispatcher.createArenaWriter();
+        SendConstructorsUtils arenaUtils = new SendConstructorsUtils(mockHelper, writer, CapturePolicy.captureAll());
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner",
+                new String[0], new String[]{"field", "java.lang.Object", "literal"});
+
+        arenaUtils.initConstructorContext(id);
+        arenaUtils.addAttribute(0, 5);
+        arenaUtils.getStackTrace();
+        arenaUtils.send();
+
+        arenaDispatcher.submitSegment(writer.getCurrentSegment());
+        AttributeContext attribute = arenaDispatcher.getBatch().get(0).getAttributes().get(0);
+        assertEquals("field", attribute.getName());
+        assertEquals("java.lang.Object", attribute.getType());
+        assertEquals("java.lang.Integer", attribute.getActualType());
+        assertEquals("literal", attribute.getRhs());
+    }
+
+    @Test
+    void nestedCallsShouldWriteSeparateArenaRecordsTest() {
+        StackTraceHelper mockHelper = mock(StackTraceHelper.class);
+        when(mockHelper.getFilteredStackTrace()).thenReturn(List.of(new StackTraceElement("com.example.Test", "test", "Test.java", 3)));
+        ConstructorEventDispatcher arenaDispatcher = new ConstructorEventDispatcher(sender, 10);
+        arenaDispatcher.setArena(new EventArena(1024, 4096, false));
+        ArenaEventWriter writer = arenaDispatcher.createArenaWriter();
+        SendConstructorsUtils arenaUtils = new SendConstructorsUtils(mockHelper, writer, CapturePolicy.captureAll());
+
+        arenaUtils.initConstructorContext("Outer.java", "Outer", "Outer", new ArrayList<>(), createTestCommit());
+        arenaUtils.addAttribute("before", "int", 1, "literal");
+        arenaUtils.initConstructorContext("Inner.java", "Inner", "Inner", new ArrayList<>(), createTestCommit());
+        arenaUtils.addAttribute("inner", "int", 2, "literal");
+        arenaUtils.getStackTrace();
+        arenaUtils.send();
+        arenaUtils.addAttribute("after", "int", 3, "literal");
+        arenaUtils.getStackTrace();
+        arenaUtils.send();
+
+        arenaDispatcher.submitSegment(writer.getCurrentSegment());
+        List<ConstructorContext> batch = arenaDispatcher.getBatch();
+        assertEquals("Inner", batch.get(0).getClassName());
+        assertEquals(1, batch.get(0).getAttributes().size());
+        assertEquals("Outer", batch.get(1).getClassName());
+        assertEquals("after", batch.get(1).getAttributes().get(1).getName());
+        assertEquals(0, writer.getNestingLevel());
+    }
+
     @Test
     void initDispatcherInitializesDispatcherWhenNullTest() {
         assertNull(getDispatcher());
@@ -223,4 +422,119 @@ class SendConstructorsUtilsTest {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void sendShouldWriteEventToArenaTest() {
+        StackTraceHelper mockHelper = mock(StackTraceHelper.class);
+        when(mockHelper.getFilteredStackTrace()).thenReturn(List.of(new StackTraceElement("com.example.Test", "test", "Test.java", 3)));
+        ConstructorEventDispatcher arenaDispatcher = new ConstructorEventDispatcher(sender, 10);
+        arenaDispatcher.setArena(new EventArena(1024, 4096, false));
+        ArenaEventWriter writer = arenaDispatcher.createArenaWriter();
+        SendConstructorsUtils arenaUtils = new SendConstructorsUtils(mockHelper, writer, CapturePolicy.captureAll());
+
+        arenaUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(List.of("int")), createTestCommit());
+        arenaUtils.addAttribute("field", "int", 5, "int");
+        arenaUtils.getStackTrace();
+        arenaUtils.send();
+
+        assertTrue(arenaUtils.getConstructorContextForTests().getAttributes().isEmpty());
+        arenaDispatcher.submitSegment(writer.getCurrentSegment());
+        ConstructorContext sent = arenaDispatcher.getBatch().get(0);
+        assertEquals("Class", sent.getClassName());
+        assertEquals("java.lang.Integer", sent.getAttributes().get(0).getActualType());
+        assertEquals("com.example.Test", sent.getStacktrace().get(0).getClassName());
+        verify(sender, never()).send(any());
+    }
+
+    @Test
+    void countLevelOnlyCountsCallsTest() {
+        StackTraceHelper helper = mock(StackTraceHelper.class);
+        CaptureLevels levels = new CaptureLevels(CaptureLevel.FULL, "com.example.model=count");
+        ConstructorCallCounter counter = new ConstructorCallCounter(levels);
+        constructorUtils = new SendConstructorsUtils(helper, sender, CapturePolicy.captureAll(), levels, counter);
+        int id = ConstructorDescriptors.register("Model.java", "com.example.model.Model", "Model", "sha", "repo", "owner",
+                new String[0], new String[]{"field", "int", "literal"});
+
+        for (int i = 0; i < 3; i++) {
+            int depth = constructorUtils.initConstructorContext(id);
+            assertFalse(constructorUtils.isCapturing());
+            constructorUtils.addAttribute(0, 1);
+            constructorUtils.getStackTrace();
+            constructorUtils.send();
+            constructorUtils.exitConstructorContext(depth);
+        }
+
+        assertEquals(3, counter.getCount(id));
+        assertEquals(0, constructorUtils.getDepthForTests());
+        verify(helper, never()).getFilteredStackTrace();
+        verify(sender, never()).send(any());
+    }
+
+    @Test
+    void callerLevelSkipsAttributesAndKeepsCallerOnlyTest() {
+        StackTraceHelper helper = mock(StackTraceHelper.class);
+        StackTraceElement caller = new StackTraceElement("com.example.Caller", "call", "Caller.java", 7);
+        when(helper.getCallerStackTrace()).thenReturn(List.of(caller));
+        CaptureLevels levels = new CaptureLevels(CaptureLevel.CALLER, null);
+        ConstructorCallCounter counter = new ConstructorCallCounter(levels);
+        constructorUtils = new SendConstructorsUtils(helper, sender, CapturePolicy.captureAll(), levels, counter);
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner",
+                new String[0], new String[]{"field", "int", "literal"});
+
+        constructorUtils.initConstructorContext(id);
+        constructorUtils.addAttribute(0, 1);
+        constructorUtils.addAttribute("other", "int", 2, "literal");
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+
+        verify(helper, never()).getFilteredStackTrace();
+        verify(sender).send(argThat(context -> context.getAttributes().isEmpty() && context.getStacktrace().equals(List.of(caller))));
+        assertEquals(1, counter.getCount(id));
+    }
+
+    @Test
+    void nestedCallKeepsCaptureLevelOfEnclosingCallTest() {
+        StackTraceHelper helper = mock(StackTraceHelper.class);
+        when(helper.getFilteredStackTrace()).thenReturn(List.of(new StackTraceElement("com.example.Outer", "call", "Outer.java", 1)));
+        CaptureLevels levels = new CaptureLevels(CaptureLevel.FULL, "com.example.model=count");
+        constructorUtils = new SendConstructorsUtils(helper, sender, CapturePolicy.captureAll(), levels, new ConstructorCallCounter(levels));
+
+        constructorUtils.initConstructorContext("Outer.java", "com.example.Outer", "Outer", new ArrayList<>(), createTestCommit());
+        constructorUtils.initConstructorContext("Model.java", "com.example.model.Model", "Model", new ArrayList<>(), createTestCommit());
+        constructorUtils.send();
+        assertTrue(constructorUtils.isCapturing());
+        constructorUtils.addAttribute("field", "int", 1, "literal");
+        constructorUtils.getStackTrace();
+        constructorUtils.send();
+
+        verify(sender, times(1)).send(argThat(context -> context.getClassName().equals("com.example.Outer") && context.getAttributes().size() == 1));
+    }
+
+    @Test
+    void sendShouldRecordInstrumentationTimeWhenMetricsAreSetTest() {
+        RuntimeMetrics metrics = new RuntimeMetrics();
+        constructorUtils.setMetricsForTests(metrics);
+        int id = ConstructorDescriptors.register("file.java", "Class", "method", "sha", "repo", "owner");
+
+        for (int i = 0; i < 2; i++) {
+            int depth = constructorUtils.initConstructorContext(id);
+            constructorUtils.getStackTrace();
+            constructorUtils.send();
+            constructorUtils.exitConstructorContext(depth);
+        }
+
+        assertEquals(2, metrics.getConstructorLatency(id).getCount());
+        assertEquals(0, metrics.getSendFailureCount());
+    }
+
+    @Test
+    void sendShouldRecordFailureWhenContextIsNotCompleteTest() {
+        RuntimeMetrics metrics = new RuntimeMetrics();
+        constructorUtils.setMetricsForTests(metrics);
+        constructorUtils.initConstructorContext("file.java", "Class", "method", new ArrayList<>(), createTestCommit());
+
+        assertThrows(ConstructorContextNotCompletedException.class, () -> constructorUtils.send());
+
+        assertEquals(1, metrics.getSendFailureCount());
+    }
+}
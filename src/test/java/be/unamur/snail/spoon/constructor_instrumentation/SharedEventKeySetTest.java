@@ -0,0 +1,89 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedEventKeySetTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void addShouldReturnTrueOnlyForFirstInsertionTest() throws Exception {
+        SharedEventKeySet keys = new SharedEventKeySet(tempDir.resolve("keys").toFile(), 100);
+
+        assertTrue(keys.add(42L));
+        assertFalse(keys.add(42L));
+        assertTrue(keys.add(0L));
+        assertFalse(keys.add(0L));
+        assertEquals(256, keys.getSlotCount());
+    }
+
+    @Test
+    void removeShouldLetKeyBeAddedAgainTest() throws Exception {
+        SharedEventKeySet keys = new SharedEventKeySet(tempDir.resolve("keys").toFile(), 100);
+        keys.add(42L);
+        keys.add(0L);
+
+        assertTrue(keys.remove(42L));
+        assertFalse(keys.remove(42L));
+        assertTrue(keys.remove(0L));
+        assertTrue(keys.add(42L));
+        assertTrue(keys.add(0L));
+    }
+
+    @Test
+    void keysShouldBeSharedThroughFileTest() throws Exception {
+        File file = tempDir.resolve("build/keys").toFile();
+        SharedEventKeySet first = new SharedEventKeySet(file, 100);
+        SharedEventKeySet second = new SharedEventKeySet(file, 100);
+
+        assertTrue(first.add(7L));
+        assertFalse(second.add(7L));
+        assertTrue(second.add(8L));
+        assertFalse(first.add(8L));
+        assertEquals(256L * 8, file.length());
+    }
+
+    @Test
+    void concurrentAddsShouldInsertEachKeyOnceTest() throws Exception {
+        File file = tempDir.resolve("keys").toFile();
+        AtomicInteger inserted = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            SharedEventKeySet keys = new SharedEventKeySet(file, 10_000);
+            threads[t] = new Thread(() -> {
+                for (long key = 1; key <= 10_000; key++) {
+                    if (keys.add(key * 0x9E3779B97F4A7C15L)) {
+                        inserted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(10_000, inserted.get());
+    }
+
+    @Test
+    void addShouldReturnTrueWhenTableIsFullTest() throws Exception {
+        SharedEventKeySet keys = new SharedEventKeySet(tempDir.resolve("keys").toFile(), 1);
+        for (long key = 1; key <= 16; key++) {
+            keys.add(key);
+        }
+
+        assertTrue(keys.add(17L));
+        assertTrue(keys.add(17L));
+        assertEquals(2, keys.getProbeOverflowCount());
+    }
+}
@@ -0,0 +1,104 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolFileConstructorContextSenderTest {
+    @TempDir
+    Path tempDir;
+
+    private ConstructorContext createContext(int line) {
+        return new ConstructorContext()
+                .withFileName("File.java")
+                .withClassName("Class")
+                .withMethodName("<init>")
+                .withParameters(new ArrayList<>(List.of("java.lang.String")))
+                .withAttributes(new ArrayList<>())
+                .withStackTrace(List.of(new StackTraceElement("Caller", "call", "Caller.java", line)));
+    }
+
+    @Test
+    void fileStartsWithHeaderTest() throws Exception {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 1024);
+        sender.close();
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            assertEquals(SpoolFormat.MAGIC, in.readInt());
+            assertEquals(SpoolFormat.VERSION, in.readInt());
+        }
+        assertEquals(SpoolFormat.HEADER_SIZE, file.length());
+    }
+
+    @Test
+    void closeTruncatesFileAfterLastRecordTest() {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 1 << 20);
+        sender.send(createContext(1));
+        assertEquals(1 << 20, file.length());
+
+        sender.close();
+
+        assertTrue(file.length() > SpoolFormat.HEADER_SIZE);
+        assertTrue(file.length() < 1024);
+    }
+
+    @Test
+    void recordsLargerThanARegionAreWrittenTest() {
+        File file = tempDir.resolve("test.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(file, 64);
+        List<ConstructorContext> batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(createContext(i));
+        }
+
+        assertDoesNotThrow(() -> sender.sendBatch(batch));
+        sender.close();
+        assertTrue(file.length() > 100 * 16);
+    }
+
+    @Test
+    void stringsAreWrittenOnceTest() {
+        File first = tempDir.resolve("first.spool").toFile();
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(first, 1024);
+        sender.send(createContext(1));
+        sender.close();
+        long oneEvent = first.length();
+
+        File second = tempDir.resolve("second.spool").toFile();
+        sender = new SpoolFileConstructorContextSender(second, 1024);
+        sender.send(createContext(1));
+        sender.send(createContext(1));
+        sender.close();
+
+        // The second event only contains ids: 16 ints, the length and the type of the record
+        assertEquals(oneEvent + 4 + 1 + 16 * 4, second.length());
+    }
+
+    @Test
+    void sendAfterCloseThrowsTest() {
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(tempDir.resolve("test.spool").toFile(), 1024);
+        sender.close();
+        assertThrows(ConstructorContextSendFailedException.class, () -> sender.send(createContext(1)));
+    }
+
+    @Test
+    void fileIsCreatedInDirectoryTest() {
+        SpoolFileConstructorContextSender sender = new SpoolFileConstructorContextSender(tempDir.resolve("spool").toFile());
+        sender.close();
+
+        File file = sender.getFile();
+        assertEquals(tempDir.resolve("spool").toFile(), file.getParentFile());
+        assertTrue(file.getName().endsWith(SpoolFormat.FILE_EXTENSION));
+        assertTrue(file.exists());
+    }
+}
@@ -44,4 +44,72 @@ class StackTraceHelperTest {
         assertEquals(1, result.size());
         assertEquals(matching, result.get(0));
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldStopAfterMaxFramesTest() {
+        System.setProperty("packagePrefix", "com.example");
+        StackTraceElement first = new StackTraceElement("com.example.First", "testMethod", "First.java", 1);
+        StackTraceElement other = new StackTraceElement("com.other.OtherClass", "testMethod", "OtherClass.java", 1);
+        StackTraceElement second = new StackTraceElement("com.example.Second", "testMethod", "Second.java", 1);
+        StackTraceElement third = new StackTraceElement("com.example.Third", "testMethod", "Third.java", 1);
+
+        when(mockProvider.getStackTrace()).thenReturn(new StackTraceElement[]{first, other, second, third});
+
+        StackTraceHelper helper = new StackTraceHelper(mockProvider, 2);
+        List<StackTraceElement> result = helper.getFilteredStackTrace();
+
+        assertEquals(List.of(first, second), result);
+    }
+
+    @Test
+    void shouldKeepPrefixOfFirstCallTest() {
+        System.setProperty("packagePrefix", "com.example");
+        StackTraceElement matching = new StackTraceElement("com.example.Myclass", "testMethod", "testClass.java", 1);
+        when(mockProvider.getStackTrace()).thenReturn(new StackTraceElement[]{matching});
+        StackTraceHelper helper = new StackTraceHelper(mockProvider);
+        helper.getFilteredStackTrace();
+
+        System.setProperty("packagePrefix", "com.other");
+
+        assertEquals(List.of(matching), helper.getFilteredStackTrace());
+    }
+
+    @Test
+    void shouldOnlyKeepCallerWhenCallerOnlyIsSetTest() {
+        System.setProperty("sentinel.stacktrace.callerOnly", "true");
+        try {
+            StackTraceHelper helper = new StackTraceHelper(mockProvider);
+            assertEquals(2, helper.getMaxFrames());
+        } finally {
+            System.clearProperty("sentinel.stacktrace.callerOnly");
+        }
+    }
+
+    @Test
+    void shouldUseFilteringProviderWhenAvailableTest() {
+        System.setProperty("packagePrefix", "com.example");
+        FilteringStackTraceProvider filteringProvider = Mockito.mock(FilteringStackTraceProvider.class);
+        StackTraceElement matching = new StackTraceElement("com.example.Myclass", "testMethod", "testClass.java", 1);
+        when(filteringProvider.getFilteredStackTrace("com.example", 5)).thenReturn(List.of(matching));
+
+        StackTraceHelper helper = new StackTraceHelper(filteringProvider, 5);
+
+        assertEquals(List.of(matching), helper.getFilteredStackTrace());
+        Mockito.verify(filteringProvider, Mockito.never()).getStackTrace();
+    }
+
+    @Test
+    void callerStackTraceShouldKeepConstructorAndCallerOnlyTest() {
+        System.setProperty("packagePrefix", "com.example");
+        StackTraceElement first = new StackTraceElement("com.example.First", "testMethod", "First.java", 1);
+        StackTraceElement second = new StackTraceElement("com.example.Second", "testMethod", "Second.java", 1);
+        StackTraceElement third = new StackTraceElement("com.example.Third", "testMethod", "Third.java", 1);
+
+        when(mockProvider.getStackTrace()).thenReturn(new StackTraceElement[]{first, second, third});
+
+        StackTraceHelper helper = new StackTraceHelper(mockProvider, Integer.MAX_VALUE);
+
+        assertEquals(List.of(first, second), helper.getCallerStackTrace());
+        assertEquals(List.of(first, second, third), helper.getFilteredStackTrace());
+    }
+}
@@ -0,0 +1,40 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StackWalkerStackTraceProviderTest {
+    private final StackWalkerStackTraceProvider provider = new StackWalkerStackTraceProvider();
+
+    @Test
+    void shouldBeAvailableOnRecentJvmTest() {
+        assertTrue(StackWalkerStackTraceProvider.isAvailable());
+        assertTrue(StackTraceHelper.createDefaultProvider() instanceof StackWalkerStackTraceProvider);
+    }
+
+    @Test
+    void shouldOnlyKeepFramesMatchingPrefixTest() {
+        List<StackTraceElement> frames = provider.getFilteredStackTrace("be.unamur.snail", Integer.MAX_VALUE);
+
+        assertFalse(frames.isEmpty());
+        assertTrue(frames.stream().allMatch(frame -> frame.getClassName().startsWith("be.unamur.snail")));
+        assertEquals("shouldOnlyKeepFramesMatchingPrefixTest", frames.get(1).getMethodName());
+    }
+
+    @Test
+    void shouldStopAfterMaxFramesTest() {
+        List<StackTraceElement> frames = provider.getFilteredStackTrace("", 3);
+
+        assertEquals(3, frames.size());
+    }
+
+    @Test
+    void getStackTraceShouldReturnEveryFrameTest() {
+        StackTraceElement[] frames = provider.getStackTrace();
+
+        assertTrue(frames.length > 3);
+    }
+}
@@ -0,0 +1,59 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadEventBufferTest {
+    private ThreadEventBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = new ThreadEventBuffer(2);
+    }
+
+    private ConstructorContext createContext(String id) {
+        return new ConstructorContext().withFileName("File " + id);
+    }
+
+    @Test
+    void addShouldReturnNullWhenBufferNotFullTest() {
+        assertNull(buffer.add(createContext("1")));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    void addShouldReturnContextsWhenBufferFullTest() {
+        buffer.add(createContext("1"));
+        List<ConstructorContext> full = buffer.add(createContext("2"));
+
+        assertNotNull(full);
+        assertEquals(2, full.size());
+        assertEquals("File 1", full.get(0).getFileName());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void addShouldNotReuseHandedOffListTest() {
+        buffer.add(createContext("1"));
+        List<ConstructorContext> full = buffer.add(createContext("2"));
+        buffer.add(createContext("3"));
+
+        assertEquals(2, full.size());
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    void drainShouldReturnAndRemoveEveryContextTest() {
+        buffer.add(createContext("1"));
+
+        List<ConstructorContext> drained = buffer.drain();
+
+        assertEquals(1, drained.size());
+        assertEquals(0, buffer.size());
+        assertTrue(buffer.drain().isEmpty());
+    }
+}
@@ -0,0 +1,84 @@
+package be.unamur.snail.spoon.constructor_instrumentation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireDictionaryTest {
+    private WireDictionary dictionary;
+    private final StackTraceElement frameA = new StackTraceElement("com.example.A", "a", "A.java", 1);
+    private final StackTraceElement frameB = new StackTraceElement("com.example.B", "b", "B.java", 2);
+
+    @BeforeEach
+    void setUp() {
+        dictionary = new WireDictionary();
+    }
+
+    @Test
+    void internShouldReturnSameIdForEqualTracesTest() {
+        int id1 = dictionary.intern(List.of(frameA, frameB));
+        int id2 = dictionary.intern(List.of(frameA, frameB));
+
+        assertEquals(id1, id2);
+        assertEquals(1, dictionary.getTraceCount());
+    }
+
+    @Test
+    void internShouldShareFramesBetweenTracesTest() {
+        dictionary.intern(List.of(frameA, frameB));
+        dictionary.intern(List.of(frameB));
+
+        assertEquals(2, dictionary.getTraceCount());
+        assertEquals(2, dictionary.getFrameCount());
+    }
+
+    @Test
+    void internShouldReturnMinusOneForNullTraceTest() {
+        assertEquals(-1, dictionary.intern(null));
+    }
+
+    @Test
+    void pendingDeltaShouldOnlyContainEntriesNotAcknowledgedTest() {
+        dictionary.intern(List.of(frameA));
+        dictionary.acknowledge(dictionary.getPendingDelta());
+        dictionary.intern(List.of(frameA, frameB));
+
+        WireDictionary.Delta delta = dictionary.getPendingDelta();
+
+        assertEquals(1, delta.getFirstFrameId());
+        assertEquals(List.of(frameB), delta.getFrames());
+        assertEquals(1, delta.getFirstTraceId());
+        assertArrayEquals(new int[]{0, 1}, delta.getTraces().get(0));
+    }
+
+    @Test
+    void pendingDeltaShouldBeSentAgainWhenNotAcknowledgedTest() {
+        dictionary.intern(List.of(frameA));
+        dictionary.getPendingDelta();
+
+        WireDictionary.Delta delta = dictionary.getPendingDelta();
+
+        assertEquals(0, delta.getFirstFrameId());
+        assertEquals(1, delta.getFrames().size());
+        assertEquals(1, delta.getTraces().size());
+    }
+
+    @Test
+    void pendingDeltaShouldContainUsedDescriptorsUntilAcknowledgedTest() {
+        int id = ConstructorDescriptors.register("A.java", "A", "A", "sha", "repo", "owner");
+        dictionary.useDescriptor(id);
+        dictionary.useDescriptor(-1);
+
+        WireDictionary.Delta delta = dictionary.getPendingDelta();
+        assertEquals(1, delta.getDescriptors().size());
+        assertEquals(id, delta.getDescriptors().get(0).getId());
+
+        dictionary.acknowledge(delta);
+        dictionary.useDescriptor(id);
+
+        assertTrue(dictionary.getPendingDelta().getDescriptors().isEmpty());
+    }
+}
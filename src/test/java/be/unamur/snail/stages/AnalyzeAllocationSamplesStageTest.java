@@ -0,0 +1,105 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingConfigKeyException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.AllocationSampleAnalyzer;
+import be.unamur.snail.spoon.constructor_instrumentation.CommitSimpleInstrDTO;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorContext;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorContextSender;
+import be.unamur.snail.spoon.constructor_instrumentation.RepositorySimpleInstrDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AnalyzeAllocationSamplesStageTest {
+    private static final StackTraceElement CALL_SITE = new StackTraceElement("com.example.Parser", "parse", "Parser.java", 42);
+
+    @TempDir
+    Path tempDir;
+    private Context context;
+    private Config config;
+
+    @BeforeEach
+    void setUp() {
+        context = mock(Context.class);
+        when(context.getRepoPath()).thenReturn(tempDir.toString());
+        when(context.getLogger()).thenReturn(mock(PipelineLogger.class));
+
+        config = new Config();
+        Config.ProjectConfig project = new Config.ProjectConfig();
+        project.setNameForTests("app");
+        project.setOwnerForTests("me");
+        project.setPackagePrefixForTests("com.example");
+        config.setProjectForTests(project);
+        Config.RepoConfig repo = new Config.RepoConfig();
+        repo.setCommitForTests("abc123");
+        config.setRepoForTests(repo);
+        config.setInstrumentationForTests(new Config.InstrumentationConfig());
+        Config.setInstanceForTests(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Config.reset();
+    }
+
+    @Test
+    void executeShouldThrowWhenPackagePrefixIsMissingTest() {
+        config.getProject().setPackagePrefixForTests(null);
+
+        assertThrows(MissingConfigKeyException.class, () -> new AnalyzeAllocationSamplesStage().execute(context));
+    }
+
+    @Test
+    void executeShouldSkipAnalysisWithoutRecordingsTest() throws Exception {
+        AllocationSampleAnalyzer analyzer = mock(AllocationSampleAnalyzer.class);
+
+        new AnalyzeAllocationSamplesStage(analyzer, null).execute(context);
+
+        verify(analyzer, never()).analyze(anyList(), anyString());
+    }
+
+    @Test
+    void toConstructorContextShouldUseConstructorContextShapeTest() {
+        AllocationSampleAnalyzer.ProjectAllocations allocations = new AllocationSampleAnalyzer.ProjectAllocations("com.example.Outer$Token", List.of(CALL_SITE));
+        CommitSimpleInstrDTO commit = new CommitSimpleInstrDTO("abc123", new RepositorySimpleInstrDTO("app", "me"));
+
+        ConstructorContext context = AnalyzeAllocationSamplesStage.toConstructorContext(allocations, commit);
+
+        assertEquals("com/example/Outer.java", context.getFileName());
+        assertEquals("com.example.Outer$Token", context.getClassName());
+        assertEquals("Token", context.getMethodName());
+        assertEquals(List.of(), context.getParameters());
+        assertEquals(List.of(CALL_SITE), context.getStacktrace());
+        assertEquals(commit, context.getCommit());
+        assertEquals(16, context.getEventKey().length());
+    }
+
+    @Test
+    void exportShouldSendContextsInBatchesThenSampleCountsTest() {
+        AllocationSampleAnalyzer.AllocationSamples samples = new AllocationSampleAnalyzer.AllocationSamples("com.example");
+        samples.add("com.example.Token", 100, List.of(CALL_SITE));
+        samples.add("com.example.Token", 100, List.of(CALL_SITE));
+        samples.add("com.example.Node", 100, List.of(CALL_SITE));
+        samples.add("com.example.Tree", 100, List.of(CALL_SITE));
+        ConstructorContextSender sender = mock(ConstructorContextSender.class);
+
+        int exported = new AnalyzeAllocationSamplesStage().export(samples, config, sender, 2);
+
+        assertEquals(3, exported);
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 2));
+        verify(sender).sendBatch(argThat(batch -> batch.size() == 1));
+        verify(sender).sendOccurrences(argThat((Map<String, Long> occurrences) -> occurrences.size() == 3 && occurrences.containsValue(2L)));
+    }
+}
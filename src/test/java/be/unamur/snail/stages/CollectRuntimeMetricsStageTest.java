@@ -0,0 +1,99 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.logging.PipelineLogger;
+import be.unamur.snail.services.RuntimeMetricsMerger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CollectRuntimeMetricsStageTest {
+    @TempDir
+    Path tempDir;
+    private Context context;
+    private PipelineLogger log;
+    private Config.InstrumentationConfig instrumentation;
+
+    @BeforeEach
+    void setUp() {
+        context = mock(Context.class);
+        log = mock(PipelineLogger.class);
+        when(context.getRepoPath()).thenReturn(tempDir.toString());
+        when(context.getLogger()).thenReturn(log);
+
+        Config config = new Config();
+        instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setMetricsEnabledForTests(true);
+        config.setInstrumentationForTests(instrumentation);
+        Config.setInstanceForTests(config);
+    }
+
+    private void writeMetricsFile(String name, long uniqueEvents) throws Exception {
+        Path directory = Files.createDirectories(tempDir.resolve("sentinel-metrics"));
+        Files.writeString(directory.resolve(name), "{\"uniqueEvents\":" + uniqueEvents
+                + ",\"batchLatency\":{\"count\":0,\"totalNanos\":0,\"maxNanos\":0,\"buckets\":[]}"
+                + ",\"constructors\":[{\"className\":\"A\",\"methodName\":\"A\",\"parameters\":[],"
+                + "\"latency\":{\"count\":1,\"totalNanos\":100,\"maxNanos\":100,\"buckets\":[0,0,0,0,0,0,1]}}]}");
+    }
+
+    @Test
+    void executeShouldMergeEveryMetricsFileTest() throws Exception {
+        writeMetricsFile("runtime-metrics-1.json", 3);
+        writeMetricsFile("runtime-metrics-2.json", 4);
+        Files.writeString(tempDir.resolve("sentinel-metrics").resolve("other.json"), "not json");
+        RuntimeMetricsMerger merger = spy(new RuntimeMetricsMerger());
+
+        new CollectRuntimeMetricsStage(merger).execute(context);
+
+        verify(merger).merge(argThat(files -> files.size() == 2));
+        verify(log).info(startsWith("Runtime metrics of"), eq(2), anyLong(), eq(7L), anyLong(), anyLong(), anyLong(), anyLong(), anyLong(), anyLong());
+        verify(log).info(startsWith("  {}({})"), eq("A"), eq(""), eq(2L), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void executeShouldWarnWhenNoMetricsFileTest() throws Exception {
+        RuntimeMetricsMerger merger = mock(RuntimeMetricsMerger.class);
+
+        new CollectRuntimeMetricsStage(merger).execute(context);
+
+        verify(log).warn(startsWith("No runtime metrics"), any());
+        verifyNoInteractions(merger);
+    }
+
+    @Test
+    void executeShouldThrowWhenRepoPathIsMissingTest() {
+        when(context.getRepoPath()).thenReturn(null);
+
+        assertThrows(MissingContextKeyException.class, () -> new CollectRuntimeMetricsStage().execute(context));
+    }
+
+    @Test
+    void resolveMetricsDirectoryTest() {
+        assertEquals(tempDir.resolve("sentinel-metrics").toAbsolutePath().normalize(),
+                CollectRuntimeMetricsStage.resolveMetricsDirectory(null, tempDir.toString()));
+        instrumentation.setMetricsDirForTests("metrics");
+        assertEquals(tempDir.resolve("metrics").toAbsolutePath().normalize(),
+                CollectRuntimeMetricsStage.resolveMetricsDirectory(instrumentation, tempDir.toString()));
+        Path absolute = tempDir.resolve("absolute").toAbsolutePath();
+        instrumentation.setMetricsDirForTests(absolute.toString());
+        assertEquals(absolute, CollectRuntimeMetricsStage.resolveMetricsDirectory(instrumentation, "/elsewhere"));
+    }
+
+    @Test
+    void isMetricsEnabledTest() {
+        assertTrue(CollectRuntimeMetricsStage.isMetricsEnabled(instrumentation));
+        assertFalse(CollectRuntimeMetricsStage.isMetricsEnabled(null));
+        instrumentation.setMetricsEnabledForTests(false);
+        assertFalse(CollectRuntimeMetricsStage.isMetricsEnabled(instrumentation));
+    }
+}
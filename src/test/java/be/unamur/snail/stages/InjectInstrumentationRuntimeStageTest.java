@@ -0,0 +1,143 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.CouldNotInstallRuntimeJarException;
+import be.unamur.snail.exceptions.SourceFileNotFoundException;
+import be.unamur.snail.exceptions.UnknownProjectBuildException;
+import be.unamur.snail.logging.ConsolePipelineLogger;
+import be.unamur.snail.utils.CommandRunner;
+import be.unamur.snail.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class InjectInstrumentationRuntimeStageTest {
+    @TempDir
+    Path tempDir;
+    private Path repo;
+    private Path runtimeJar;
+    private Config.ProjectConfig project;
+    private Context context;
+    private CommandRunner runner;
+    private InjectInstrumentationRuntimeStage stage;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = Files.createDirectories(tempDir.resolve("repo"));
+        runtimeJar = Files.writeString(tempDir.resolve("runtime.jar"), "jar");
+
+        Config config = new Config();
+        project = new Config.ProjectConfig();
+        project.setSubProjectForTests("");
+        config.setProjectForTests(project);
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setRuntimeJarForTests(runtimeJar.toString());
+        config.setInstrumentationForTests(instrumentation);
+        Config.setInstanceForTests(config);
+
+        context = new Context();
+        context.setLogger(new ConsolePipelineLogger(InjectInstrumentationRuntimeStage.class));
+        context.setRepoPath(repo.toString());
+        runner = mock(CommandRunner.class);
+        when(runner.run(anyString(), any())).thenReturn(new Utils.CompletedProcess("mvn", 0, "", ""));
+        stage = new InjectInstrumentationRuntimeStage(runner);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Config.reset();
+    }
+
+    @Test
+    void executeInstallsRuntimeJarAndAddsDependencyToProjectDependenciesOfPomTest() throws Exception {
+        Path pom = Files.writeString(repo.resolve("pom.xml"), """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <dependencyManagement>
+                        <dependencies>
+                            <dependency><artifactId>managed</artifactId></dependency>
+                        </dependencies>
+                    </dependencyManagement>
+                    <dependencies>
+                        <dependency><artifactId>junit</artifactId></dependency>
+                    </dependencies>
+                </project>
+                """);
+
+        stage.execute(context);
+
+        String content = Files.readString(pom);
+        assertEquals(1, content.split("sentinel-instrumentation-runtime", -1).length - 1);
+        assertTrue(content.indexOf("sentinel-instrumentation-runtime") > content.indexOf("junit"));
+        assertFalse(content.contains("<scope>"));
+        assertFalse(content.contains("systemPath"));
+        assertFalse(content.contains("xmlns=\"\""));
+        verify(runner).run("mvn -B -N install:install-file -Dfile='" + runtimeJar.toAbsolutePath() + "'"
+                + " -DgroupId=be.unamur.snail -DartifactId=sentinel-instrumentation-runtime -Dversion=1.0-SNAPSHOT -Dpackaging=jar", repo.toFile());
+    }
+
+    @Test
+    void executeThrowsAndLeavesPomWhenRuntimeJarCannotBeInstalledTest() throws Exception {
+        when(runner.run(anyString(), any())).thenReturn(new Utils.CompletedProcess("mvn", 1, "", ""));
+        Path pom = Files.writeString(repo.resolve("pom.xml"), "<project><dependencies/></project>");
+
+        assertThrows(CouldNotInstallRuntimeJarException.class, () -> stage.execute(context));
+        assertEquals("<project><dependencies/></project>", Files.readString(pom));
+    }
+
+    @Test
+    void executeCreatesDependenciesOfPomWithoutDependenciesTest() throws Exception {
+        Path pom = Files.writeString(repo.resolve("pom.xml"), "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"><artifactId>app</artifactId></project>");
+
+        stage.execute(context);
+
+        assertTrue(Files.readString(pom).contains("<dependencies><dependency><groupId>be.unamur.snail</groupId>"));
+    }
+
+    @Test
+    void executeDoesNotAddDependencyTwiceToPomTest() throws Exception {
+        Path pom = Files.writeString(repo.resolve("pom.xml"), "<project><dependencies/></project>");
+
+        stage.execute(context);
+        stage.execute(context);
+
+        assertEquals(1, Files.readString(pom).split("<artifactId>sentinel-instrumentation-runtime</artifactId>", -1).length - 1);
+    }
+
+    @Test
+    void executeAppendsImplementationDependencyToGradleBuildOfSubProjectTest() throws Exception {
+        project.setSubProjectForTests("core");
+        Path buildFile = Files.writeString(Files.createDirectories(repo.resolve("core")).resolve("build.gradle.kts"), "plugins { java }\n");
+
+        stage.execute(context);
+        stage.execute(context);
+
+        String content = Files.readString(buildFile);
+        assertTrue(content.startsWith("plugins { java }"));
+        verify(runner, never()).run(anyString(), any());
+        assertEquals(1, content.split("implementation\\(files\\(\"" + runtimeJar.toAbsolutePath().toString().replace("\\", "/") + "\"\\)\\)", -1).length - 1);
+    }
+
+    @Test
+    void executeThrowsWhenRuntimeJarIsMissingTest() throws Exception {
+        Files.delete(runtimeJar);
+        Files.writeString(repo.resolve("pom.xml"), "<project/>");
+
+        assertThrows(SourceFileNotFoundException.class, () -> stage.execute(context));
+    }
+
+    @Test
+    void findBuildFileThrowsWhenProjectHasNoBuildFileTest() {
+        assertThrows(UnknownProjectBuildException.class, () -> stage.findBuildFile(repo));
+    }
+}
@@ -5,6 +5,7 @@ import be.unamur.snail.core.Context;
 import be.unamur.snail.exceptions.MissingContextKeyException;
 import be.unamur.snail.exceptions.ModuleException;
 import be.unamur.snail.logging.ConsolePipelineLogger;
+import be.unamur.snail.utils.SourcePartitioner;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,8 +14,10 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -131,4 +134,264 @@ class InstrumentConstructorsStageTest {
         assertTrue(processed.contains("SendConstructorsUtils"),
                 "Instrumented file should contain SendConstructorsUtils calls");
     }
+
+    /**
+     * The files without instrumented constructor must not be printed, and the code left
+     * unchanged in the instrumented ones must keep its original text.
+     */
+    @Test
+    void onlyPrintsInstrumentedFilesTest() throws Exception {
+        Path srcDir = tempDir.resolve("test-repo/src/main/java");
+        Files.createDirectories(srcDir);
+        String untouched = """
+                public interface Untouched {
+                    int   VALUE = 1; // Odd formatting
+                }
+                """;
+        Files.writeString(srcDir.resolve("Untouched.java"), untouched);
+        FileTime lastModified = FileTime.fromMillis(1_000_000_000_000L);
+        Files.setLastModifiedTime(srcDir.resolve("Untouched.java"), lastModified);
+        Files.writeString(srcDir.resolve("SimpleTestClass.java"), """
+                public class SimpleTestClass {
+                    private   int count;  // Odd formatting
+                    public SimpleTestClass(int count) {
+                        this.count = count;
+                    }
+                    int twice()   { return count*2; } // Kept as is
+                }
+                """);
+        context.setClassPath(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        context.setRepoPath(tempDir.resolve("test-repo").toString());
+
+        stage.execute(context);
+
+        assertEquals(untouched, Files.readString(srcDir.resolve("Untouched.java")));
+        assertEquals(lastModified, Files.getLastModifiedTime(srcDir.resolve("Untouched.java")));
+        String processed = Files.readString(srcDir.resolve("SimpleTestClass.java"));
+        assertTrue(processed.contains("SendConstructorsUtils"));
+        assertTrue(processed.startsWith("public class SimpleTestClass {\n    private   int count;  // Odd formatting\n"));
+        assertTrue(processed.contains("int twice()   { return count*2; } // Kept as is"));
+    }
+
+    // ── Instrumentation cache ─────────────────────────────────────────────────
+
+    /**
+     * A second run on an unchanged copy of the sources must restore the instrumented files
+     * from the cache, with the source root of the new copy in the descriptors.
+     */
+    @Test
+    void restoresUnchangedFilesFromCacheTest() throws Exception {
+        String source = """
+                public class SimpleTestClass {
+                    private int count;
+                    public SimpleTestClass(int count) {
+                        this.count = count;
+                    }
+                }
+                """;
+        Path firstSrcDir = Files.createDirectories(tempDir.resolve("first-repo/src/main/java"));
+        Files.writeString(firstSrcDir.resolve("SimpleTestClass.java"), source);
+        Path secondSrcDir = Files.createDirectories(tempDir.resolve("second-repo/src/main/java"));
+        Files.writeString(secondSrcDir.resolve("SimpleTestClass.java"), source);
+        Config.getInstance().getExecutionPlan().setInstrumentationCacheDirForTests(tempDir.resolve("cache").toString());
+        context.setClassPath(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+
+        context.setRepoPath(tempDir.resolve("first-repo").toString());
+        stage.execute(context);
+        context.setRepoPath(tempDir.resolve("second-repo").toString());
+        stage.execute(context);
+
+        String first = Files.readString(firstSrcDir.resolve("SimpleTestClass.java"));
+        String second = Files.readString(secondSrcDir.resolve("SimpleTestClass.java"));
+        assertTrue(second.contains("SendConstructorsUtils"));
+        assertEquals(first.replace(firstSrcDir.toAbsolutePath().normalize().toString(), secondSrcDir.toAbsolutePath().normalize().toString()), second);
+    }
+
+    /**
+     * After one file changed, the files restored from the cache, with the source root and
+     * commit of the new run, and the files printed by Spoon from a model where the cached
+     * types are only on the source classpath must be the ones of a full instrumentation.
+     */
+    @Test
+    void mixesRestoredAndInstrumentedFilesAfterChangeTest() throws Exception {
+        String changed = """
+                package com.example.a;
+                import com.example.b.*;
+                public class Changed {
+                    private Cached cached;
+                    public Changed(Cached cached) {
+                        this.cached = cached;
+                    }
+                }
+                """;
+        String cached = """
+                package com.example.b;
+                public class Cached {
+                    private int count;
+                    public Cached(int count) {
+                        this.count = count;
+                    }
+                }
+                """;
+        writeSources(tempDir.resolve("first-repo"), changed, cached);
+        Path secondSrcDir = writeSources(tempDir.resolve("second-repo"), changed.replace("this.cached = cached;", "this.cached = new Cached(1);"), cached);
+        Path freshSrcDir = writeSources(tempDir.resolve("fresh-repo"), changed.replace("this.cached = cached;", "this.cached = new Cached(1);"), cached);
+        context.setClassPath(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        Config.ExecutionPlanConfig executionPlan = Config.getInstance().getExecutionPlan();
+
+        executionPlan.setInstrumentationCacheDirForTests(tempDir.resolve("cache").toString());
+        context.setRepoPath(tempDir.resolve("first-repo").toString());
+        stage.execute(context);
+        Config.getInstance().getRepo().setCommitForTests("def456");
+        context.setRepoPath(tempDir.resolve("second-repo").toString());
+        stage.execute(context);
+        executionPlan.setInstrumentationCacheDirForTests(null);
+        context.setRepoPath(tempDir.resolve("fresh-repo").toString());
+        stage.execute(context);
+
+        for (String file : List.of("com/example/a/Changed.java", "com/example/b/Cached.java")) {
+            String second = Files.readString(secondSrcDir.resolve(file));
+            String fresh = Files.readString(freshSrcDir.resolve(file));
+            assertTrue(second.contains("\"def456\""), file);
+            assertFalse(second.contains("abc123"), file);
+            assertEquals(fresh.replace(freshSrcDir.toAbsolutePath().normalize().toString(), secondSrcDir.toAbsolutePath().normalize().toString()), second, file);
+        }
+        assertTrue(Files.readString(secondSrcDir.resolve("com/example/a/Changed.java")).contains("\"com.example.b.Cached\""));
+    }
+
+    // ── Parallel instrumentation ──────────────────────────────────────────────
+
+    /**
+     * With several launchers, the files of each package must be instrumented, including the
+     * ones referencing a type instrumented by another launcher.
+     */
+    @Test
+    void instrumentsPartitionsInParallelTest() throws Exception {
+        Path srcDir = tempDir.resolve("test-repo/src/main/java");
+        Files.createDirectories(srcDir.resolve("com/example/a"));
+        Files.createDirectories(srcDir.resolve("com/example/b"));
+        Files.writeString(srcDir.resolve("com/example/a/First.java"), """
+                package com.example.a;
+                public class First {
+                    private int count;
+                    public First(int count) {
+                        this.count = count;
+                    }
+                }
+                """);
+        Files.writeString(srcDir.resolve("com/example/b/Second.java"), """
+                package com.example.b;
+                import com.example.a.First;
+                public class Second {
+                    private First first;
+                    public Second(int count) {
+                        this.first = new First(count);
+                    }
+                }
+                """);
+        Config.getInstance().getExecutionPlan().setSpoonParallelismForTests(2);
+        context.setClassPath(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        context.setRepoPath(tempDir.resolve("test-repo").toString());
+
+        assertDoesNotThrow(() -> stage.execute(context));
+
+        assertTrue(Files.readString(srcDir.resolve("com/example/a/First.java")).contains("SendConstructorsUtils"));
+        assertTrue(Files.readString(srcDir.resolve("com/example/b/Second.java")).contains("SendConstructorsUtils"));
+        try (var files = Files.walk(srcDir)) {
+            assertEquals(2, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    /**
+     * The files printed by concurrent launchers must be the ones printed by a single launcher,
+     * descriptor holders included, with the types of the other partitions resolved through
+     * the source classpath.
+     */
+    @Test
+    void parallelInstrumentationMatchesSingleLauncherTest() throws Exception {
+        Map<String, String> sources = Map.of(
+                "com/example/a/First.java", """
+                        package com.example.a;
+                        import com.example.b.*;
+                        public class First {
+                            private Second second;
+                            public First(Second second) {
+                                this.second = second;
+                            }
+                            public class Inner {
+                                private int value;
+                                public Inner(int value) {
+                                    this.value = value;
+                                }
+                            }
+                        }
+                        """,
+                "com/example/b/Second.java", """
+                        package com.example.b;
+                        import com.example.c.*;
+                        public class Second {
+                            private Third third;
+                            public Second(int count) {
+                                this.third = new Third(count);
+                            }
+                        }
+                        """,
+                "com/example/c/Third.java", """
+                        package com.example.c;
+                        public class Third {
+                            private int count;
+                            public Third(int count) {
+                                this.count = count;
+                            }
+                            public Third() {
+                                this(0);
+                            }
+                        }
+                        """,
+                "com/example/c/Level.java", """
+                        package com.example.c;
+                        public enum Level {
+                            LOW(1), HIGH(2);
+                            private final int weight;
+                            Level(int weight) {
+                                this.weight = weight;
+                            }
+                        }
+                        """);
+        Path parallelSrcDir = tempDir.resolve("parallel-repo/src/main/java");
+        Path singleSrcDir = tempDir.resolve("single-repo/src/main/java");
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            for (Path srcDir : List.of(parallelSrcDir, singleSrcDir)) {
+                Files.createDirectories(srcDir.resolve(source.getKey()).getParent());
+                Files.writeString(srcDir.resolve(source.getKey()), source.getValue());
+            }
+        }
+        List<Path> parallelFiles = sources.keySet().stream().map(parallelSrcDir::resolve).toList();
+        assertEquals(3, new SourcePartitioner().partition(parallelSrcDir, parallelFiles, 3).size());
+        context.setClassPath(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+
+        Config.getInstance().getExecutionPlan().setSpoonParallelismForTests(3);
+        context.setRepoPath(tempDir.resolve("parallel-repo").toString());
+        stage.execute(context);
+        Config.getInstance().getExecutionPlan().setSpoonParallelismForTests(1);
+        context.setRepoPath(tempDir.resolve("single-repo").toString());
+        stage.execute(context);
+
+        for (String file : sources.keySet()) {
+            String parallel = Files.readString(parallelSrcDir.resolve(file));
+            String single = Files.readString(singleSrcDir.resolve(file));
+            assertTrue(parallel.contains("__SentinelConstructorDescriptors"), file);
+            assertEquals(single.replace(singleSrcDir.toAbsolutePath().normalize().toString(), parallelSrcDir.toAbsolutePath().normalize().toString()), parallel, file);
+        }
+        assertTrue(Files.readString(parallelSrcDir.resolve("com/example/a/First.java")).contains("\"com.example.b.Second\""));
+    }
+
+    private static Path writeSources(Path repo, String changed, String cached) throws Exception {
+        Path srcDir = repo.resolve("src/main/java");
+        Files.createDirectories(srcDir.resolve("com/example/a"));
+        Files.createDirectories(srcDir.resolve("com/example/b"));
+        Files.writeString(srcDir.resolve("com/example/a/Changed.java"), changed);
+        Files.writeString(srcDir.resolve("com/example/b/Cached.java"), cached);
+        return srcDir;
+    }
 }
\ No newline at end of file
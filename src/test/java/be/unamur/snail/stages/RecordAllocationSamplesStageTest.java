@@ -0,0 +1,112 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.logging.ConsolePipelineLogger;
+import be.unamur.snail.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordAllocationSamplesStageTest {
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        Config.reset();
+    }
+
+    @Test
+    void buildSettingsShouldEnableAllocationSamplesWithStackTracesTest() {
+        String settings = RecordAllocationSamplesStage.buildSettings(null);
+
+        assertTrue(settings.contains("<event name=\"jdk.ObjectAllocationSample\">"));
+        assertTrue(settings.contains("<setting name=\"stackTrace\">true</setting>"));
+        assertTrue(settings.contains("<setting name=\"throttle\">150/s</setting>"));
+    }
+
+    @Test
+    void buildSettingsShouldUseConfiguredSamplingRateTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setAllocationSamplingRateForTests("20/ms");
+
+        assertTrue(RecordAllocationSamplesStage.buildSettings(instrumentation).contains("<setting name=\"throttle\">20/ms</setting>"));
+    }
+
+    @Test
+    void buildRecordingOptionShouldWriteRecordingsInDirectoryTest() {
+        Path recordingsDir = Path.of("/repo/sentinel-jfr");
+
+        assertEquals("settings=/repo/sentinel-jfr/sentinel-allocations.jfc,filename=/repo/sentinel-jfr",
+                RecordAllocationSamplesStage.buildRecordingOption(recordingsDir.resolve(RecordAllocationSamplesStage.SETTINGS_FILE_NAME), recordingsDir));
+    }
+
+    @Test
+    void resolveRecordingsDirectoryTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        assertEquals(Path.of("/repo/sentinel-jfr"), RecordAllocationSamplesStage.resolveRecordingsDirectory(null, "/repo"));
+
+        instrumentation.setAllocationRecordingsDirForTests("build/jfr");
+        assertEquals(Path.of("/repo/build/jfr"), RecordAllocationSamplesStage.resolveRecordingsDirectory(instrumentation, "/repo"));
+
+        instrumentation.setAllocationRecordingsDirForTests("/absolute/jfr");
+        assertEquals(Path.of("/absolute/jfr"), RecordAllocationSamplesStage.resolveRecordingsDirectory(instrumentation, "/repo"));
+    }
+
+    @Test
+    void listRecordingsShouldOnlyReturnRecordingsTest() throws Exception {
+        Files.writeString(tempDir.resolve("hotspot-pid-2.jfr"), "");
+        Files.writeString(tempDir.resolve("hotspot-pid-1.jfr"), "");
+        Files.writeString(tempDir.resolve(RecordAllocationSamplesStage.SETTINGS_FILE_NAME), "");
+
+        assertEquals(List.of(tempDir.resolve("hotspot-pid-1.jfr"), tempDir.resolve("hotspot-pid-2.jfr")),
+                RecordAllocationSamplesStage.listRecordings(tempDir));
+        assertEquals(List.of(), RecordAllocationSamplesStage.listRecordings(tempDir.resolve("missing")));
+    }
+
+    @Test
+    void recordsAllocationsWithArgLineOfPomTest() throws Exception {
+        Path pom = Files.writeString(tempDir.resolve("pom.xml"), """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <properties>
+                        <argLine>-Xmx1g</argLine>
+                    </properties>
+                </project>
+                """);
+        Path arguments = tempDir.resolve("arguments.txt");
+        Path yaml = tempDir.resolve("config-with-command.yaml");
+        Files.writeString(yaml, """
+            project:
+              name: "test-project"
+              owner: "test-owner"
+              sub-project: ""
+            repo:
+              url: "https://example.com/repo.git"
+              commit: "abc123"
+              target-dir: "/tmp/repo"
+            log:
+              level: "DEBUG"
+            execution-plan:
+              test-command: "echo > %s"
+        """.formatted(arguments));
+        Config.load(yaml.toString());
+        Context context = new Context();
+        context.setLogger(new ConsolePipelineLogger(RecordAllocationSamplesStage.class));
+        Utils.setPipelineLogger(context.getLogger());
+        context.setRepoPath(tempDir.toString());
+
+        new RecordAllocationSamplesStage().execute(context);
+
+        Path recordingsDir = tempDir.resolve(RecordAllocationSamplesStage.DEFAULT_RECORDINGS_DIR);
+        assertEquals("-DargLine=-Xmx1g -XX:StartFlightRecording=" + RecordAllocationSamplesStage.buildRecordingOption(recordingsDir.resolve(RecordAllocationSamplesStage.SETTINGS_FILE_NAME), recordingsDir),
+                Files.readString(arguments).trim());
+        assertTrue(Files.readString(pom).contains("<argLine>-Xmx1g</argLine>"));
+    }
+}
@@ -0,0 +1,155 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.exceptions.SourceFileNotFoundException;
+import be.unamur.snail.logging.ConsolePipelineLogger;
+import be.unamur.snail.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordConstructorCoverageStageTest {
+    @TempDir
+    Path tempDir;
+
+    private RecordConstructorCoverageStage stage;
+    private Context context;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stage = new RecordConstructorCoverageStage();
+        context = new Context();
+        context.setLogger(new ConsolePipelineLogger(RecordConstructorCoverageStage.class));
+
+        Path yaml = tempDir.resolve("config.yaml");
+        Files.writeString(yaml, """
+            project:
+              name: "test-project"
+              owner: "test-owner"
+              sub-project: ""
+            repo:
+              url: "https://example.com/repo.git"
+              commit: "abc123"
+              target-dir: "/tmp/repo"
+            log:
+              level: "DEBUG"
+            instrumentation:
+              coverage-enabled: true
+        """);
+        Config.load(yaml.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        Config.reset();
+    }
+
+    @Test
+    void throwsMissingContextKeyExceptionWhenRepoPathIsNullTest() {
+        assertThrows(MissingContextKeyException.class, () -> stage.execute(context));
+    }
+
+    @Test
+    void throwsWhenConfiguredExecFileIsMissingTest() {
+        Config.getInstance().getInstrumentation().setCoverageExecFileForTests("target/jacoco.exec");
+        context.setRepoPath(tempDir.toString());
+
+        assertThrows(SourceFileNotFoundException.class, () -> stage.execute(context));
+    }
+
+    @Test
+    void instrumentsEveryConstructorWithoutCompiledClassesTest() throws Exception {
+        Files.createDirectories(tempDir.resolve("target"));
+        Files.writeString(tempDir.resolve("target/jacoco.exec"), "");
+        Config.getInstance().getInstrumentation().setCoverageExecFileForTests("target/jacoco.exec");
+        context.setRepoPath(tempDir.toString());
+
+        stage.execute(context);
+
+        assertNull(context.getExecutedConstructors());
+    }
+
+    @Test
+    void buildAgentArgumentTest() {
+        assertEquals("/tmp/jacocoagent.jar=destfile=/repo/sentinel-coverage/jacoco.exec,append=true,includes=com.example.*",
+                RecordConstructorCoverageStage.buildAgentArgument("/tmp/jacocoagent.jar", Path.of("/repo/sentinel-coverage/jacoco.exec"), "com.example"));
+        assertEquals("/tmp/jacocoagent.jar=destfile=/repo/jacoco.exec,append=true",
+                RecordConstructorCoverageStage.buildAgentArgument("/tmp/jacocoagent.jar", Path.of("/repo/jacoco.exec"), null));
+    }
+
+    @Test
+    void resolveExecFileTest() {
+        assertEquals(Path.of("/repo/target/jacoco.exec"), RecordConstructorCoverageStage.resolveExecFile("target/jacoco.exec", "/repo"));
+        assertEquals(Path.of("/other/jacoco.exec"), RecordConstructorCoverageStage.resolveExecFile("/other/jacoco.exec", "/repo"));
+    }
+
+    @Test
+    void findBuildClassesDirectoriesOfMavenAndGradleTest() throws Exception {
+        Files.createDirectories(tempDir.resolve("maven/target/classes"));
+        Files.createDirectories(tempDir.resolve("gradle/build/classes/java/main"));
+
+        assertEquals(List.of(tempDir.resolve("maven/target/classes")),
+                RecordConstructorCoverageStage.findBuildClassesDirectories(tempDir.resolve("maven/target/jacoco.exec")));
+        assertEquals(List.of(tempDir.resolve("gradle/build/classes/java/main")),
+                RecordConstructorCoverageStage.findBuildClassesDirectories(tempDir.resolve("gradle/build/jacoco/test.exec")));
+        assertEquals(List.of(), RecordConstructorCoverageStage.findBuildClassesDirectories(tempDir.resolve("jacoco.exec")));
+    }
+
+    @Test
+    void isCoverageEnabledTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        assertFalse(RecordConstructorCoverageStage.isCoverageEnabled(null));
+        assertFalse(RecordConstructorCoverageStage.isCoverageEnabled(instrumentation));
+
+        instrumentation.setCoverageEnabledForTests(true);
+        assertTrue(RecordConstructorCoverageStage.isCoverageEnabled(instrumentation));
+    }
+
+    @Test
+    void recordsCoverageWithArgLineOfPomTest() throws Exception {
+        Path pom = Files.writeString(tempDir.resolve("pom.xml"), """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <properties>
+                        <argLine>-Xmx1g</argLine>
+                    </properties>
+                </project>
+                """);
+        Path arguments = tempDir.resolve("arguments.txt");
+        Path yaml = tempDir.resolve("config-with-command.yaml");
+        Files.writeString(yaml, """
+            project:
+              name: "test-project"
+              owner: "test-owner"
+              sub-project: ""
+            repo:
+              url: "https://example.com/repo.git"
+              commit: "abc123"
+              target-dir: "/tmp/repo"
+            log:
+              level: "DEBUG"
+            execution-plan:
+              test-command: "echo > %s"
+            instrumentation:
+              coverage-enabled: true
+        """.formatted(arguments));
+        Config.load(yaml.toString());
+        Utils.setPipelineLogger(context.getLogger());
+        context.setRepoPath(tempDir.toString());
+
+        stage.execute(context);
+
+        String argument = Files.readString(arguments).trim();
+        assertTrue(argument.startsWith("-DargLine=-Xmx1g -javaagent:"), argument);
+        assertTrue(argument.endsWith("=destfile=" + tempDir.resolve("sentinel-coverage/jacoco.exec") + ",append=true"), argument);
+        assertTrue(Files.readString(pom).contains("<argLine>-Xmx1g</argLine>"));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package be.unamur.snail.stages;
+
+import be.unamur.snail.core.Config;
+import be.unamur.snail.core.Context;
+import be.unamur.snail.exceptions.MissingContextKeyException;
+import be.unamur.snail.logging.ConsolePipelineLogger;
+import be.unamur.snail.services.SpoolFileReader;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorContext;
+import be.unamur.snail.spoon.constructor_instrumentation.ConstructorContextSender;
+import be.unamur.snail.spoon.constructor_instrumentation.SpoolFileConstructorContextSender;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class ReplaySpoolFilesStageTest {
+    @TempDir
+    Path tempDir;
+    private Context context;
+    private Config.InstrumentationConfig instrumentation;
+    private ConstructorContextSender sender;
+    private ReplaySpoolFilesStage stage;
+
+    @BeforeEach
+    void setUp() {
+        context = mock(Context.class);
+        when(context.getRepoPath()).thenReturn(tempDir.toString());
+        when(context.getLogger()).thenReturn(new ConsolePipelineLogger(ReplaySpoolFilesStage.class));
+
+        Config config = new Config();
+        instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setSenderForTests("spool");
+        config.setInstrumentationForTests(instrumentation);
+        Config.setInstanceForTests(config);
+
+        sender = mock(ConstructorContextSender.class);
+        stage = new ReplaySpoolFilesStage(new SpoolFileReader(), sender, null);
+    }
+
+    private void writeSpoolFile(String name, int events, Map<String, Long> occurrences) {
+        SpoolFileConstructorContextSender spool = new SpoolFileConstructorContextSender(tempDir.resolve("sentinel-spool").resolve(name).toFile(), 4096);
+        for (int i = 0; i < events; i++) {
+            spool.send(new ConstructorContext().withClassName("Class" + i).withStackTrace(new ArrayList<>()));
+        }
+        spool.sendOccurrences(occurrences);
+        spool.close();
+    }
+
+    @Test
+    void executeSendsEveryFileInBatchesTest() throws Exception {
+        instrumentation.setReplayBatchSizeForTests(4);
+        writeSpoolFile("a.spool", 10, Map.of("key", 2L));
+        writeSpoolFile("b.spool", 3, Map.of("other", 5L));
+
+        stage.execute(context);
+
+        ArgumentCaptor<List<ConstructorContext>> batches = ArgumentCaptor.forClass(List.class);
+        verify(sender, times(4)).sendBatch(batches.capture());
+        assertEquals(List.of(4, 4, 2, 3), batches.getAllValues().stream().map(List::size).toList());
+        verify(sender).sendOccurrences(Map.of("key", 2L));
+        verify(sender).sendOccurrences(Map.of("other", 5L));
+    }
+
+    @Test
+    void executeKeepsTheLastOccurrencesOfAFileTest() throws Exception {
+        SpoolFileConstructorContextSender spool = new SpoolFileConstructorContextSender(tempDir.resolve("sentinel-spool").resolve("a.spool").toFile(), 4096);
+        spool.sendOccurrences(Map.of("key", 2L));
+        spool.sendOccurrences(Map.of("key", 7L));
+        spool.close();
+
+        stage.execute(context);
+
+        verify(sender).sendOccurrences(Map.of("key", 7L));
+        verify(sender, never()).sendBatch(anyList());
+    }
+
+    @Test
+    void executeIgnoresOtherFilesTest() throws Exception {
+        writeSpoolFile("a.spool", 1, Map.of());
+        java.nio.file.Files.writeString(tempDir.resolve("sentinel-spool").resolve("notes.txt"), "not a spool file");
+
+        assertDoesNotThrow(() -> stage.execute(context));
+        verify(sender, times(1)).sendBatch(anyList());
+    }
+
+    @Test
+    void executeUsesDefaultRepoPathWhenContextHasNoneTest() throws Exception {
+        writeSpoolFile("a.spool", 2, Map.of());
+        when(context.getRepoPath()).thenReturn(null);
+        stage = new ReplaySpoolFilesStage(new SpoolFileReader(), sender, tempDir.toString());
+
+        stage.execute(context);
+
+        verify(sender, times(1)).sendBatch(anyList());
+    }
+
+    @Test
+    void executeThrowsWithoutRepoPathTest() {
+        when(context.getRepoPath()).thenReturn(null);
+        assertThrows(MissingContextKeyException.class, () -> stage.execute(context));
+    }
+
+    @Test
+    void executeDoesNothingWithoutSpoolDirectoryTest() throws Exception {
+        stage.execute(context);
+        verifyNoInteractions(sender);
+    }
+
+    @Test
+    void resolveSpoolDirectoryTest() {
+        assertEquals(tempDir.resolve("sentinel-spool"), ReplaySpoolFilesStage.resolveSpoolDirectory(null, tempDir.toString()));
+
+        instrumentation.setSpoolDirForTests("spool/files");
+        assertEquals(tempDir.resolve("spool/files"), ReplaySpoolFilesStage.resolveSpoolDirectory(instrumentation, tempDir.toString()));
+
+        instrumentation.setSpoolDirForTests(tempDir.resolve("absolute").toString());
+        assertEquals(tempDir.resolve("absolute"), ReplaySpoolFilesStage.resolveSpoolDirectory(instrumentation, "/elsewhere"));
+    }
+
+    @Test
+    void isSpoolSenderConfiguredTest() {
+        assertTrue(ReplaySpoolFilesStage.isSpoolSenderConfigured(instrumentation));
+        instrumentation.setSenderForTests("http");
+        assertFalse(ReplaySpoolFilesStage.isSpoolSenderConfigured(instrumentation));
+        assertFalse(ReplaySpoolFilesStage.isSpoolSenderConfigured(null));
+    }
+}
@@ -8,11 +8,20 @@ import be.unamur.snail.logging.ConsolePipelineLogger;
 import be.unamur.snail.utils.Utils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class RunInstrumentedProjectTestsStageTest {
@@ -118,4 +127,227 @@ class RunInstrumentedProjectTestsStageTest {
         when(context.getRepoPath()).thenReturn("");
         assertThrows(MissingContextKeyException.class, () -> stage.execute(context));
     }
+
+    @Test
+    void buildInstrumentationPropertiesReturnsEmptyListWhenSectionIsMissingTest() {
+        assertTrue(stage.buildInstrumentationProperties(null).isEmpty());
+    }
+
+    @Test
+    void buildInstrumentationPropertiesOnlyContainsSetValuesTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setDispatcherModeForTests("async");
+        instrumentation.setQueueSizeForTests(2000);
+        instrumentation.setShutdownTimeoutMsForTests(10000L);
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.dispatcher.mode=async",
+                "-Dsentinel.dispatcher.queueSize=2000",
+                "-Dsentinel.dispatcher.shutdownTimeoutMs=10000"
+        ), properties);
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsThreadBufferSizeTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setThreadBufferSizeForTests(64);
+        instrumentation.setPrintStatisticsForTests(true);
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.dispatcher.threadBufferSize=64",
+                "-Dsentinel.dispatcher.printStatistics=true"
+        ), properties);
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsWireFormatTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setInternStackTracesForTests(true);
+        instrumentation.setWireFormatForTests("binary");
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.wire.internStackTraces=true",
+                "-Dsentinel.wire.format=binary"
+        ), properties);
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsArenaSettingsTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setArenaEnabledForTests(true);
+        instrumentation.setArenaSegmentSizeForTests(65536);
+        instrumentation.setArenaMaxSizeForTests(8388608L);
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.arena.enabled=true",
+                "-Dsentinel.arena.segmentSize=65536",
+                "-Dsentinel.arena.maxSize=8388608"
+        ), properties);
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsCaptureLevelsTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setCaptureLevelForTests("caller");
+        Map<String, String> packageLevels = new LinkedHashMap<>();
+        packageLevels.put("com.example.model", "count");
+        packageLevels.put("com.example.core", "full");
+        instrumentation.setPackageCaptureLevelsForTests(packageLevels);
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.capture.level=caller",
+                "-Dsentinel.capture.packageLevels=com.example.model=count,com.example.core=full"
+        ), properties);
+    }
+
+    @Test
+    void resolveSharedDedupFileTest(@TempDir Path tempDir) throws Exception {
+        assertEquals(tempDir.resolve("build/sentinel-dedup.keys").toFile(), stage.resolveSharedDedupFile(tempDir.toFile()));
+
+        Files.createFile(tempDir.resolve("pom.xml"));
+        assertEquals(tempDir.resolve("target/sentinel-dedup.keys").toFile(), stage.resolveSharedDedupFile(tempDir.toFile()));
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsSharedDedupSizeTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setSharedDedupEnabledForTests(true);
+        instrumentation.setSharedDedupExpectedKeysForTests(5000);
+
+        assertEquals(List.of("-Dsentinel.dedup.sharedExpectedKeys=5000"), stage.buildInstrumentationProperties(instrumentation));
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsMetricsEnabledTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setMetricsEnabledForTests(true);
+        instrumentation.setMetricsDirForTests("metrics");
+
+        assertEquals(List.of("-Dsentinel.metrics.enabled=true"), stage.buildInstrumentationProperties(instrumentation));
+    }
+
+    @Test
+    void buildAgentArgumentContainsPackagePrefixAndCommitTest() {
+        Config realConfig = new Config();
+        Config.ProjectConfig project = new Config.ProjectConfig();
+        project.setNameForTests("checkstyle");
+        project.setOwnerForTests("checkstyle");
+        project.setPackagePrefixForTests("com.puppycrawl");
+        realConfig.setProjectForTests(project);
+        Config.RepoConfig repo = new Config.RepoConfig();
+        repo.setCommitForTests("abc123");
+        realConfig.setRepoForTests(repo);
+
+        assertEquals(Path.of("/tools/agent.jar") + "=packagePrefix=com.puppycrawl,commit=abc123,project=checkstyle,owner=checkstyle",
+                RunInstrumentedProjectTestsStage.buildAgentArgument("/tools/agent.jar", realConfig));
+    }
+
+    @Test
+    void resolveCaptureCountsDirectoryTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        assertEquals(Path.of("/repo/sentinel-counts"), RunInstrumentedProjectTestsStage.resolveCaptureCountsDirectory(null, "/repo"));
+
+        instrumentation.setCaptureCountsDirForTests("build/counts");
+        assertEquals(Path.of("/repo/build/counts"), RunInstrumentedProjectTestsStage.resolveCaptureCountsDirectory(instrumentation, "/repo"));
+
+        instrumentation.setCaptureCountsDirForTests("/absolute/counts");
+        assertEquals(Path.of("/absolute/counts"), RunInstrumentedProjectTestsStage.resolveCaptureCountsDirectory(instrumentation, "/repo"));
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsCapturePoliciesTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setSampleRateForTests(10);
+        instrumentation.setMaxTracesPerConstructorForTests(50);
+        instrumentation.setMaxEventsPerSecondForTests(1000);
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.capture.sampleRate=10",
+                "-Dsentinel.capture.maxTracesPerConstructor=50",
+                "-Dsentinel.capture.maxEventsPerSecond=1000"
+        ), properties);
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsSenderTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setSenderForTests("spool");
+        instrumentation.setSpoolDirForTests("spool");
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        // The spool directory is resolved against the analyzed project by execute
+        assertEquals(List.of("-Dsentinel.sender=spool"), properties);
+    }
+
+    @Test
+    void buildInstrumentationPropertiesContainsHttpSettingsTest() {
+        Config.InstrumentationConfig instrumentation = new Config.InstrumentationConfig();
+        instrumentation.setHttpGzipForTests(true);
+        instrumentation.setHttpMaxInFlightForTests(4);
+        instrumentation.setHttpMaxRetriesForTests(5);
+        instrumentation.setHttpRetryBackoffMsForTests(100L);
+
+        List<String> properties = stage.buildInstrumentationProperties(instrumentation);
+
+        assertEquals(List.of(
+                "-Dsentinel.http.gzip=true",
+                "-Dsentinel.http.maxInFlight=4",
+                "-Dsentinel.http.maxRetries=5",
+                "-Dsentinel.http.retryBackoffMs=100"
+        ), properties);
+    }
+
+    @Test
+    void executeKeepsArgLineOfPomWhenAttachingAgentTest(@TempDir Path tempDir) throws Exception {
+        Path pom = Files.writeString(tempDir.resolve("pom.xml"), """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <artifactId>maven-surefire-plugin</artifactId>
+                                <configuration>
+                                    <argLine>-Xmx1g</argLine>
+                                </configuration>
+                            </plugin>
+                        </plugins>
+                    </build>
+                </project>
+                """);
+        when(context.getRepoPath()).thenReturn(tempDir.toString());
+        when(executionPlanConfig.getTestCommand()).thenReturn("mvn test");
+        Config.ProjectConfig projectConfig = new Config.ProjectConfig();
+        projectConfig.setPackagePrefixForTests("com.example");
+        when(config.getProject()).thenReturn(projectConfig);
+        Config.RepoConfig repoConfig = new Config.RepoConfig();
+        repoConfig.setCommitForTests("abc123");
+        when(config.getRepo()).thenReturn(repoConfig);
+        when(config.getBackend()).thenReturn(mock(Config.BackendConfig.class));
+        RunInstrumentedProjectTestsStage agentStage = new RunInstrumentedProjectTestsStage("/tools/agent.jar");
+
+        try (MockedStatic<Utils> utilsMock = Mockito.mockStatic(Utils.class);
+             MockedStatic<Config> configMock = mockStatic(Config.class)) {
+            utilsMock.when(() -> Utils.runCommand(anyString(), anyString())).thenReturn(new Utils.CompletedProcess("mvn test", 0, "", ""));
+            configMock.when(Config::getInstance).thenReturn(config);
+
+            agentStage.execute(context);
+
+            utilsMock.verify(() -> Utils.runCommand(
+                    contains(" -DsentinelArgLine='-javaagent:" + Path.of("/tools/agent.jar") + "=packagePrefix=com.example,commit=abc123'"),
+                    eq(tempDir.toString())));
+        }
+        assertTrue(Files.readString(pom).contains("<argLine>-Xmx1g ${sentinelArgLine}</argLine>"));
+    }
 }
\ No newline at end of file
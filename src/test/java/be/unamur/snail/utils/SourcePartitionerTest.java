@@ -0,0 +1,89 @@
+package be.unamur.snail.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourcePartitionerTest {
+    private static final Path SOURCE_ROOT = Path.of("/repo/src/main/java");
+
+    private SourcePartitioner partitioner;
+
+    @BeforeEach
+    void setUp() {
+        partitioner = new SourcePartitioner();
+    }
+
+    private static Path file(String relativePath) {
+        return SOURCE_ROOT.resolve(relativePath);
+    }
+
+    @Test
+    void returnsSinglePartitionWhenParallelismIsOneTest() {
+        List<Path> files = List.of(file("com/example/a/A.java"), file("com/example/b/B.java"));
+        assertEquals(List.of(files), partitioner.partition(SOURCE_ROOT, files, 1));
+    }
+
+    @Test
+    void returnsNoPartitionWithoutFilesTest() {
+        assertTrue(partitioner.partition(SOURCE_ROOT, List.of(), 4).isEmpty());
+    }
+
+    @Test
+    void keepsPackagesTogetherTest() {
+        List<Path> files = List.of(
+                file("com/example/a/A1.java"), file("com/example/b/B1.java"),
+                file("com/example/a/A2.java"), file("com/example/b/B2.java"));
+
+        List<List<Path>> partitions = partitioner.partition(SOURCE_ROOT, files, 2);
+
+        assertEquals(2, partitions.size());
+        assertTrue(partitions.contains(List.of(file("com/example/a/A1.java"), file("com/example/a/A2.java"))));
+        assertTrue(partitions.contains(List.of(file("com/example/b/B1.java"), file("com/example/b/B2.java"))));
+    }
+
+    @Test
+    void keepsSubPackagesWithTheirPackageWhenBalancedTest() {
+        List<Path> files = List.of(
+                file("org/one/A.java"), file("org/one/sub/B.java"),
+                file("org/two/C.java"), file("org/two/sub/D.java"));
+
+        List<List<Path>> partitions = partitioner.partition(SOURCE_ROOT, files, 2);
+
+        assertTrue(partitions.contains(List.of(file("org/one/A.java"), file("org/one/sub/B.java"))));
+        assertTrue(partitions.contains(List.of(file("org/two/C.java"), file("org/two/sub/D.java"))));
+    }
+
+    @Test
+    void coversEveryFileOnceWithAtMostTheGivenPartitionsTest() {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            files.add(file("com/example/p" + (i % 7) + "/C" + i + ".java"));
+        }
+
+        List<List<Path>> partitions = partitioner.partition(SOURCE_ROOT, files, 4);
+
+        assertEquals(4, partitions.size());
+        List<Path> all = new ArrayList<>();
+        partitions.forEach(all::addAll);
+        assertEquals(files.size(), all.size());
+        assertTrue(all.containsAll(files));
+        for (List<Path> partition : partitions) {
+            assertFalse(partition.isEmpty());
+        }
+    }
+
+    @Test
+    void returnsFewerPartitionsThanPackagesTest() {
+        List<Path> files = List.of(file("com/example/A.java"), file("com/example/B.java"), file("com/example/C.java"));
+
+        List<List<Path>> partitions = partitioner.partition(SOURCE_ROOT, files, 3);
+
+        assertEquals(List.of(files), partitions);
+    }
+}
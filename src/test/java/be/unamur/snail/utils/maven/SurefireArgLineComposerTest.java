@@ -0,0 +1,120 @@
+package be.unamur.snail.utils.maven;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SurefireArgLineComposerTest {
+    @TempDir
+    Path tempDir;
+    private SurefireArgLineComposer composer;
+
+    @BeforeEach
+    void setUp() {
+        composer = new SurefireArgLineComposer();
+    }
+
+    @Test
+    void buildArgumentWithoutPomSetsArgLineTest() {
+        assertEquals("-DargLine='-javaagent:agent.jar'", composer.buildArgument(tempDir, "-javaagent:agent.jar"));
+    }
+
+    @Test
+    void buildArgumentAppendsToArgLinePropertyTest() throws Exception {
+        String content = """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <properties>
+                        <argLine>-Xmx1g -Dfile.encoding=UTF-8</argLine>
+                    </properties>
+                </project>
+                """;
+        Path pom = Files.writeString(tempDir.resolve("pom.xml"), content);
+
+        assertEquals("-DargLine='-Xmx1g -Dfile.encoding=UTF-8 -javaagent:agent.jar'", composer.buildArgument(tempDir, "-javaagent:agent.jar"));
+        assertEquals(content, Files.readString(pom));
+    }
+
+    @Test
+    void buildArgumentReferencesPropertyFromConfiguredArgLinesTest() throws Exception {
+        Path pom = Files.writeString(tempDir.resolve("pom.xml"), """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <artifactId>maven-surefire-plugin</artifactId>
+                                <configuration>
+                                    <argLine>
+                                        @{argLine}
+                                        -Xshare:off
+                                    </argLine>
+                                </configuration>
+                            </plugin>
+                            <plugin>
+                                <artifactId>maven-failsafe-plugin</artifactId>
+                                <configuration>
+                                    <argLine>-Xmx2g</argLine>
+                                </configuration>
+                            </plugin>
+                        </plugins>
+                    </build>
+                    <profiles>
+                        <profile>
+                            <build>
+                                <plugins>
+                                    <plugin>
+                                        <artifactId>maven-surefire-plugin</artifactId>
+                                        <configuration>
+                                            <argLine>-Xmx1g</argLine>
+                                        </configuration>
+                                    </plugin>
+                                </plugins>
+                            </build>
+                        </profile>
+                    </profiles>
+                </project>
+                """);
+
+        assertEquals("-DsentinelArgLine='-javaagent:agent.jar=commit=abc'", composer.buildArgument(tempDir, "-javaagent:agent.jar=commit=abc"));
+
+        String updated = Files.readString(pom);
+        assertTrue(updated.contains("-Xshare:off ${sentinelArgLine}</argLine>"));
+        assertTrue(updated.contains("<argLine>-Xmx1g ${sentinelArgLine}</argLine>"));
+        assertTrue(updated.contains("<argLine>-Xmx2g</argLine>"));
+        assertTrue(updated.contains("<properties><sentinelArgLine/></properties>"));
+    }
+
+    @Test
+    void buildArgumentDoesNotReferencePropertyTwiceTest() throws Exception {
+        Path pom = Files.writeString(tempDir.resolve("pom.xml"), """
+                <project xmlns="http://maven.apache.org/POM/4.0.0">
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <artifactId>maven-surefire-plugin</artifactId>
+                                <configuration>
+                                    <argLine>-Xmx1g</argLine>
+                                </configuration>
+                            </plugin>
+                        </plugins>
+                    </build>
+                </project>
+                """);
+
+        composer.buildArgument(tempDir, "-javaagent:jacoco.jar");
+        String updated = Files.readString(pom);
+        composer.buildArgument(tempDir, "-javaagent:agent.jar");
+
+        assertEquals(updated, Files.readString(pom));
+        assertTrue(updated.contains("<argLine>-Xmx1g ${sentinelArgLine}</argLine>"));
+    }
+
+    @Test
+    void quoteEscapesSingleQuotesTest() {
+        assertEquals("'-Dname=it'\\''s'", SurefireArgLineComposer.quote("-Dname=it's"));
+    }
+}